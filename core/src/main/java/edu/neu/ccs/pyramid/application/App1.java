@@ -8,9 +8,10 @@ import edu.neu.ccs.pyramid.dataset.*;
 import edu.neu.ccs.pyramid.elasticsearch.ESIndex;
 import edu.neu.ccs.pyramid.elasticsearch.FeatureLoader;
 import edu.neu.ccs.pyramid.feature.*;
-import edu.neu.ccs.pyramid.feature_extraction.NgramEnumerator;
+import edu.neu.ccs.pyramid.feature_extraction.InternedNgramEnumerator;
 import edu.neu.ccs.pyramid.feature_extraction.NgramTemplate;
 import edu.neu.ccs.pyramid.feature_extraction.StumpSelector;
+import edu.neu.ccs.pyramid.regression.regression_tree.StumpScorer;
 import edu.neu.ccs.pyramid.util.BoundedBlockPriorityQueue;
 import edu.neu.ccs.pyramid.util.Pair;
 import edu.neu.ccs.pyramid.util.Serialization;
@@ -114,6 +115,16 @@ public class App1 {
 
 
 
+        if (config.containsKey("index.termVectorBatchSize")){
+            builder.setTermVectorBatchSize(config.getInt("index.termVectorBatchSize"));
+        }
+        if (config.containsKey("index.maxInFlightRequests")){
+            builder.setMaxInFlightRequests(config.getInt("index.maxInFlightRequests"));
+        }
+        if (config.containsKey("index.termVectorCacheDirectory")){
+            builder.setTermVectorCacheDirectory(config.getString("index.termVectorCacheDirectory"));
+        }
+
         if (config.getString("index.clientType").equals("transport")){
             String[] hosts = config.getString("index.hosts").split(Pattern.quote(","));
             String[] ports = config.getString("index.ports").split(Pattern.quote(","));
@@ -238,12 +249,21 @@ public class App1 {
         List<Integer> slops = config.getIntegers("train.feature.ngram.slop");
         boolean inorder = config.getBoolean("train.feature.ngram.inOrder");
         boolean allowDuplicates = config.getBoolean("train.feature.ngram.allowDuplicateWords");
+        int sketchMegabytes = 0;
+        if (config.containsKey("train.feature.ngram.sketchMegabytes")){
+            sketchMegabytes = config.getInt("train.feature.ngram.sketchMegabytes");
+        }
         for (String field: fields){
             for (int n: ns){
                 for (int slop:slops){
                     logger.info("gathering "+n+ "-grams from field "+field+" with slop "+slop+" and minDf "+minDf+ ", (actual frequency threshold = "+minDFrequency+")");
                     NgramTemplate template = new NgramTemplate(field,n,slop);
-                    Multiset<Ngram> ngrams = NgramEnumerator.gatherNgram(index, ids, template, minDFrequency);
+                    Multiset<Ngram> ngrams;
+                    if (sketchMegabytes>0){
+                        ngrams = InternedNgramEnumerator.gatherNgram(index, ids, template, minDFrequency, sketchMegabytes*1024L*1024L);
+                    } else {
+                        ngrams = InternedNgramEnumerator.gatherNgram(index, ids, template, minDFrequency);
+                    }
                     logger.info("gathered "+ngrams.elementSet().size()+ " ngrams");
                     int newCounter = 0;
                     for (Multiset.Entry<Ngram> entry: ngrams.entrySet()){
@@ -414,7 +434,13 @@ public class App1 {
                 throw new IllegalArgumentException("unknown ngramMatchScoreType");
         }
 
-        FeatureLoader.loadFeatures(index, dataSet, featureList, idTranslator, matchScoreType, docFilter, fieldLength);
+        boolean localMatching = config.containsKey("train.feature.ngram.localMatching")
+                && config.getBoolean("train.feature.ngram.localMatching");
+        if (localMatching){
+            FeatureLoader.loadFeaturesLocally(index, dataSet, featureList, idTranslator, matchScoreType, docFilter, fieldLength);
+        } else {
+            FeatureLoader.loadFeatures(index, dataSet, featureList, idTranslator, matchScoreType, docFilter, fieldLength);
+        }
 
         dataSet.setIdTranslator(idTranslator);
         dataSet.setLabelTranslator(labelTranslator);
@@ -934,11 +960,12 @@ public class App1 {
 
         FeatureList featureList = (FeatureList)Serialization.deserialize(new File(metaDataFolder,"feature_list.ser"));
 
+        StumpScorer scorer = new StumpScorer(labels);
         featureList.getAll().stream().parallel()
                 .filter(feature->feature instanceof Ngram).map(feature->(Ngram)feature)
                 .filter(ngram -> ngram.getN()>1 )
                 .forEach(ngram ->{
-                    double[] scores = StumpSelector.scores(index, labels, ngram, idTranslator, matchScoreType, docFilter, fieldLength);
+                    double[] scores = StumpSelector.scores(index, scorer, ngram, idTranslator, matchScoreType, docFilter, fieldLength);
                     for (int l=0;l<numLabels;l++){
                         queues.get(l).add(new Pair<>(ngram, scores[l]));
                     }
@@ -71,13 +71,23 @@ public class App6 {
         MultiLabelClfDataSet testSet = TRECFormat.loadMultiLabelClfDataSet(config.getString("input.testData"),
                 DataSetType.ML_CLF_SEQ_SPARSE, true);
 
-        CMLCRF cmlcrf = new CMLCRF(trainSet);
+        CMLCRF cmlcrf;
+        if (config.containsKey("train.labelPairs.minCount")){
+            int minCount = config.getInt("train.labelPairs.minCount");
+            cmlcrf = new CMLCRF(trainSet, LabelPairs.coOccurring(trainSet, minCount));
+            System.out.println("number of label pairs = "+cmlcrf.getWeights().getNumLabelPairs());
+        } else {
+            cmlcrf = new CMLCRF(trainSet);
+        }
         double gaussianVariance = config.getDouble("train.gaussianVariance");
         cmlcrf.setConsiderPair(true);
         CRFLoss crfLoss = new CRFLoss(cmlcrf, trainSet, gaussianVariance);
 
         int maxIteration = config.getInt("train.maxIteration");
         crfLoss.setRegularizeAll(true);
+        if (config.containsKey("train.posteriorTruncation")){
+            crfLoss.setPosteriorTruncation(config.getDouble("train.posteriorTruncation"));
+        }
         LBFGS optimizer = new LBFGS(crfLoss);
         optimizer.getTerminator().setMaxIteration(maxIteration);
 
@@ -97,7 +97,7 @@ public class AppBRGB {
         Config app1Config = new Config();
         String[] same = {"output.folder","output.trainFolder","output.testFolder","output.validFolder","output.calibrationFolder","output.log",
                 "train.feature.useInitialFeatures","train.feature.categFeature.filter",
-                "train.feature.categFeature.percentThreshold","train.feature.ngram.n","train.feature.ngram.minDf","train.feature.ngram.slop",
+                "train.feature.categFeature.percentThreshold","train.feature.ngram.n","train.feature.ngram.minDf","train.feature.ngram.slop","train.feature.ngram.sketchMegabytes",
                 "train.feature.missingValue",
                 "train.feature.addExternalNgrams","train.feature.externalNgramFile","train.feature.analyzer",
                 "train.feature.ngram.allowDuplicateWords","train.feature.ngram.inOrder",
@@ -106,10 +106,10 @@ public class AppBRGB {
                 "train.feature.useCodeDescription", "train.feature.codeDesc.File", "train.feature.codeDesc.analyzer",
                 "train.feature.codeDesc.matchField", "train.feature.codeDesc.minMatchPercentage","test.considerNewLabel","valid.considerNewLabel","calibration.considerNewLabel","train.label.minDF",
                 "index.indexName","index.clusterName","index.documentType","index.clientType",
-                "index.hosts","index.ports","train.label.field","train.label.filterByPrefix","train.label.filter.prefix",
+                "index.hosts","index.ports","index.termVectorBatchSize","index.maxInFlightRequests","index.termVectorCacheDirectory","train.label.field","train.label.filterByPrefix","train.label.filter.prefix",
                 "train.feature.featureFieldPrefix","train.feature.ngram.extractionFields",
                 "train.splitQuery","test.splitQuery","valid.splitQuery","calibration.splitQuery",
-                "train.feature.ngram.matchScoreType","createTrainSet","createTestSet","createValidSet","createCalibrationSet",
+                "train.feature.ngram.matchScoreType","train.feature.ngram.localMatching","createTrainSet","createTestSet","createValidSet","createCalibrationSet",
                 "train.feature.ngram.selection", "train.feature.ngram.selectPerLabel",
                 "train.label.order","train.useInstanceWeights","train.weight.field","train.feature.normalize"
 
@@ -524,6 +524,9 @@ public class CBMEN {
         optimizer.setBinaryUpdatesPerIter(config.getInt("train.updatesPerIteration"));
         optimizer.setMulticlassUpdatesPerIter(config.getInt("train.updatesPerIteration"));
         optimizer.setSkipDataThreshold(config.getDouble("train.skipDataThreshold"));
+        if (config.containsKey("train.posteriorTruncation")){
+            optimizer.setPosteriorTruncation(config.getDouble("train.posteriorTruncation"));
+        }
         optimizer.setSkipLabelThreshold(config.getDouble("train.skipLabelThreshold"));
 //
 
@@ -478,6 +478,12 @@ public class CBMGB {
         cbmOptimizer.setBinaryUpdatesPerIter(config.getInt("train.updatesPerIteration"));
         cbmOptimizer.setBinaryUpdatesPerIter(config.getInt("train.updatesPerIteration"));
         cbmOptimizer.setSkipDataThreshold(config.getDouble("train.skipDataThreshold"));
+        if (config.containsKey("train.posteriorTruncation")){
+            cbmOptimizer.setPosteriorTruncation(config.getDouble("train.posteriorTruncation"));
+        }
+        if (config.containsKey("train.warmStart")){
+            cbmOptimizer.setWarmStart(config.getBoolean("train.warmStart"));
+        }
         cbmOptimizer.setSkipLabelThreshold(config.getDouble("train.skipLabelThreshold"));
         cbmOptimizer.setSmoothingStrength(config.getDouble("train.smoothStrength"));
         cbmOptimizer.setShrinkage(config.getDouble("train.shrinkage"));
@@ -268,14 +268,18 @@ public class CBMLR {
         stopWatch.start();
         CBM cbm = newCBM(config,trainSet, hyperParameters);
 
-        LRCBMOptimizer optimizer = getOptimizer(config, hyperParameters, cbm, trainSet);
-        System.out.println("Initializing the model");
-        optimizer.initialize();
-        System.out.println("Initialization done");
-
-        for (int iter=1;iter<=hyperParameters.iterations;iter++){
-            System.out.println("Training progress: iteration "+iter );
-            optimizer.iterate();
+        if (config.containsKey("train.shards") && !config.getString("train.shards").isEmpty()){
+            trainSharded(config, hyperParameters, cbm, trainSet);
+        } else {
+            LRCBMOptimizer optimizer = getOptimizer(config, hyperParameters, cbm, trainSet);
+            System.out.println("Initializing the model");
+            optimizer.initialize();
+            System.out.println("Initialization done");
+
+            for (int iter=1;iter<=hyperParameters.iterations;iter++){
+                System.out.println("Training progress: iteration "+iter );
+                optimizer.iterate();
+            }
         }
 
         System.out.println("training done!");
@@ -297,6 +301,46 @@ public class CBMLR {
 //        System.out.println();
     }
 
+    /**
+     * EM on the CBMShardWorkers listed in train.shards; the training set is only used for the label sets
+     * and to check that the shards hold the same number of data points
+     */
+    private static void trainSharded(Config config, HyperParameters hyperParameters, CBM cbm, MultiLabelClfDataSet trainSet) throws Exception{
+        List<ShardClient> shards = new ArrayList<>();
+        for (String address: config.getStrings("train.shards")){
+            shards.add(ShardClient.parse(address.trim()));
+        }
+        try {
+            ShardedCBMOptimizer optimizer = new ShardedCBMOptimizer(cbm, shards);
+            if (optimizer.getNumData()!=trainSet.getNumDataPoints()){
+                throw new IllegalArgumentException("the shards hold "+optimizer.getNumData()+" data points, the training set has "
+                        +trainSet.getNumDataPoints());
+            }
+            optimizer.setPriorVarianceBinary(hyperParameters.variance);
+            optimizer.setPriorVarianceMultiClass(hyperParameters.variance);
+            optimizer.setBinaryUpdatesPerIter(config.getInt("train.updatesPerIteration"));
+            optimizer.setMulticlassUpdatesPerIter(config.getInt("train.updatesPerIteration"));
+            optimizer.setSkipDataThreshold(config.getDouble("train.skipDataThreshold"));
+            if (config.containsKey("train.posteriorTruncation")){
+                optimizer.setPosteriorTruncation(config.getDouble("train.posteriorTruncation"));
+            }
+            optimizer.setSkipLabelThreshold(config.getDouble("train.skipLabelThreshold"));
+            optimizer.setSmoothingStrength(config.getDouble("train.smoothStrength"));
+            System.out.println("Initializing the model on "+shards.size()+" shards");
+            optimizer.initialize(0);
+            System.out.println("Initialization done");
+
+            for (int iter=1;iter<=hyperParameters.iterations;iter++){
+                System.out.println("Training progress: iteration "+iter );
+                optimizer.iterate();
+            }
+        } finally {
+            for (ShardClient shard: shards){
+                shard.close();
+            }
+        }
+    }
+
     private static void test(Config config) throws Exception{
         MultiLabelClfDataSet testSet = TRECFormat.loadMultiLabelClfDataSetAutoSparseSequential(config.getString("input.testData"));
 
@@ -323,6 +367,9 @@ public class CBMLR {
         stopWatch.start();
         AccPredictor accPredictor = new AccPredictor(cbm);
         accPredictor.setComponentContributionThreshold(config.getDouble("predict.piThreshold"));
+        if (config.containsKey("predict.maxExpansions")){
+            accPredictor.setMaxExpansions(config.getInt("predict.maxExpansions"));
+        }
         MultiLabel[] predictions = accPredictor.predict(dataSet);
         System.out.println("time spent on prediction = "+stopWatch);
         MLMeasures mlMeasures = new MLMeasures(dataSet.getNumClasses(),dataSet.getMultiLabels(),predictions);
@@ -501,6 +548,12 @@ public class CBMLR {
         lrcbmOptimizer.setBinaryUpdatesPerIter(config.getInt("train.updatesPerIteration"));
         lrcbmOptimizer.setMulticlassUpdatesPerIter(config.getInt("train.updatesPerIteration"));
         lrcbmOptimizer.setSkipDataThreshold(config.getDouble("train.skipDataThreshold"));
+        if (config.containsKey("train.posteriorTruncation")){
+            lrcbmOptimizer.setPosteriorTruncation(config.getDouble("train.posteriorTruncation"));
+        }
+        if (config.containsKey("train.warmStart")){
+            lrcbmOptimizer.setWarmStart(config.getBoolean("train.warmStart"));
+        }
         lrcbmOptimizer.setSkipLabelThreshold(config.getDouble("train.skipLabelThreshold"));
         lrcbmOptimizer.setSmoothingStrength(config.getDouble("train.smoothStrength"));
 
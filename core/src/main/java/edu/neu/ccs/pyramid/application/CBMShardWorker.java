@@ -0,0 +1,39 @@
+package edu.neu.ccs.pyramid.application;
+
+import edu.neu.ccs.pyramid.configuration.Config;
+import edu.neu.ccs.pyramid.dataset.MultiLabelClfDataSet;
+import edu.neu.ccs.pyramid.dataset.TRECFormat;
+import edu.neu.ccs.pyramid.multilabel_classification.cbm.ShardWorker;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * holds one row shard of a CBM training set and serves ShardedCBMOptimizer, see ShardWorker
+ * the master is CBMLR with train.shards listing every worker
+ * runs until the process is stopped
+ */
+public class CBMShardWorker {
+
+    public static void main(String[] args) throws Exception {
+        Config config = new Config(args[0]);
+        main(config);
+    }
+
+    public static void main(Config config) throws Exception{
+        MultiLabelClfDataSet shard = TRECFormat.loadMultiLabelClfDataSetAutoSparseSequential(config.getString("input.shard"));
+        ShardWorker worker = new ShardWorker(shard, config.getString("worker.host"), config.getInt("worker.port"));
+        CountDownLatch stopped = new CountDownLatch(1);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                worker.close();
+            } catch (IOException e) {
+                // exiting anyway
+            }
+            stopped.countDown();
+        }));
+        worker.start();
+        System.out.println("serving "+shard.getNumDataPoints()+" data points on port "+worker.getPort());
+        stopped.await();
+    }
+}
@@ -13,7 +13,6 @@ import edu.neu.ccs.pyramid.clustering.bm.BMTrainer;
 import edu.neu.ccs.pyramid.configuration.Config;
 import edu.neu.ccs.pyramid.dataset.*;
 import edu.neu.ccs.pyramid.util.ArgSort;
-import edu.neu.ccs.pyramid.util.BernoulliDistribution;
 import edu.neu.ccs.pyramid.util.Pair;
 import edu.neu.ccs.pyramid.util.Serialization;
 import edu.neu.ccs.pyramid.util.*;
@@ -140,10 +139,10 @@ public class ClusterLabels {
 
     private static List<WordFrequency> getCluster(BM bm, int k) throws Exception{
 
-        BernoulliDistribution[][] distributions = bm.getDistributions();
+        double[][] probabilities = bm.getProbabilities();
         List<Pair<String,Double>> pairs = new ArrayList<>();
         for (int d=0;d<bm.getDimension();d++){
-            Pair<String,Double> pair = new Pair<>(bm.getNames().get(d),distributions[k][d].getP());
+            Pair<String,Double> pair = new Pair<>(bm.getNames().get(d),probabilities[k][d]);
             pairs.add(pair);
         }
         Comparator<Pair<String,Double>> comparator = Comparator.comparing(Pair::getSecond);
@@ -0,0 +1,47 @@
+package edu.neu.ccs.pyramid.application;
+
+import edu.neu.ccs.pyramid.configuration.Config;
+import edu.neu.ccs.pyramid.serving.ModelHttpServer;
+import edu.neu.ccs.pyramid.serving.ModelServer;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * keeps a trained model in memory and scores documents over a local HTTP endpoint, see ModelHttpServer
+ * runs until the process is stopped
+ */
+public class ModelServing {
+
+    public static void main(String[] args) throws Exception {
+        Config config = new Config(args[0]);
+        main(config);
+    }
+
+    public static void main(Config config) throws Exception{
+        ModelServer modelServer = ModelServer.getBuilder()
+                .setModelRoot(new File(config.getString("serving.modelRoot")))
+                .setCalibratorFolder(config.getString("serving.calibratorFolder"))
+                .setPredictMode(config.getString("predict.mode"))
+                .setMinSize(config.getInt("predict.minSize"))
+                .setMaxSize(config.getInt("predict.maxSize"))
+                .setMaxBatchSize(config.getInt("serving.maxBatchSize"))
+                .setMaxBatchDelayMillis(config.getInt("serving.maxBatchDelayMillis"))
+                .setReloadIntervalSeconds(config.getInt("serving.reloadIntervalSeconds"))
+                .build();
+        ModelHttpServer httpServer = new ModelHttpServer(modelServer, config.getString("serving.host"),
+                config.getInt("serving.port"), config.getInt("serving.numThreads"));
+        CountDownLatch stopped = new CountDownLatch(1);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            httpServer.close();
+            try {
+                modelServer.close();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            stopped.countDown();
+        }));
+        httpServer.start();
+        stopped.await();
+    }
+}
@@ -1,6 +1,7 @@
 package edu.neu.ccs.pyramid.calibration;
 
 import edu.neu.ccs.pyramid.dataset.MultiLabel;
+import edu.neu.ccs.pyramid.dataset.NonZeroConsumer;
 import edu.neu.ccs.pyramid.feature.Feature;
 import edu.neu.ccs.pyramid.multilabel_classification.MultiLabelClassifier;
 import org.apache.mahout.math.DenseVector;
@@ -14,6 +15,17 @@ public class BRProbFeatureExtractor implements PredictionFeatureExtractor{
 
     @Override
     public Vector extractFeatures(PredictionCandidate predictionCandidate) {
+        Vector vector = new DenseVector(1);
+        vector.set(0,prod(predictionCandidate));
+        return vector;
+    }
+
+    @Override
+    public void extractFeatures(PredictionCandidate predictionCandidate, int offset, NonZeroConsumer consumer) {
+        consumer.accept(offset, prod(predictionCandidate));
+    }
+
+    private static double prod(PredictionCandidate predictionCandidate){
         MultiLabel prediction = predictionCandidate.multiLabel;
         double[] calibratedLabelProbs = predictionCandidate.labelProbs;
         double prod = 1;
@@ -24,9 +36,7 @@ public class BRProbFeatureExtractor implements PredictionFeatureExtractor{
                 prod *= 1-calibratedLabelProbs[l];
             }
         }
-        Vector vector = new DenseVector(1);
-        vector.set(0,prod);
-        return vector;
+        return prod;
     }
 
     @Override
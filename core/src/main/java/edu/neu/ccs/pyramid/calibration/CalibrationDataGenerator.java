@@ -1,9 +1,10 @@
 package edu.neu.ccs.pyramid.calibration;
 
+import edu.neu.ccs.pyramid.dataset.ConcurrentSparseDataSetBuilder;
 import edu.neu.ccs.pyramid.dataset.MultiLabel;
 import edu.neu.ccs.pyramid.dataset.MultiLabelClfDataSet;
+import edu.neu.ccs.pyramid.dataset.NonZeroConsumer;
 import edu.neu.ccs.pyramid.dataset.RegDataSet;
-import edu.neu.ccs.pyramid.dataset.RegDataSetBuilder;
 import edu.neu.ccs.pyramid.eval.FMeasure;
 import edu.neu.ccs.pyramid.eval.MLMeasures;
 import edu.neu.ccs.pyramid.feature.FeatureList;
@@ -16,7 +17,7 @@ import org.apache.mahout.math.Vector;
 
 import java.io.Serializable;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.function.IntFunction;
 import java.util.stream.IntStream;
 
 public class CalibrationDataGenerator implements Serializable {
@@ -29,117 +30,113 @@ public class CalibrationDataGenerator implements Serializable {
         this.predictionFeatureExtractor = predictionFeatureExtractor;
     }
 
+    /**
+     * each data point becomes a query with numSupportCandidates random candidates from the support, followed by the top numCandidates from DP
+     * rows are written straight into a compressed sparse data set by the worker threads
+     */
     public TrainData createCaliTrainingData(MultiLabelClfDataSet calDataSet, MultiLabelClassifier.ClassProbEstimator classProbEstimator, int numCandidates,String calibrateTarget, List<MultiLabel> support, int numSupportCandidates){
-        List<CalibrationInstance> instances = IntStream.range(0, calDataSet.getNumDataPoints()).parallel()
-                .boxed().flatMap(i -> expand(calDataSet.getRow(i),calDataSet.getMultiLabels()[i], classProbEstimator , i, numCandidates,calibrateTarget, support, numSupportCandidates).stream())
-                .collect(Collectors.toList());
-        return createData(instances);
+        return createData(calDataSet, i -> classProbEstimator.predictClassProbs(calDataSet.getRow(i)), numCandidates, calibrateTarget, support, numSupportCandidates);
     }
 
 
     public TrainData createCaliTrainingData(MultiLabelClfDataSet calDataSet, List<Vector> uncalibratedLabelScores, int numCandidates,String calibrateTarget, List<MultiLabel> support, int numSupportCandidates){
-        List<CalibrationInstance> instances = IntStream.range(0, calDataSet.getNumDataPoints()).parallel()
-                .boxed().flatMap(i -> expand(calDataSet.getRow(i),calDataSet.getMultiLabels()[i], Vectors.toArray(uncalibratedLabelScores.get(i)) , i, numCandidates,calibrateTarget, support, numSupportCandidates).stream())
-                .collect(Collectors.toList());
-        return createData(instances);
+        return createData(calDataSet, i -> Vectors.toArray(uncalibratedLabelScores.get(i)), numCandidates, calibrateTarget, support, numSupportCandidates);
     }
 
-    private TrainData createData(List<CalibrationInstance> calibrationInstances){
-        RegDataSet regDataSet = RegDataSetBuilder.getBuilder()
-                .numDataPoints(calibrationInstances.size())
-                .numFeatures(calibrationInstances.get(0).vector.size())
-                .dense(false)
-                .build();
-        double[] weights = new double[calibrationInstances.size()];
-        for (int i = 0; i< calibrationInstances.size(); i++){
-            for (Vector.Element nonzero: calibrationInstances.get(i).vector.nonZeroes()){
-                int j = nonzero.index();
-                double v = nonzero.get();
-                regDataSet.setFeatureValue(i,j,v);
-            }
-            regDataSet.setLabel(i, calibrationInstances.get(i).correctness);
-            weights[i] = calibrationInstances.get(i).weight;
-
+    private TrainData createData(MultiLabelClfDataSet calDataSet, IntFunction<double[]> uncalibratedLabelScores, int numCandidates,
+                                 String calibrateTarget, List<MultiLabel> support, int numSupportCandidates){
+        if (numSupportCandidates>support.size()){
+            throw new IllegalArgumentException("numSupportCandidates="+numSupportCandidates+" > support size="+support.size());
         }
-
+        int numQueries = calDataSet.getNumDataPoints();
+        // DP always returns numCandidates candidates, so every query has the same number of rows
+        int[] queryOffsets = new int[numQueries+1];
+        for (int q=0;q<numQueries;q++){
+            queryOffsets[q+1] = queryOffsets[q]+numSupportCandidates+numCandidates;
+        }
+        int numInstances = queryOffsets[numQueries];
+        ConcurrentSparseDataSetBuilder builder = ConcurrentSparseDataSetBuilder.getBuilder()
+                .numDataPoints(numInstances)
+                .numFeatures(predictionFeatureExtractor.getNumFeatures());
+        double[] correctness = new double[numInstances];
+        double[] weights = new double[numInstances];
+        Arrays.fill(weights, 1);
+
+        ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(() -> new Scratch(builder, support.size()));
+        IntStream.range(0, numQueries).parallel().forEach(q -> expand(calDataSet.getRow(q), calDataSet.getMultiLabels()[q],
+                uncalibratedLabelScores.apply(q), q, queryOffsets[q], numCandidates, calibrateTarget, support, numSupportCandidates,
+                scratch.get(), correctness));
+
+        RegDataSet regDataSet = builder.buildRegression(correctness);
         FeatureList featureList = new FeatureList();
         featureList.addAll(predictionFeatureExtractor.getNames());
         regDataSet.setFeatureList(featureList);
-
-        int numQueries = calibrationInstances.stream().mapToInt(calibrationInstance -> calibrationInstance.queryIndex).max().getAsInt()+1;
-        List<List<Integer>> instancesForEachQuery = new ArrayList<>();
-        for (int q=0;q<numQueries;q++){
-            instancesForEachQuery.add(new ArrayList<>());
-        }
-
-        for (int i = 0; i< calibrationInstances.size(); i++){
-            int q = calibrationInstances.get(i).queryIndex;
-            instancesForEachQuery.get(q).add(i);
-        }
-        
-        return new TrainData(regDataSet, weights, instancesForEachQuery);
+        return new TrainData(regDataSet, weights, queryOffsets);
     }
 
-    private List<CalibrationInstance> expand(Vector x, MultiLabel groundTruth,
-                                             MultiLabelClassifier.ClassProbEstimator classProbEstimator, int queryId, int numCandidates,String calibrateTarget,List<MultiLabel> support, int numSupportCandidates){
-        double[] uncalibratedLabelScores = classProbEstimator.predictClassProbs(x);
-        return expand(x, groundTruth, uncalibratedLabelScores, queryId, numCandidates,calibrateTarget, support, numSupportCandidates);
-    }
-
-    private List<CalibrationInstance> expand(Vector x, MultiLabel groundTruth,
-                                             double[] uncalibratedLabelScores, int queryId, int numCandidates,String calibrateTarget,
-                                            List<MultiLabel> support, int numSupportCandidates){
+    private void expand(Vector x, MultiLabel groundTruth, double[] uncalibratedLabelScores, int queryId, int firstRow,
+                        int numCandidates, String calibrateTarget, List<MultiLabel> support, int numSupportCandidates,
+                        Scratch scratch, double[] correctness){
         double[] marginals = labelCalibrator.calibratedClassProbs(uncalibratedLabelScores);
-        List<CalibrationInstance> calibrationInstances = new ArrayList<>();
         DynamicProgramming dynamicProgramming = new DynamicProgramming(marginals);
         List<Pair<MultiLabel,Double>> topK = dynamicProgramming.topK(numCandidates);
 
+        PredictionCandidate predictionCandidate = scratch.predictionCandidate;
+        predictionCandidate.x = x;
+        predictionCandidate.labelProbs = marginals;
+        predictionCandidate.sparseJoint = topK;
+        int row = firstRow;
+
         // add a few random candidates from support
-        List<MultiLabel> supportList = new ArrayList<>(support);
-        Collections.shuffle(supportList,new Random(queryId));
-        List<MultiLabel> candidates = new ArrayList<>();
-        for (int i=0;i<numSupportCandidates;i++){
-            candidates.add(supportList.get(i));
+        // same candidates as Collections.shuffle(new ArrayList<>(support), new Random(queryId)), without copying the support
+        if (numSupportCandidates>0){
+            int[] permutation = scratch.permutation;
+            for (int i=0;i<permutation.length;i++){
+                permutation[i] = i;
+            }
+            Random random = new Random(queryId);
+            for (int i=permutation.length;i>1;i--){
+                int j = random.nextInt(i);
+                int tmp = permutation[i-1];
+                permutation[i-1] = permutation[j];
+                permutation[j] = tmp;
+            }
+            for (int i=0;i<numSupportCandidates;i++){
+                addRow(support.get(permutation[i]), groundTruth, calibrateTarget, row, scratch, correctness);
+                row += 1;
+            }
         }
 
         // add top K from DP
         for (Pair<MultiLabel,Double> pair: topK){
-            candidates.add(pair.getFirst());
+            addRow(pair.getFirst(), groundTruth, calibrateTarget, row, scratch, correctness);
+            row += 1;
         }
-
-        for (MultiLabel multiLabel: candidates){
-            PredictionCandidate predictionCandidate = new PredictionCandidate();
-            predictionCandidate.multiLabel = multiLabel;
-            predictionCandidate.labelProbs = marginals;
-            predictionCandidate.x = x;
-            predictionCandidate.sparseJoint = topK;
-            CalibrationInstance calibrationInstance = createInstance(groundTruth,predictionCandidate,calibrateTarget);
-            calibrationInstance.weight=1;
-            calibrationInstance.queryIndex = queryId;
-            calibrationInstances.add(calibrationInstance);
-        }
-
-        return calibrationInstances;
     }
 
+    private void addRow(MultiLabel candidate, MultiLabel groundTruth, String calibrateTarget, int row,
+                        Scratch scratch, double[] correctness){
+        scratch.predictionCandidate.multiLabel = candidate;
+        scratch.row = row;
+        predictionFeatureExtractor.extractFeatures(scratch.predictionCandidate, 0, scratch);
+        correctness[row] = correctness(groundTruth, candidate, calibrateTarget);
+    }
 
-    public CalibrationInstance createInstance(MultiLabel groundtruth, PredictionCandidate predictionCandidate,String calibrateTarget){
-        CalibrationInstance calibrationInstance = new CalibrationInstance();
-        calibrationInstance.vector= predictionFeatureExtractor.extractFeatures(predictionCandidate);
-        calibrationInstance.correctness = 0;
+    private static double correctness(MultiLabel groundtruth, MultiLabel prediction, String calibrateTarget){
         switch (calibrateTarget){
             case "accuracy":
-                if (groundtruth.equals(predictionCandidate.multiLabel)){
-                    calibrationInstance.correctness=1;
-                }
-            break;
+                return groundtruth.equals(prediction) ? 1 : 0;
             case "f1":
-                calibrationInstance.correctness = FMeasure.f1(predictionCandidate.multiLabel,groundtruth);
-                break;
+                return FMeasure.f1(prediction,groundtruth);
             default:
                 throw new IllegalArgumentException("illegal calibrate.target");
         }
+    }
 
+    public CalibrationInstance createInstance(MultiLabel groundtruth, PredictionCandidate predictionCandidate,String calibrateTarget){
+        CalibrationInstance calibrationInstance = new CalibrationInstance();
+        calibrationInstance.vector= predictionFeatureExtractor.extractFeatures(predictionCandidate);
+        calibrationInstance.correctness = correctness(groundtruth, predictionCandidate.multiLabel, calibrateTarget);
         return calibrationInstance;
     }
 
@@ -165,13 +162,52 @@ public class CalibrationDataGenerator implements Serializable {
     public static class TrainData{
         public RegDataSet regDataSet;
         public double[] instanceWeights;
-        public List<List<Integer>> instancesForEachQuery;
+        // instances of query q are rows queryOffsets[q] until queryOffsets[q+1]
+        public int[] queryOffsets;
 
 
-        public TrainData(RegDataSet regDataSet, double[] instanceWeights, List<List<Integer>> instancesForEachQuery) {
+        public TrainData(RegDataSet regDataSet, double[] instanceWeights, int[] queryOffsets) {
             this.regDataSet = regDataSet;
             this.instanceWeights = instanceWeights;
-            this.instancesForEachQuery = instancesForEachQuery;
+            this.queryOffsets = queryOffsets;
+        }
+
+        public int getNumQueries(){
+            return queryOffsets.length-1;
+        }
+
+        /**
+         * boxed copy of the query offsets, for rankers taking lists
+         */
+        public List<List<Integer>> getInstancesForEachQuery(){
+            List<List<Integer>> instancesForEachQuery = new ArrayList<>();
+            for (int q=0;q<getNumQueries();q++){
+                List<Integer> instances = new ArrayList<>();
+                for (int i=queryOffsets[q];i<queryOffsets[q+1];i++){
+                    instances.add(i);
+                }
+                instancesForEachQuery.add(instances);
+            }
+            return instancesForEachQuery;
+        }
+    }
+
+    // per-thread state for writing rows; also the sink receiving the features of the current row
+    private static class Scratch implements NonZeroConsumer {
+        private final ConcurrentSparseDataSetBuilder builder;
+        private final PredictionCandidate predictionCandidate = new PredictionCandidate();
+        // support indices, shuffled for each query
+        private final int[] permutation;
+        private int row;
+
+        private Scratch(ConcurrentSparseDataSetBuilder builder, int supportSize) {
+            this.builder = builder;
+            this.permutation = new int[supportSize];
+        }
+
+        @Override
+        public void accept(int index, double value) {
+            builder.setFeatureValue(row, index, value);
         }
     }
 
@@ -1,6 +1,7 @@
 package edu.neu.ccs.pyramid.calibration;
 
 import edu.neu.ccs.pyramid.dataset.MultiLabel;
+import edu.neu.ccs.pyramid.dataset.NonZeroConsumer;
 import edu.neu.ccs.pyramid.feature.Feature;
 import org.apache.mahout.math.DenseVector;
 import org.apache.mahout.math.Vector;
@@ -18,6 +19,11 @@ public class CardFeatureExtractor implements PredictionFeatureExtractor{
         return vector;
     }
 
+    @Override
+    public void extractFeatures(PredictionCandidate prediction, int offset, NonZeroConsumer consumer) {
+        consumer.accept(offset, prediction.multiLabel.getNumMatchedLabels());
+    }
+
     @Override
     public int[] featureMonotonicity() {
         int[] mono = {0};
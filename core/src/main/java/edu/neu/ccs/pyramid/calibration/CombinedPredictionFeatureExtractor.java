@@ -1,6 +1,7 @@
 package edu.neu.ccs.pyramid.calibration;
 
 import edu.neu.ccs.pyramid.dataset.MultiLabel;
+import edu.neu.ccs.pyramid.dataset.NonZeroConsumer;
 import edu.neu.ccs.pyramid.feature.Feature;
 import edu.neu.ccs.pyramid.util.ArrayUtil;
 import edu.neu.ccs.pyramid.util.Vectors;
@@ -13,6 +14,8 @@ public class CombinedPredictionFeatureExtractor implements PredictionFeatureExtr
     private static final long serialVersionUID = 1L;
 
     List<PredictionFeatureExtractor> list;
+    // first feature index of each extractor, computed on first use
+    private transient int[] offsets;
 
     public CombinedPredictionFeatureExtractor(List<PredictionFeatureExtractor> list) {
         this.list = list;
@@ -27,6 +30,32 @@ public class CombinedPredictionFeatureExtractor implements PredictionFeatureExtr
         return Vectors.conatenateToSparseRandom(vectors);
     }
 
+    @Override
+    public void extractFeatures(PredictionCandidate prediction, int offset, NonZeroConsumer consumer) {
+        int[] offsets = getOffsets();
+        for (int e=0;e<list.size();e++){
+            list.get(e).extractFeatures(prediction, offset+offsets[e], consumer);
+        }
+    }
+
+    @Override
+    public int getNumFeatures() {
+        return getOffsets()[list.size()];
+    }
+
+    private int[] getOffsets(){
+        // racing threads compute the same array
+        int[] offsets = this.offsets;
+        if (offsets==null){
+            offsets = new int[list.size()+1];
+            for (int e=0;e<list.size();e++){
+                offsets[e+1] = offsets[e]+list.get(e).getNumFeatures();
+            }
+            this.offsets = offsets;
+        }
+        return offsets;
+    }
+
     @Override
     public int[] featureMonotonicity() {
         List<int[]> monos = new ArrayList<>();
@@ -1,6 +1,7 @@
 package edu.neu.ccs.pyramid.calibration;
 
 import edu.neu.ccs.pyramid.dataset.MultiLabel;
+import edu.neu.ccs.pyramid.dataset.NonZeroConsumer;
 import edu.neu.ccs.pyramid.eval.FMeasure;
 import edu.neu.ccs.pyramid.feature.Feature;
 import edu.neu.ccs.pyramid.multilabel_classification.DynamicProgramming;
@@ -16,6 +17,17 @@ public class ExpectedF1FeatureExtractor implements PredictionFeatureExtractor {
 
     @Override
     public Vector extractFeatures(PredictionCandidate predictionCandidate) {
+        Vector vector = new DenseVector(1);
+        vector.set(0,expectedF1(predictionCandidate));
+        return vector;
+    }
+
+    @Override
+    public void extractFeatures(PredictionCandidate predictionCandidate, int offset, NonZeroConsumer consumer) {
+        consumer.accept(offset, expectedF1(predictionCandidate));
+    }
+
+    private static double expectedF1(PredictionCandidate predictionCandidate){
         MultiLabel prediction = predictionCandidate.multiLabel;
         double expectation = 0;
         List<Pair<MultiLabel,Double>> sparseJoint = predictionCandidate.sparseJoint;
@@ -24,9 +36,7 @@ public class ExpectedF1FeatureExtractor implements PredictionFeatureExtractor {
             double prob = pair.getSecond();
             expectation += FMeasure.f1(prediction,multiLabel)*prob;
         }
-        Vector vector = new DenseVector(1);
-        vector.set(0,expectation);
-        return vector;
+        return expectation;
     }
 
     @Override
@@ -1,6 +1,7 @@
 package edu.neu.ccs.pyramid.calibration;
 
 import edu.neu.ccs.pyramid.dataset.MultiLabel;
+import edu.neu.ccs.pyramid.dataset.NonZeroConsumer;
 import edu.neu.ccs.pyramid.eval.FMeasure;
 import edu.neu.ccs.pyramid.eval.Precision;
 import edu.neu.ccs.pyramid.feature.Feature;
@@ -16,6 +17,17 @@ public class ExpectedPrecisionFeatureExtractor implements PredictionFeatureExtra
 
     @Override
     public Vector extractFeatures(PredictionCandidate predictionCandidate) {
+        Vector vector = new DenseVector(1);
+        vector.set(0,expectedPrecision(predictionCandidate));
+        return vector;
+    }
+
+    @Override
+    public void extractFeatures(PredictionCandidate predictionCandidate, int offset, NonZeroConsumer consumer) {
+        consumer.accept(offset, expectedPrecision(predictionCandidate));
+    }
+
+    private static double expectedPrecision(PredictionCandidate predictionCandidate){
         MultiLabel prediction = predictionCandidate.multiLabel;
         double expectation = 0;
         List<Pair<MultiLabel,Double>> sparseJoint = predictionCandidate.sparseJoint;
@@ -24,9 +36,7 @@ public class ExpectedPrecisionFeatureExtractor implements PredictionFeatureExtra
             double prob = pair.getSecond();
             expectation += Precision.precision(multiLabel,prediction)*prob;
         }
-        Vector vector = new DenseVector(1);
-        vector.set(0,expectation);
-        return vector;
+        return expectation;
     }
 
     @Override
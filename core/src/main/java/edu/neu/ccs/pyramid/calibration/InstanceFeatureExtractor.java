@@ -1,5 +1,6 @@
 package edu.neu.ccs.pyramid.calibration;
 
+import edu.neu.ccs.pyramid.dataset.NonZeroConsumer;
 import edu.neu.ccs.pyramid.feature.Feature;
 import edu.neu.ccs.pyramid.feature.FeatureList;
 import org.apache.mahout.math.DenseVector;
@@ -46,6 +47,23 @@ public class InstanceFeatureExtractor implements PredictionFeatureExtractor{
         return vector;
     }
 
+    @Override
+    public void extractFeatures(PredictionCandidate predictionCandidate, int offset, NonZeroConsumer consumer) {
+        int size = featureIndices.size();
+        for (int j=0;j<size;j++){
+            double value = predictionCandidate.x.get(featureIndices.get(j));
+            // the selected features are mostly absent from a sparse instance
+            if (value!=0){
+                consumer.accept(offset+j, value);
+            }
+        }
+    }
+
+    @Override
+    public int getNumFeatures() {
+        return featureIndices.size();
+    }
+
     @Override
     public int[] featureMonotonicity() {
         return new int[featureIndices.size()];
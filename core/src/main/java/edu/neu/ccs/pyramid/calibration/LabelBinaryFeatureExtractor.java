@@ -2,6 +2,7 @@ package edu.neu.ccs.pyramid.calibration;
 
 import edu.neu.ccs.pyramid.dataset.LabelTranslator;
 import edu.neu.ccs.pyramid.dataset.MultiLabel;
+import edu.neu.ccs.pyramid.dataset.NonZeroConsumer;
 import edu.neu.ccs.pyramid.feature.Feature;
 import org.apache.mahout.math.RandomAccessSparseVector;
 import org.apache.mahout.math.Vector;
@@ -32,6 +33,20 @@ public class LabelBinaryFeatureExtractor implements PredictionFeatureExtractor{
         return vector;
     }
 
+    @Override
+    public void extractFeatures(PredictionCandidate prediction, int offset, NonZeroConsumer consumer) {
+        for (int l: prediction.multiLabel.getMatchedLabels()){
+            if (l<numLabelsInModel){
+                consumer.accept(offset+l, 1);
+            }
+        }
+    }
+
+    @Override
+    public int getNumFeatures() {
+        return numLabelsInModel;
+    }
+
     @Override
     public int[] featureMonotonicity() {
         return new int[numLabelsInModel];
@@ -1,6 +1,7 @@
 package edu.neu.ccs.pyramid.calibration;
 
 import edu.neu.ccs.pyramid.dataset.MultiLabel;
+import edu.neu.ccs.pyramid.dataset.NonZeroConsumer;
 import edu.neu.ccs.pyramid.feature.Feature;
 import org.apache.mahout.math.Vector;
 
@@ -12,5 +13,23 @@ public interface PredictionFeatureExtractor extends Serializable {
     int[] featureMonotonicity();
     List<Feature> getNames();
 
+    /**
+     * same features as extractFeatures(predictionCandidate), passed to the consumer at index offset+j without creating a Vector
+     * zeros may or may not be passed
+     * the default copies from extractFeatures; extractors on the calibration data generation path override it
+     */
+    default void extractFeatures(PredictionCandidate predictionCandidate, int offset, NonZeroConsumer consumer){
+        for (Vector.Element element: extractFeatures(predictionCandidate).nonZeroes()){
+            consumer.accept(offset+element.index(), element.get());
+        }
+    }
+
+    /**
+     * same as getNames().size()
+     */
+    default int getNumFeatures(){
+        return featureMonotonicity().length;
+    }
+
 
 }
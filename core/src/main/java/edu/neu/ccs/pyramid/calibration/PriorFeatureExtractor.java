@@ -2,6 +2,7 @@ package edu.neu.ccs.pyramid.calibration;
 
 import edu.neu.ccs.pyramid.dataset.MultiLabel;
 import edu.neu.ccs.pyramid.dataset.MultiLabelClfDataSet;
+import edu.neu.ccs.pyramid.dataset.NonZeroConsumer;
 import edu.neu.ccs.pyramid.feature.Feature;
 import org.apache.mahout.math.DenseVector;
 import org.apache.mahout.math.Vector;
@@ -44,6 +45,11 @@ public class PriorFeatureExtractor implements PredictionFeatureExtractor {
         return vector;
     }
 
+    @Override
+    public void extractFeatures(PredictionCandidate prediction, int offset, NonZeroConsumer consumer) {
+        consumer.accept(offset, priors.getOrDefault(prediction.multiLabel,0.0));
+    }
+
     @Override
     public int[] featureMonotonicity() {
         int[] mono = {1};
@@ -171,7 +171,7 @@ public class RerankerTrainer {
 //
 //        RegTreeConfig regTreeConfig = new RegTreeConfig().setMaxNumLeaves(numLeaves).setMinDataPerLeaf(minDataPerLeaf);
 //        RegTreeFactory regTreeFactory = new RegTreeFactory(regTreeConfig);
-//        LambdaMARTOptimizer optimizer = new LambdaMARTOptimizer(lambdaMART, trainData.regDataSet, trainData.regDataSet.getLabels(), regTreeFactory, trainData.instancesForEachQuery);
+//        LambdaMARTOptimizer optimizer = new LambdaMARTOptimizer(lambdaMART, trainData.regDataSet, trainData.regDataSet.getLabels(), regTreeFactory, trainData.getInstancesForEachQuery());
 //
 //        optimizer.setNdcgTruncationLevel(ndcgTruncationLevel);
 //
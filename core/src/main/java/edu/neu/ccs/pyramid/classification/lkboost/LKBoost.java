@@ -5,11 +5,16 @@ import edu.neu.ccs.pyramid.dataset.LabelTranslator;
 import edu.neu.ccs.pyramid.feature.FeatureList;
 import edu.neu.ccs.pyramid.optimization.gradient_boosting.Ensemble;
 import edu.neu.ccs.pyramid.optimization.gradient_boosting.GradientBoosting;
+import edu.neu.ccs.pyramid.regression.Regressor;
 import edu.neu.ccs.pyramid.util.ArgMax;
+import edu.neu.ccs.pyramid.util.BinaryModelInput;
+import edu.neu.ccs.pyramid.util.BinaryModelOutput;
+import edu.neu.ccs.pyramid.util.BinaryModels;
 import edu.neu.ccs.pyramid.util.MathUtil;
 import org.apache.mahout.math.Vector;
 
 import java.io.*;
+import java.util.List;
 
 
 /**
@@ -17,6 +22,7 @@ import java.io.*;
  */
 public class LKBoost extends GradientBoosting implements Classifier.ProbabilityEstimator, Classifier.ScoreEstimator{
     private static final long serialVersionUID = 5L;
+    private static final int BINARY_VERSION = 1;
     private int numClasses;
     LabelTranslator labelTranslator;
 
@@ -96,6 +102,38 @@ public class LKBoost extends GradientBoosting implements Classifier.ProbabilityE
         }
     }
 
+    /**
+     * see BinaryModels
+     */
+    public void writeBinary(BinaryModelOutput out) throws IOException{
+        out.writeInt(BINARY_VERSION);
+        out.writeInt(numClasses);
+        out.writeObject(featureList);
+        out.writeObject(labelTranslator);
+        for (int k=0;k<numClasses;k++){
+            List<Regressor> regressors = getEnsemble(k).getRegressors();
+            out.writeInt(regressors.size());
+            for (Regressor regressor: regressors){
+                BinaryModels.writeModel(out, regressor);
+            }
+        }
+    }
+
+    public static LKBoost readBinary(BinaryModelInput in) throws IOException{
+        in.readVersion("LKBoost", BINARY_VERSION);
+        LKBoost lkBoost = new LKBoost(in.readInt());
+        lkBoost.featureList = (FeatureList) in.readObject();
+        lkBoost.labelTranslator = (LabelTranslator) in.readObject();
+        for (int k=0;k<lkBoost.numClasses;k++){
+            Ensemble ensemble = lkBoost.getEnsemble(k);
+            int numRegressors = in.readInt();
+            for (int i=0;i<numRegressors;i++){
+                ensemble.add(BinaryModels.readRegressor(in, lkBoost.featureList));
+            }
+        }
+        return lkBoost;
+    }
+
 
 
     @Override
@@ -54,6 +54,10 @@ public class LKBoostOptimizer extends GBOptimizer {
         this(boosting,dataSet,defaultFactory(dataSet.getNumClasses()));
     }
 
+    public LKBoost getBoosting() {
+        return boosting;
+    }
+
     @Override
     protected void initializeOthers() {
         this.probabilityMatrix = new ProbabilityMatrix(dataSet.getNumDataPoints(),numClasses);
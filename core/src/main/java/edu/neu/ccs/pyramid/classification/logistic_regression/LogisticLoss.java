@@ -127,6 +127,40 @@ public class LogisticLoss implements Optimizable.ByGradientValue {
     }
 
 
+    /**
+     * replace the instance weights, e.g. when refitting with new memberships
+     * probabilities only depend on the parameters, so they stay cached unless a data point skipped so far gets weight
+     * the weights are copied; if the array held by the loss was changed in place, the old weights are unknown
+     * and the probabilities are recomputed
+     */
+    public void setInstanceWeights(double[] weights){
+        if (weights.length!=dataSet.getNumDataPoints()){
+            throw new IllegalArgumentException("weights.length = "+weights.length+", number of data points = "+dataSet.getNumDataPoints());
+        }
+        if (weights==this.weights){
+            this.isProbabilityCacheValid = false;
+        } else {
+            for (int i=0;i<weights.length;i++){
+                if (this.weights[i]==0 && weights[i]!=0){
+                    this.isProbabilityCacheValid = false;
+                    break;
+                }
+            }
+        }
+        this.weights = Arrays.copyOf(weights, weights.length);
+        this.updateEmpricalCounts();
+        this.isValueCacheValid=false;
+        this.isGradientCacheValid=false;
+    }
+
+    public DataSet getDataSet() {
+        return dataSet;
+    }
+
+    public LogisticRegression getLogisticRegression() {
+        return logisticRegression;
+    }
+
     public double getValue() {
         if (isValueCacheValid){
             return this.value;
@@ -235,7 +269,9 @@ public class LogisticLoss implements Optimizable.ByGradientValue {
             }
             return this.gradient;
         }
-        updateClassProbMatrix();
+        if (!isProbabilityCacheValid){
+            updateClassProbMatrix();
+        }
         updatePredictedCounts();
         updateGradient();
         this.isGradientCacheValid = true;
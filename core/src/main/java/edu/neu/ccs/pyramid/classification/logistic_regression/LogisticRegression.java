@@ -6,6 +6,8 @@ import edu.neu.ccs.pyramid.dataset.DataSet;
 import edu.neu.ccs.pyramid.dataset.LabelTranslator;
 import edu.neu.ccs.pyramid.eval.KLDivergence;
 import edu.neu.ccs.pyramid.feature.FeatureList;
+import edu.neu.ccs.pyramid.util.BinaryModelInput;
+import edu.neu.ccs.pyramid.util.BinaryModelOutput;
 import edu.neu.ccs.pyramid.util.MathUtil;
 import edu.neu.ccs.pyramid.util.Vectors;
 import org.apache.mahout.math.Vector;
@@ -18,6 +20,7 @@ import java.util.stream.IntStream;
  */
 public class LogisticRegression implements Classifier.ProbabilityEstimator, Classifier.ScoreEstimator {
     private static final long serialVersionUID = 2L;
+    private static final int BINARY_VERSION = 1;
     private int numClasses;
     private int numFeatures;
     private Weights weights;
@@ -192,6 +195,30 @@ public class LogisticRegression implements Classifier.ProbabilityEstimator, Clas
         }
     }
 
+    /**
+     * see BinaryModels
+     */
+    public void writeBinary(BinaryModelOutput out) throws IOException{
+        out.writeInt(BINARY_VERSION);
+        out.writeInt(numClasses);
+        out.writeInt(numFeatures);
+        out.writeObject(featureList);
+        out.writeObject(labelTranslator);
+        out.writeVector(weights.getAllWeights());
+    }
+
+    public static LogisticRegression readBinary(BinaryModelInput in) throws IOException{
+        in.readVersion("LogisticRegression", BINARY_VERSION);
+        int numClasses = in.readInt();
+        int numFeatures = in.readInt();
+        FeatureList featureList = (FeatureList) in.readObject();
+        LabelTranslator labelTranslator = (LabelTranslator) in.readObject();
+        LogisticRegression logisticRegression = new LogisticRegression(numClasses, numFeatures, in.readDenseVector());
+        logisticRegression.featureList = featureList;
+        logisticRegression.labelTranslator = labelTranslator;
+        return logisticRegression;
+    }
+
     public FeatureList getFeatureList() {
         return featureList;
     }
@@ -13,6 +13,7 @@ import org.apache.mahout.math.Vector;
 
 import java.io.Serializable;
 import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
@@ -25,13 +26,18 @@ import java.util.stream.IntStream;
  * Created by chengli on 9/12/15.
  */
 public class BM implements Serializable{
-    private static final long serialVersionUID = 2L;
+    private static final long serialVersionUID = 3L;
     private int numClusters;
     private int dimension;
     /**
      * format:[cluster][dimension]
      */
-    BernoulliDistribution[][] distributions;
+    double[][] probabilities;
+    /**
+     * log(p/(1-p))
+     * format:[cluster][dimension]
+     */
+    double[][] logOdds;
     double[] mixtureCoefficients;
     double[] logMixtureCoefficients;
     // the log probability of the empty vector in each cluster
@@ -42,7 +48,8 @@ public class BM implements Serializable{
     public BM(int numClusters, int dimension, long randomSeed) {
         this.numClusters = numClusters;
         this.dimension = dimension;
-        this.distributions = new BernoulliDistribution[numClusters][dimension];
+        this.probabilities = new double[numClusters][dimension];
+        this.logOdds = new double[numClusters][dimension];
         this.mixtureCoefficients = new double[numClusters];
         Arrays.fill(mixtureCoefficients,1.0/numClusters);
         this.logMixtureCoefficients = new double[numClusters];
@@ -53,7 +60,7 @@ public class BM implements Serializable{
         for (int k=0;k<numClusters;k++){
             for (int d=0;d<dimension;d++){
                 double p = uniform.sample();
-                distributions[k][d] = new BernoulliDistribution(p);
+                setProbability(k,d,p);
             }
         }
         this.logClusterConditioinalForEmpty = new double[numClusters];
@@ -74,22 +81,58 @@ public class BM implements Serializable{
     }
 
 
+    /**
+     * sets p and its log odds; call {@link #updateLogClusterConditioinalForEmpty()} afterwards
+     */
+    void setProbability(int clusterIndex, int dimensionIndex, double p){
+        if (p<0||p>1){
+            throw new IllegalArgumentException("p should be within 0 and 1. Given p = "+p);
+        }
+        probabilities[clusterIndex][dimensionIndex] = p;
+        logOdds[clusterIndex][dimensionIndex] = Math.log(p)-Math.log(1-p);
+    }
+
     public double clusterConditionalLogProb(Vector vector, int clusterIndex){
         double logProb = logClusterConditioinalForEmpty[clusterIndex];
+        double[] clusterLogOdds = logOdds[clusterIndex];
         for (Vector.Element nonzero: vector.nonZeroes()){
-            int l = nonzero.index();
-            BernoulliDistribution distribution = distributions[clusterIndex][l];
-            logProb -= distribution.logProbability(0);
-            logProb += distribution.logProbability(1);
+            logProb += clusterLogOdds[nonzero.index()];
+        }
+        return logProb;
+    }
+
+    /**
+     * log probability of a binary vector in a cluster
+     * = sum_d log(1-p_d) + sum over active dimensions of log odds
+     * @param activeDimensions dimensions with value 1
+     * @param clusterIndex
+     * @return
+     */
+    public double clusterConditionalLogProb(int[] activeDimensions, int clusterIndex){
+        double logProb = logClusterConditioinalForEmpty[clusterIndex];
+        double[] clusterLogOdds = logOdds[clusterIndex];
+        for (int d: activeDimensions){
+            logProb += clusterLogOdds[d];
         }
         return logProb;
     }
 
+    /**
+     * log(pi_k) + log p(x|k) for all clusters, written into output
+     * @param activeDimensions dimensions with value 1
+     * @param output length = num clusters
+     */
+    void logJoints(int[] activeDimensions, double[] output){
+        for (int k=0;k<numClusters;k++){
+            output[k] = logMixtureCoefficients[k]+clusterConditionalLogProb(activeDimensions, k);
+        }
+    }
+
     private double computeLogClusterConditionalForEmpty(int clusterIndex){
         double logProb = 0.0;
+        double[] clusterProbabilities = probabilities[clusterIndex];
         for (int l=0;l< dimension;l++){
-            BernoulliDistribution distribution = distributions[clusterIndex][l];
-            logProb += distribution.logProbability(0);
+            logProb += Math.log(1-clusterProbabilities[l]);
         }
         return logProb;
     }
@@ -129,6 +172,17 @@ public class BM implements Serializable{
         return MathUtil.logSumExp(arr);
     }
 
+    /**
+     * log probability based on the mixture
+     * @param activeDimensions dimensions with value 1
+     * @return
+     */
+    public double logProbability(int[] activeDimensions){
+        double[] arr = new double[numClusters];
+        logJoints(activeDimensions, arr);
+        return MathUtil.logSumExp(arr);
+    }
+
     /**
      * sample a vector from the mixture distribution
      * @return
@@ -141,7 +195,7 @@ public class BM implements Serializable{
         int cluster = enumeratedIntegerDistribution.sample();
         // then sample each dimension
         for (int d=0;d<dimension;d++){
-            vector.set(d,distributions[cluster][d].sample());
+            vector.set(d,sampleDimension(cluster,d));
         }
         return vector;
     }
@@ -156,11 +210,19 @@ public class BM implements Serializable{
         }
         Vector vector = new DenseVector(dimension);
         for (int d=0;d<dimension;d++){
-            vector.set(d,distributions[kCluster][d].sample());
+            vector.set(d,sampleDimension(kCluster,d));
         }
         return vector;
     }
 
+    private int sampleDimension(int clusterIndex, int dimensionIndex){
+        if (ThreadLocalRandom.current().nextDouble()<probabilities[clusterIndex][dimensionIndex]){
+            return 1;
+        } else {
+            return 0;
+        }
+    }
+
     public int getNumClusters() {
         return numClusters;
     }
@@ -169,7 +231,24 @@ public class BM implements Serializable{
         return dimension;
     }
 
+    /**
+     * format:[cluster][dimension]
+     */
+    public double[][] getProbabilities() {
+        return probabilities;
+    }
+
+    /**
+     * a copy of the parameters as distribution objects
+     * @return format:[cluster][dimension]
+     */
     public BernoulliDistribution[][] getDistributions() {
+        BernoulliDistribution[][] distributions = new BernoulliDistribution[numClusters][dimension];
+        for (int k=0;k<numClusters;k++){
+            for (int d=0;d<dimension;d++){
+                distributions[k][d] = new BernoulliDistribution(probabilities[k][d]);
+            }
+        }
         return distributions;
     }
 
@@ -190,7 +269,7 @@ public class BM implements Serializable{
             sb.append("probabilities = ").append("[");
             List<Pair<String,Double>> pairs = new ArrayList<>();
             for (int d=0;d<dimension;d++){
-                Pair<String,Double> pair = new Pair<>(names.get(d),distributions[k][d].getP());
+                Pair<String,Double> pair = new Pair<>(names.get(d),probabilities[k][d]);
                 pairs.add(pair);
 //                sb.append(names.get(d)).append(":").append(distributions[k][d].getProbabilityOfSuccess());
 //                if (d!=dimension-1){
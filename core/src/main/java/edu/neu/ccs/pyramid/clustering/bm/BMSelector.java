@@ -1,8 +1,6 @@
 package edu.neu.ccs.pyramid.clustering.bm;
 
 import edu.neu.ccs.pyramid.dataset.DataSet;
-import edu.neu.ccs.pyramid.dataset.DataSetBuilder;
-import edu.neu.ccs.pyramid.dataset.Density;
 import edu.neu.ccs.pyramid.dataset.MultiLabel;
 import edu.neu.ccs.pyramid.util.Pair;
 import org.apache.logging.log4j.LogManager;
@@ -20,18 +18,7 @@ public class BMSelector {
         if (logger.isDebugEnabled()){
             logger.debug("start method select");
         }
-        BM best = null;
-        double bestObjective = Double.POSITIVE_INFINITY;
-        for (int i=0;i<numRuns;i++){
-//            System.out.println("fitting BM model "+i);
-            BMTrainer trainer = new BMTrainer(dataSet,numClusters, i);
-            BM bm = trainer.train();
-            double objective = trainer.getObjective();
-            if (objective < bestObjective){
-                bestObjective = objective;
-                best = bm;
-            }
-        }
+        BM best = selectTrainer(SparseBinaryMatrix.fromDataSet(dataSet), numClusters, numRuns).getBm();
         if (logger.isDebugEnabled()){
             logger.debug("finish method select");
         }
@@ -39,12 +26,19 @@ public class BMSelector {
     }
 
     public static BMTrainer selectTrainer(DataSet dataSet, int numClusters, int numRuns) {
+        return selectTrainer(SparseBinaryMatrix.fromDataSet(dataSet), numClusters, numRuns);
+    }
+
+    /**
+     * all runs share the same binary matrix
+     */
+    static BMTrainer selectTrainer(SparseBinaryMatrix data, int numClusters, int numRuns) {
         BMTrainer best = null;
         double bestObjective = Double.POSITIVE_INFINITY;
         for (int i=0;i<numRuns;i++){
 //            System.out.println("fitting BM model "+i);
-            BMTrainer trainer = new BMTrainer(dataSet,numClusters, i);
-            BM bm = trainer.train();
+            BMTrainer trainer = new BMTrainer(data,numClusters, i);
+            trainer.train();
             double objective = trainer.getObjective();
             if (objective < bestObjective){
                 bestObjective = objective;
@@ -56,19 +50,8 @@ public class BMSelector {
 
 
     public static double[][] selectGammas(int numClasses, MultiLabel[] multiLabels, int numClusters) {
-        DataSet dataSet = DataSetBuilder.getBuilder()
-                .numDataPoints(multiLabels.length)
-                .numFeatures(numClasses)
-                // use sparse format to speed up computation
-                .density(Density.SPARSE_RANDOM)
-                .build();
-        for (int i=0;i<multiLabels.length;i++){
-            MultiLabel multiLabel = multiLabels[i];
-            for (int label: multiLabel.getMatchedLabels()){
-                dataSet.setFeatureValue(i,label,1);
-            }
-        }
-        BMTrainer trainer = BMSelector.selectTrainer(dataSet, numClusters, 10);
+        SparseBinaryMatrix data = SparseBinaryMatrix.fromMultiLabels(multiLabels, numClasses);
+        BMTrainer trainer = BMSelector.selectTrainer(data, numClusters, 10);
 //        System.out.println("bm = "+trainer.bm);
 //        System.out.println("gamma = "+ Arrays.deepToString(trainer.gammas));
         return trainer.gammas;
@@ -76,19 +59,8 @@ public class BMSelector {
 
 
     public static Pair<BM,double[][]> selectAll(int numClasses, MultiLabel[] multiLabels, int numClusters) {
-        DataSet dataSet = DataSetBuilder.getBuilder()
-                .numDataPoints(multiLabels.length)
-                .numFeatures(numClasses)
-                // use sparse format to speed up computation
-                .density(Density.SPARSE_RANDOM)
-                .build();
-        for (int i=0;i<multiLabels.length;i++){
-            MultiLabel multiLabel = multiLabels[i];
-            for (int label: multiLabel.getMatchedLabels()){
-                dataSet.setFeatureValue(i,label,1);
-            }
-        }
-        BMTrainer trainer = BMSelector.selectTrainer(dataSet, numClusters, 10);
+        SparseBinaryMatrix data = SparseBinaryMatrix.fromMultiLabels(multiLabels, numClasses);
+        BMTrainer trainer = BMSelector.selectTrainer(data, numClusters, 10);
 //        System.out.println("bm = "+trainer.bm);
 //        System.out.println("gamma = "+ Arrays.deepToString(trainer.gammas));
         Pair<BM,double[][]> pair = new Pair<>();
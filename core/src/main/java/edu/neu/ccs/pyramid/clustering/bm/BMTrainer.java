@@ -4,21 +4,20 @@ import edu.neu.ccs.pyramid.dataset.DataSet;
 import edu.neu.ccs.pyramid.eval.Entropy;
 import edu.neu.ccs.pyramid.eval.KLDivergence;
 import edu.neu.ccs.pyramid.optimization.*;
-import edu.neu.ccs.pyramid.util.BernoulliDistribution;
 import edu.neu.ccs.pyramid.util.MathUtil;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.apache.mahout.math.DenseVector;
-import org.apache.mahout.math.Vector;
 
 import java.util.stream.IntStream;
 
 /**
+ * EM for Bernoulli mixtures on sparse binary data
+ * log p(x|k) = sum_d log(1-mu_kd) + sum over non-zeros of log odds, so both steps scale with the number of non-zeros
  * Created by chengli on 9/12/15.
  */
 public class BMTrainer {
     private static final Logger logger = LogManager.getLogger();
-    DataSet dataSet;
+    SparseBinaryMatrix data;
     /**
      * gammas[i][k] = probability of data i in cluster k
      */
@@ -29,10 +28,14 @@ public class BMTrainer {
     int numIterations=200;
 
     public BMTrainer(DataSet dataSet, int numClusters, long randomSeed) {
+        this(SparseBinaryMatrix.fromDataSet(dataSet), numClusters, randomSeed);
+    }
+
+    BMTrainer(SparseBinaryMatrix data, int numClusters, long randomSeed) {
         this.numClusters = numClusters;
-        this.dataSet = dataSet;
-        this.gammas = new double[dataSet.getNumDataPoints()][numClusters];
-        this.bm = new BM(numClusters,dataSet.getNumFeatures(), randomSeed);
+        this.data = data;
+        this.gammas = new double[data.getNumRows()][numClusters];
+        this.bm = new BM(numClusters,data.getNumColumns(), randomSeed);
 
 //        this.terminator = new Terminator();
 //        this.terminator.setAbsoluteEpsilon(0.1);
@@ -91,52 +94,48 @@ public class BMTrainer {
         }
     }
 
+    /**
+     * only touches the non-zeros: each column adds its rows' gammas to all clusters at once
+     */
     public  void mStep(){
         if (logger.isDebugEnabled()){
             logger.debug("start M step");
         }
-        IntStream.range(0,numClusters).forEach(this::updateCluster);
-        bm.updateLogClusterConditioinalForEmpty();
-        if (logger.isDebugEnabled()){
-            logger.debug("finish M step");
-            logger.debug("objective = "+ getObjective());
+        final double[] effectiveTotals = new double[numClusters];
+        for (double[] gamma: gammas){
+            for (int k=0;k<numClusters;k++){
+                effectiveTotals[k] += gamma[k];
+            }
         }
-    }
-
-
-    /**
-     *
-     * @param k cluster index
-     */
-    private void updateCluster(int k){
 
-        final double effectiveTotal = IntStream.range(0, dataSet.getNumDataPoints())
-                .parallel()
-                .mapToDouble(i-> gammas[i][k]).sum();
-
-        IntStream.range(0, dataSet.getNumFeatures()).parallel()
+        IntStream.range(0, data.getNumColumns()).parallel()
                 .forEach(d-> {
-                    double sum = weightedSum(k, d);
-                    double average = sum/effectiveTotal;
-                    // it may happen that average = 1.0000000000000022, for numerical reasons
-                    if (average>=1){
-                        average = 0.9999;
+                    double[] sums = new double[numClusters];
+                    for (int i: data.getColumn(d)){
+                        double[] gamma = gammas[i];
+                        for (int k=0;k<numClusters;k++){
+                            sums[k] += gamma[k];
+                        }
+                    }
+                    for (int k=0;k<numClusters;k++){
+                        double average = sums[k]/effectiveTotals[k];
+                        // it may happen that average = 1.0000000000000022, for numerical reasons
+                        if (average>=1){
+                            average = 0.9999;
+                        }
+                        bm.setProbability(k, d, average);
                     }
-                    bm.distributions[k][d] = new BernoulliDistribution(average);
                 });
 
-        bm.mixtureCoefficients[k] = effectiveTotal/dataSet.getNumDataPoints();
-        bm.logMixtureCoefficients[k] = Math.log(bm.mixtureCoefficients[k]);
-    }
-
-    private double weightedSum(int clusterIndex, int dimensionIndex){
-        Vector column = dataSet.getColumn(dimensionIndex);
-        double sum = 0;
-        for (Vector.Element nonzero: column.nonZeroes()){
-            int i = nonzero.index();
-            sum += gammas[i][clusterIndex];
+        for (int k=0;k<numClusters;k++){
+            bm.mixtureCoefficients[k] = effectiveTotals[k]/data.getNumRows();
+            bm.logMixtureCoefficients[k] = Math.log(bm.mixtureCoefficients[k]);
+        }
+        bm.updateLogClusterConditioinalForEmpty();
+        if (logger.isDebugEnabled()){
+            logger.debug("finish M step");
+            logger.debug("objective = "+ getObjective());
         }
-        return sum;
     }
 
 
@@ -144,26 +143,20 @@ public class BMTrainer {
      * update all gammas
      */
     private void updateGamma(){
-        IntStream.range(0,dataSet.getNumDataPoints()).parallel()
+        IntStream.range(0,data.getNumRows()).parallel()
                 .forEach(this::updateGamma);
     }
 
     /**
-     *
+     * the log numerators are written into gammas[n] and normalized in place
      * @param n data point index
      */
     private void updateGamma(int n){
-        Vector feature = dataSet.getRow(n);
-        int numClusters = bm.getNumClusters();
-
-        double[] logClusterConditionalProbs = bm.clusterConditionalLogProbArr(feature);
-        double[] logNumerators = new double[numClusters];
-        for (int k=0;k<numClusters;k++){
-            logNumerators[k] = bm.logMixtureCoefficients[k] + logClusterConditionalProbs[k];
-        }
-        double logDenominator = MathUtil.logSumExp(logNumerators);
+        double[] gamma = gammas[n];
+        bm.logJoints(data.getRow(n), gamma);
+        double logDenominator = MathUtil.logSumExp(gamma);
         for (int k=0;k<numClusters;k++){
-            gammas[n][k] = Math.exp(logNumerators[k] - logDenominator);
+            gamma[k] = Math.exp(gamma[k] - logDenominator);
         }
     }
 
@@ -174,7 +167,7 @@ public class BMTrainer {
      * @return
      */
     private double exactObjective(){
-        return IntStream.range(0,dataSet.getNumDataPoints()).parallel().mapToDouble(this::exactObjective)
+        return IntStream.range(0,data.getNumRows()).parallel().mapToDouble(this::exactObjective)
                 .sum();
     }
 
@@ -184,7 +177,7 @@ public class BMTrainer {
      * @return
      */
     private double exactObjective(int i){
-        return -1*bm.logProbability(dataSet.getRow(i));
+        return -1*bm.logProbability(data.getRow(i));
     }
 
 
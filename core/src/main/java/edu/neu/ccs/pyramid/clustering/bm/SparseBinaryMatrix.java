@@ -0,0 +1,92 @@
+package edu.neu.ccs.pyramid.clustering.bm;
+
+import edu.neu.ccs.pyramid.dataset.DataSet;
+import edu.neu.ccs.pyramid.dataset.MultiLabel;
+import org.apache.mahout.math.Vector;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * binary data in primitive arrays, stored both by row and by column
+ * any non-zero value is treated as 1
+ */
+class SparseBinaryMatrix {
+    private int numRows;
+    private int numColumns;
+    /**
+     * rows[i] = sorted dimensions that are 1 in row i
+     */
+    private int[][] rows;
+    /**
+     * columns[d] = sorted rows that are 1 in dimension d
+     */
+    private int[][] columns;
+
+    SparseBinaryMatrix(int[][] rows, int numColumns) {
+        this.numRows = rows.length;
+        this.numColumns = numColumns;
+        this.rows = rows;
+        int[] counts = new int[numColumns];
+        for (int[] row: rows){
+            for (int d: row){
+                counts[d] += 1;
+            }
+        }
+        this.columns = new int[numColumns][];
+        for (int d=0;d<numColumns;d++){
+            columns[d] = new int[counts[d]];
+        }
+        int[] positions = new int[numColumns];
+        for (int i=0;i<numRows;i++){
+            for (int d: rows[i]){
+                columns[d][positions[d]] = i;
+                positions[d] += 1;
+            }
+        }
+    }
+
+    static SparseBinaryMatrix fromDataSet(DataSet dataSet){
+        int[][] rows = IntStream.range(0, dataSet.getNumDataPoints()).parallel()
+                .mapToObj(i->{
+                    Vector row = dataSet.getRow(i);
+                    int count = 0;
+                    for (Vector.Element element: row.nonZeroes()){
+                        count += 1;
+                    }
+                    int[] dims = new int[count];
+                    int pos = 0;
+                    for (Vector.Element element: row.nonZeroes()){
+                        dims[pos] = element.index();
+                        pos += 1;
+                    }
+                    Arrays.sort(dims);
+                    return dims;
+                }).toArray(int[][]::new);
+        return new SparseBinaryMatrix(rows, dataSet.getNumFeatures());
+    }
+
+    static SparseBinaryMatrix fromMultiLabels(MultiLabel[] multiLabels, int numClasses){
+        int[][] rows = new int[multiLabels.length][];
+        for (int i=0;i<multiLabels.length;i++){
+            rows[i] = multiLabels[i].getMatchedLabels().stream().mapToInt(Integer::intValue).sorted().toArray();
+        }
+        return new SparseBinaryMatrix(rows, numClasses);
+    }
+
+    int getNumRows() {
+        return numRows;
+    }
+
+    int getNumColumns() {
+        return numColumns;
+    }
+
+    int[] getRow(int i){
+        return rows[i];
+    }
+
+    int[] getColumn(int d){
+        return columns[d];
+    }
+}
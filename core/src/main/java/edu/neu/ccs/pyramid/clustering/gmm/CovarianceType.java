@@ -0,0 +1,11 @@
+package edu.neu.ccs.pyramid.clustering.gmm;
+
+/**
+ * covariance structure of each gaussian component in {@link DenseGMM}
+ * FULL: one d by d matrix per component
+ * DIAGONAL: one variance per dimension per component
+ * SPHERICAL: one shared variance for all dimensions per component
+ */
+public enum CovarianceType {
+    FULL, DIAGONAL, SPHERICAL
+}
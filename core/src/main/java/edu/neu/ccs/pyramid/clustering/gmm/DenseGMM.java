@@ -0,0 +1,304 @@
+package edu.neu.ccs.pyramid.clustering.gmm;
+
+import edu.neu.ccs.pyramid.util.MathUtil;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * gaussian mixture model on primitive arrays
+ * data points are rows of a row-major double[], i.e. row i occupies [i*dimension, (i+1)*dimension)
+ * the cholesky factor and log determinant of each covariance are cached when the covariance is set,
+ * so evaluating a log density is one triangular solve and no allocation
+ */
+public class DenseGMM implements Serializable{
+    private static final long serialVersionUID = 1L;
+    private static final double LOG_2PI = Math.log(2*Math.PI);
+    private int numComponents;
+    private int dimension;
+    private CovarianceType covarianceType;
+    private double[] mixtureCoefficients;
+    /**
+     * format: [component][dimension]
+     */
+    private double[][] means;
+    /**
+     * format: [component][entries]
+     * FULL: d*d row-major symmetric matrix
+     * DIAGONAL: d variances
+     * SPHERICAL: 1 variance
+     */
+    private double[][] covariances;
+    /**
+     * format: [component][entries]
+     * FULL: d*d row-major lower triangular L with covariance = L L^T
+     * DIAGONAL and SPHERICAL: 1/standard deviation
+     */
+    private double[][] choleskyFactors;
+    private double[] logDeterminants;
+    /**
+     * log(pi_k) - 0.5*(d*log(2pi) + log|Sigma_k|)
+     */
+    private double[] logNormalizers;
+
+    /**
+     * random rows as means, per dimension variance as the initial covariance
+     * @param numComponents
+     * @param covarianceType
+     * @param data row-major data
+     * @param numDataPoints
+     * @param dimension
+     * @param randomSeed
+     */
+    public DenseGMM(int numComponents, CovarianceType covarianceType, double[] data,
+                    int numDataPoints, int dimension, long randomSeed) {
+        this.numComponents = numComponents;
+        this.dimension = dimension;
+        this.covarianceType = covarianceType;
+        this.mixtureCoefficients = new double[numComponents];
+        Arrays.fill(this.mixtureCoefficients,1.0/numComponents);
+        this.means = new double[numComponents][];
+        this.covariances = new double[numComponents][];
+        this.choleskyFactors = new double[numComponents][];
+        this.logDeterminants = new double[numComponents];
+        this.logNormalizers = new double[numComponents];
+
+        double[] sums = new double[dimension];
+        double[] squaredSums = new double[dimension];
+        for (int i=0;i<numDataPoints;i++){
+            int offset = i*dimension;
+            for (int j=0;j<dimension;j++){
+                double value = data[offset+j];
+                sums[j] += value;
+                squaredSums[j] += value*value;
+            }
+        }
+        double[] vars = new double[dimension];
+        for (int j=0;j<dimension;j++){
+            double mean = sums[j]/numDataPoints;
+            vars[j] = Math.max(squaredSums[j]/numDataPoints-mean*mean,0)+0.00001;
+        }
+
+        Random random = new Random(randomSeed);
+        for (int k=0;k<numComponents;k++){
+            int randomMeanInstance = random.nextInt(numDataPoints);
+            means[k] = Arrays.copyOfRange(data, randomMeanInstance*dimension, (randomMeanInstance+1)*dimension);
+            setCovariance(k, diagonalCovariance(vars));
+        }
+    }
+
+    public int getNumComponents() {
+        return numComponents;
+    }
+
+    public int getDimension() {
+        return dimension;
+    }
+
+    public CovarianceType getCovarianceType() {
+        return covarianceType;
+    }
+
+    public double[] getMixtureCoefficients() {
+        return mixtureCoefficients;
+    }
+
+    public double[] getMean(int k) {
+        return means[k];
+    }
+
+    /**
+     *
+     * @param k component
+     * @return FULL: d*d row-major matrix; DIAGONAL: d variances; SPHERICAL: 1 variance
+     */
+    public double[] getCovariance(int k) {
+        return covariances[k];
+    }
+
+    public double getLogDeterminant(int k) {
+        return logDeterminants[k];
+    }
+
+    void setMixtureCoefficient(int k, double value){
+        mixtureCoefficients[k] = value;
+        updateLogNormalizer(k);
+    }
+
+    void setMean(int k, double[] mean){
+        means[k] = mean;
+    }
+
+    /**
+     * set the covariance and refresh the cached factorization
+     * @param k component
+     * @param covariance in the layout of {@link #getCovariance(int)}
+     */
+    void setCovariance(int k, double[] covariance){
+        double[] factor = new double[covariance.length];
+        double logDeterminant = 0;
+        switch (covarianceType){
+            case FULL:
+                cholesky(covariance, factor, dimension);
+                for (int j=0;j<dimension;j++){
+                    logDeterminant += Math.log(factor[j*dimension+j]);
+                }
+                logDeterminant *= 2;
+                break;
+            case DIAGONAL:
+                for (int j=0;j<dimension;j++){
+                    factor[j] = 1/Math.sqrt(covariance[j]);
+                    logDeterminant += Math.log(covariance[j]);
+                }
+                break;
+            case SPHERICAL:
+                factor[0] = 1/Math.sqrt(covariance[0]);
+                logDeterminant = dimension*Math.log(covariance[0]);
+                break;
+        }
+        covariances[k] = covariance;
+        choleskyFactors[k] = factor;
+        logDeterminants[k] = logDeterminant;
+        updateLogNormalizer(k);
+    }
+
+    private void updateLogNormalizer(int k){
+        logNormalizers[k] = Math.log(mixtureCoefficients[k])-0.5*(dimension*LOG_2PI+logDeterminants[k]);
+    }
+
+    /**
+     * convert a diagonal variance vector into the layout required by the covariance type
+     */
+    double[] diagonalCovariance(double[] vars){
+        switch (covarianceType){
+            case FULL:
+                double[] full = new double[dimension*dimension];
+                for (int j=0;j<dimension;j++){
+                    full[j*dimension+j] = vars[j];
+                }
+                return full;
+            case DIAGONAL:
+                return Arrays.copyOf(vars, dimension);
+            default:
+                return new double[]{MathUtil.arraySum(vars)/dimension};
+        }
+    }
+
+    /**
+     * squared mahalanobis distance between a row and the mean of component k
+     * @param data row-major data
+     * @param offset start of the row
+     * @param k component
+     * @param buffer scratch space of length dimension
+     * @return
+     */
+    double mahalanobis(double[] data, int offset, int k, double[] buffer){
+        double[] mean = means[k];
+        double[] factor = choleskyFactors[k];
+        double sum = 0;
+        switch (covarianceType){
+            case FULL:
+                // forward substitution L z = x - mu
+                for (int a=0;a<dimension;a++){
+                    double value = data[offset+a]-mean[a];
+                    int rowStart = a*dimension;
+                    for (int b=0;b<a;b++){
+                        value -= factor[rowStart+b]*buffer[b];
+                    }
+                    value /= factor[rowStart+a];
+                    buffer[a] = value;
+                    sum += value*value;
+                }
+                break;
+            case DIAGONAL:
+                for (int j=0;j<dimension;j++){
+                    double z = (data[offset+j]-mean[j])*factor[j];
+                    sum += z*z;
+                }
+                break;
+            case SPHERICAL:
+                for (int j=0;j<dimension;j++){
+                    double diff = data[offset+j]-mean[j];
+                    sum += diff*diff;
+                }
+                sum *= factor[0]*factor[0];
+                break;
+        }
+        return sum;
+    }
+
+    /**
+     * log(pi_k) + log N(x|mu_k, Sigma_k) for all k
+     * @param data row-major data
+     * @param offset start of the row
+     * @param buffer scratch space of length dimension
+     * @param logJoints output, length numComponents
+     */
+    void logJoints(double[] data, int offset, double[] buffer, double[] logJoints){
+        for (int k=0;k<numComponents;k++){
+            logJoints[k] = logNormalizers[k]-0.5*mahalanobis(data, offset, k, buffer);
+        }
+    }
+
+    public double logDensity(double[] instance){
+        double[] arr = new double[numComponents];
+        logJoints(instance, 0, new double[dimension], arr);
+        return MathUtil.logSumExp(arr);
+    }
+
+    public double[] posteriors(double[] instance){
+        double[] arr = new double[numComponents];
+        logJoints(instance, 0, new double[dimension], arr);
+        double logDenominator = MathUtil.logSumExp(arr);
+        double[] posteriors = new double[numComponents];
+        for (int k=0;k<numComponents;k++){
+            posteriors[k] = Math.exp(arr[k]-logDenominator);
+        }
+        return posteriors;
+    }
+
+    /**
+     * in-place style cholesky decomposition of a symmetric positive definite row-major matrix
+     * only the lower triangle of the input is read
+     * @param matrix d*d input
+     * @param factor d*d output, lower triangular
+     * @param d dimension
+     */
+    static void cholesky(double[] matrix, double[] factor, int d){
+        for (int a=0;a<d;a++){
+            int rowA = a*d;
+            for (int b=0;b<=a;b++){
+                int rowB = b*d;
+                double sum = matrix[rowA+b];
+                for (int c=0;c<b;c++){
+                    sum -= factor[rowA+c]*factor[rowB+c];
+                }
+                if (a==b){
+                    if (sum<=0){
+                        throw new IllegalArgumentException("covariance matrix is not positive definite");
+                    }
+                    factor[rowA+a] = Math.sqrt(sum);
+                } else {
+                    factor[rowA+b] = sum/factor[rowB+b];
+                }
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("DenseGMM{");
+        sb.append("numComponents=").append(numComponents).append("\n");
+        sb.append("covarianceType=").append(covarianceType).append("\n");
+        sb.append("mixture coefficients = "+Arrays.toString(mixtureCoefficients)).append("\n");
+        for (int k=0;k<numComponents;k++){
+            sb.append("component "+k).append("\n");
+            sb.append("mixture coefficient = "+mixtureCoefficients[k]).append("\n");
+            sb.append("mean = "+Arrays.toString(means[k])).append("\n");
+            sb.append("log determinant = "+logDeterminants[k]).append("\n");
+        }
+        sb.append('}');
+        return sb.toString();
+    }
+}
@@ -0,0 +1,271 @@
+package edu.neu.ccs.pyramid.clustering.gmm;
+
+import edu.neu.ccs.pyramid.dataset.DataSet;
+import edu.neu.ccs.pyramid.util.MathUtil;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.mahout.math.Vector;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * EM for {@link DenseGMM}
+ * rows are processed in blocks; each parallel chunk of rows accumulates its own sufficient statistics
+ * (sum gamma, sum gamma*x, sum gamma*x*x^T) which are merged once per M step,
+ * so no matrix is allocated per data point
+ */
+public class DenseGMMTrainer {
+    private static final Logger logger = LogManager.getLogger();
+    /**
+     * row-major, size = numDataPoints*dimension
+     */
+    private double[] data;
+    private int numDataPoints;
+    private int dimension;
+    private DenseGMM gmm;
+    /**
+     * gammas[i*numComponents+k] = posterior of data point i in component k
+     */
+    private double[] gammas;
+    private double reg = 0.0001;
+    private int blockSize = 256;
+    private double logLikelihood = Double.NEGATIVE_INFINITY;
+
+    public DenseGMMTrainer(double[] data, int numDataPoints, int dimension, DenseGMM gmm) {
+        if (data.length!=numDataPoints*dimension){
+            throw new IllegalArgumentException("data.length="+data.length+"!=numDataPoints*dimension="+numDataPoints*dimension);
+        }
+        this.data = data;
+        this.numDataPoints = numDataPoints;
+        this.dimension = dimension;
+        this.gmm = gmm;
+        this.gammas = new double[numDataPoints*gmm.getNumComponents()];
+    }
+
+    /**
+     * copy the rows of a data set into a row-major array
+     */
+    public static double[] toRowMajor(DataSet dataSet){
+        int dimension = dataSet.getNumFeatures();
+        double[] data = new double[dataSet.getNumDataPoints()*dimension];
+        IntStream.range(0, dataSet.getNumDataPoints()).parallel().forEach(i->{
+            int offset = i*dimension;
+            for (Vector.Element element: dataSet.getRow(i).nonZeroes()){
+                data[offset+element.index()] = element.get();
+            }
+        });
+        return data;
+    }
+
+    /**
+     * value added to the diagonal of each covariance
+     */
+    public void setReg(double reg) {
+        this.reg = reg;
+    }
+
+    /**
+     * number of rows processed together when accumulating statistics
+     */
+    public void setBlockSize(int blockSize) {
+        this.blockSize = blockSize;
+    }
+
+    public DenseGMM getGmm() {
+        return gmm;
+    }
+
+    public double[] getGammas() {
+        return gammas;
+    }
+
+    public void setGammas(double[] gammas) {
+        this.gammas = gammas;
+    }
+
+    /**
+     * log likelihood of the data under the model used in the last E step
+     */
+    public double getLogLikelihood() {
+        return logLikelihood;
+    }
+
+    public void iterate(){
+        eStep();
+        mStep();
+    }
+
+    public void eStep(){
+        if (logger.isDebugEnabled()){
+            logger.debug("start E step");
+        }
+        int numBlocks = numBlocks();
+        this.logLikelihood = IntStream.range(0, numBlocks).parallel()
+                .mapToDouble(this::eStep).sum();
+        if (logger.isDebugEnabled()){
+            logger.debug("finish E step");
+            logger.debug("log likelihood = "+logLikelihood);
+        }
+    }
+
+    /**
+     * @return log likelihood of the block
+     */
+    private double eStep(int block){
+        int numComponents = gmm.getNumComponents();
+        double[] buffer = new double[dimension];
+        double[] logJoints = new double[numComponents];
+        int start = block*blockSize;
+        int end = Math.min(start+blockSize, numDataPoints);
+        double sum = 0;
+        for (int i=start;i<end;i++){
+            gmm.logJoints(data, i*dimension, buffer, logJoints);
+            double logDenominator = MathUtil.logSumExp(logJoints);
+            int gammaOffset = i*numComponents;
+            for (int k=0;k<numComponents;k++){
+                gammas[gammaOffset+k] = Math.exp(logJoints[k]-logDenominator);
+            }
+            sum += logDenominator;
+        }
+        return sum;
+    }
+
+    public void mStep(){
+        if (logger.isDebugEnabled()){
+            logger.debug("start M step");
+        }
+        int numBlocks = numBlocks();
+        int numChunks = Math.min(numBlocks, 2*ForkJoinPool.getCommonPoolParallelism());
+        SufficientStatistics stats = IntStream.range(0, numChunks).parallel()
+                .mapToObj(chunk -> accumulate(chunk, numChunks, numBlocks))
+                .reduce(SufficientStatistics::merge).get();
+        IntStream.range(0, gmm.getNumComponents()).parallel()
+                .forEach(k->updateComponent(k, stats));
+        if (logger.isDebugEnabled()){
+            logger.debug("finish M step");
+        }
+    }
+
+    private int numBlocks(){
+        return (numDataPoints+blockSize-1)/blockSize;
+    }
+
+    /**
+     * accumulate the statistics of the blocks assigned to one chunk
+     */
+    private SufficientStatistics accumulate(int chunk, int numChunks, int numBlocks){
+        int numComponents = gmm.getNumComponents();
+        boolean full = gmm.getCovarianceType()==CovarianceType.FULL;
+        SufficientStatistics stats = new SufficientStatistics(numComponents, dimension, full);
+        int firstBlock = (int)((long)numBlocks*chunk/numChunks);
+        int lastBlock = (int)((long)numBlocks*(chunk+1)/numChunks);
+        for (int block=firstBlock;block<lastBlock;block++){
+            int start = block*blockSize;
+            int end = Math.min(start+blockSize, numDataPoints);
+            // component-major inside a block: the block stays in cache while each component's
+            // accumulator is updated in turn
+            for (int k=0;k<numComponents;k++){
+                double[] sumX = stats.sumX[k];
+                double[] sumXX = stats.sumXX[k];
+                double sumGamma = 0;
+                for (int i=start;i<end;i++){
+                    double gamma = gammas[i*numComponents+k];
+                    if (gamma==0){
+                        continue;
+                    }
+                    sumGamma += gamma;
+                    int offset = i*dimension;
+                    if (full){
+                        for (int a=0;a<dimension;a++){
+                            double weighted = gamma*data[offset+a];
+                            sumX[a] += weighted;
+                            int rowStart = a*dimension;
+                            // lower triangle only; mirrored in the M step
+                            for (int b=0;b<=a;b++){
+                                sumXX[rowStart+b] += weighted*data[offset+b];
+                            }
+                        }
+                    } else {
+                        for (int a=0;a<dimension;a++){
+                            double value = data[offset+a];
+                            double weighted = gamma*value;
+                            sumX[a] += weighted;
+                            sumXX[a] += weighted*value;
+                        }
+                    }
+                }
+                stats.sumGamma[k] += sumGamma;
+            }
+        }
+        return stats;
+    }
+
+    private void updateComponent(int k, SufficientStatistics stats){
+        double sumGamma = stats.sumGamma[k];
+        gmm.setMixtureCoefficient(k, sumGamma/numDataPoints);
+        // an empty component keeps its previous mean and covariance
+        if (sumGamma<=0){
+            return;
+        }
+        double[] mean = new double[dimension];
+        for (int a=0;a<dimension;a++){
+            mean[a] = stats.sumX[k][a]/sumGamma;
+        }
+        gmm.setMean(k, mean);
+        double[] sumXX = stats.sumXX[k];
+        switch (gmm.getCovarianceType()){
+            case FULL:
+                double[] cov = new double[dimension*dimension];
+                for (int a=0;a<dimension;a++){
+                    for (int b=0;b<=a;b++){
+                        double value = sumXX[a*dimension+b]/sumGamma-mean[a]*mean[b];
+                        cov[a*dimension+b] = value;
+                        cov[b*dimension+a] = value;
+                    }
+                    cov[a*dimension+a] += reg;
+                }
+                gmm.setCovariance(k, cov);
+                break;
+            case DIAGONAL:
+            case SPHERICAL:
+                double[] vars = new double[dimension];
+                for (int a=0;a<dimension;a++){
+                    vars[a] = Math.max(sumXX[a]/sumGamma-mean[a]*mean[a],0)+reg;
+                }
+                gmm.setCovariance(k, gmm.diagonalCovariance(vars));
+                break;
+        }
+    }
+
+    private static class SufficientStatistics{
+        private double[] sumGamma;
+        /**
+         * format: [component][dimension]
+         */
+        private double[][] sumX;
+        /**
+         * format: [component][d*d lower triangle] for full covariance, [component][d] otherwise
+         */
+        private double[][] sumXX;
+
+        SufficientStatistics(int numComponents, int dimension, boolean full) {
+            this.sumGamma = new double[numComponents];
+            this.sumX = new double[numComponents][dimension];
+            this.sumXX = new double[numComponents][full? dimension*dimension: dimension];
+        }
+
+        SufficientStatistics merge(SufficientStatistics other){
+            for (int k=0;k<sumGamma.length;k++){
+                sumGamma[k] += other.sumGamma[k];
+                for (int a=0;a<sumX[k].length;a++){
+                    sumX[k][a] += other.sumX[k][a];
+                }
+                for (int a=0;a<sumXX[k].length;a++){
+                    sumXX[k][a] += other.sumXX[k][a];
+                }
+            }
+            return this;
+        }
+    }
+}
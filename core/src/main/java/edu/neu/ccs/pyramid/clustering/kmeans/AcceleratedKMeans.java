@@ -0,0 +1,422 @@
+package edu.neu.ccs.pyramid.clustering.kmeans;
+
+import edu.neu.ccs.pyramid.dataset.DataSet;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.mahout.math.DenseVector;
+import org.apache.mahout.math.Vector;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * K-means with Hamerly's bounds
+ * each point keeps an upper bound on the distance to its assigned center and a lower bound on the distance to
+ * every other center; after the first iterations most points are skipped without computing any distance
+ * rows are copied once into primitive sparse arrays; distances use cached squared norms and sparse-dense dot products
+ * also supports mini-batch updates for streaming use
+ *
+ * Hamerly, Greg. "Making k-means even faster." SDM 2010.
+ * Sculley, D. "Web-scale k-means clustering." WWW 2010.
+ */
+public class AcceleratedKMeans {
+    private static final Logger logger = LogManager.getLogger();
+    private int numComponents;
+    private int numDataPoints;
+    private int dimension;
+    /**
+     * row i occupies [rowOffsets[i], rowOffsets[i+1]) of indices and values
+     */
+    private int[] rowOffsets;
+    private int[] indices;
+    private double[] values;
+    private double[] squaredNorms;
+
+    /**
+     * format: [component][dimension]
+     */
+    private double[][] centers;
+    private double[] centerSquaredNorms;
+    private int[] assignments;
+    private double[] upperBounds;
+    private double[] lowerBounds;
+    // false until the bounds are computed exactly, and after mini-batch updates
+    private boolean boundsValid;
+    // number of points seen by each center in mini-batch mode
+    private long[] miniBatchCounts;
+    private Random random;
+
+    public AcceleratedKMeans(int numComponents, DataSet dataSet, long randomSeed) {
+        this.numComponents = numComponents;
+        this.numDataPoints = dataSet.getNumDataPoints();
+        this.dimension = dataSet.getNumFeatures();
+        this.random = new Random(randomSeed);
+        loadRows(dataSet);
+        this.centers = new double[numComponents][];
+        this.centerSquaredNorms = new double[numComponents];
+        this.assignments = new int[numDataPoints];
+        this.upperBounds = new double[numDataPoints];
+        this.lowerBounds = new double[numDataPoints];
+        this.miniBatchCounts = new long[numComponents];
+    }
+
+    private void loadRows(DataSet dataSet){
+        this.rowOffsets = new int[numDataPoints+1];
+        for (int i=0;i<numDataPoints;i++){
+            int count = 0;
+            for (Vector.Element element: dataSet.getRow(i).nonZeroes()){
+                count += 1;
+            }
+            rowOffsets[i+1] = rowOffsets[i]+count;
+        }
+        this.indices = new int[rowOffsets[numDataPoints]];
+        this.values = new double[rowOffsets[numDataPoints]];
+        this.squaredNorms = new double[numDataPoints];
+        IntStream.range(0, numDataPoints).parallel().forEach(i->{
+            int pos = rowOffsets[i];
+            double norm = 0;
+            for (Vector.Element element: dataSet.getRow(i).nonZeroes()){
+                indices[pos] = element.index();
+                values[pos] = element.get();
+                norm += element.get()*element.get();
+                pos += 1;
+            }
+            squaredNorms[i] = norm;
+        });
+    }
+
+    public int getNumComponents() {
+        return numComponents;
+    }
+
+    public int[] getAssignments() {
+        return assignments;
+    }
+
+    /**
+     *
+     * @return format: [component][dimension]
+     */
+    public double[][] getCenters() {
+        return centers;
+    }
+
+    public Vector[] getCenterVectors(){
+        Vector[] vectors = new Vector[numComponents];
+        for (int k=0;k<numComponents;k++){
+            vectors[k] = new DenseVector(centers[k]);
+        }
+        return vectors;
+    }
+
+    public void randomInitialize(){
+        for (int k=0;k<numComponents;k++){
+            setCenter(k, rowToDense(random.nextInt(numDataPoints)));
+        }
+        initializeBounds();
+    }
+
+    /**
+     * initialize the centers with the rows picked by k-means++
+     */
+    public void kmeansPlusPlusInitialize(DataSet dataSet){
+        KMeansPlusPlus kMeansPlusPlus = new KMeansPlusPlus(this.numComponents, dataSet);
+        kMeansPlusPlus.initialize(false);
+        List<Integer> pickedIds = kMeansPlusPlus.getPickedIds();
+        for (int k=0;k<numComponents;k++){
+            setCenter(k, rowToDense(pickedIds.get(k)));
+        }
+        initializeBounds();
+    }
+
+    private void checkInitialized(){
+        if (Arrays.stream(centers).anyMatch(center -> center==null)){
+            throw new IllegalStateException("centers are not initialized; call randomInitialize or kmeansPlusPlusInitialize first");
+        }
+    }
+
+    /**
+     * one Lloyd iteration: move the centers, then reassign the points that the bounds cannot rule out
+     * @return number of point-center distances computed
+     */
+    public long iterate(){
+        checkInitialized();
+        if (!boundsValid){
+            initializeBounds();
+        }
+        double[] drifts = updateCenters();
+        double[] halfMinSeparations = halfMinSeparations();
+        updateBounds(drifts);
+        long numDistances = IntStream.range(0, numDataPoints).parallel()
+                .mapToLong(i->assign(i, halfMinSeparations)).sum();
+        if (logger.isDebugEnabled()){
+            logger.debug("number of distance computations = "+numDistances);
+        }
+        return numDistances;
+    }
+
+    /**
+     * one mini-batch update; the learning rate of each center is 1/(number of points it has seen)
+     * @param batchSize
+     */
+    public void miniBatchIterate(int batchSize){
+        checkInitialized();
+        int[] batch = new int[batchSize];
+        for (int b=0;b<batchSize;b++){
+            batch[b] = random.nextInt(numDataPoints);
+        }
+        int[] nearest = Arrays.stream(batch).parallel().map(this::nearestCenter).toArray();
+        List<List<Integer>> members = new ArrayList<>(numComponents);
+        for (int k=0;k<numComponents;k++){
+            members.add(new ArrayList<>());
+        }
+        for (int b=0;b<batchSize;b++){
+            members.get(nearest[b]).add(batch[b]);
+        }
+        // centers are independent of each other
+        IntStream.range(0, numComponents).parallel().forEach(k->{
+            double[] center = centers[k];
+            for (int i: members.get(k)){
+                miniBatchCounts[k] += 1;
+                double eta = 1.0/miniBatchCounts[k];
+                for (int j=0;j<dimension;j++){
+                    center[j] *= (1-eta);
+                }
+                for (int pos=rowOffsets[i];pos<rowOffsets[i+1];pos++){
+                    center[indices[pos]] += eta*values[pos];
+                }
+            }
+            centerSquaredNorms[k] = squaredNorm(center);
+        });
+        boundsValid = false;
+    }
+
+    /**
+     * assign every point to its nearest center with exact distances
+     */
+    public void assignAll(){
+        initializeBounds();
+    }
+
+    public double objective(){
+        return IntStream.range(0, numDataPoints).parallel()
+                .mapToDouble(i->squaredDistance(i, assignments[i])).sum();
+    }
+
+    private void setCenter(int k, double[] center){
+        centers[k] = center;
+        centerSquaredNorms[k] = squaredNorm(center);
+    }
+
+    private double[] rowToDense(int i){
+        double[] dense = new double[dimension];
+        for (int pos=rowOffsets[i];pos<rowOffsets[i+1];pos++){
+            dense[indices[pos]] = values[pos];
+        }
+        return dense;
+    }
+
+    private void initializeBounds(){
+        IntStream.range(0, numDataPoints).parallel().forEach(this::assignExactly);
+        boundsValid = true;
+    }
+
+    /**
+     * compute the distances to all centers and reset the bounds of point i
+     */
+    private void assignExactly(int i){
+        double closest = Double.POSITIVE_INFINITY;
+        double secondClosest = Double.POSITIVE_INFINITY;
+        int closestIndex = 0;
+        for (int k=0;k<numComponents;k++){
+            double distance = distance(i, k);
+            if (distance<closest){
+                secondClosest = closest;
+                closest = distance;
+                closestIndex = k;
+            } else if (distance<secondClosest){
+                secondClosest = distance;
+            }
+        }
+        assignments[i] = closestIndex;
+        upperBounds[i] = closest;
+        lowerBounds[i] = secondClosest;
+    }
+
+    /**
+     * @return number of distances computed
+     */
+    private int assign(int i, double[] halfMinSeparations){
+        int a = assignments[i];
+        double bound = Math.max(halfMinSeparations[a], lowerBounds[i]);
+        if (upperBounds[i]<=bound){
+            return 0;
+        }
+        // tighten the upper bound before giving up on pruning
+        upperBounds[i] = distance(i, a);
+        if (upperBounds[i]<=bound){
+            return 1;
+        }
+        assignExactly(i);
+        return 1+numComponents;
+    }
+
+    private int nearestCenter(int i){
+        double closest = Double.POSITIVE_INFINITY;
+        int closestIndex = 0;
+        for (int k=0;k<numComponents;k++){
+            double distance = squaredDistance(i, k);
+            if (distance<closest){
+                closest = distance;
+                closestIndex = k;
+            }
+        }
+        return closestIndex;
+    }
+
+    /**
+     * recompute centers from per-chunk partial sums
+     * @return how far each center moved
+     */
+    private double[] updateCenters(){
+        int numChunks = Math.min(numDataPoints, ForkJoinPool.getCommonPoolParallelism());
+        PartialSums sums = IntStream.range(0, numChunks).parallel()
+                .mapToObj(chunk->partialSums(chunk, numChunks))
+                .reduce(PartialSums::merge).get();
+        double[] drifts = new double[numComponents];
+        IntStream.range(0, numComponents).parallel().forEach(k->{
+            // an empty cluster keeps its center
+            if (sums.counts[k]==0){
+                return;
+            }
+            double[] center = sums.sums[k];
+            double drift = 0;
+            for (int j=0;j<dimension;j++){
+                center[j] /= sums.counts[k];
+                double diff = center[j]-centers[k][j];
+                drift += diff*diff;
+            }
+            drifts[k] = Math.sqrt(drift);
+            setCenter(k, center);
+        });
+        return drifts;
+    }
+
+    private PartialSums partialSums(int chunk, int numChunks){
+        PartialSums partialSums = new PartialSums(numComponents, dimension);
+        int start = (int)((long)numDataPoints*chunk/numChunks);
+        int end = (int)((long)numDataPoints*(chunk+1)/numChunks);
+        for (int i=start;i<end;i++){
+            int k = assignments[i];
+            double[] sum = partialSums.sums[k];
+            for (int pos=rowOffsets[i];pos<rowOffsets[i+1];pos++){
+                sum[indices[pos]] += values[pos];
+            }
+            partialSums.counts[k] += 1;
+        }
+        return partialSums;
+    }
+
+    /**
+     * s[k] = half of the distance from center k to its closest other center
+     */
+    private double[] halfMinSeparations(){
+        double[] separations = new double[numComponents];
+        Arrays.fill(separations, Double.POSITIVE_INFINITY);
+        double[][] distances = new double[numComponents][numComponents];
+        IntStream.range(0, numComponents).parallel().forEach(k->{
+            for (int k2=k+1;k2<numComponents;k2++){
+                double[] c1 = centers[k];
+                double[] c2 = centers[k2];
+                double sum = 0;
+                for (int j=0;j<dimension;j++){
+                    double diff = c1[j]-c2[j];
+                    sum += diff*diff;
+                }
+                distances[k][k2] = Math.sqrt(sum);
+            }
+        });
+        for (int k=0;k<numComponents;k++){
+            for (int k2=k+1;k2<numComponents;k2++){
+                double half = distances[k][k2]/2;
+                separations[k] = Math.min(separations[k], half);
+                separations[k2] = Math.min(separations[k2], half);
+            }
+        }
+        return separations;
+    }
+
+    private void updateBounds(double[] drifts){
+        int largest = 0;
+        for (int k=1;k<numComponents;k++){
+            if (drifts[k]>drifts[largest]){
+                largest = k;
+            }
+        }
+        double secondLargestDrift = 0;
+        for (int k=0;k<numComponents;k++){
+            if (k!=largest){
+                secondLargestDrift = Math.max(secondLargestDrift, drifts[k]);
+            }
+        }
+        final int largestIndex = largest;
+        final double largestDrift = drifts[largest];
+        final double secondDrift = secondLargestDrift;
+        IntStream.range(0, numDataPoints).parallel().forEach(i->{
+            int a = assignments[i];
+            upperBounds[i] += drifts[a];
+            lowerBounds[i] -= (a==largestIndex)? secondDrift: largestDrift;
+        });
+    }
+
+    private double distance(int i, int k){
+        return Math.sqrt(squaredDistance(i, k));
+    }
+
+    /**
+     * ||x||^2 - 2 x.c + ||c||^2 with a sparse-dense dot product
+     */
+    private double squaredDistance(int i, int k){
+        double[] center = centers[k];
+        double dot = 0;
+        for (int pos=rowOffsets[i];pos<rowOffsets[i+1];pos++){
+            dot += values[pos]*center[indices[pos]];
+        }
+        return Math.max(squaredNorms[i]-2*dot+centerSquaredNorms[k], 0);
+    }
+
+    private static double squaredNorm(double[] vector){
+        double sum = 0;
+        for (double value: vector){
+            sum += value*value;
+        }
+        return sum;
+    }
+
+    private static class PartialSums{
+        /**
+         * format: [component][dimension]
+         */
+        private double[][] sums;
+        private int[] counts;
+
+        PartialSums(int numComponents, int dimension) {
+            this.sums = new double[numComponents][dimension];
+            this.counts = new int[numComponents];
+        }
+
+        PartialSums merge(PartialSums other){
+            for (int k=0;k<counts.length;k++){
+                counts[k] += other.counts[k];
+                for (int j=0;j<sums[k].length;j++){
+                    sums[k][j] += other.sums[k][j];
+                }
+            }
+            return this;
+        }
+    }
+}
@@ -0,0 +1,383 @@
+package edu.neu.ccs.pyramid.dataset;
+
+import edu.neu.ccs.pyramid.feature.FeatureList;
+import org.apache.mahout.math.Vector;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * native binary data set format, opened with memory mapping instead of parsing
+ * internally, a binary data set is a directory with a matrix file and serialized settings
+ *
+ * matrix file layout (little endian, every section starts at a multiple of 8 bytes):
+ * header (64 bytes): magic, version, numDataPoints, numFeatures, numClasses, flags, numNonZeros, numLabelEntries
+ * row offsets: long[numDataPoints+1]
+ * row indices: int[numNonZeros], sorted within each row
+ * row values: double[numNonZeros]
+ * column offsets: long[numFeatures+1]
+ * column indices: int[numNonZeros], sorted within each column
+ * column values: double[numNonZeros]
+ * label offsets: long[numDataPoints+1], only for multi-label data sets
+ * labels: int[numLabelEntries], sorted within each data point
+ *
+ * the matrix stays in the page cache and can be shared by several JVMs on the same host
+ */
+public class BinaryFormat {
+    private static final String MATRIX_FILE_NAME = "matrix.bin";
+    private static final String FEATURE_LIST_FILE_NAME = "feature_list.ser";
+    private static final String ID_TRANSLATOR_FILE_NAME = "id_translator.ser";
+    private static final String LABEL_TRANSLATOR_FILE_NAME = "label_translator.ser";
+    private static final int MAGIC = 0x50594D44;
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 64;
+    private static final int FLAG_MISSING_VALUE = 1;
+    private static final int FLAG_MULTI_LABEL = 2;
+
+    public static void save(DataSet dataSet, String binaryFile) throws IOException{
+        save(dataSet, new File(binaryFile));
+    }
+
+    public static void save(DataSet dataSet, File binaryFile) throws IOException{
+        if (dataSet instanceof MultiLabelClfDataSet){
+            save((MultiLabelClfDataSet) dataSet, binaryFile);
+            return;
+        }
+        if (!binaryFile.exists()){
+            binaryFile.mkdirs();
+        }
+        writeMatrixFile(dataSet, null, 0, new File(binaryFile, MATRIX_FILE_NAME));
+        writeObject(dataSet.getFeatureList(), new File(binaryFile, FEATURE_LIST_FILE_NAME));
+        writeObject(dataSet.getIdTranslator(), new File(binaryFile, ID_TRANSLATOR_FILE_NAME));
+    }
+
+    public static void save(MultiLabelClfDataSet dataSet, String binaryFile) throws IOException{
+        save(dataSet, new File(binaryFile));
+    }
+
+    public static void save(MultiLabelClfDataSet dataSet, File binaryFile) throws IOException{
+        if (!binaryFile.exists()){
+            binaryFile.mkdirs();
+        }
+        writeMatrixFile(dataSet, dataSet.getMultiLabels(), dataSet.getNumClasses(), new File(binaryFile, MATRIX_FILE_NAME));
+        writeObject(dataSet.getFeatureList(), new File(binaryFile, FEATURE_LIST_FILE_NAME));
+        writeObject(dataSet.getIdTranslator(), new File(binaryFile, ID_TRANSLATOR_FILE_NAME));
+        writeObject(dataSet.getLabelTranslator(), new File(binaryFile, LABEL_TRANSLATOR_FILE_NAME));
+    }
+
+    public static MappedDataSet loadDataSet(String binaryFile) throws IOException, ClassNotFoundException{
+        return loadDataSet(new File(binaryFile));
+    }
+
+    public static MappedDataSet loadDataSet(File binaryFile) throws IOException, ClassNotFoundException{
+        MappedDataSet dataSet = new MappedDataSet(new File(binaryFile, MATRIX_FILE_NAME));
+        loadSettings(dataSet, binaryFile);
+        return dataSet;
+    }
+
+    public static MappedMLClfDataSet loadMultiLabelClfDataSet(String binaryFile) throws IOException, ClassNotFoundException{
+        return loadMultiLabelClfDataSet(new File(binaryFile));
+    }
+
+    public static MappedMLClfDataSet loadMultiLabelClfDataSet(File binaryFile) throws IOException, ClassNotFoundException{
+        MappedMLClfDataSet dataSet = new MappedMLClfDataSet(new File(binaryFile, MATRIX_FILE_NAME));
+        loadSettings(dataSet, binaryFile);
+        File labelTranslatorFile = new File(binaryFile, LABEL_TRANSLATOR_FILE_NAME);
+        if (labelTranslatorFile.exists()){
+            dataSet.setLabelTranslator((LabelTranslator) readObject(labelTranslatorFile));
+        }
+        return dataSet;
+    }
+
+    private static void loadSettings(DataSet dataSet, File binaryFile) throws IOException, ClassNotFoundException{
+        File featureListFile = new File(binaryFile, FEATURE_LIST_FILE_NAME);
+        if (featureListFile.exists()){
+            dataSet.setFeatureList((FeatureList) readObject(featureListFile));
+        }
+        File idTranslatorFile = new File(binaryFile, ID_TRANSLATOR_FILE_NAME);
+        if (idTranslatorFile.exists()){
+            dataSet.setIdTranslator((IdTranslator) readObject(idTranslatorFile));
+        }
+    }
+
+    /**
+     * sizes and section positions of a matrix file
+     */
+    static class Header {
+        int numDataPoints;
+        int numFeatures;
+        int numClasses;
+        boolean missingValue;
+        boolean multiLabel;
+        long numNonZeros;
+        long numLabelEntries;
+
+        static Header read(FileChannel channel, File file) throws IOException{
+            ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            while (buffer.hasRemaining()){
+                if (channel.read(buffer, buffer.position())<0){
+                    throw new IOException(file+" is too short to be a binary data set");
+                }
+            }
+            buffer.flip();
+            if (buffer.getInt()!=MAGIC){
+                throw new IOException(file+" is not a binary data set");
+            }
+            int version = buffer.getInt();
+            if (version!=VERSION){
+                throw new IOException("unsupported binary data set version "+version+" in "+file);
+            }
+            Header header = new Header();
+            header.numDataPoints = buffer.getInt();
+            header.numFeatures = buffer.getInt();
+            header.numClasses = buffer.getInt();
+            int flags = buffer.getInt();
+            header.missingValue = (flags&FLAG_MISSING_VALUE)!=0;
+            header.multiLabel = (flags&FLAG_MULTI_LABEL)!=0;
+            header.numNonZeros = buffer.getLong();
+            header.numLabelEntries = buffer.getLong();
+            return header;
+        }
+
+        void write(FileChannel channel) throws IOException{
+            ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(MAGIC);
+            buffer.putInt(VERSION);
+            buffer.putInt(numDataPoints);
+            buffer.putInt(numFeatures);
+            buffer.putInt(numClasses);
+            int flags = 0;
+            if (missingValue){
+                flags |= FLAG_MISSING_VALUE;
+            }
+            if (multiLabel){
+                flags |= FLAG_MULTI_LABEL;
+            }
+            buffer.putInt(flags);
+            buffer.putLong(numNonZeros);
+            buffer.putLong(numLabelEntries);
+            buffer.position(0);
+            while (buffer.hasRemaining()){
+                channel.write(buffer, buffer.position());
+            }
+        }
+
+        long rowOffsetsPosition(){
+            return HEADER_BYTES;
+        }
+
+        long rowIndicesPosition(){
+            return rowOffsetsPosition()+8L*(numDataPoints+1);
+        }
+
+        long rowValuesPosition(){
+            return rowIndicesPosition()+padded(4*numNonZeros);
+        }
+
+        long columnOffsetsPosition(){
+            return rowValuesPosition()+8*numNonZeros;
+        }
+
+        long columnIndicesPosition(){
+            return columnOffsetsPosition()+8L*(numFeatures+1);
+        }
+
+        long columnValuesPosition(){
+            return columnIndicesPosition()+padded(4*numNonZeros);
+        }
+
+        long labelOffsetsPosition(){
+            return columnValuesPosition()+8*numNonZeros;
+        }
+
+        long labelsPosition(){
+            return labelOffsetsPosition()+8L*(numDataPoints+1);
+        }
+
+        private static long padded(long numBytes){
+            return (numBytes+7)/8*8;
+        }
+    }
+
+    private static void writeMatrixFile(DataSet dataSet, MultiLabel[] multiLabels, int numClasses, File file) throws IOException{
+        int numDataPoints = dataSet.getNumDataPoints();
+        int numFeatures = dataSet.getNumFeatures();
+        long[] rowOffsets = new long[numDataPoints+1];
+        long[] columnOffsets = new long[numFeatures+1];
+        for (int i=0;i<numDataPoints;i++){
+            int count = 0;
+            for (Vector.Element element: dataSet.getRow(i).nonZeroes()){
+                columnOffsets[element.index()+1] += 1;
+                count += 1;
+            }
+            rowOffsets[i+1] = rowOffsets[i]+count;
+        }
+        for (int j=0;j<numFeatures;j++){
+            columnOffsets[j+1] += columnOffsets[j];
+        }
+
+        Header header = new Header();
+        header.numDataPoints = numDataPoints;
+        header.numFeatures = numFeatures;
+        header.numClasses = numClasses;
+        header.missingValue = dataSet.hasMissingValue();
+        header.multiLabel = multiLabels!=null;
+        header.numNonZeros = rowOffsets[numDataPoints];
+        long[] labelOffsets = null;
+        if (multiLabels!=null){
+            labelOffsets = new long[numDataPoints+1];
+            for (int i=0;i<numDataPoints;i++){
+                labelOffsets[i+1] = labelOffsets[i]+multiLabels[i].getNumMatchedLabels();
+            }
+            header.numLabelEntries = labelOffsets[numDataPoints];
+        }
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)){
+            header.write(channel);
+            writeLongs(channel, header.rowOffsetsPosition(), rowOffsets);
+            try (SectionWriter indexWriter = new SectionWriter(channel, header.rowIndicesPosition());
+                 SectionWriter valueWriter = new SectionWriter(channel, header.rowValuesPosition())){
+                SortedEntries entries = new SortedEntries();
+                for (int i=0;i<numDataPoints;i++){
+                    entries.sort(dataSet.getRow(i));
+                    entries.write(indexWriter, valueWriter);
+                }
+            }
+            writeLongs(channel, header.columnOffsetsPosition(), columnOffsets);
+            try (SectionWriter indexWriter = new SectionWriter(channel, header.columnIndicesPosition());
+                 SectionWriter valueWriter = new SectionWriter(channel, header.columnValuesPosition())){
+                SortedEntries entries = new SortedEntries();
+                for (int j=0;j<numFeatures;j++){
+                    entries.sort(dataSet.getColumn(j));
+                    entries.write(indexWriter, valueWriter);
+                }
+            }
+            if (multiLabels!=null){
+                writeLongs(channel, header.labelOffsetsPosition(), labelOffsets);
+                try (SectionWriter labelWriter = new SectionWriter(channel, header.labelsPosition())){
+                    for (MultiLabel multiLabel: multiLabels){
+                        for (int label: multiLabel.getMatchedLabelsOrdered()){
+                            labelWriter.putInt(label);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static void writeLongs(FileChannel channel, long position, long[] values) throws IOException{
+        try (SectionWriter writer = new SectionWriter(channel, position)){
+            for (long value: values){
+                writer.putLong(value);
+            }
+        }
+    }
+
+    /**
+     * the non-zeros of one vector sorted by index; buffers are reused across vectors
+     */
+    private static class SortedEntries {
+        private long[] keys = new long[16];
+        private int[] indices = new int[16];
+        private double[] values = new double[16];
+        private int size;
+
+        void sort(Vector vector){
+            size = 0;
+            for (Vector.Element element: vector.nonZeroes()){
+                if (size==keys.length){
+                    keys = Arrays.copyOf(keys, 2*size);
+                    indices = Arrays.copyOf(indices, 2*size);
+                    values = Arrays.copyOf(values, 2*size);
+                }
+                indices[size] = element.index();
+                values[size] = element.get();
+                // index in the high bits, original position in the low bits
+                keys[size] = (((long)element.index())<<32)|size;
+                size += 1;
+            }
+            Arrays.sort(keys, 0, size);
+        }
+
+        void write(SectionWriter indexWriter, SectionWriter valueWriter) throws IOException{
+            for (int s=0;s<size;s++){
+                int position = (int)keys[s];
+                indexWriter.putInt(indices[position]);
+                valueWriter.putDouble(values[position]);
+            }
+        }
+    }
+
+    /**
+     * buffered sequential writes starting from a fixed file position
+     */
+    private static class SectionWriter implements Closeable {
+        private FileChannel channel;
+        private long position;
+        private ByteBuffer buffer = ByteBuffer.allocate(1<<20).order(ByteOrder.LITTLE_ENDIAN);
+
+        SectionWriter(FileChannel channel, long position) {
+            this.channel = channel;
+            this.position = position;
+        }
+
+        void putInt(int value) throws IOException{
+            if (buffer.remaining()<4){
+                flush();
+            }
+            buffer.putInt(value);
+        }
+
+        void putLong(long value) throws IOException{
+            if (buffer.remaining()<8){
+                flush();
+            }
+            buffer.putLong(value);
+        }
+
+        void putDouble(double value) throws IOException{
+            if (buffer.remaining()<8){
+                flush();
+            }
+            buffer.putDouble(value);
+        }
+
+        private void flush() throws IOException{
+            buffer.flip();
+            while (buffer.hasRemaining()){
+                position += channel.write(buffer, position);
+            }
+            buffer.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+
+    private static void writeObject(Object object, File file) throws IOException{
+        try (
+                FileOutputStream fileOutputStream = new FileOutputStream(file);
+                BufferedOutputStream bufferedOutputStream = new BufferedOutputStream(fileOutputStream);
+                ObjectOutputStream objectOutputStream = new ObjectOutputStream(bufferedOutputStream);
+        ){
+            objectOutputStream.writeObject(object);
+        }
+    }
+
+    private static Object readObject(File file) throws IOException, ClassNotFoundException{
+        try(
+                FileInputStream fileInputStream = new FileInputStream(file);
+                BufferedInputStream bufferedInputStream = new BufferedInputStream(fileInputStream);
+                ObjectInputStream objectInputStream = new ObjectInputStream(bufferedInputStream);
+        ){
+            return objectInputStream.readObject();
+        }
+    }
+}
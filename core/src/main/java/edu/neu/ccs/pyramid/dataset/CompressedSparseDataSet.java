@@ -0,0 +1,151 @@
+package edu.neu.ccs.pyramid.dataset;
+
+import org.apache.mahout.math.SequentialAccessSparseVector;
+import org.apache.mahout.math.Vector;
+
+/**
+ * immutable sparse data set stored as compressed rows (CSR) and compressed columns (CSC) in primitive arrays
+ * each non-zero costs 12 bytes per copy instead of a hash map slot in a RandomAccessSparseVector
+ * getRow and getColumn return a fresh SequentialAccessSparseVector filled from the arrays;
+ * hot loops should use forEachNonZeroInRow and forEachNonZeroInColumn
+ * density() reports SPARSE_SEQUENTIAL, so data sets derived through DataSetUtil are mutable sequential sparse data sets
+ * use {@link CompressedSparseDataSetBuilder} to create one
+ */
+public class CompressedSparseDataSet extends AbstractDataSet implements NonZeroAccess{
+    private static final long serialVersionUID = 1L;
+    /**
+     * size = numDataPoints+1
+     */
+    private int[] rowOffsets;
+    /**
+     * sorted within each row
+     */
+    private int[] rowIndices;
+    private double[] rowValues;
+    /**
+     * size = numFeatures+1
+     */
+    private int[] columnOffsets;
+    /**
+     * sorted within each column
+     */
+    private int[] columnIndices;
+    private double[] columnValues;
+
+    CompressedSparseDataSet(int numDataPoints, int numFeatures, boolean missingValue,
+                            int[] rowOffsets, int[] rowIndices, double[] rowValues) {
+        super(numDataPoints, numFeatures, missingValue);
+        this.rowOffsets = rowOffsets;
+        this.rowIndices = rowIndices;
+        this.rowValues = rowValues;
+        transpose();
+    }
+
+    /**
+     * counting sort of the row entries by feature; scanning rows in order keeps each column sorted
+     */
+    private void transpose(){
+        int numNonZeros = rowOffsets[numDataPoints];
+        this.columnOffsets = new int[numFeatures+1];
+        for (int p=0;p<numNonZeros;p++){
+            columnOffsets[rowIndices[p]+1] += 1;
+        }
+        for (int j=0;j<numFeatures;j++){
+            columnOffsets[j+1] += columnOffsets[j];
+        }
+        this.columnIndices = new int[numNonZeros];
+        this.columnValues = new double[numNonZeros];
+        int[] next = new int[numFeatures];
+        System.arraycopy(columnOffsets, 0, next, 0, numFeatures);
+        for (int i=0;i<numDataPoints;i++){
+            for (int p=rowOffsets[i];p<rowOffsets[i+1];p++){
+                int q = next[rowIndices[p]]++;
+                columnIndices[q] = i;
+                columnValues[q] = rowValues[p];
+            }
+        }
+    }
+
+    public int getNumNonZeros(){
+        return rowOffsets[numDataPoints];
+    }
+
+    @Override
+    public Vector getColumn(int featureIndex) {
+        return toVector(columnOffsets, columnIndices, columnValues, featureIndex, numDataPoints);
+    }
+
+    @Override
+    public Vector getRow(int dataPointIndex) {
+        return toVector(rowOffsets, rowIndices, rowValues, dataPointIndex, numFeatures);
+    }
+
+    private static Vector toVector(int[] offsets, int[] indices, double[] values, int position, int cardinality){
+        int start = offsets[position];
+        int end = offsets[position+1];
+        Vector vector = new SequentialAccessSparseVector(cardinality, end-start);
+        // indices are increasing, so each set is an append
+        for (int p=start;p<end;p++){
+            vector.setQuick(indices[p], values[p]);
+        }
+        return vector;
+    }
+
+    @Override
+    public int getNumNonZerosInRow(int dataPointIndex) {
+        return rowOffsets[dataPointIndex+1]-rowOffsets[dataPointIndex];
+    }
+
+    @Override
+    public int getNumNonZerosInColumn(int featureIndex) {
+        return columnOffsets[featureIndex+1]-columnOffsets[featureIndex];
+    }
+
+    @Override
+    public void forEachNonZeroInRow(int dataPointIndex, NonZeroConsumer consumer) {
+        for (int p=rowOffsets[dataPointIndex];p<rowOffsets[dataPointIndex+1];p++){
+            consumer.accept(rowIndices[p], rowValues[p]);
+        }
+    }
+
+    @Override
+    public void forEachNonZeroInColumn(int featureIndex, NonZeroConsumer consumer) {
+        for (int p=columnOffsets[featureIndex];p<columnOffsets[featureIndex+1];p++){
+            consumer.accept(columnIndices[p], columnValues[p]);
+        }
+    }
+
+    /**
+     * dot product between a row and a dense weight vector, without allocation
+     */
+    public double dotRow(int dataPointIndex, double[] weights){
+        double sum = 0;
+        for (int p=rowOffsets[dataPointIndex];p<rowOffsets[dataPointIndex+1];p++){
+            sum += rowValues[p]*weights[rowIndices[p]];
+        }
+        return sum;
+    }
+
+    @Override
+    public void setFeatureValue(int dataPointIndex, int featureIndex, double featureValue) {
+        throw new UnsupportedOperationException("compressed sparse data sets are immutable");
+    }
+
+    @Override
+    public boolean isDense() {
+        return false;
+    }
+
+    @Override
+    public Density density() {
+        return Density.SPARSE_SEQUENTIAL;
+    }
+
+    @Override
+    public String getMetaInfo() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(super.getMetaInfo());
+        sb.append("number of non-zeros = ").append(getNumNonZeros()).append("\n");
+        return sb.toString();
+    }
+}
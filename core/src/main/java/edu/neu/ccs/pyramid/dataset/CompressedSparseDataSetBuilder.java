@@ -0,0 +1,234 @@
+package edu.neu.ccs.pyramid.dataset;
+
+import java.util.Arrays;
+
+/**
+ * two-pass builder for compressed sparse data sets
+ * pass 1: reserve the number of non-zeros of each data point
+ * pass 2: set feature values (and labels); values go straight into the final row arrays
+ * feature values within a row may come in any order; a repeated feature keeps the last value
+ * not thread safe
+ */
+public class CompressedSparseDataSetBuilder {
+    private int numDataPoints = -1;
+    private int numFeatures = -1;
+    private boolean missingValue = false;
+    private int numClasses = -1;
+
+    /**
+     * pass 1 counts, size = numDataPoints
+     */
+    private int[] reserved;
+    /**
+     * size = numDataPoints+1, allocated when pass 2 starts
+     */
+    private int[] rowOffsets;
+    private int[] rowSizes;
+    private int[] indices;
+    private double[] values;
+    private MultiLabel[] multiLabels;
+
+    public static CompressedSparseDataSetBuilder getBuilder(){
+        return new CompressedSparseDataSetBuilder();
+    }
+
+    public CompressedSparseDataSetBuilder numDataPoints(int numDataPoints) {
+        this.numDataPoints = numDataPoints;
+        return this;
+    }
+
+    public CompressedSparseDataSetBuilder numFeatures(int numFeatures) {
+        this.numFeatures = numFeatures;
+        return this;
+    }
+
+    public CompressedSparseDataSetBuilder missingValue(boolean missingValue) {
+        this.missingValue = missingValue;
+        return this;
+    }
+
+    public CompressedSparseDataSetBuilder numClasses(int numClasses) {
+        this.numClasses = numClasses;
+        return this;
+    }
+
+    /**
+     * pass 1
+     * @param dataPointIndex
+     * @param numNonZeros upper bound on the number of setFeatureValue calls for this data point
+     */
+    public CompressedSparseDataSetBuilder reserve(int dataPointIndex, int numNonZeros){
+        if (rowOffsets!=null){
+            throw new IllegalStateException("cannot reserve space after feature values have been set");
+        }
+        if (reserved==null){
+            if (numDataPoints<=0){
+                throw new IllegalArgumentException("numDataPoints<=0");
+            }
+            reserved = new int[numDataPoints];
+        }
+        reserved[dataPointIndex] += numNonZeros;
+        return this;
+    }
+
+    /**
+     * pass 2
+     */
+    public void setFeatureValue(int dataPointIndex, int featureIndex, double featureValue){
+        if (rowOffsets==null){
+            allocate();
+        }
+        if (featureIndex<0||featureIndex>=numFeatures){
+            throw new IllegalArgumentException("featureIndex="+featureIndex+" is out of range [0,"+numFeatures+")");
+        }
+        if ((!missingValue) && Double.isNaN(featureValue)){
+            throw new IllegalArgumentException("missing value is not allowed in this data set");
+        }
+        if (Double.isInfinite(featureValue)){
+            throw new IllegalArgumentException("feature value cannot be infinity");
+        }
+        if (featureValue==0){
+            return;
+        }
+        int position = rowOffsets[dataPointIndex]+rowSizes[dataPointIndex];
+        if (position==rowOffsets[dataPointIndex+1]){
+            throw new IllegalStateException("data point "+dataPointIndex+" has more values than reserved");
+        }
+        indices[position] = featureIndex;
+        values[position] = featureValue;
+        rowSizes[dataPointIndex] += 1;
+    }
+
+    public void addLabel(int dataPointIndex, int classIndex){
+        if (multiLabels==null){
+            allocateLabels();
+        }
+        multiLabels[dataPointIndex].addLabel(classIndex);
+    }
+
+    private void allocate(){
+        if (numDataPoints<=0){
+            throw new IllegalArgumentException("numDataPoints<=0");
+        }
+        if (numFeatures<=0){
+            throw new IllegalArgumentException("numFeatures<=0");
+        }
+        if (reserved==null){
+            reserved = new int[numDataPoints];
+        }
+        rowOffsets = new int[numDataPoints+1];
+        long total = 0;
+        for (int i=0;i<numDataPoints;i++){
+            total += reserved[i];
+            if (total>Integer.MAX_VALUE){
+                throw new IllegalArgumentException("too many non-zeros for a compressed sparse data set");
+            }
+            rowOffsets[i+1] = (int)total;
+        }
+        rowSizes = new int[numDataPoints];
+        indices = new int[(int)total];
+        values = new double[(int)total];
+        reserved = null;
+    }
+
+    private void allocateLabels(){
+        if (numDataPoints<=0){
+            throw new IllegalArgumentException("numDataPoints<=0");
+        }
+        multiLabels = new MultiLabel[numDataPoints];
+        for (int i=0;i<numDataPoints;i++){
+            multiLabels[i] = new MultiLabel();
+        }
+    }
+
+    public CompressedSparseDataSet build(){
+        if (rowOffsets==null){
+            allocate();
+        }
+        compact();
+        CompressedSparseDataSet dataSet = new CompressedSparseDataSet(numDataPoints, numFeatures, missingValue,
+                rowOffsets, indices, values);
+        release();
+        return dataSet;
+    }
+
+    public CompressedSparseMLClfDataSet buildMultiLabel(){
+        if (numClasses<=0){
+            throw new IllegalArgumentException("numClasses<=0");
+        }
+        if (rowOffsets==null){
+            allocate();
+        }
+        if (multiLabels==null){
+            allocateLabels();
+        }
+        compact();
+        CompressedSparseMLClfDataSet dataSet = new CompressedSparseMLClfDataSet(numDataPoints, numFeatures, missingValue,
+                rowOffsets, indices, values, numClasses, multiLabels);
+        release();
+        return dataSet;
+    }
+
+    /**
+     * sort each row by feature index, drop overwritten duplicates and unused reserved slots
+     */
+    private void compact(){
+        long[] keys = new long[16];
+        int write = 0;
+        for (int i=0;i<numDataPoints;i++){
+            int start = rowOffsets[i];
+            int size = rowSizes[i];
+            rowOffsets[i] = write;
+            if (isStrictlyIncreasing(start, size)){
+                System.arraycopy(indices, start, indices, write, size);
+                System.arraycopy(values, start, values, write, size);
+                write += size;
+                continue;
+            }
+            if (keys.length<size){
+                keys = new long[Math.max(size, 2*keys.length)];
+            }
+            for (int s=0;s<size;s++){
+                // index in the high bits, arrival order in the low bits
+                keys[s] = (((long)indices[start+s])<<32)|s;
+            }
+            Arrays.sort(keys, 0, size);
+            // the row is read into keys before writing, and write never passes start
+            double[] rowValues = Arrays.copyOfRange(values, start, start+size);
+            for (int s=0;s<size;s++){
+                int featureIndex = (int)(keys[s]>>>32);
+                if (s+1<size && (int)(keys[s+1]>>>32)==featureIndex){
+                    continue;
+                }
+                indices[write] = featureIndex;
+                values[write] = rowValues[(int)keys[s]];
+                write += 1;
+            }
+        }
+        rowOffsets[numDataPoints] = write;
+        if (write<indices.length){
+            indices = Arrays.copyOf(indices, write);
+            values = Arrays.copyOf(values, write);
+        }
+    }
+
+    private boolean isStrictlyIncreasing(int start, int size){
+        for (int s=1;s<size;s++){
+            if (indices[start+s]<=indices[start+s-1]){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * the arrays now belong to the data set
+     */
+    private void release(){
+        rowOffsets = null;
+        rowSizes = null;
+        indices = null;
+        values = null;
+        multiLabels = null;
+    }
+}
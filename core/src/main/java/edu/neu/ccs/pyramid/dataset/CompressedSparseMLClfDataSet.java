@@ -0,0 +1,60 @@
+package edu.neu.ccs.pyramid.dataset;
+
+/**
+ * multi-label classification data set on top of an immutable compressed sparse feature matrix
+ * the feature matrix cannot change, but labels can still be edited
+ */
+public class CompressedSparseMLClfDataSet extends CompressedSparseDataSet implements MultiLabelClfDataSet{
+    private static final long serialVersionUID = 1L;
+    private int numClasses;
+    private MultiLabel[] multiLabels;
+    private LabelTranslator labelTranslator;
+
+    CompressedSparseMLClfDataSet(int numDataPoints, int numFeatures, boolean missingValue,
+                                 int[] rowOffsets, int[] rowIndices, double[] rowValues,
+                                 int numClasses, MultiLabel[] multiLabels) {
+        super(numDataPoints, numFeatures, missingValue, rowOffsets, rowIndices, rowValues);
+        this.numClasses = numClasses;
+        this.multiLabels = multiLabels;
+        this.labelTranslator = LabelTranslator.newDefaultLabelTranslator(numClasses);
+    }
+
+    @Override
+    public int getNumClasses() {
+        return this.numClasses;
+    }
+
+    @Override
+    public MultiLabel[] getMultiLabels() {
+        return this.multiLabels;
+    }
+
+    @Override
+    public void addLabel(int dataPointIndex, int classIndex) {
+        this.multiLabels[dataPointIndex].addLabel(classIndex);
+    }
+
+    @Override
+    public void setLabels(int dataPointIndex, MultiLabel multiLabel) {
+        multiLabels[dataPointIndex] = multiLabel;
+    }
+
+    @Override
+    public LabelTranslator getLabelTranslator() {
+        return labelTranslator;
+    }
+
+    @Override
+    public void setLabelTranslator(LabelTranslator labelTranslator) {
+        this.labelTranslator = labelTranslator;
+    }
+
+    @Override
+    public String getMetaInfo() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(super.getMetaInfo());
+        sb.append("type = ").append("compressed sparse multi-label classification").append("\n");
+        sb.append("number of classes = ").append(this.numClasses);
+        return sb.toString();
+    }
+}
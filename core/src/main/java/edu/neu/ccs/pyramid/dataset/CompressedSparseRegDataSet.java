@@ -0,0 +1,35 @@
+package edu.neu.ccs.pyramid.dataset;
+
+/**
+ * regression data set on top of an immutable compressed sparse feature matrix
+ * the feature matrix cannot change, but labels can still be edited
+ */
+public class CompressedSparseRegDataSet extends CompressedSparseDataSet implements RegDataSet{
+    private static final long serialVersionUID = 1L;
+    private double[] labels;
+
+    CompressedSparseRegDataSet(int numDataPoints, int numFeatures, boolean missingValue,
+                               int[] rowOffsets, int[] rowIndices, double[] rowValues,
+                               double[] labels) {
+        super(numDataPoints, numFeatures, missingValue, rowOffsets, rowIndices, rowValues);
+        this.labels = labels;
+    }
+
+    @Override
+    public double[] getLabels() {
+        return this.labels;
+    }
+
+    @Override
+    public void setLabel(int dataPointIndex, double label) {
+        this.labels[dataPointIndex] = label;
+    }
+
+    @Override
+    public String getMetaInfo() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(super.getMetaInfo());
+        sb.append("type = ").append("compressed sparse regression");
+        return sb.toString();
+    }
+}
@@ -0,0 +1,305 @@
+package edu.neu.ccs.pyramid.dataset;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.IntStream;
+
+/**
+ * builder for compressed sparse data sets, filled from many threads without locking
+ * each thread appends (data point, feature, value) triples and labels to its own primitive buffer;
+ * build() scatters the buffers into rows in parallel, then sorts every row by feature index
+ * a feature set more than once for the same data point keeps the last value set by one thread;
+ * with values from different threads, which one is kept is unspecified
+ * setFeatureValue and addLabel can be called concurrently; build must be called once, after all calls finish
+ * threads reach their buffers through slots that build() empties, so the buffers are released even though
+ * the slots stay in the thread-local maps of pooled threads
+ */
+public class ConcurrentSparseDataSetBuilder {
+    private int numDataPoints = -1;
+    private int numFeatures = -1;
+    private boolean missingValue = false;
+    private int numClasses = -1;
+
+    private final ConcurrentLinkedQueue<Slot> slots = new ConcurrentLinkedQueue<>();
+    private final ThreadLocal<Slot> localSlot = ThreadLocal.withInitial(() -> {
+        Slot slot = new Slot();
+        slots.add(slot);
+        return slot;
+    });
+    private final AtomicBoolean built = new AtomicBoolean(false);
+
+    public static ConcurrentSparseDataSetBuilder getBuilder(){
+        return new ConcurrentSparseDataSetBuilder();
+    }
+
+    public ConcurrentSparseDataSetBuilder numDataPoints(int numDataPoints) {
+        this.numDataPoints = numDataPoints;
+        return this;
+    }
+
+    public ConcurrentSparseDataSetBuilder numFeatures(int numFeatures) {
+        this.numFeatures = numFeatures;
+        return this;
+    }
+
+    public ConcurrentSparseDataSetBuilder missingValue(boolean missingValue) {
+        this.missingValue = missingValue;
+        return this;
+    }
+
+    public ConcurrentSparseDataSetBuilder numClasses(int numClasses) {
+        this.numClasses = numClasses;
+        return this;
+    }
+
+    public void setFeatureValue(int dataPointIndex, int featureIndex, double featureValue){
+        if (dataPointIndex<0||dataPointIndex>=numDataPoints){
+            throw new IllegalArgumentException("dataPointIndex="+dataPointIndex+" is out of range [0,"+numDataPoints+")");
+        }
+        if (featureIndex<0||featureIndex>=numFeatures){
+            throw new IllegalArgumentException("featureIndex="+featureIndex+" is out of range [0,"+numFeatures+")");
+        }
+        if ((!missingValue) && Double.isNaN(featureValue)){
+            throw new IllegalArgumentException("missing value is not allowed in this data set");
+        }
+        if (Double.isInfinite(featureValue)){
+            throw new IllegalArgumentException("feature value cannot be infinity");
+        }
+        // zeros are kept until build, as they may overwrite an earlier value
+        localBuffer().add(dataPointIndex, featureIndex, featureValue);
+    }
+
+    public void addLabel(int dataPointIndex, int classIndex){
+        if (dataPointIndex<0||dataPointIndex>=numDataPoints){
+            throw new IllegalArgumentException("dataPointIndex="+dataPointIndex+" is out of range [0,"+numDataPoints+")");
+        }
+        localBuffer().addLabel(dataPointIndex, classIndex);
+    }
+
+    private Buffer localBuffer(){
+        if (built.get()){
+            throw new IllegalStateException("the data set has already been built");
+        }
+        Buffer buffer = localSlot.get().buffer;
+        if (buffer==null){
+            throw new IllegalStateException("the data set has already been built");
+        }
+        return buffer;
+    }
+
+    public CompressedSparseDataSet build(){
+        checkSize();
+        Rows rows = merge(detachBuffers());
+        return new CompressedSparseDataSet(numDataPoints, numFeatures, missingValue,
+                rows.offsets, rows.indices, rows.values);
+    }
+
+    public CompressedSparseMLClfDataSet buildMultiLabel(){
+        checkSize();
+        if (numClasses<=0){
+            throw new IllegalArgumentException("numClasses<=0");
+        }
+        List<Buffer> buffers = detachBuffers();
+        MultiLabel[] multiLabels = new MultiLabel[numDataPoints];
+        for (int i=0;i<numDataPoints;i++){
+            multiLabels[i] = new MultiLabel();
+        }
+        for (Buffer buffer: buffers){
+            for (int e=0;e<buffer.numLabels;e++){
+                multiLabels[buffer.labelRows[e]].addLabel(buffer.labelClasses[e]);
+            }
+        }
+        Rows rows = merge(buffers);
+        return new CompressedSparseMLClfDataSet(numDataPoints, numFeatures, missingValue,
+                rows.offsets, rows.indices, rows.values, numClasses, multiLabels);
+    }
+
+    /**
+     *
+     * @param labels one label per data point, kept by reference
+     */
+    public CompressedSparseRegDataSet buildRegression(double[] labels){
+        checkSize();
+        if (labels.length!=numDataPoints){
+            throw new IllegalArgumentException("labels.length="+labels.length+" != numDataPoints="+numDataPoints);
+        }
+        Rows rows = merge(detachBuffers());
+        return new CompressedSparseRegDataSet(numDataPoints, numFeatures, missingValue,
+                rows.offsets, rows.indices, rows.values, labels);
+    }
+
+    private void checkSize(){
+        if (numDataPoints<=0){
+            throw new IllegalArgumentException("numDataPoints<=0");
+        }
+        if (numFeatures<=0){
+            throw new IllegalArgumentException("numFeatures<=0");
+        }
+    }
+
+    /**
+     * empties every slot, so later writes fail and the buffers are only reachable from the returned list
+     */
+    private List<Buffer> detachBuffers(){
+        if (!built.compareAndSet(false, true)){
+            throw new IllegalStateException("build can only be called once");
+        }
+        List<Buffer> bufferList = new ArrayList<>();
+        for (Slot slot: slots){
+            bufferList.add(slot.buffer);
+            slot.buffer = null;
+        }
+        slots.clear();
+        localSlot.remove();
+        return bufferList;
+    }
+
+    /**
+     * the buffers are released afterwards
+     */
+    private Rows merge(List<Buffer> bufferList){
+        int numBuffers = bufferList.size();
+
+        // format: [buffer][data point], number of entries, then the next write position
+        int[][] cursors = new int[numBuffers][];
+        IntStream.range(0, numBuffers).parallel().forEach(b -> {
+            Buffer buffer = bufferList.get(b);
+            int[] counts = new int[numDataPoints];
+            for (int e=0;e<buffer.size;e++){
+                counts[buffer.rows[e]] += 1;
+            }
+            cursors[b] = counts;
+        });
+
+        int[] offsets = new int[numDataPoints+1];
+        long total = 0;
+        for (int i=0;i<numDataPoints;i++){
+            for (int b=0;b<numBuffers;b++){
+                int count = cursors[b][i];
+                cursors[b][i] = (int)total;
+                total += count;
+            }
+            if (total>Integer.MAX_VALUE){
+                throw new IllegalArgumentException("too many non-zeros for a compressed sparse data set");
+            }
+            offsets[i+1] = (int)total;
+        }
+
+        // every buffer owns distinct slots of each row, so the scatter needs no locks
+        int[] indices = new int[(int)total];
+        double[] values = new double[(int)total];
+        IntStream.range(0, numBuffers).parallel().forEach(b -> {
+            Buffer buffer = bufferList.get(b);
+            int[] cursor = cursors[b];
+            for (int e=0;e<buffer.size;e++){
+                int position = cursor[buffer.rows[e]]++;
+                indices[position] = buffer.columns[e];
+                values[position] = buffer.values[e];
+            }
+            bufferList.set(b, null);
+        });
+
+        int[] sizes = new int[numDataPoints];
+        IntStream.range(0, numDataPoints).parallel().forEach(i ->
+                sizes[i] = compactRow(indices, values, offsets[i], offsets[i+1]-offsets[i]));
+
+        Rows rows = new Rows();
+        rows.offsets = new int[numDataPoints+1];
+        for (int i=0;i<numDataPoints;i++){
+            rows.offsets[i+1] = rows.offsets[i]+sizes[i];
+        }
+        if (rows.offsets[numDataPoints]==total){
+            rows.indices = indices;
+            rows.values = values;
+        } else {
+            rows.indices = new int[rows.offsets[numDataPoints]];
+            rows.values = new double[rows.offsets[numDataPoints]];
+            IntStream.range(0, numDataPoints).parallel().forEach(i -> {
+                System.arraycopy(indices, offsets[i], rows.indices, rows.offsets[i], sizes[i]);
+                System.arraycopy(values, offsets[i], rows.values, rows.offsets[i], sizes[i]);
+            });
+        }
+        return rows;
+    }
+
+    /**
+     * sort one row by feature index in place, keep the last value of a repeated feature and drop zeros
+     * @return the new row size
+     */
+    private static int compactRow(int[] indices, double[] values, int start, int size){
+        long[] keys = new long[size];
+        for (int s=0;s<size;s++){
+            // index in the high bits, arrival order in the low bits
+            keys[s] = (((long)indices[start+s])<<32)|s;
+        }
+        Arrays.sort(keys);
+        double[] rowValues = Arrays.copyOfRange(values, start, start+size);
+        int write = start;
+        for (int s=0;s<size;s++){
+            int featureIndex = (int)(keys[s]>>>32);
+            if (s+1<size && (int)(keys[s+1]>>>32)==featureIndex){
+                continue;
+            }
+            double value = rowValues[(int)keys[s]];
+            if (value==0){
+                continue;
+            }
+            indices[write] = featureIndex;
+            values[write] = value;
+            write += 1;
+        }
+        return write-start;
+    }
+
+    private static class Rows {
+        private int[] offsets;
+        private int[] indices;
+        private double[] values;
+    }
+
+    /**
+     * holds the buffer of one thread until build
+     */
+    private static class Slot {
+        private volatile Buffer buffer = new Buffer();
+    }
+
+    /**
+     * coordinate entries of one thread
+     */
+    private static class Buffer {
+        private int[] rows = new int[1024];
+        private int[] columns = new int[1024];
+        private double[] values = new double[1024];
+        private int size;
+        private int[] labelRows = new int[16];
+        private int[] labelClasses = new int[16];
+        private int numLabels;
+
+        void add(int row, int column, double value){
+            if (size==rows.length){
+                int capacity = 2*size;
+                rows = Arrays.copyOf(rows, capacity);
+                columns = Arrays.copyOf(columns, capacity);
+                values = Arrays.copyOf(values, capacity);
+            }
+            rows[size] = row;
+            columns[size] = column;
+            values[size] = value;
+            size += 1;
+        }
+
+        void addLabel(int row, int classIndex){
+            if (numLabels==labelRows.length){
+                labelRows = Arrays.copyOf(labelRows, 2*numLabels);
+                labelClasses = Arrays.copyOf(labelClasses, 2*numLabels);
+            }
+            labelRows[numLabels] = row;
+            labelClasses[numLabels] = classIndex;
+            numLabels += 1;
+        }
+    }
+}
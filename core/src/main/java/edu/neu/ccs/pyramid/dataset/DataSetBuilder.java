@@ -58,6 +58,20 @@ public class DataSetBuilder {
         return dataSet;
     }
 
+    /**
+     * the compressed sparse type; it is immutable, so it is not created empty by build()
+     * but filled by the returned two-pass builder, see CompressedSparseDataSetBuilder
+     */
+    public CompressedSparseDataSetBuilder compressed(){
+        if (!valid()){
+            throw new IllegalArgumentException("Illegal arguments");
+        }
+        return CompressedSparseDataSetBuilder.getBuilder()
+                .numDataPoints(numDataPoints)
+                .numFeatures(numFeatures)
+                .missingValue(missingValue);
+    }
+
     private boolean valid(){
         if (numDataPoints<=0){
             return false;
@@ -69,4 +69,26 @@ public class MLClfDataSetBuilder {
         return dataSet;
     }
 
+    /**
+     * the compressed sparse type, filled by the returned two-pass builder, see DataSetBuilder.compressed
+     */
+    public CompressedSparseDataSetBuilder compressed(){
+        if (numDataPoints<=0){
+            throw new RuntimeException("numDataPoints<=0");
+        }
+
+        if (numFeatures<=0){
+            throw new RuntimeException("numFeatures<=0");
+        }
+
+        if (numClasses<=0){
+            throw new RuntimeException("numClasses<=0");
+        }
+        return CompressedSparseDataSetBuilder.getBuilder()
+                .numDataPoints(numDataPoints)
+                .numFeatures(numFeatures)
+                .missingValue(missingValue)
+                .numClasses(numClasses);
+    }
+
 }
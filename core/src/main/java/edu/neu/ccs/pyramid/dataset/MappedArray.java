@@ -0,0 +1,44 @@
+package edu.neu.ccs.pyramid.dataset;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * a read-only primitive array backed by a memory-mapped file region
+ * a single MappedByteBuffer is limited to 2GB, so the region is mapped in 1GB chunks;
+ * the chunk size is a multiple of every element size, so no element straddles two chunks
+ * only absolute gets are used, so one instance can be shared by all threads
+ */
+public class MappedArray {
+    private static final int CHUNK_SHIFT = 30;
+    private static final long CHUNK_MASK = (1L<<CHUNK_SHIFT)-1;
+    private ByteBuffer[] chunks;
+
+    public MappedArray(FileChannel channel, long position, long numBytes) throws IOException {
+        int numChunks = (int)((numBytes+CHUNK_MASK)>>>CHUNK_SHIFT);
+        this.chunks = new ByteBuffer[numChunks];
+        for (int c=0;c<numChunks;c++){
+            long start = ((long)c)<<CHUNK_SHIFT;
+            long size = Math.min(1L<<CHUNK_SHIFT, numBytes-start);
+            chunks[c] = channel.map(FileChannel.MapMode.READ_ONLY, position+start, size)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+
+    public int getInt(long index){
+        long byteIndex = index<<2;
+        return chunks[(int)(byteIndex>>>CHUNK_SHIFT)].getInt((int)(byteIndex&CHUNK_MASK));
+    }
+
+    public long getLong(long index){
+        long byteIndex = index<<3;
+        return chunks[(int)(byteIndex>>>CHUNK_SHIFT)].getLong((int)(byteIndex&CHUNK_MASK));
+    }
+
+    public double getDouble(long index){
+        long byteIndex = index<<3;
+        return chunks[(int)(byteIndex>>>CHUNK_SHIFT)].getDouble((int)(byteIndex&CHUNK_MASK));
+    }
+}
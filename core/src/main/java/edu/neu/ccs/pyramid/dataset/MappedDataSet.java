@@ -0,0 +1,188 @@
+package edu.neu.ccs.pyramid.dataset;
+
+import edu.neu.ccs.pyramid.feature.Feature;
+import edu.neu.ccs.pyramid.feature.FeatureList;
+import org.apache.mahout.math.SequentialAccessSparseVector;
+import org.apache.mahout.math.Vector;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * read-only data set backed by a memory-mapped matrix file written by {@link BinaryFormat}
+ * rows and columns are not copied into the heap when the data set is opened;
+ * getRow and getColumn materialize a SequentialAccessSparseVector on each call,
+ * so hot loops should use forEachNonZeroInRow and forEachNonZeroInColumn instead
+ * serializing this object only records the matrix file path, which is mapped again when deserialized
+ */
+public class MappedDataSet implements NonZeroAccess{
+    private static final long serialVersionUID = 1L;
+    protected int numDataPoints;
+    protected int numFeatures;
+    protected boolean missingValue;
+    protected IdTranslator idTranslator;
+    protected FeatureList featureList;
+    protected File matrixFile;
+
+    private transient MappedArray rowOffsets;
+    private transient MappedArray rowIndices;
+    private transient MappedArray rowValues;
+    private transient MappedArray columnOffsets;
+    private transient MappedArray columnIndices;
+    private transient MappedArray columnValues;
+
+    MappedDataSet(File matrixFile) throws IOException {
+        this.matrixFile = matrixFile;
+        map();
+    }
+
+    private void map() throws IOException{
+        try (FileChannel channel = FileChannel.open(matrixFile.toPath(), StandardOpenOption.READ)){
+            BinaryFormat.Header header = BinaryFormat.Header.read(channel, matrixFile);
+            this.numDataPoints = header.numDataPoints;
+            this.numFeatures = header.numFeatures;
+            this.missingValue = header.missingValue;
+            this.rowOffsets = new MappedArray(channel, header.rowOffsetsPosition(), 8L*(numDataPoints+1));
+            this.rowIndices = new MappedArray(channel, header.rowIndicesPosition(), 4*header.numNonZeros);
+            this.rowValues = new MappedArray(channel, header.rowValuesPosition(), 8*header.numNonZeros);
+            this.columnOffsets = new MappedArray(channel, header.columnOffsetsPosition(), 8L*(numFeatures+1));
+            this.columnIndices = new MappedArray(channel, header.columnIndicesPosition(), 4*header.numNonZeros);
+            this.columnValues = new MappedArray(channel, header.columnValuesPosition(), 8*header.numNonZeros);
+        }
+        // mappings remain valid after the channel is closed
+    }
+
+    @Override
+    public int getNumDataPoints() {
+        return numDataPoints;
+    }
+
+    @Override
+    public int getNumFeatures() {
+        return numFeatures;
+    }
+
+    @Override
+    public Vector getColumn(int featureIndex) {
+        return toVector(columnOffsets, columnIndices, columnValues, featureIndex, numDataPoints);
+    }
+
+    @Override
+    public Vector getRow(int dataPointIndex) {
+        return toVector(rowOffsets, rowIndices, rowValues, dataPointIndex, numFeatures);
+    }
+
+    @Override
+    public int getNumNonZerosInRow(int dataPointIndex){
+        return (int)(rowOffsets.getLong(dataPointIndex+1)-rowOffsets.getLong(dataPointIndex));
+    }
+
+    @Override
+    public int getNumNonZerosInColumn(int featureIndex){
+        return (int)(columnOffsets.getLong(featureIndex+1)-columnOffsets.getLong(featureIndex));
+    }
+
+    @Override
+    public void forEachNonZeroInRow(int dataPointIndex, NonZeroConsumer consumer){
+        forEach(rowOffsets, rowIndices, rowValues, dataPointIndex, consumer);
+    }
+
+    @Override
+    public void forEachNonZeroInColumn(int featureIndex, NonZeroConsumer consumer){
+        forEach(columnOffsets, columnIndices, columnValues, featureIndex, consumer);
+    }
+
+    private static void forEach(MappedArray offsets, MappedArray indices, MappedArray values,
+                                int position, NonZeroConsumer consumer){
+        long end = offsets.getLong(position+1);
+        for (long p=offsets.getLong(position);p<end;p++){
+            consumer.accept(indices.getInt(p), values.getDouble(p));
+        }
+    }
+
+    private static Vector toVector(MappedArray offsets, MappedArray indices, MappedArray values,
+                                   int position, int cardinality){
+        long start = offsets.getLong(position);
+        long end = offsets.getLong(position+1);
+        Vector vector = new SequentialAccessSparseVector(cardinality, (int)(end-start));
+        // indices are increasing, so each set is an append
+        for (long p=start;p<end;p++){
+            vector.setQuick(indices.getInt(p), values.getDouble(p));
+        }
+        return vector;
+    }
+
+    @Override
+    public void setFeatureValue(int dataPointIndex, int featureIndex, double featureValue) {
+        throw new UnsupportedOperationException("memory-mapped data sets are read-only");
+    }
+
+    @Override
+    public boolean isDense() {
+        return false;
+    }
+
+    @Override
+    public boolean hasMissingValue() {
+        return missingValue;
+    }
+
+    @Override
+    public String getMetaInfo() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("data set meta information:").append("\n");
+        sb.append("number of data points = ").append(getNumDataPoints()).append("\n");
+        sb.append("number of features = ").append(getNumFeatures()).append("\n");
+        sb.append("has missing value = ").append(missingValue).append("\n");
+        sb.append("memory-mapped from = ").append(matrixFile).append("\n");
+        return sb.toString();
+    }
+
+    /**
+     * created on first use so that opening a data set without settings files stays cheap
+     */
+    @Override
+    public synchronized IdTranslator getIdTranslator() {
+        if (idTranslator==null){
+            idTranslator = IdTranslator.newDefaultIdTranslator(numDataPoints);
+        }
+        return idTranslator;
+    }
+
+    @Override
+    public synchronized FeatureList getFeatureList() {
+        if (featureList==null){
+            featureList = new FeatureList();
+            for (int j=0;j<numFeatures;j++){
+                featureList.add(new Feature());
+            }
+        }
+        return featureList;
+    }
+
+    @Override
+    public synchronized void setFeatureList(FeatureList featureList) {
+        if (featureList.size()!=this.numFeatures){
+            throw new IllegalArgumentException("featureList.size()="+featureList.size()+"!=this.numFeatures="+numFeatures);
+        }
+        this.featureList = featureList;
+    }
+
+    @Override
+    public synchronized void setIdTranslator(IdTranslator idTranslator) {
+        this.idTranslator = idTranslator;
+    }
+
+    @Override
+    public Density density() {
+        return Density.SPARSE_SEQUENTIAL;
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        map();
+    }
+}
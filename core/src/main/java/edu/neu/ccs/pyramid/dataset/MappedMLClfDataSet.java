@@ -0,0 +1,91 @@
+package edu.neu.ccs.pyramid.dataset;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * read-only multi-label data set backed by a memory-mapped matrix file written by {@link BinaryFormat}
+ * labels are small compared with the feature matrix, so they are decoded into MultiLabel objects when opened
+ */
+public class MappedMLClfDataSet extends MappedDataSet implements MultiLabelClfDataSet{
+    private static final long serialVersionUID = 1L;
+    private int numClasses;
+    private transient MultiLabel[] multiLabels;
+    private LabelTranslator labelTranslator;
+
+    MappedMLClfDataSet(File matrixFile) throws IOException {
+        super(matrixFile);
+        loadLabels();
+    }
+
+    private void loadLabels() throws IOException{
+        try (FileChannel channel = FileChannel.open(matrixFile.toPath(), StandardOpenOption.READ)){
+            BinaryFormat.Header header = BinaryFormat.Header.read(channel, matrixFile);
+            if (!header.multiLabel){
+                throw new IOException(matrixFile+" does not contain multi-label information");
+            }
+            this.numClasses = header.numClasses;
+            MappedArray labelOffsets = new MappedArray(channel, header.labelOffsetsPosition(), 8L*(numDataPoints+1));
+            MappedArray labels = new MappedArray(channel, header.labelsPosition(), 4*header.numLabelEntries);
+            this.multiLabels = new MultiLabel[numDataPoints];
+            for (int i=0;i<numDataPoints;i++){
+                MultiLabel multiLabel = new MultiLabel();
+                long end = labelOffsets.getLong(i+1);
+                for (long p=labelOffsets.getLong(i);p<end;p++){
+                    multiLabel.addLabel(labels.getInt(p));
+                }
+                multiLabels[i] = multiLabel;
+            }
+        }
+    }
+
+    @Override
+    public MultiLabel[] getMultiLabels() {
+        return multiLabels;
+    }
+
+    @Override
+    public void addLabel(int dataPointIndex, int classIndex) {
+        throw new UnsupportedOperationException("memory-mapped data sets are read-only");
+    }
+
+    @Override
+    public void setLabels(int dataPointIndex, MultiLabel multiLabel) {
+        throw new UnsupportedOperationException("memory-mapped data sets are read-only");
+    }
+
+    @Override
+    public int getNumClasses() {
+        return numClasses;
+    }
+
+    @Override
+    public synchronized LabelTranslator getLabelTranslator() {
+        if (labelTranslator==null){
+            labelTranslator = LabelTranslator.newDefaultLabelTranslator(numClasses);
+        }
+        return labelTranslator;
+    }
+
+    @Override
+    public synchronized void setLabelTranslator(LabelTranslator labelTranslator) {
+        this.labelTranslator = labelTranslator;
+    }
+
+    @Override
+    public String getMetaInfo() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(super.getMetaInfo());
+        sb.append("type = ").append("multi-label classification").append("\n");
+        sb.append("number of classes = ").append(this.numClasses);
+        return sb.toString();
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        loadLabels();
+    }
+}
@@ -0,0 +1,20 @@
+package edu.neu.ccs.pyramid.dataset;
+
+/**
+ * data sets stored in compressed row and column form
+ * non-zeros can be visited in index order without building Mahout vectors
+ */
+public interface NonZeroAccess extends DataSet{
+    int getNumNonZerosInRow(int dataPointIndex);
+    int getNumNonZerosInColumn(int featureIndex);
+
+    /**
+     * visit the non-zeros of a row in increasing feature index order
+     */
+    void forEachNonZeroInRow(int dataPointIndex, NonZeroConsumer consumer);
+
+    /**
+     * visit the non-zeros of a column in increasing data point index order
+     */
+    void forEachNonZeroInColumn(int featureIndex, NonZeroConsumer consumer);
+}
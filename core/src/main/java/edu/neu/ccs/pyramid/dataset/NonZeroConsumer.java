@@ -0,0 +1,14 @@
+package edu.neu.ccs.pyramid.dataset;
+
+/**
+ * receives the non-zero entries of a row or a column without creating Vector.Element objects
+ */
+@FunctionalInterface
+public interface NonZeroConsumer {
+    /**
+     *
+     * @param index feature index for a row, data point index for a column
+     * @param value
+     */
+    void accept(int index, double value);
+}
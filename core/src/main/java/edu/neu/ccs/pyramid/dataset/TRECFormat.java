@@ -12,6 +12,7 @@ import java.util.Comparator;
 import java.util.List;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 /**
  * Created by chengli on 8/19/14.
@@ -32,6 +33,8 @@ public class TRECFormat {
     private static final String TREC_ID_TRANSLATOR_TEXT_FILE_NAME = "id_translator.txt";
     private static final String TREC_LABEL_TRANSLATOR_FILE_NAME = "label_translator.ser";
     private static final String TREC_LABEL_TRANSLATOR_TEXT_FILE_NAME = "label_translator.txt";
+    // lines parsed in parallel at a time when loading a compressed data set
+    private static final int PARSE_CHUNK_SIZE = 10000;
 
 
 
@@ -145,7 +148,8 @@ public class TRECFormat {
     public static MultiLabelClfDataSet loadMultiLabelClfDataSet(File trecFile, DataSetType dataSetType,
                                             boolean loadSettings) throws IOException, ClassNotFoundException {
         boolean legalArg = ((dataSetType == DataSetType.ML_CLF_DENSE)
-                ||(dataSetType==DataSetType.ML_CLF_SPARSE)||(dataSetType == DataSetType.ML_CLF_SEQ_SPARSE));
+                ||(dataSetType==DataSetType.ML_CLF_SPARSE)||(dataSetType == DataSetType.ML_CLF_SEQ_SPARSE)
+                ||(dataSetType == DataSetType.ML_CLF_COMPRESSED));
         if (!legalArg){
             throw new IllegalArgumentException("illegal data set type");
         }
@@ -163,7 +167,15 @@ public class TRECFormat {
         if (dataSetType==DataSetType.ML_CLF_SEQ_SPARSE) {
             dataSet = new SequentialSparseMLClfDataSet(numDataPoints,numFeatures,missingValue,numClasses);
         }
-        fillMultiLabelClfDataSet(dataSet,trecFile);
+        if (dataSetType==DataSetType.ML_CLF_COMPRESSED){
+            ConcurrentSparseDataSetBuilder builder = ConcurrentSparseDataSetBuilder.getBuilder()
+                    .numDataPoints(numDataPoints).numFeatures(numFeatures)
+                    .missingValue(missingValue).numClasses(numClasses);
+            fillCompressedMultiLabelClfDataSet(builder, trecFile);
+            dataSet = builder.buildMultiLabel();
+        } else {
+            fillMultiLabelClfDataSet(dataSet,trecFile);
+        }
         if (loadSettings){
             loadFeatureList(dataSet, trecFile);
             loadIdTranslator(dataSet, trecFile);
@@ -405,6 +417,57 @@ public class TRECFormat {
     }
 
 
+    /**
+     * one pass; the lines are read in chunks and each chunk is parsed in parallel straight into the builder
+     */
+    private static void fillCompressedMultiLabelClfDataSet(ConcurrentSparseDataSetBuilder builder, File trecFile) throws IOException {
+        File matrixFile = new File(trecFile, TREC_MATRIX_FILE_NAME);
+        try (BufferedReader br = new BufferedReader(new FileReader(matrixFile));
+        ) {
+            List<String> chunk = new ArrayList<>();
+            String line = null;
+            int firstIndex = 0;
+            while ((line=br.readLine())!=null){
+                chunk.add(line);
+                if (chunk.size()==PARSE_CHUNK_SIZE){
+                    parseMultiLabelLines(builder, chunk, firstIndex);
+                    firstIndex += chunk.size();
+                    chunk.clear();
+                }
+            }
+            parseMultiLabelLines(builder, chunk, firstIndex);
+        }
+    }
+
+    private static void parseMultiLabelLines(ConcurrentSparseDataSetBuilder builder, List<String> lines, int firstIndex){
+        IntStream.range(0, lines.size()).parallel().forEach(l -> {
+            int dataIndex = firstIndex+l;
+            String[] lineSplit = lines.get(l).split("\\s+");
+            // the line is not just a space
+            if (lineSplit.length>=1){
+                String[] multiLabelSplit = lineSplit[0].split(Pattern.quote(","));
+                for (String label: multiLabelSplit){
+                    if (label.equals("")) {
+                        continue;
+                    }
+                    builder.addLabel(dataIndex,Integer.parseInt(label));
+                }
+            }
+            for (int i=1;i<lineSplit.length;i++){
+                String pair = lineSplit[i];
+                // ignore things after #
+                if (pair.startsWith("#")){
+                    break;
+                }
+                String[] pairSplit = pair.split(":");
+                int featureIndex = Integer.parseInt(pairSplit[0]);
+                double featureValue = Double.parseDouble(pairSplit[1]);
+                builder.setFeatureValue(dataIndex, featureIndex,featureValue);
+            }
+        });
+    }
+
+
     private static void fillRegDataSet(RegDataSet dataSet, File trecFile) throws IOException {
         File matrixFile = new File(trecFile, TREC_MATRIX_FILE_NAME);
         try (BufferedReader br = new BufferedReader(new FileReader(matrixFile));
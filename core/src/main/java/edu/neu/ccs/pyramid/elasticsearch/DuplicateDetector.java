@@ -8,7 +8,10 @@ import java.util.stream.IntStream;
 
 /**
  * Created by chengli on 1/20/15.
+ * @deprecated only finds exact duplicates, with one term vector request per document;
+ * use MinHashDuplicateDetector
  */
+@Deprecated
 public class DuplicateDetector implements Serializable{
     private static final long serialVersionUID = 1L;
     private transient ESIndex esIndex;
@@ -2,6 +2,7 @@ package edu.neu.ccs.pyramid.elasticsearch;
 
 import static org.elasticsearch.search.aggregations.AggregationBuilders.terms;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.InetSocketAddress;
@@ -14,6 +15,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
+import java.util.function.BiConsumer;
 import java.util.stream.Collectors;
 
 import edu.neu.ccs.pyramid.esplugins.PhraseCountQueryBuilder;
@@ -30,6 +32,10 @@ import org.elasticsearch.action.admin.indices.mapping.get.GetFieldMappingsRespon
 import org.elasticsearch.action.admin.indices.mapping.get.GetMappingsResponse;
 import org.elasticsearch.action.get.GetResponse;
 import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.termvectors.MultiTermVectorsItemResponse;
+import org.elasticsearch.action.termvectors.MultiTermVectorsRequestBuilder;
+import org.elasticsearch.action.termvectors.MultiTermVectorsResponse;
+import org.elasticsearch.action.termvectors.TermVectorsRequest;
 import org.elasticsearch.action.termvectors.TermVectorsResponse;
 import org.elasticsearch.client.Client;
 import org.elasticsearch.client.transport.TransportClient;
@@ -75,6 +81,10 @@ public class ESIndex implements AutoCloseable{
      * concurrent LRU cache for termvectors
      */
     LoadingCache<String,Map<Integer,String>> termVectorCache;
+    /**
+     * batched term vector requests, over the optional disk cache
+     */
+    TermVectorFetcher termVectorFetcher;
 
 
     public int getNumDocs() {
@@ -612,7 +622,7 @@ public class ESIndex implements AutoCloseable{
     public Map<Integer,String> getTermVectorFromIndex(String field, String id){
         Map<Integer,String> map = null;
         try {
-            map = getTermVectorWithException(field, id);
+            map = termVectorFetcher.get(field, id);
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -623,13 +633,56 @@ public class ESIndex implements AutoCloseable{
         return getTermVectorFromIndex(this.bodyField,id);
     }
 
+    /**
+     * fetch term vectors with multi term vector requests, see Builder.setTermVectorBatchSize
+     * the consumer is called from several threads, in no particular order
+     */
+    public void forEachTermVector(String field, String[] ids, BiConsumer<String, Map<Integer,String>> consumer){
+        termVectorFetcher.forEach(field, ids, consumer);
+    }
+
+    /**
+     * @return id to term vector
+     */
+    public Map<String, Map<Integer,String>> getTermVectorsFromIndex(String field, String[] ids){
+        return termVectorFetcher.getAll(field, ids);
+    }
+
+    private Map<String, Map<Integer,String>> fetchTermVectors(String field, List<String> ids) throws IOException {
+        Map<String, Map<Integer,String>> termVectors = new HashMap<>();
+        if (ids.size()==1){
+            termVectors.put(ids.get(0), getTermVectorWithException(field, ids.get(0)));
+            return termVectors;
+        }
+        MultiTermVectorsRequestBuilder request = client.prepareMultiTermVectors();
+        for (String id: ids){
+            request.add(new TermVectorsRequest(indexName, documentType, id)
+                    .offsets(false).positions(true).payloads(false).fieldStatistics(false)
+                    .termStatistics(false).selectedFields(field));
+        }
+        MultiTermVectorsResponse response = request.execute().actionGet();
+        for (MultiTermVectorsItemResponse item: response.getResponses()){
+            if (item.isFailed()){
+                if (logger.isWarnEnabled()){
+                    logger.warn("failed to fetch term vector of document "+item.getId()+": "+item.getFailure().getCause());
+                }
+                continue;
+            }
+            termVectors.put(item.getId(), decodeTermVector(item.getResponse(), field));
+        }
+        return termVectors;
+    }
+
     private Map<Integer,String> getTermVectorWithException(String field, String id) throws IOException {
         TermVectorsResponse response = client.prepareTermVector(indexName, documentType, id)
                 .setOffsets(false).setPositions(true).setFieldStatistics(false)
                 .setTermStatistics(false)
                 .setSelectedFields(field).
                         execute().actionGet();
+        return decodeTermVector(response, field);
+    }
 
+    private static Map<Integer,String> decodeTermVector(TermVectorsResponse response, String field) throws IOException {
         Map<Integer,String> map = new HashMap<>();
         Terms terms = response.getFields().terms(field);
         if (terms==null){
@@ -663,6 +716,13 @@ public class ESIndex implements AutoCloseable{
 
     public void close() {
         this.client.close();
+        if (this.termVectorFetcher!=null){
+            try {
+                this.termVectorFetcher.close();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
         if (this.clientType.equals("node")){
             try {
             	if (node != null) {
@@ -1470,6 +1530,9 @@ public class ESIndex implements AutoCloseable{
         private List<String> hosts = new ArrayList<>();
         private List<Integer> ports = new ArrayList<>();
         private int termVectorCacheSize = 10000;
+        private int termVectorBatchSize = 100;
+        private int maxInFlightRequests = 4;
+        private String termVectorCacheDirectory = null;
 
 
 
@@ -1516,6 +1579,30 @@ public class ESIndex implements AutoCloseable{
             return this;
         }
 
+        /**
+         * documents per multi term vector request
+         */
+        public Builder setTermVectorBatchSize(int termVectorBatchSize) {
+            this.termVectorBatchSize = termVectorBatchSize;
+            return this;
+        }
+
+        /**
+         * maximum number of concurrent multi term vector requests
+         */
+        public Builder setMaxInFlightRequests(int maxInFlightRequests) {
+            this.maxInFlightRequests = maxInFlightRequests;
+            return this;
+        }
+
+        /**
+         * decoded term vectors are kept under directory/indexName across runs
+         */
+        public Builder setTermVectorCacheDirectory(String termVectorCacheDirectory) {
+            this.termVectorCacheDirectory = termVectorCacheDirectory;
+            return this;
+        }
+
 
         public ESIndex build() throws Exception {
             boolean legal = (clientType.equals("node"))||(clientType.equals("transport"));
@@ -1558,6 +1645,13 @@ public class ESIndex implements AutoCloseable{
             }
             esIndex.numDocs = esIndex.fetchNumDocs();
 
+            TermVectorCache diskCache = null;
+            if (termVectorCacheDirectory!=null){
+                diskCache = new TermVectorCache(new File(termVectorCacheDirectory, indexName));
+            }
+            esIndex.termVectorFetcher = new TermVectorFetcher(esIndex::fetchTermVectors, diskCache,
+                    termVectorBatchSize, maxInFlightRequests);
+
             esIndex.termVectorCache = CacheBuilder.newBuilder()
                     .maximumSize(this.termVectorCacheSize)
                     .build(new CacheLoader<String, Map<Integer, String>>() {
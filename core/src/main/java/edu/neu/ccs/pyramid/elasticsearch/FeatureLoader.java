@@ -2,12 +2,12 @@ package edu.neu.ccs.pyramid.elasticsearch;
 
 import edu.neu.ccs.pyramid.dataset.*;
 import edu.neu.ccs.pyramid.feature.*;
+import edu.neu.ccs.pyramid.feature_extraction.NgramMatcher;
 import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.search.SearchHit;
 
-import java.util.Arrays;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
+import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
 /**
@@ -24,16 +24,7 @@ public class FeatureLoader {
         		.parallel()
                 .forEach(i-> {
                     Feature feature = features.get(i);
-                    if (feature instanceof CategoricalFeature){
-                        loadCategoricalFeature(index,dataSet,(CategoricalFeature)feature,idTranslator, docFilter);
-                    } else if (feature instanceof Ngram){
-                        loadNgramFeature(index, dataSet, (Ngram)feature, idTranslator, matchScoreType, docFilter, fieldLength);
-                    } else if (feature instanceof CodeDescription) {
-                        loadCodeDesFeatureTfidf(index, dataSet, feature, idTranslator, docFilter);
-//                        loadCodeDesFeature(index, dataSet, feature, idTranslator, docFilter);
-                    } else {
-                        loadNumericalFeature(index,dataSet,feature,idTranslator);
-                    }
+                    loadFeature(index, dataSet, feature, idTranslator, matchScoreType, docFilter, fieldLength);
 
 //                    progressBar.incrementAndPrint();
                 }
@@ -41,6 +32,104 @@ public class FeatureLoader {
 //        System.out.println();
     }
 
+    /**
+     * same values as loadFeatures, but ngram features are matched locally:
+     * the term vector of each document is fetched once per field (in batches, see ESIndex.forEachTermVector)
+     * and matched against all ngrams of the field, instead of running one span query per ngram over the whole collection
+     * ES_ORIGINAL scores depend on index statistics and cannot be computed locally,
+     * so for ES_ORIGINAL this is the same as loadFeatures
+     */
+    public static void loadFeaturesLocally(ESIndex index, DataSet dataSet, FeatureList features,
+                                           IdTranslator idTranslator, MatchScoreType matchScoreType, String docFilter,
+                                           Map<String, float[]> fieldLength){
+        if (matchScoreType==MatchScoreType.ES_ORIGINAL){
+            loadFeatures(index, dataSet, features, idTranslator, matchScoreType, docFilter, fieldLength);
+            return;
+        }
+        List<Feature> ngrams = new ArrayList<>();
+        List<Feature> others = new ArrayList<>();
+        for (Feature feature: features.getAll()){
+            if (feature instanceof Ngram){
+                ngrams.add(feature);
+            } else {
+                others.add(feature);
+            }
+        }
+        others.parallelStream().forEach(feature ->
+                loadFeature(index, dataSet, feature, idTranslator, matchScoreType, docFilter, fieldLength));
+
+        // matched values are collected without locking, then copied into the data set by one thread
+        ConcurrentSparseDataSetBuilder builder = ConcurrentSparseDataSetBuilder.getBuilder()
+                .numDataPoints(dataSet.getNumDataPoints())
+                .numFeatures(dataSet.getNumFeatures())
+                .missingValue(dataSet.hasMissingValue());
+        matchNgramsLocally(index, ngrams, idTranslator, matchScoreType, fieldLength, builder);
+        CompressedSparseDataSet matched = builder.build();
+        for (int i=0;i<matched.getNumDataPoints();i++){
+            int dataIndex = i;
+            matched.forEachNonZeroInRow(i, (featureIndex, value) -> dataSet.setFeatureValue(dataIndex, featureIndex, value));
+        }
+    }
+
+    /**
+     * the local matching of loadFeaturesLocally, writing ngram values into a concurrent builder
+     * use it directly to build a compressed data set without going through a mutable one
+     * @param features features other than Ngram are ignored
+     */
+    public static void matchNgramsLocally(ESIndex index, List<Feature> features, IdTranslator idTranslator,
+                                          MatchScoreType matchScoreType, Map<String, float[]> fieldLength,
+                                          ConcurrentSparseDataSetBuilder builder){
+        if (matchScoreType==MatchScoreType.ES_ORIGINAL){
+            throw new IllegalArgumentException("ES_ORIGINAL scores cannot be computed locally");
+        }
+        Set<String> fields = new LinkedHashSet<>();
+        for (Feature feature: features){
+            if (feature instanceof Ngram){
+                fields.add(((Ngram) feature).getField());
+            }
+        }
+        boolean phraseCount = matchScoreType!=MatchScoreType.BINARY;
+        List<NgramMatcher> matchers = fields.stream().map(field -> new NgramMatcher(features, field, phraseCount))
+                .collect(Collectors.toList());
+        String[] ids = idTranslator.getAllExtIds();
+        for (NgramMatcher matcher: matchers){
+            String field = matcher.getField();
+            index.forEachTermVector(field, ids, (id, termVector) -> {
+                int algorithmId = idTranslator.toIntId(id);
+                matcher.match(termVector, (featureIndex, count) -> {
+                    double value;
+                    switch (matchScoreType){
+                        case BINARY:
+                            value = 1;
+                            break;
+                        case TFIFL:
+                            float docLength = fieldLength.get(field)[algorithmId];
+                            value = ((float)count)/docLength;
+                            break;
+                        default:
+                            value = count;
+                    }
+                    builder.setFeatureValue(algorithmId, featureIndex, value);
+                });
+            });
+        }
+    }
+
+    private static void loadFeature(ESIndex index, DataSet dataSet, Feature feature,
+                                    IdTranslator idTranslator, MatchScoreType matchScoreType, String docFilter,
+                                    Map<String, float[]> fieldLength){
+        if (feature instanceof CategoricalFeature){
+            loadCategoricalFeature(index,dataSet,(CategoricalFeature)feature,idTranslator, docFilter);
+        } else if (feature instanceof Ngram){
+            loadNgramFeature(index, dataSet, (Ngram)feature, idTranslator, matchScoreType, docFilter, fieldLength);
+        } else if (feature instanceof CodeDescription) {
+            loadCodeDesFeatureTfidf(index, dataSet, feature, idTranslator, docFilter);
+//            loadCodeDesFeature(index, dataSet, feature, idTranslator, docFilter);
+        } else {
+            loadNumericalFeature(index,dataSet,feature,idTranslator);
+        }
+    }
+
     public static void loadCategoricalFeature(ESIndex index, DataSet dataSet, CategoricalFeature feature,
                                               IdTranslator idTranslator, String docFilter){
 //        String[] dataIndexIds = idTranslator.getAllExtIds();
@@ -70,55 +159,64 @@ public class FeatureLoader {
     public static void loadNgramFeature(ESIndex index, DataSet dataSet, Ngram feature,
                                         IdTranslator idTranslator, MatchScoreType matchScoreType, String docFilter,
                                         Map<String, float[]> fieldLength){
+        int featureIndex = feature.getIndex();
+        forEachNgramValue(index, feature, idTranslator, matchScoreType, docFilter, fieldLength,
+                (algorithmId, value) -> dataSet.setFeatureValue(algorithmId, featureIndex, value));
+    }
+
+    /**
+     * same values as loadNgramFeature, but passed to the consumer instead of written into a data set
+     * only matched documents are visited; all others have value 0
+     */
+    public static void forEachNgramValue(ESIndex index, Ngram feature,
+                                         IdTranslator idTranslator, MatchScoreType matchScoreType, String docFilter,
+                                         Map<String, float[]> fieldLength, ValueConsumer consumer){
         switch (matchScoreType){
             case ES_ORIGINAL:
-                loadNgramFeatureOriginal(index, dataSet, feature, idTranslator, docFilter);
+                loadNgramFeatureOriginal(index, feature, idTranslator, docFilter, consumer);
                 break;
             case BINARY:
-                loadNgramFeatureBinary(index, dataSet, feature, idTranslator, docFilter);
+                loadNgramFeatureBinary(index, feature, idTranslator, docFilter, consumer);
                 break;
             case FREQUENCY:
-                loadNgramFeatureFrequency(index, dataSet, feature, idTranslator, docFilter);
+                loadNgramFeatureFrequency(index, feature, idTranslator, docFilter, consumer);
                 break;
             case TFIFL:
-                loadNgramFeatureTFIFL(index, dataSet, feature, idTranslator, docFilter, fieldLength);
+                loadNgramFeatureTFIFL(index, feature, idTranslator, docFilter, fieldLength, consumer);
         }
     }
 
 
-    private static void loadNgramFeatureOriginal(ESIndex index, DataSet dataSet, Ngram feature,
-                                                 IdTranslator idTranslator, String docFilter){
-        int featureIndex = feature.getIndex();
+    private static void loadNgramFeatureOriginal(ESIndex index, Ngram feature,
+                                                 IdTranslator idTranslator, String docFilter, ValueConsumer consumer){
         SearchResponse response = index.spanNear(feature, docFilter, idTranslator.numData());
         SearchHit[] hits = response.getHits().getHits();
         for (SearchHit hit: hits){
             String indexId = hit.getId();
             float score = hit.getScore();
             int algorithmId = idTranslator.toIntId(indexId);
-            dataSet.setFeatureValue(algorithmId,featureIndex,score);
+            consumer.accept(algorithmId,score);
         }
     }
 
-    private static void loadNgramFeatureFrequency(ESIndex index, DataSet dataSet, Ngram feature,
-                                                  IdTranslator idTranslator, String docFilter){
-        int featureIndex = feature.getIndex();
+    private static void loadNgramFeatureFrequency(ESIndex index, Ngram feature,
+                                                  IdTranslator idTranslator, String docFilter, ValueConsumer consumer){
         SearchResponse response = index.spanNearFrequency(feature, docFilter, idTranslator.numData());
         SearchHit[] hits = response.getHits().getHits();
         for (SearchHit hit: hits){
             String indexId = hit.getId();
             float score = hit.getScore();
             int algorithmId = idTranslator.toIntId(indexId);
-            dataSet.setFeatureValue(algorithmId,featureIndex,score);
+            consumer.accept(algorithmId,score);
         }
     }
 
     // term frequency inverse field length
     // field storing the length of the body field should be called body_field_length
     // todo avoid repeated retrieval of the same field length
-    private static void loadNgramFeatureTFIFL(ESIndex index, DataSet dataSet, Ngram feature,
+    private static void loadNgramFeatureTFIFL(ESIndex index, Ngram feature,
                                               IdTranslator idTranslator, String docFilter,
-                                              Map<String, float[]> fieldLength){
-        int featureIndex = feature.getIndex();
+                                              Map<String, float[]> fieldLength, ValueConsumer consumer){
         SearchResponse response = index.spanNearFrequency(feature, docFilter, idTranslator.numData());
         SearchHit[] hits = response.getHits().getHits();
         String field = feature.getField();
@@ -129,13 +227,19 @@ public class FeatureLoader {
             float docLength = fieldLength.get(field)[algorithmId];
             double s = score/docLength;
 
-            dataSet.setFeatureValue(algorithmId,featureIndex,s);
+            consumer.accept(algorithmId,s);
         }
     }
 
     public static void loadNgramFeatureBinary(ESIndex index, DataSet dataSet, Ngram feature,
                                               IdTranslator idTranslator, String docFilter){
         int featureIndex = feature.getIndex();
+        loadNgramFeatureBinary(index, feature, idTranslator, docFilter,
+                (algorithmId, value) -> dataSet.setFeatureValue(algorithmId, featureIndex, value));
+    }
+
+    private static void loadNgramFeatureBinary(ESIndex index, Ngram feature,
+                                               IdTranslator idTranslator, String docFilter, ValueConsumer consumer){
         SearchResponse response = index.spanNear(feature, docFilter, idTranslator.numData());
         SearchHit[] hits = response.getHits().getHits();
         for (SearchHit hit: hits){
@@ -145,7 +249,7 @@ public class FeatureLoader {
             if (score>0){
                 score=1;
             }
-            dataSet.setFeatureValue(algorithmId,featureIndex,score);
+            consumer.accept(algorithmId,score);
         }
     }
 
@@ -248,4 +352,8 @@ public class FeatureLoader {
     public static enum MatchScoreType{
         ES_ORIGINAL, BINARY, FREQUENCY, TFIFL
     }
+
+    public interface ValueConsumer{
+        void accept(int algorithmId, double value);
+    }
 }
@@ -0,0 +1,418 @@
+package edu.neu.ccs.pyramid.elasticsearch;
+
+import edu.neu.ccs.pyramid.dataset.MappedArray;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.function.IntFunction;
+import java.util.stream.IntStream;
+
+/**
+ * near duplicate detection with MinHash signatures and banded locality sensitive hashing
+ * each document is reduced to numHashes minimum hashes over its shingles (shingleSize consecutive terms);
+ * documents sharing all rows of some band are candidates, and a candidate pair whose signatures agree
+ * on at least threshold of the positions is a near duplicate
+ * within a bucket of at most MAX_PAIRWISE_BUCKET documents all pairs are compared; in a larger bucket
+ * each member is compared with the bucket representative only, which bounds the work per band but can
+ * miss a duplicate whose match falls in such a bucket and in no other band
+ * near duplicates are merged transitively; every group keeps its first document in ids order,
+ * the rest are reported as duplicates
+ * an empty term vector, which is also what a failed fetch yields, has no shingles and gets no signature;
+ * such documents are counted and logged, kept out of the bands and never reported as duplicates
+ *
+ * signatures are stored in a file of numDocs*numHashes ints and memory-mapped, so heap usage is
+ * two longs and one int per document; the header records a hash of the ids in order, and a signature file
+ * written for the same ids and settings is reused, so later runs do not fetch term vectors at all
+ */
+public class MinHashDuplicateDetector {
+    private static final Logger logger = LogManager.getLogger();
+    private static final int MAGIC = 0x4D484453;
+    private static final int VERSION = 3;
+    private static final int HEADER_BYTES = 40;
+    private static final int MAX_PAIRWISE_BUCKET = 64;
+    // minimum hashes are positive, and positions never written read as zero
+    private static final int NO_SIGNATURE = 0;
+
+    private final int shingleSize;
+    private final int numBands;
+    private final int rowsPerBand;
+    private final int numHashes;
+    private final double threshold;
+    private final long seed;
+    private final long[] hashSeeds;
+
+    /**
+     * @param shingleSize number of consecutive terms per shingle
+     * @param numBands
+     * @param rowsPerBand signature positions per band
+     * @param threshold minimum estimated jaccard similarity of a duplicate
+     * @param seed
+     */
+    public MinHashDuplicateDetector(int shingleSize, int numBands, int rowsPerBand, double threshold, long seed) {
+        if (shingleSize<=0||numBands<=0||rowsPerBand<=0){
+            throw new IllegalArgumentException("shingleSize, numBands and rowsPerBand must be positive");
+        }
+        if (threshold<=0||threshold>1){
+            throw new IllegalArgumentException("threshold must be in (0,1]");
+        }
+        this.shingleSize = shingleSize;
+        this.numBands = numBands;
+        this.rowsPerBand = rowsPerBand;
+        this.numHashes = numBands*rowsPerBand;
+        this.threshold = threshold;
+        this.seed = seed;
+        this.hashSeeds = new long[numHashes];
+        Random random = new Random(seed);
+        for (int h=0;h<numHashes;h++){
+            hashSeeds[h] = random.nextLong();
+        }
+    }
+
+    /**
+     * bands and rows are chosen among splits of numHashes so that (1/bands)^(1/rows),
+     * the similarity at which a pair becomes a candidate with probability about 1/2, is closest to threshold
+     */
+    public static MinHashDuplicateDetector withThreshold(double threshold, int numHashes, int shingleSize){
+        int bestRows = 1;
+        double bestGap = Double.POSITIVE_INFINITY;
+        for (int rows=1;rows<=numHashes;rows++){
+            int bands = numHashes/rows;
+            double gap = Math.abs(Math.pow(1.0/bands, 1.0/rows)-threshold);
+            if (gap<bestGap){
+                bestGap = gap;
+                bestRows = rows;
+            }
+        }
+        return new MinHashDuplicateDetector(shingleSize, numHashes/bestRows, bestRows, threshold, 0);
+    }
+
+    public int getNumBands() {
+        return numBands;
+    }
+
+    public int getRowsPerBand() {
+        return rowsPerBand;
+    }
+
+    /**
+     * compute (or reuse) signatures of the field and detect near duplicates
+     * @param signatureFile
+     * @return ids of duplicates, excluding the first document of each group
+     */
+    public Set<String> detect(ESIndex index, String field, String[] ids, File signatureFile) throws IOException {
+        if (!hasSignatures(signatureFile, ids)){
+            writeSignatures(index, field, ids, signatureFile);
+        } else if (logger.isInfoEnabled()){
+            logger.info("reusing signatures in "+signatureFile);
+        }
+        return detect(ids, signatureFile);
+    }
+
+    /**
+     * fetch term vectors in batches and write one signature per document, in ids order
+     * @return number of documents without a signature: empty, failed to fetch or never returned
+     */
+    public int writeSignatures(ESIndex index, String field, String[] ids, File signatureFile) throws IOException {
+        Map<String, Integer> positions = new HashMap<>();
+        for (int i=0;i<ids.length;i++){
+            positions.put(ids[i], i);
+        }
+        try (FileChannel channel = openForWrite(signatureFile)){
+            index.forEachTermVector(field, ids, (id, termVector) -> writeSignature(channel, positions.get(id), termVector));
+            writeHeader(channel, ids);
+        }
+        return countUnsignatured(ids, signatureFile);
+    }
+
+    /**
+     * write signatures of documents available locally, computed in parallel
+     * @param termVectors document index to term vector, in ids order
+     * @return number of documents without a signature
+     */
+    public int writeSignatures(String[] ids, IntFunction<Map<Integer, String>> termVectors, File signatureFile) throws IOException {
+        try (FileChannel channel = openForWrite(signatureFile)){
+            IntStream.range(0, ids.length).parallel().forEach(i -> writeSignature(channel, i, termVectors.apply(i)));
+            writeHeader(channel, ids);
+        }
+        return countUnsignatured(ids, signatureFile);
+    }
+
+    private int countUnsignatured(String[] ids, File signatureFile) throws IOException {
+        int numUnsignatured = getUnsignatured(ids, signatureFile).size();
+        if (numUnsignatured>0 && logger.isWarnEnabled()){
+            logger.warn(numUnsignatured+" of "+ids.length+" documents have no signature (empty or failed to fetch)");
+        }
+        return numUnsignatured;
+    }
+
+    private static FileChannel openForWrite(File signatureFile) throws IOException {
+        return FileChannel.open(signatureFile.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    private void writeSignature(FileChannel channel, int doc, Map<Integer, String> termVector){
+        int[] signature = signature(termVector);
+        ByteBuffer buffer = ByteBuffer.allocate(numHashes*4).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.asIntBuffer().put(signature);
+        long position = HEADER_BYTES+((long)doc)*numHashes*4;
+        try {
+            while (buffer.hasRemaining()){
+                channel.write(buffer, position+buffer.position());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * the header goes last, so an interrupted run leaves no valid file
+     * documents never written, e.g. at the end, are extended with zeros and read as unsignatured
+     */
+    private void writeHeader(FileChannel channel, String[] ids) throws IOException {
+        long size = HEADER_BYTES+((long)ids.length)*numHashes*4;
+        if (channel.size()<size){
+            channel.write(ByteBuffer.allocate(1), size-1);
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putInt(ids.length).putInt(numHashes)
+                .putInt(shingleSize).putLong(seed).putLong(idsHash(ids));
+        header.flip();
+        while (header.hasRemaining()){
+            channel.write(header, header.position());
+        }
+    }
+
+    /**
+     * detect near duplicates from a signature file
+     * @param ids the ids the signatures were written for, in the same order
+     */
+    public Set<String> detect(String[] ids, File signatureFile) throws IOException {
+        if (!hasSignatures(signatureFile, ids)){
+            throw new IllegalArgumentException("no valid signatures for "+ids.length+" documents in "+signatureFile);
+        }
+        int numDocs = ids.length;
+        int[] parent = new int[numDocs];
+        for (int i=0;i<numDocs;i++){
+            parent[i] = i;
+        }
+        try (FileChannel channel = FileChannel.open(signatureFile.toPath(), StandardOpenOption.READ)){
+            MappedArray signatures = new MappedArray(channel, HEADER_BYTES, ((long)numDocs)*numHashes*4);
+            int[] signed = IntStream.range(0, numDocs).parallel().filter(i -> hasSignature(signatures, i)).toArray();
+            if (signed.length<numDocs && logger.isWarnEnabled()){
+                logger.warn((numDocs-signed.length)+" of "+numDocs+" documents have no signature and are not compared");
+            }
+            int numSigned = signed.length;
+            long[] keys = new long[numSigned];
+            long[] candidates = new long[Math.max(numSigned, 1)];
+            for (int band=0;band<numBands;band++){
+                int b = band;
+                IntStream.range(0, numSigned).parallel().forEach(s ->
+                        keys[s] = (((long)bandHash(signatures, signed[s], b))<<32)|signed[s]);
+                Arrays.parallelSort(keys);
+                // pairs of every bucket that are not yet merged; (representative, member) pairs only in large buckets
+                int numCandidates = 0;
+                int start = 0;
+                for (int k=1;k<=numSigned;k++){
+                    if (k<numSigned && (keys[k]>>>32)==(keys[start]>>>32)){
+                        continue;
+                    }
+                    for (int m=start+1;m<k;m++){
+                        int member = (int)keys[m];
+                        int last = k-start<=MAX_PAIRWISE_BUCKET ? m : start+1;
+                        for (int o=start;o<last;o++){
+                            int other = (int)keys[o];
+                            if (find(parent, member)!=find(parent, other)){
+                                if (numCandidates==candidates.length){
+                                    candidates = Arrays.copyOf(candidates, 2*candidates.length);
+                                }
+                                candidates[numCandidates++] = (((long)other)<<32)|member;
+                            }
+                        }
+                    }
+                    start = k;
+                }
+                long[] verified = Arrays.stream(candidates, 0, numCandidates).parallel()
+                        .filter(pair -> similarity(signatures, (int)(pair>>>32), (int)pair)>=threshold)
+                        .toArray();
+                for (long pair: verified){
+                    union(parent, (int)(pair>>>32), (int)pair);
+                }
+            }
+        }
+        // union keeps the smallest index of each group as its root
+        Set<String> duplicates = new HashSet<>();
+        for (int i=0;i<numDocs;i++){
+            if (find(parent, i)!=i){
+                duplicates.add(ids[i]);
+            }
+        }
+        return duplicates;
+    }
+
+    /**
+     * ids of the documents without a signature, in a file written for ids
+     */
+    public Set<String> getUnsignatured(String[] ids, File signatureFile) throws IOException {
+        if (!hasSignatures(signatureFile, ids)){
+            throw new IllegalArgumentException("no valid signatures for "+ids.length+" documents in "+signatureFile);
+        }
+        try (FileChannel channel = FileChannel.open(signatureFile.toPath(), StandardOpenOption.READ)){
+            MappedArray signatures = new MappedArray(channel, HEADER_BYTES, ((long)ids.length)*numHashes*4);
+            Set<String> unsignatured = new HashSet<>();
+            for (int i=0;i<ids.length;i++){
+                if (!hasSignature(signatures, i)){
+                    unsignatured.add(ids[i]);
+                }
+            }
+            return unsignatured;
+        }
+    }
+
+    /**
+     * @param termVector position to term
+     * @return all NO_SIGNATURE for an empty term vector
+     */
+    public int[] signature(Map<Integer, String> termVector){
+        if (termVector.isEmpty()){
+            int[] empty = new int[numHashes];
+            Arrays.fill(empty, NO_SIGNATURE);
+            return empty;
+        }
+        List<Integer> positions = new ArrayList<>(termVector.keySet());
+        Collections.sort(positions);
+        long[] termHashes = new long[positions.size()];
+        for (int p=0;p<positions.size();p++){
+            termHashes[p] = hash(termVector.get(positions.get(p)));
+        }
+        int[] signature = new int[numHashes];
+        Arrays.fill(signature, Integer.MAX_VALUE);
+        // a document shorter than one shingle is a single shingle
+        int numShingles = Math.max(termHashes.length-shingleSize+1, 1);
+        for (int s=0;s<numShingles;s++){
+            long shingle = 0;
+            for (int k=s;k<Math.min(s+shingleSize, termHashes.length);k++){
+                shingle = shingle*0x9E3779B97F4A7C15L+termHashes[k];
+            }
+            for (int h=0;h<numHashes;h++){
+                int value = 1+(int)(mix(shingle^hashSeeds[h])>>>34);
+                if (value<signature[h]){
+                    signature[h] = value;
+                }
+            }
+        }
+        return signature;
+    }
+
+    /**
+     * all positions of a signature are written together, so the first one tells
+     */
+    private boolean hasSignature(MappedArray signatures, int doc){
+        return signatures.getInt(((long)doc)*numHashes)!=NO_SIGNATURE;
+    }
+
+    /**
+     * fraction of equal signature positions, an estimate of the jaccard similarity of the shingle sets
+     */
+    private double similarity(MappedArray signatures, int doc1, int doc2){
+        long base1 = ((long)doc1)*numHashes;
+        long base2 = ((long)doc2)*numHashes;
+        int equal = 0;
+        for (int h=0;h<numHashes;h++){
+            if (signatures.getInt(base1+h)==signatures.getInt(base2+h)){
+                equal += 1;
+            }
+        }
+        return ((double)equal)/numHashes;
+    }
+
+    private int bandHash(MappedArray signatures, int doc, int band){
+        long base = ((long)doc)*numHashes+band*rowsPerBand;
+        long h = band;
+        for (int r=0;r<rowsPerBand;r++){
+            h = h*0x9E3779B97F4A7C15L+signatures.getInt(base+r);
+        }
+        return (int)(mix(h)>>>32);
+    }
+
+    private boolean hasSignatures(File signatureFile, String[] ids) throws IOException {
+        int numDocs = ids.length;
+        if (!signatureFile.exists() || signatureFile.length()!=HEADER_BYTES+((long)numDocs)*numHashes*4){
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(signatureFile.toPath(), StandardOpenOption.READ)){
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining()){
+                if (channel.read(header, header.position())<0){
+                    return false;
+                }
+            }
+            header.flip();
+            return header.getInt()==MAGIC && header.getInt()==VERSION && header.getInt()==numDocs
+                    && header.getInt()==numHashes && header.getInt()==shingleSize && header.getLong()==seed
+                    && header.getLong()==idsHash(ids);
+        }
+    }
+
+    private static int find(int[] parent, int i){
+        while (parent[i]!=i){
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+
+    /**
+     * the smaller root becomes the parent, so every group is rooted at its first document
+     */
+    private static void union(int[] parent, int i, int j){
+        int rootI = find(parent, i);
+        int rootJ = find(parent, j);
+        if (rootI<rootJ){
+            parent[rootJ] = rootI;
+        } else if (rootJ<rootI){
+            parent[rootI] = rootJ;
+        }
+    }
+
+    /**
+     * order sensitive, so a file written for the same ids in another order is not reused
+     */
+    private static long idsHash(String[] ids){
+        long h = ids.length;
+        for (String id: ids){
+            h = h*0x9E3779B97F4A7C15L+hash(id);
+        }
+        return mix(h);
+    }
+
+    private static long hash(String term){
+        byte[] bytes = term.getBytes(StandardCharsets.UTF_8);
+        long h = 0xcbf29ce484222325L;
+        for (byte b: bytes){
+            h ^= b;
+            h *= 0x100000001b3L;
+        }
+        return mix(h);
+    }
+
+    /**
+     * murmur3 finalizer
+     */
+    private static long mix(long h){
+        h ^= h>>>33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h>>>33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h>>>33;
+        return h;
+    }
+}
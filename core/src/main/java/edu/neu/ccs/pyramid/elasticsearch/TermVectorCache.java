@@ -0,0 +1,172 @@
+package edu.neu.ccs.pyramid.elasticsearch;
+
+import java.io.*;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * persistent cache of decoded positional term vectors, so repeated runs over the same index read disk
+ * instead of the cluster
+ * each field has one append-only log in the directory; a record is
+ * [int payload length][utf id][int number of positions]([int position][utf term])*
+ * the offsets of all records are read into memory when a field is first used; a truncated last record,
+ * e.g. after a crash, is ignored and overwritten
+ * the cache is not invalidated when the index changes; delete the directory after re-indexing
+ * thread safe
+ */
+public class TermVectorCache implements AutoCloseable {
+    private final File directory;
+    private final ConcurrentHashMap<String, FieldLog> logs = new ConcurrentHashMap<>();
+
+    public TermVectorCache(File directory) {
+        this.directory = directory;
+        directory.mkdirs();
+    }
+
+    public TermVectorCache(String directory) {
+        this(new File(directory));
+    }
+
+    /**
+     * @return null if the document is not cached
+     */
+    public Map<Integer, String> get(String field, String id) throws IOException {
+        return log(field).get(id);
+    }
+
+    public boolean contains(String field, String id) throws IOException {
+        return log(field).offsets.containsKey(id);
+    }
+
+    /**
+     * a document cached before is not written again
+     */
+    public void put(String field, String id, Map<Integer, String> termVector) throws IOException {
+        log(field).put(id, termVector);
+    }
+
+    public int size(String field) throws IOException {
+        return log(field).offsets.size();
+    }
+
+    private FieldLog log(String field) throws IOException {
+        FieldLog log = logs.get(field);
+        if (log!=null){
+            return log;
+        }
+        synchronized (logs){
+            log = logs.get(field);
+            if (log==null){
+                log = new FieldLog(new File(directory, URLEncoder.encode(field, "UTF-8")+".tv"));
+                logs.put(field, log);
+            }
+            return log;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (FieldLog log: logs.values()){
+            log.channel.close();
+        }
+        logs.clear();
+    }
+
+    private static class FieldLog {
+        private final FileChannel channel;
+        private final ConcurrentHashMap<String, Long> offsets = new ConcurrentHashMap<>();
+        private long end;
+
+        FieldLog(File file) throws IOException {
+            this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            scan();
+        }
+
+        private void scan() throws IOException {
+            long size = channel.size();
+            long position = 0;
+            ByteBuffer lengthBuffer = ByteBuffer.allocate(4);
+            while (position+4<=size){
+                lengthBuffer.clear();
+                readFully(lengthBuffer, position);
+                int length = lengthBuffer.getInt(0);
+                if (length<=0 || position+4+length>size){
+                    break;
+                }
+                byte[] payload = read(position+4, length);
+                String id = new DataInputStream(new ByteArrayInputStream(payload)).readUTF();
+                offsets.put(id, position);
+                position += 4+length;
+            }
+            end = position;
+        }
+
+        Map<Integer, String> get(String id) throws IOException {
+            Long offset = offsets.get(id);
+            if (offset==null){
+                return null;
+            }
+            ByteBuffer lengthBuffer = ByteBuffer.allocate(4);
+            readFully(lengthBuffer, offset);
+            byte[] payload = read(offset+4, lengthBuffer.getInt(0));
+            DataInputStream input = new DataInputStream(new ByteArrayInputStream(payload));
+            input.readUTF();
+            int numPositions = input.readInt();
+            Map<Integer, String> termVector = new HashMap<>();
+            for (int i=0;i<numPositions;i++){
+                int position = input.readInt();
+                termVector.put(position, input.readUTF());
+            }
+            return termVector;
+        }
+
+        void put(String id, Map<Integer, String> termVector) throws IOException {
+            if (offsets.containsKey(id)){
+                return;
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream output = new DataOutputStream(bytes);
+            output.writeInt(0);
+            output.writeUTF(id);
+            output.writeInt(termVector.size());
+            for (Map.Entry<Integer, String> entry: termVector.entrySet()){
+                output.writeInt(entry.getKey());
+                output.writeUTF(entry.getValue());
+            }
+            output.flush();
+            ByteBuffer record = ByteBuffer.wrap(bytes.toByteArray());
+            record.putInt(0, record.capacity()-4);
+            synchronized (this){
+                if (offsets.containsKey(id)){
+                    return;
+                }
+                long offset = end;
+                while (record.hasRemaining()){
+                    channel.write(record, offset+record.position());
+                }
+                end = offset+record.capacity();
+                offsets.put(id, offset);
+            }
+        }
+
+        private byte[] read(long position, int length) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(length);
+            readFully(buffer, position);
+            return buffer.array();
+        }
+
+        private void readFully(ByteBuffer buffer, long position) throws IOException {
+            while (buffer.hasRemaining()){
+                if (channel.read(buffer, position+buffer.position())<0){
+                    throw new EOFException();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package edu.neu.ccs.pyramid.elasticsearch;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.*;
+import java.util.concurrent.Semaphore;
+import java.util.function.BiConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * batched term vector retrieval
+ * documents are requested in batches of batchSize, with at most maxInFlight batches outstanding;
+ * consumers run on the common pool, outside the request limit
+ * with a TermVectorCache, cached documents are read from disk and fetched ones are added to it
+ */
+public class TermVectorFetcher {
+    private static final Logger logger = LogManager.getLogger();
+    private final BatchSource source;
+    /**
+     * null if there is no disk cache
+     */
+    private final TermVectorCache cache;
+    private final int batchSize;
+    private final Semaphore inFlight;
+
+    /**
+     * @param source
+     * @param cache can be null
+     * @param batchSize documents per request
+     * @param maxInFlight maximum number of concurrent requests
+     */
+    public TermVectorFetcher(BatchSource source, TermVectorCache cache, int batchSize, int maxInFlight) {
+        if (batchSize<=0||maxInFlight<=0){
+            throw new IllegalArgumentException("batchSize and maxInFlight must be positive");
+        }
+        this.source = source;
+        this.cache = cache;
+        this.batchSize = batchSize;
+        this.inFlight = new Semaphore(maxInFlight);
+    }
+
+    /**
+     * a single document; an empty map if the document has no such field
+     */
+    public Map<Integer, String> get(String field, String id) throws IOException {
+        if (cache!=null){
+            Map<Integer, String> cached = cache.get(field, id);
+            if (cached!=null){
+                return cached;
+            }
+        }
+        Map<Integer, String> termVector = source.fetch(field, Collections.singletonList(id))
+                .getOrDefault(id, new HashMap<>());
+        if (cache!=null){
+            cache.put(field, id, termVector);
+        }
+        return termVector;
+    }
+
+    /**
+     * visit the term vectors of all documents, in no particular order
+     * the consumer is called from several threads
+     */
+    public void forEach(String field, String[] ids, BiConsumer<String, Map<Integer, String>> consumer){
+        List<String> missing = new ArrayList<>();
+        List<String> cached = new ArrayList<>();
+        for (String id: ids){
+            if (cache!=null && contains(field, id)){
+                cached.add(id);
+            } else {
+                missing.add(id);
+            }
+        }
+        int numBatches = (missing.size()+batchSize-1)/batchSize;
+        cached.parallelStream().forEach(id -> {
+            try {
+                consumer.accept(id, cache.get(field, id));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        IntStream.range(0, numBatches).parallel().forEach(b -> {
+            List<String> batch = missing.subList(b*batchSize, Math.min((b+1)*batchSize, missing.size()));
+            fetchBatch(field, batch, consumer);
+        });
+    }
+
+    /**
+     * @return id to term vector
+     */
+    public Map<String, Map<Integer, String>> getAll(String field, String[] ids){
+        Map<String, Map<Integer, String>> termVectors = Collections.synchronizedMap(new HashMap<>());
+        forEach(field, ids, termVectors::put);
+        return termVectors;
+    }
+
+    private boolean contains(String field, String id){
+        try {
+            return cache.contains(field, id);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void fetchBatch(String field, List<String> batch, BiConsumer<String, Map<Integer, String>> consumer){
+        Map<String, Map<Integer, String>> fetched;
+        // only the request holds a permit; the consumer runs after it is released
+        try {
+            inFlight.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+        try {
+            fetched = source.fetch(field, batch);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            inFlight.release();
+        }
+        for (String id: batch){
+            Map<Integer, String> termVector = fetched.get(id);
+            if (termVector==null){
+                if (logger.isWarnEnabled()){
+                    logger.warn("no term vector for document "+id+" in field "+field);
+                }
+                termVector = new HashMap<>();
+            } else if (cache!=null){
+                try {
+                    cache.put(field, id, termVector);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            consumer.accept(id, termVector);
+        }
+    }
+
+    /**
+     * closes the disk cache, if any
+     */
+    public void close() throws IOException {
+        if (cache!=null){
+            cache.close();
+        }
+    }
+
+    /**
+     * fetches the term vectors of one batch of documents
+     */
+    @FunctionalInterface
+    public interface BatchSource {
+        /**
+         * @return id to term vector; failed documents are left out
+         */
+        Map<String, Map<Integer, String>> fetch(String field, List<String> ids) throws IOException;
+    }
+}
@@ -0,0 +1,246 @@
+package edu.neu.ccs.pyramid.feature_extraction;
+
+import com.google.common.collect.ConcurrentHashMultiset;
+import com.google.common.collect.Multiset;
+import edu.neu.ccs.pyramid.elasticsearch.ESIndex;
+import edu.neu.ccs.pyramid.feature.Ngram;
+import edu.neu.ccs.pyramid.util.CountMinSketch;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * ngram enumeration over term ids
+ * each distinct term string is interned to an int id once; ngrams are tuples of ids keyed by a rolling hash,
+ * counted in primitive open addressing tables owned by the calling thread
+ * the tables of each thread are split into partitions by hash, so merging runs in parallel over partitions
+ * and only ngrams passing the document frequency threshold are turned into Ngram features
+ *
+ * every ngram is counted at most once per document, over all position templates
+ * documents can be added from multiple threads; getNgrams must be called once, after all additions finish
+ *
+ * with a Count-Min sketch, enumeration takes two passes over the documents:
+ * addToSketch streams document frequencies into the fixed-size sketch, then add only counts
+ * ngrams whose sketch estimate reaches minDF, so the exact tables hold candidates instead of every singleton
+ * the sketch never underestimates, so no frequent ngram is lost
+ */
+public class InternedNgramEnumerator {
+    private static final int NUM_PARTITIONS = 64;
+    private static final int PARTITION_SHIFT = 58;
+    private static final int SKETCH_DEPTH = 4;
+
+    private final NgramTemplate template;
+    private final int n;
+    /**
+     * format: [path][k], offset of the k-th term relative to the start position
+     */
+    private final int[][] paths;
+    /**
+     * null for single pass enumeration
+     */
+    private final CountMinSketch sketch;
+    private final int minDF;
+    private final ConcurrentHashMap<String, Integer> termIds = new ConcurrentHashMap<>();
+    private final AtomicInteger nextTermId = new AtomicInteger();
+    private final ConcurrentLinkedQueue<Shard> shards = new ConcurrentLinkedQueue<>();
+    private final ThreadLocal<Shard> localShard = ThreadLocal.withInitial(() -> {
+        Shard shard = new Shard();
+        shards.add(shard);
+        return shard;
+    });
+
+    public InternedNgramEnumerator(NgramTemplate template) {
+        this(template, null, 0);
+    }
+
+    /**
+     * two pass enumeration
+     * @param template
+     * @param sketch filled by addToSketch in the first pass
+     * @param minDF ngrams with smaller sketch estimates are not counted in the second pass
+     */
+    public InternedNgramEnumerator(NgramTemplate template, CountMinSketch sketch, int minDF) {
+        this.template = template;
+        this.sketch = sketch;
+        this.minDF = minDF;
+        this.n = template.getN();
+        List<List<Integer>> positionTemplate = template.getPositionTemplate();
+        this.paths = new int[positionTemplate.size()][];
+        for (int p=0;p<paths.length;p++){
+            paths[p] = positionTemplate.get(p).stream().mapToInt(Integer::intValue).toArray();
+        }
+    }
+
+    /**
+     * same as {@link NgramEnumerator#gatherNgram(ESIndex, String[], NgramTemplate, int)}
+     */
+    public static Multiset<Ngram> gatherNgram(ESIndex index, String[] ids, NgramTemplate template, int minDF){
+        InternedNgramEnumerator enumerator = new InternedNgramEnumerator(template);
+        String field = template.getField();
+        index.forEachTermVector(field, ids, (id, termVector) -> enumerator.add(termVector));
+        return enumerator.getNgrams(minDF);
+    }
+
+    /**
+     * two pass version; term vectors are fetched twice (the second time from the disk cache of the index, if set),
+     * and heap usage of the first pass is bounded by sketchBytes
+     * @param sketchBytes memory budget of the Count-Min sketch
+     */
+    public static Multiset<Ngram> gatherNgram(ESIndex index, String[] ids, NgramTemplate template, int minDF, long sketchBytes){
+        CountMinSketch sketch = CountMinSketch.withMemory(sketchBytes, SKETCH_DEPTH);
+        InternedNgramEnumerator enumerator = new InternedNgramEnumerator(template, sketch, minDF);
+        String field = template.getField();
+        index.forEachTermVector(field, ids, (id, termVector) -> enumerator.addToSketch(termVector));
+        index.forEachTermVector(field, ids, (id, termVector) -> enumerator.add(termVector));
+        return enumerator.getNgrams(minDF);
+    }
+
+    /**
+     * @param termVector position to term; gaps between positions are ignored
+     */
+    public void add(Map<Integer, String> termVector){
+        add(toSource(termVector));
+    }
+
+    public void add(List<String> source){
+        enumerate(source, false);
+    }
+
+    /**
+     * first pass of two pass enumeration
+     */
+    public void addToSketch(Map<Integer, String> termVector){
+        addToSketch(toSource(termVector));
+    }
+
+    /**
+     * first pass of two pass enumeration
+     */
+    public void addToSketch(List<String> source){
+        if (sketch==null){
+            throw new IllegalStateException("this enumerator has no sketch");
+        }
+        enumerate(source, true);
+    }
+
+    private static List<String> toSource(Map<Integer, String> termVector){
+        Comparator<Map.Entry<Integer,String>> comparator = Comparator.comparing(Map.Entry::getKey);
+        return termVector.entrySet().stream()
+                .sorted(comparator).map(Map.Entry::getValue).collect(Collectors.toList());
+    }
+
+    private void enumerate(List<String> source, boolean sketchPass){
+        Shard shard = localShard.get();
+        int[] sequence = shard.sequence(source.size());
+        for (int i=0;i<source.size();i++){
+            sequence[i] = termId(source.get(i));
+        }
+        enumerate(shard, sequence, source.size(), sketchPass);
+    }
+
+    private int termId(String term){
+        Integer id = termIds.get(term);
+        if (id!=null){
+            return id;
+        }
+        return termIds.computeIfAbsent(term, t -> nextTermId.getAndIncrement());
+    }
+
+    private void enumerate(Shard shard, int[] sequence, int length, boolean sketchPass){
+        NgramTable document = shard.document;
+        int[] tuple = shard.tuple;
+        for (int[] path: paths){
+            int last = path[path.length-1];
+            for (int start=0;start+last<length;start++){
+                for (int k=0;k<n;k++){
+                    tuple[k] = sequence[start+path[k]];
+                }
+                long hash = NgramTable.hash(tuple, 0, n);
+                if (document.add(hash, tuple, 0, 1)==1){
+                    if (sketchPass){
+                        sketch.add(hash);
+                    } else if (sketch==null || sketch.estimate(hash)>=minDF){
+                        shard.partitions[(int)(hash>>>PARTITION_SHIFT)].add(hash, tuple, 0, 1);
+                    }
+                }
+            }
+        }
+        document.clear();
+    }
+
+    /**
+     * merge the thread shards and materialize frequent ngrams
+     * the shards are released afterwards
+     * @param minDF minimum document frequency
+     * @return ngrams with their document frequencies
+     */
+    public Multiset<Ngram> getNgrams(int minDF){
+        String[] terms = new String[nextTermId.get()];
+        for (Map.Entry<String, Integer> entry: termIds.entrySet()){
+            terms[entry.getValue()] = entry.getKey();
+        }
+        List<Shard> shardList = new ArrayList<>(shards);
+        Multiset<Ngram> multiset = ConcurrentHashMultiset.create();
+        IntStream.range(0, NUM_PARTITIONS).parallel().forEach(p -> {
+            NgramTable merged = new NgramTable(n, 1024);
+            for (Shard shard: shardList){
+                merged.addAll(shard.partitions[p]);
+                shard.partitions[p] = null;
+            }
+            merged.forEach((hash, tuple, offset, count) -> {
+                if (count>=minDF){
+                    multiset.add(toNgram(terms, tuple, offset), count);
+                }
+            });
+        });
+        shards.clear();
+        return multiset;
+    }
+
+    private Ngram toNgram(String[] terms, int[] tuple, int offset){
+        StringBuilder sb = new StringBuilder();
+        for (int k=0;k<n;k++){
+            if (k>0){
+                sb.append(" ");
+            }
+            sb.append(terms[tuple[offset+k]]);
+        }
+        Ngram ngram = new Ngram();
+        ngram.setNgram(sb.toString());
+        ngram.setSlop(template.getSlop());
+        ngram.setField(template.getField());
+        ngram.setInOrder(true);
+        return ngram;
+    }
+
+    public int getNumTerms(){
+        return nextTermId.get();
+    }
+
+    /**
+     * state owned by one thread
+     */
+    private class Shard {
+        private NgramTable[] partitions = new NgramTable[NUM_PARTITIONS];
+        private NgramTable document = new NgramTable(n, 1024);
+        private int[] tuple = new int[n];
+        private int[] sequence = new int[1024];
+
+        Shard() {
+            for (int p=0;p<NUM_PARTITIONS;p++){
+                partitions[p] = new NgramTable(n, 1024);
+            }
+        }
+
+        int[] sequence(int length){
+            if (sequence.length<length){
+                sequence = new int[Math.max(length, 2*sequence.length)];
+            }
+            return sequence;
+        }
+    }
+}
@@ -18,20 +18,14 @@ public class NgramEnumerator {
     public static Multiset<Ngram> gatherNgram(ESIndex index, String[] ids, NgramTemplate template){
         Multiset<Ngram> multiset = ConcurrentHashMultiset.create();
         String field = template.getField();
-        Arrays.stream(ids).parallel().forEach(id -> {
-            Map<Integer,String> termVector = index.getTermVectorFromIndex(field, id);
-            add(termVector,multiset,template);
-        });
+        index.forEachTermVector(field, ids, (id, termVector) -> add(termVector,multiset,template));
         return multiset;
     }
 
     public static Multiset<Ngram> gatherNgram(ESIndex index, String[] ids, NgramTemplate template, int minDF){
         Multiset<Ngram> multiset = ConcurrentHashMultiset.create();
         String field = template.getField();
-        Arrays.stream(ids).parallel().forEach(id -> {
-            Map<Integer,String> termVector = index.getTermVectorFromIndex(field, id);
-            add(termVector,multiset,template);
-        });
+        index.forEachTermVector(field, ids, (id, termVector) -> add(termVector,multiset,template));
         Multiset<Ngram> filtered = ConcurrentHashMultiset.create();
         for (Multiset.Entry entry: multiset.entrySet()){
             Ngram ngram = (Ngram)entry.getElement();
@@ -55,8 +49,7 @@ public class NgramEnumerator {
     public static List<String> gatherNgrams(ESIndex index,String field,
                                      String[] ids, int n, int minDf) throws Exception{
         Map<String,Integer> counts = new ConcurrentHashMap<>();
-        Arrays.stream(ids).parallel().forEach(id -> {
-            Map<Integer,String> termVector = index.getTermVectorFromIndex(field, id);
+        index.forEachTermVector(field, ids, (id, termVector) -> {
             Map<String, Integer> localCount = NgramEnumerator.getNgramCounts(termVector,n);
             for (Map.Entry<String, Integer> entry: localCount.entrySet()){
                 String ngram = entry.getKey();
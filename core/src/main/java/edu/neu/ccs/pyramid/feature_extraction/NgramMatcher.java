@@ -0,0 +1,509 @@
+package edu.neu.ccs.pyramid.feature_extraction;
+
+import edu.neu.ccs.pyramid.feature.Feature;
+import edu.neu.ccs.pyramid.feature.Ngram;
+
+import java.util.*;
+
+/**
+ * matches many Ngram features of one field against a positional term vector in one pass
+ * terms are interned to int ids; exact phrases (in order with slop 0, and single terms) are matched by walking
+ * a trie over term ids from every position; the other features are anchored on their least shared term
+ * and only checked in documents containing that term
+ *
+ * match counts replicate the elasticsearch queries used by FeatureLoader:
+ * with phraseCount=true, the number of matches counted by the phrase count plugin (FREQUENCY and TFIFL);
+ * with phraseCount=false, whether the span near query matches at all (BINARY, count is 0 or 1)
+ * term vectors carry one term per position, so fields indexed with synonyms at the same position may differ
+ * thread safe after construction
+ */
+public class NgramMatcher {
+    private final String field;
+    private final boolean phraseCount;
+    private final Map<String, Integer> termIds = new HashMap<>();
+
+    // trie over term ids, for exact phrases
+    private final TrieEdges trieChildren = new TrieEdges();
+    /**
+     * format: [node] -> trie feature slots ending at the node
+     */
+    private final List<int[]> trieFeatures = new ArrayList<>();
+    /**
+     * format: [trie feature slot] -> feature index
+     */
+    private int[] trieFeatureIndices;
+
+    // anchored features
+    private final List<SpanFeature> spanFeatures = new ArrayList<>();
+    /**
+     * format: [term id] -> positions in spanFeatures anchored on the term
+     */
+    private int[][] anchored;
+
+    private final ThreadLocal<Scratch> scratch;
+
+    /**
+     * @param features features of other types or other fields are ignored
+     * @param field
+     * @param phraseCount true to count matches, false to only test for a match
+     */
+    public NgramMatcher(List<Feature> features, String field, boolean phraseCount) {
+        this.field = field;
+        this.phraseCount = phraseCount;
+        trieFeatures.add(new int[0]);
+        List<List<Integer>> trieFeatureLists = new ArrayList<>();
+        trieFeatureLists.add(new ArrayList<>());
+        List<Integer> trieFeatureIndexList = new ArrayList<>();
+        for (Feature feature: features){
+            if (feature instanceof Ngram && ((Ngram) feature).getField().equals(field)){
+                Ngram ngram = (Ngram) feature;
+                int[] terms = intern(ngram);
+                if (terms.length==1 || (ngram.getSlop()==0 && ngram.isInOrder())){
+                    int node = insert(terms, trieFeatureLists);
+                    trieFeatureLists.get(node).add(trieFeatureIndexList.size());
+                    trieFeatureIndexList.add(feature.getIndex());
+                } else {
+                    spanFeatures.add(new SpanFeature(feature.getIndex(), toSpan(ngram, terms)));
+                }
+            }
+        }
+        trieFeatures.clear();
+        for (List<Integer> list: trieFeatureLists){
+            trieFeatures.add(list.stream().mapToInt(Integer::intValue).toArray());
+        }
+        trieFeatureIndices = trieFeatureIndexList.stream().mapToInt(Integer::intValue).toArray();
+        buildAnchors();
+        int numTerms = termIds.size();
+        int numTrieFeatures = trieFeatureIndices.length;
+        this.scratch = ThreadLocal.withInitial(() -> new Scratch(numTerms, numTrieFeatures));
+    }
+
+    private int[] intern(Ngram ngram){
+        String[] terms = ngram.getTerms();
+        int[] ids = new int[terms.length];
+        for (int k=0;k<terms.length;k++){
+            Integer id = termIds.get(terms[k]);
+            if (id==null){
+                id = termIds.size();
+                termIds.put(terms[k], id);
+            }
+            ids[k] = id;
+        }
+        return ids;
+    }
+
+    private int insert(int[] terms, List<List<Integer>> trieFeatureLists){
+        int node = 0;
+        for (int term: terms){
+            long key = (((long)node)<<32)|term;
+            int child = trieChildren.get(key);
+            if (child==0){
+                child = trieFeatureLists.size();
+                trieFeatureLists.add(new ArrayList<>());
+                trieChildren.put(key, child);
+            }
+            node = child;
+        }
+        return node;
+    }
+
+    private Span toSpan(Ngram ngram, int[] terms){
+        // a single term query is rewritten to a term count in the phrase count plugin
+        boolean inOrder = ngram.isInOrder() || terms.length==1;
+        return new Span(terms, ngram.getSlop(), inOrder);
+    }
+
+    /**
+     * anchor each feature on its term shared by the fewest features, which keeps the lists short
+     */
+    private void buildAnchors(){
+        int[] numFeaturesWithTerm = new int[termIds.size()];
+        for (SpanFeature feature: spanFeatures){
+            for (int term: feature.span.terms){
+                numFeaturesWithTerm[term] += 1;
+            }
+        }
+        List<List<Integer>> lists = new ArrayList<>();
+        for (int t=0;t<termIds.size();t++){
+            lists.add(new ArrayList<>());
+        }
+        for (int f=0;f<spanFeatures.size();f++){
+            int anchor = -1;
+            for (int term: spanFeatures.get(f).span.terms){
+                if (anchor==-1 || numFeaturesWithTerm[term]<numFeaturesWithTerm[anchor]){
+                    anchor = term;
+                }
+            }
+            lists.get(anchor).add(f);
+        }
+        anchored = new int[termIds.size()][];
+        for (int t=0;t<termIds.size();t++){
+            anchored[t] = lists.get(t).stream().mapToInt(Integer::intValue).toArray();
+        }
+    }
+
+    public String getField() {
+        return field;
+    }
+
+    public int getNumTerms(){
+        return termIds.size();
+    }
+
+    /**
+     * @param termVector position to term
+     * @param consumer receives (feature index, match count) for every feature with at least one match;
+     *                 a feature index is reported at most once per call
+     */
+    public void match(Map<Integer, String> termVector, MatchConsumer consumer){
+        Scratch s = scratch.get();
+        s.load(termVector, termIds);
+        matchTrie(s, consumer);
+        matchSpans(s, consumer);
+    }
+
+    private void matchTrie(Scratch s, MatchConsumer consumer){
+        int[] trieCounts = s.trieCounts;
+        int numMatched = 0;
+        for (int start=0;start<s.length;start++){
+            int node = 0;
+            for (int p=start;p<s.length && s.tokens[p]!=-1;p++){
+                int child = trieChildren.get((((long)node)<<32)|s.tokens[p]);
+                if (child==0){
+                    break;
+                }
+                node = child;
+                for (int slot: trieFeatures.get(node)){
+                    if (trieCounts[slot]==0){
+                        s.matchedSlots[numMatched] = slot;
+                        numMatched += 1;
+                    }
+                    trieCounts[slot] += 1;
+                }
+            }
+        }
+        // reported in order of first match; counts are reset for the next document
+        for (int m=0;m<numMatched;m++){
+            int slot = s.matchedSlots[m];
+            consumer.accept(trieFeatureIndices[slot], phraseCount ? trieCounts[slot] : 1);
+            trieCounts[slot] = 0;
+        }
+    }
+
+    private void matchSpans(Scratch s, MatchConsumer consumer){
+        for (int i=0;i<s.numPresent;i++){
+            for (int f: anchored[s.present[i]]){
+                SpanFeature feature = spanFeatures.get(f);
+                int count = feature.count(s, phraseCount);
+                if (count>0){
+                    consumer.accept(feature.featureIndex, phraseCount ? count : 1);
+                }
+            }
+        }
+    }
+
+    /**
+     * open addressing map from (node<<32)|term to child node over primitive arrays
+     * child 0 (the root) marks an empty slot, as the root is nobody's child
+     */
+    private static class TrieEdges {
+        private static final double MAX_LOAD = 0.5;
+        private long[] keys = new long[16];
+        private int[] children = new int[16];
+        private int size;
+
+        private static int slot(long key, int mask){
+            long h = key*0x9E3779B97F4A7C15L;
+            return (int)(h^(h>>>32))&mask;
+        }
+
+        /**
+         * @return the child, 0 if there is none
+         */
+        int get(long key){
+            int mask = keys.length-1;
+            int slot = slot(key, mask);
+            while (children[slot]!=0){
+                if (keys[slot]==key){
+                    return children[slot];
+                }
+                slot = (slot+1)&mask;
+            }
+            return 0;
+        }
+
+        void put(long key, int child){
+            if (size+1>keys.length*MAX_LOAD){
+                long[] oldKeys = keys;
+                int[] oldChildren = children;
+                keys = new long[2*oldKeys.length];
+                children = new int[2*oldKeys.length];
+                size = 0;
+                for (int i=0;i<oldKeys.length;i++){
+                    if (oldChildren[i]!=0){
+                        put(oldKeys[i], oldChildren[i]);
+                    }
+                }
+            }
+            int mask = keys.length-1;
+            int slot = slot(key, mask);
+            while (children[slot]!=0 && keys[slot]!=key){
+                slot = (slot+1)&mask;
+            }
+            if (children[slot]==0){
+                size += 1;
+            }
+            keys[slot] = key;
+            children[slot] = child;
+        }
+    }
+
+    @FunctionalInterface
+    public interface MatchConsumer {
+        void accept(int featureIndex, int count);
+    }
+
+    @FunctionalInterface
+    private interface SpanConsumer {
+        /**
+         * @return false to stop the enumeration
+         */
+        boolean accept(int start, int end);
+    }
+
+    /**
+     * a span near query over term ids
+     */
+    private static class Span {
+        private final int[] terms;
+        private final int slop;
+        private final boolean inOrder;
+
+        Span(int[] terms, int slop, boolean inOrder) {
+            this.terms = terms;
+            this.slop = slop;
+            this.inOrder = inOrder;
+        }
+
+        boolean allPresent(Scratch s){
+            for (int term: terms){
+                if (s.numPositions(term)==0){
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * enumerate matching spans [start, end) in increasing start order
+         */
+        void forEach(Scratch s, boolean distinctPositions, SpanConsumer consumer){
+            if (!allPresent(s)){
+                return;
+            }
+            if (terms.length==1){
+                int term = terms[0];
+                for (int i=0;i<s.numPositions(term);i++){
+                    int position = s.position(term, i);
+                    if (!consumer.accept(position, position+1)){
+                        return;
+                    }
+                }
+            } else if (inOrder){
+                ordered(s, consumer);
+            } else {
+                unordered(s, distinctPositions, consumer);
+            }
+        }
+
+        /**
+         * lucene NearSpansOrdered: for each position of the first term, every later term moves forward
+         * to its first position after the previous term; the match is kept if the gaps sum to at most slop
+         */
+        private void ordered(Scratch s, SpanConsumer consumer){
+            int n = terms.length;
+            int[] cursors = new int[n];
+            int first = terms[0];
+            for (int c0=0;c0<s.numPositions(first);c0++){
+                int start = s.position(first, c0);
+                int previousEnd = start+1;
+                for (int k=1;k<n;k++){
+                    int term = terms[k];
+                    while (cursors[k]<s.numPositions(term) && s.position(term, cursors[k])<previousEnd){
+                        cursors[k] += 1;
+                    }
+                    if (cursors[k]==s.numPositions(term)){
+                        return;
+                    }
+                    previousEnd = s.position(term, cursors[k])+1;
+                }
+                int width = previousEnd-start-n;
+                if (width<=slop){
+                    if (!consumer.accept(start, previousEnd)){
+                        return;
+                    }
+                }
+            }
+        }
+
+        /**
+         * the sliding window of the phrase count plugin's CustomNearSpansUnordered:
+         * the sub span with the smallest position advances until one runs out;
+         * with distinctPositions, a position used by one sub span is never used by another
+         */
+        private void unordered(Scratch s, boolean distinctPositions, SpanConsumer consumer){
+            int n = terms.length;
+            int[] cursors = new int[n];
+            int[] starts = new int[n];
+            Set<Integer> used = new HashSet<>();
+            int maxEnd = -1;
+            for (int k=0;k<n;k++){
+                if (!advance(s, k, cursors, starts, used, distinctPositions)){
+                    return;
+                }
+                maxEnd = Math.max(maxEnd, starts[k]+1);
+            }
+            while (true){
+                int top = 0;
+                for (int k=1;k<n;k++){
+                    if (starts[k]<starts[top] || (starts[k]==starts[top] && k<top)){
+                        top = k;
+                    }
+                }
+                if (maxEnd-starts[top]-n<=slop){
+                    if (!consumer.accept(starts[top], maxEnd)){
+                        return;
+                    }
+                }
+                if (!advance(s, top, cursors, starts, used, distinctPositions)){
+                    return;
+                }
+                maxEnd = Math.max(maxEnd, starts[top]+1);
+            }
+        }
+
+        private boolean advance(Scratch s, int k, int[] cursors, int[] starts, Set<Integer> used, boolean distinctPositions){
+            int term = terms[k];
+            while (cursors[k]<s.numPositions(term)){
+                int position = s.position(term, cursors[k]);
+                cursors[k] += 1;
+                if (!distinctPositions || used.add(position)){
+                    starts[k] = position;
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static class SpanFeature {
+        private final int featureIndex;
+        private final Span span;
+
+        SpanFeature(int featureIndex, Span span) {
+            this.featureIndex = featureIndex;
+            this.span = span;
+        }
+
+        int count(Scratch s, boolean phraseCount){
+            int[] count = new int[1];
+            // without phrase counting, stop at the first match
+            span.forEach(s, phraseCount, (start, end) -> {
+                count[0] += 1;
+                return phraseCount;
+            });
+            return count[0];
+        }
+    }
+
+    /**
+     * per thread document buffers
+     */
+    private static class Scratch {
+        /**
+         * format: [position] -> term id, -1 for gaps and terms not used by any feature
+         */
+        private int[] tokens = new int[1024];
+        private int length;
+        /**
+         * positions of each present term, grouped by term: postings[offsets[t], offsets[t]+counts[t])
+         */
+        private int[] postings = new int[1024];
+        private final int[] offsets;
+        private final int[] counts;
+        private final int[] stamps;
+        private int stamp;
+        private int[] present = new int[64];
+        private int numPresent;
+        /**
+         * format: [trie feature slot] -> match count in the current document, all 0 between documents
+         */
+        private final int[] trieCounts;
+        private final int[] matchedSlots;
+
+        Scratch(int numTerms, int numTrieFeatures) {
+            this.offsets = new int[numTerms];
+            this.counts = new int[numTerms];
+            this.stamps = new int[numTerms];
+            this.trieCounts = new int[numTrieFeatures];
+            this.matchedSlots = new int[numTrieFeatures];
+        }
+
+        void load(Map<Integer, String> termVector, Map<String, Integer> termIds){
+            stamp += 1;
+            numPresent = 0;
+            length = 0;
+            for (Integer position: termVector.keySet()){
+                length = Math.max(length, position+1);
+            }
+            if (tokens.length<length){
+                tokens = new int[Math.max(length, 2*tokens.length)];
+            }
+            Arrays.fill(tokens, 0, length, -1);
+            int numTokens = 0;
+            for (Map.Entry<Integer, String> entry: termVector.entrySet()){
+                Integer term = termIds.get(entry.getValue());
+                if (term==null){
+                    continue;
+                }
+                tokens[entry.getKey()] = term;
+                numTokens += 1;
+                if (stamps[term]!=stamp){
+                    stamps[term] = stamp;
+                    counts[term] = 0;
+                    if (numPresent==present.length){
+                        present = Arrays.copyOf(present, 2*numPresent);
+                    }
+                    present[numPresent++] = term;
+                }
+                counts[term] += 1;
+            }
+            if (postings.length<numTokens){
+                postings = new int[Math.max(numTokens, 2*postings.length)];
+            }
+            int offset = 0;
+            for (int i=0;i<numPresent;i++){
+                int term = present[i];
+                offsets[term] = offset;
+                offset += counts[term];
+                counts[term] = 0;
+            }
+            // scanning positions in order keeps each posting list sorted
+            for (int p=0;p<length;p++){
+                int term = tokens[p];
+                if (term!=-1){
+                    postings[offsets[term]+counts[term]] = p;
+                    counts[term] += 1;
+                }
+            }
+        }
+
+        int numPositions(int term){
+            return stamps[term]==stamp ? counts[term] : 0;
+        }
+
+        int position(int term, int i){
+            return postings[offsets[term]+i];
+        }
+    }
+}
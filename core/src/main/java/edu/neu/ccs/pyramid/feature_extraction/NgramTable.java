@@ -0,0 +1,154 @@
+package edu.neu.ccs.pyramid.feature_extraction;
+
+import java.util.Arrays;
+
+/**
+ * open addressing counter keyed by a tuple of n term ids
+ * the 64-bit hash of a tuple is stored with it, so probing compares hashes first
+ * and only compares term ids on a hash match; lookups are exact
+ * not thread safe
+ */
+class NgramTable {
+    private static final double MAX_LOAD = 0.6;
+    private final int n;
+    private int capacity;
+    private int mask;
+    private long[] hashes;
+    /**
+     * format: [slot*n+k]
+     */
+    private int[] terms;
+    /**
+     * 0 marks an empty slot
+     */
+    private int[] counts;
+    private int size;
+    /**
+     * occupied slots in insertion order, so that clear() only touches them
+     */
+    private int[] occupied;
+
+    NgramTable(int n, int initialCapacity) {
+        this.n = n;
+        int capacity = Integer.highestOneBit(Math.max(initialCapacity, 16)-1)<<1;
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity){
+        this.capacity = capacity;
+        this.mask = capacity-1;
+        this.hashes = new long[capacity];
+        this.terms = new int[capacity*n];
+        this.counts = new int[capacity];
+        this.occupied = new int[(int)(capacity*MAX_LOAD)+1];
+        this.size = 0;
+    }
+
+    /**
+     * polynomial hash over term ids, finished with the murmur3 mixer
+     */
+    static long hash(int[] tuple, int offset, int n){
+        long h = 0;
+        for (int k=0;k<n;k++){
+            h = h*0x9E3779B97F4A7C15L+tuple[offset+k]+1;
+        }
+        h ^= h>>>33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h>>>33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h>>>33;
+        return h;
+    }
+
+    /**
+     * @return the count after the update
+     */
+    int add(long hash, int[] tuple, int offset, int delta){
+        int slot = (int)hash&mask;
+        while (counts[slot]!=0){
+            if (hashes[slot]==hash && sameTuple(slot, tuple, offset)){
+                counts[slot] += delta;
+                return counts[slot];
+            }
+            slot = (slot+1)&mask;
+        }
+        hashes[slot] = hash;
+        System.arraycopy(tuple, offset, terms, slot*n, n);
+        counts[slot] = delta;
+        occupied[size] = slot;
+        size += 1;
+        if (size>capacity*MAX_LOAD){
+            grow();
+        }
+        return delta;
+    }
+
+    private boolean sameTuple(int slot, int[] tuple, int offset){
+        int base = slot*n;
+        for (int k=0;k<n;k++){
+            if (terms[base+k]!=tuple[offset+k]){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void grow(){
+        long[] oldHashes = hashes;
+        int[] oldTerms = terms;
+        int[] oldCounts = counts;
+        int[] oldOccupied = occupied;
+        int oldSize = size;
+        allocate(capacity*2);
+        for (int s=0;s<oldSize;s++){
+            int slot = oldOccupied[s];
+            add(oldHashes[slot], oldTerms, slot*n, oldCounts[slot]);
+        }
+    }
+
+    /**
+     * add every entry of another table with the same n
+     */
+    void addAll(NgramTable other){
+        for (int s=0;s<other.size;s++){
+            int slot = other.occupied[s];
+            add(other.hashes[slot], other.terms, slot*n, other.counts[slot]);
+        }
+    }
+
+    /**
+     * reset in time proportional to the number of entries, keeping the capacity
+     */
+    void clear(){
+        for (int s=0;s<size;s++){
+            counts[occupied[s]] = 0;
+        }
+        size = 0;
+    }
+
+    int size(){
+        return size;
+    }
+
+    /**
+     * visit entries in insertion order; the tuple is terms[offset, offset+n)
+     */
+    void forEach(EntryConsumer consumer){
+        for (int s=0;s<size;s++){
+            int slot = occupied[s];
+            consumer.accept(hashes[slot], terms, slot*n, counts[slot]);
+        }
+    }
+
+    interface EntryConsumer{
+        void accept(long hash, int[] terms, int offset, int count);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        forEach((hash, tuple, offset, count) ->
+                sb.append(Arrays.toString(Arrays.copyOfRange(tuple, offset, offset+n))).append("=").append(count).append("\n"));
+        return sb.toString();
+    }
+}
@@ -1,18 +1,12 @@
 package edu.neu.ccs.pyramid.feature_extraction;
 
-import edu.neu.ccs.pyramid.dataset.DataSet;
-import edu.neu.ccs.pyramid.dataset.DataSetBuilder;
 import edu.neu.ccs.pyramid.dataset.IdTranslator;
-import edu.neu.ccs.pyramid.dataset.SparseDataSet;
 import edu.neu.ccs.pyramid.elasticsearch.ESIndex;
 import edu.neu.ccs.pyramid.elasticsearch.FeatureLoader;
 import edu.neu.ccs.pyramid.feature.Ngram;
-import edu.neu.ccs.pyramid.regression.regression_tree.RegTreeConfig;
-import edu.neu.ccs.pyramid.regression.regression_tree.RegTreeTrainer;
-import edu.neu.ccs.pyramid.regression.regression_tree.RegressionTree;
-import edu.neu.ccs.pyramid.util.Serialization;
+import edu.neu.ccs.pyramid.regression.regression_tree.StumpScorer;
 
-import java.io.IOException;
+import java.util.Arrays;
 import java.util.Map;
 
 /**
@@ -20,8 +14,10 @@ import java.util.Map;
  * Created by chengli on 2/7/17.
  */
 public class StumpSelector {
+    private static final ThreadLocal<Column> columns = ThreadLocal.withInitial(Column::new);
+
     /**
-     *
+     * builds a new scorer for every call; use the StumpScorer version when scoring many features
      * @param index
      * @param labels size = num labels * num data
      * @param feature
@@ -33,30 +29,42 @@ public class StumpSelector {
                              Ngram feature,
                              IdTranslator idTranslator, FeatureLoader.MatchScoreType matchScoreType, String docFilter,
                                   Map<String, float[]> fieldLength){
-        Ngram ngram = null;
-        try {
-            ngram = (Ngram) Serialization.deepCopy(feature);
-        } catch (IOException e) {
-            e.printStackTrace();
-        } catch (ClassNotFoundException e) {
-            e.printStackTrace();
-        }
-        ngram.setIndex(0);
-        
-        DataSet dataSet = new SparseDataSet(labels[0].length,1, false, null);
-        FeatureLoader.loadNgramFeature(index, dataSet, ngram, idTranslator, matchScoreType, docFilter, fieldLength);
-        double[] scores = new double[labels.length];
-        for (int l=0;l<scores.length;l++){
-            double score = score(dataSet, labels[l]);
-            scores[l] = score;
-        }
-        return scores;
+        return scores(index, new StumpScorer(labels), feature, idTranslator, matchScoreType, docFilter, fieldLength);
     }
 
-    private static double score(DataSet dataSet, double[] labels){
-        RegTreeConfig regTreeConfig = new RegTreeConfig()
-                .setMaxNumLeaves(2);
-        RegressionTree tree = RegTreeTrainer.fit(regTreeConfig, dataSet, labels);
-        return tree.getRoot().getReduction();
+    /**
+     * matched documents are streamed from the index into a reusable per-thread column and scored directly
+     * @param index
+     * @param scorer built once from the labels
+     * @param feature
+     * @param idTranslator
+     * @param matchScoreType
+     * @param docFilter
+     * @return stump reduction for each label
+     */
+    public static double[] scores(ESIndex index, StumpScorer scorer,
+                                  Ngram feature,
+                                  IdTranslator idTranslator, FeatureLoader.MatchScoreType matchScoreType, String docFilter,
+                                  Map<String, float[]> fieldLength){
+        Column column = columns.get();
+        column.size = 0;
+        FeatureLoader.forEachNgramValue(index, feature, idTranslator, matchScoreType, docFilter, fieldLength, column::add);
+        return scorer.scores(column.dataIndices, column.values, column.size);
+    }
+
+    private static class Column{
+        private int[] dataIndices = new int[16];
+        private double[] values = new double[16];
+        private int size;
+
+        void add(int dataIndex, double value){
+            if (size==dataIndices.length){
+                dataIndices = Arrays.copyOf(dataIndices, 2*size);
+                values = Arrays.copyOf(values, 2*size);
+            }
+            dataIndices[size] = dataIndex;
+            values[size] = value;
+            size += 1;
+        }
     }
 }
@@ -81,6 +81,18 @@ public class FeatureDistribution implements Serializable{
         }
     }
 
+    /**
+     * from counts computed elsewhere, e.g. by NgramClassCounter
+     */
+    public FeatureDistribution(Feature feature, long totalCount, long[] occurInEach,
+                               LabelTranslator labelTranslator, long[] labelDistribution) {
+        this.feature = feature;
+        this.totalCount = totalCount;
+        this.occurInEach = occurInEach;
+        this.labelTranslator = labelTranslator;
+        this.labelDistribution = labelDistribution;
+    }
+
     public FeatureDistribution(SpanNotNgram ngram, ESIndex index,
                                String labelField, String[] ids,
                                LabelTranslator labelTranslator) {
@@ -25,6 +25,34 @@ public class FusedKolmogorovFilter {
         return maxDistance(empiricalCDFs);
     }
 
+    /**
+     * score of a binary occurrence feature from its class counts, without the feature vector:
+     * the largest difference between two classes in the fraction of documents containing the feature
+     * same as score(vector, labels, numClasses) on the 0/1 occurrence vector, when it is not constant
+     * @param distribution occurrence counts in each class, e.g. from NgramClassCounter
+     * @param classSizes number of documents in each class; empty classes are skipped
+     */
+    public double score(FeatureDistribution distribution, long[] classSizes){
+        double max = Double.NEGATIVE_INFINITY;
+        for (int k=0;k<classSizes.length-1;k++){
+            if (classSizes[k]==0){
+                continue;
+            }
+            double fractionK = ((double)distribution.getClassCount(k))/classSizes[k];
+            for (int j=k+1;j<classSizes.length;j++){
+                if (classSizes[j]==0){
+                    continue;
+                }
+                double fractionJ = ((double)distribution.getClassCount(j))/classSizes[j];
+                double distance = Math.abs(fractionK-fractionJ);
+                if (distance>max){
+                    max = distance;
+                }
+            }
+        }
+        return max;
+    }
+
     public List<List<Double>> generateInputsEachClass(Vector vector, int[] labels, int numClasses){
         Vector input;
         if (vector.isDense()){
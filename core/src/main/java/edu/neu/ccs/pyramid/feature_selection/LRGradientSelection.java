@@ -1,5 +1,7 @@
 package edu.neu.ccs.pyramid.feature_selection;
 
+import java.util.List;
+
 /**
  * Created by chengli on 4/25/15.
  */
@@ -17,4 +19,11 @@ public class LRGradientSelection {
         double expected = ((double)distribution.getTotalCount())*probs[classIndex];
         return actual - expected;
     }
+
+    /**
+     * utilities of many candidates, e.g. from NgramClassCounter
+     */
+    public static double[] utilities(List<FeatureDistribution> distributions, double[] probs, int classIndex){
+        return distributions.stream().mapToDouble(distribution -> utility(distribution, probs, classIndex)).toArray();
+    }
 }
@@ -0,0 +1,135 @@
+package edu.neu.ccs.pyramid.feature_selection;
+
+import edu.neu.ccs.pyramid.dataset.LabelTranslator;
+import edu.neu.ccs.pyramid.dataset.MultiLabel;
+import edu.neu.ccs.pyramid.elasticsearch.ESIndex;
+import edu.neu.ccs.pyramid.feature.Feature;
+import edu.neu.ccs.pyramid.feature.Ngram;
+import edu.neu.ccs.pyramid.feature_extraction.NgramMatcher;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * class distributions of many candidate ngrams in one pass over the documents
+ * every document is matched against all candidates of a field with NgramMatcher, and each matched candidate
+ * increments its document count and the counts of the document's classes
+ * a candidate occurs in a document if its span near query matches the document
+ * documents can be added from multiple threads
+ */
+public class NgramClassCounter {
+    private final List<Ngram> candidates;
+    private final int numClasses;
+    private final Map<String, NgramMatcher> matchers = new HashMap<>();
+    /**
+     * format: [candidate]
+     */
+    private final AtomicIntegerArray totalCounts;
+    /**
+     * format: [candidate*numClasses+class]
+     */
+    private final AtomicIntegerArray classCounts;
+
+    public NgramClassCounter(List<Ngram> candidates, int numClasses) {
+        if ((long)candidates.size()*numClasses>Integer.MAX_VALUE){
+            throw new IllegalArgumentException("too many candidates: "+candidates.size()+" candidates * "+numClasses+" classes");
+        }
+        this.candidates = candidates;
+        this.numClasses = numClasses;
+        this.totalCounts = new AtomicIntegerArray(candidates.size());
+        this.classCounts = new AtomicIntegerArray(candidates.size()*numClasses);
+        // the matcher reports feature indices, so it works on copies indexed by candidate position
+        Map<String, List<Feature>> copies = new HashMap<>();
+        for (int c=0;c<candidates.size();c++){
+            Ngram candidate = candidates.get(c);
+            Ngram copy = new Ngram();
+            copy.setNgram(candidate.getNgram());
+            copy.setField(candidate.getField());
+            copy.setSlop(candidate.getSlop());
+            copy.setInOrder(candidate.isInOrder());
+            copy.setIndex(c);
+            copies.computeIfAbsent(candidate.getField(), field -> new ArrayList<>()).add(copy);
+        }
+        for (Map.Entry<String, List<Feature>> entry: copies.entrySet()){
+            matchers.put(entry.getKey(), new NgramMatcher(entry.getValue(), entry.getKey(), false));
+        }
+    }
+
+    /**
+     * candidate distributions over the given documents
+     * @param index term vectors are fetched in batches, see ESIndex.forEachTermVector
+     * @param candidates
+     * @param ids
+     * @param labels labels of ids
+     * @param labelTranslator
+     * @param labelDistribution number of documents in each class
+     * @return distributions in candidate order
+     */
+    public static List<FeatureDistribution> getDistributions(ESIndex index, List<Ngram> candidates, String[] ids,
+                                                             MultiLabel[] labels, LabelTranslator labelTranslator,
+                                                             long[] labelDistribution){
+        NgramClassCounter counter = new NgramClassCounter(candidates, labelTranslator.getNumClasses());
+        Map<String, MultiLabel> idToLabels = new HashMap<>();
+        for (int i=0;i<ids.length;i++){
+            idToLabels.put(ids[i], labels[i]);
+        }
+        for (String field: counter.getFields()){
+            index.forEachTermVector(field, ids, (id, termVector) -> {
+                MultiLabel multiLabel = idToLabels.get(id);
+                // the index may answer with an id that was not asked for; such a document has no labels here
+                if (multiLabel!=null){
+                    counter.add(field, termVector, multiLabel);
+                }
+            });
+        }
+        return counter.getDistributions(labelTranslator, labelDistribution);
+    }
+
+    public Set<String> getFields(){
+        return matchers.keySet();
+    }
+
+    /**
+     * count one document
+     * @param field
+     * @param termVector position to term, for this field
+     * @param multiLabel classes of the document
+     */
+    public void add(String field, Map<Integer, String> termVector, MultiLabel multiLabel){
+        if (multiLabel==null){
+            throw new IllegalArgumentException("no classes given for the document");
+        }
+        NgramMatcher matcher = matchers.get(field);
+        if (matcher==null){
+            return;
+        }
+        Set<Integer> classes = multiLabel.getMatchedLabels();
+        matcher.match(termVector, (candidate, count) -> {
+            totalCounts.incrementAndGet(candidate);
+            for (int k: classes){
+                classCounts.incrementAndGet(candidate*numClasses+k);
+            }
+        });
+    }
+
+    public int getTotalCount(int candidate){
+        return totalCounts.get(candidate);
+    }
+
+    public int getClassCount(int candidate, int classIndex){
+        return classCounts.get(candidate*numClasses+classIndex);
+    }
+
+    public List<FeatureDistribution> getDistributions(LabelTranslator labelTranslator, long[] labelDistribution){
+        List<FeatureDistribution> distributions = new ArrayList<>(candidates.size());
+        for (int c=0;c<candidates.size();c++){
+            long[] occurInEach = new long[numClasses];
+            for (int k=0;k<numClasses;k++){
+                occurInEach[k] = getClassCount(c, k);
+            }
+            distributions.add(new FeatureDistribution(candidates.get(c), getTotalCount(c), occurInEach,
+                    labelTranslator, labelDistribution));
+        }
+        return distributions;
+    }
+}
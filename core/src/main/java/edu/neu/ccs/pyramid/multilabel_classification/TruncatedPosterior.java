@@ -0,0 +1,101 @@
+package edu.neu.ccs.pyramid.multilabel_classification;
+
+import java.util.Arrays;
+
+/**
+ * sparse view of a posterior distribution (over support combinations, mixture components, ...)
+ * keeps the largest entries that together cover at least 1-epsilon of the mass, renormalized,
+ * as parallel index/value arrays in increasing index order
+ * epsilon = 0 keeps all non-zero entries
+ * reusable: one instance per thread, sized for the full distribution; truncate() does not allocate
+ */
+public class TruncatedPosterior {
+    private final int[] indices;
+    private final double[] values;
+    // scratch for finding the cut-off value
+    private final double[] sorted;
+    private int size;
+
+    public TruncatedPosterior(int capacity) {
+        this.indices = new int[capacity];
+        this.values = new double[capacity];
+        this.sorted = new double[capacity];
+    }
+
+    /**
+     * entries below epsilon/length can be dropped together without losing more than epsilon of the mass,
+     * so only the remaining candidates are sorted
+     * @param probs non-negative, not necessarily normalized
+     * @param epsilon fraction of the mass that may be dropped
+     */
+    public void truncate(double[] probs, double epsilon){
+        if (probs.length>indices.length){
+            throw new IllegalArgumentException("the distribution has "+probs.length+" entries; capacity is "+indices.length);
+        }
+        double total = 0;
+        for (double prob: probs){
+            total += prob;
+        }
+        double cutoff = Double.MIN_VALUE;
+        if (epsilon>0){
+            double candidateThreshold = epsilon*total/probs.length;
+            int numCandidates = 0;
+            for (double prob: probs){
+                if (prob>=candidateThreshold){
+                    sorted[numCandidates] = prob;
+                    numCandidates += 1;
+                }
+            }
+            Arrays.sort(sorted, 0, numCandidates);
+            double target = (1-epsilon)*total;
+            double covered = 0;
+            for (int c=numCandidates-1;c>=0;c--){
+                covered += sorted[c];
+                cutoff = sorted[c];
+                if (covered>=target){
+                    break;
+                }
+            }
+        }
+        size = 0;
+        double kept = 0;
+        for (int i=0;i<probs.length;i++){
+            if (probs[i]>=cutoff){
+                indices[size] = i;
+                values[size] = probs[i];
+                kept += probs[i];
+                size += 1;
+            }
+        }
+        if (kept>0){
+            for (int j=0;j<size;j++){
+                values[j] /= kept;
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param j position among the kept entries
+     */
+    public int getIndex(int j){
+        return indices[j];
+    }
+
+    public double getValue(int j){
+        return values[j];
+    }
+
+    /**
+     * writes the truncated distribution back in dense form; dropped entries become 0
+     */
+    public void toDense(double[] probs){
+        Arrays.fill(probs, 0);
+        for (int j=0;j<size;j++){
+            probs[indices[j]] = values[j];
+        }
+    }
+}
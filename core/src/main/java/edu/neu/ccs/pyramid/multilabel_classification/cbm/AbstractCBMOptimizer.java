@@ -4,6 +4,7 @@ import edu.neu.ccs.pyramid.classification.PriorProbClassifier;
 import edu.neu.ccs.pyramid.clustering.bm.BM;
 import edu.neu.ccs.pyramid.clustering.bm.BMSelector;
 import edu.neu.ccs.pyramid.dataset.*;
+import edu.neu.ccs.pyramid.multilabel_classification.TruncatedPosterior;
 import edu.neu.ccs.pyramid.util.ArgMax;
 import edu.neu.ccs.pyramid.util.MathUtil;
 import edu.neu.ccs.pyramid.util.Pair;
@@ -12,9 +13,9 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.apache.mahout.math.Vector;
 
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
 /**
@@ -50,9 +51,37 @@ public abstract class AbstractCBMOptimizer {
 
     protected boolean parallelBinaryUpdates =true;
 
+    // fraction of each data point's posterior mass that may be dropped in the E step, see TruncatedPosterior
+    // dropped components get gamma 0, so the data point is left out of their binary M step
+    // the gammas stay a dense [#data][#components] array: this saves M step time, not memory
+    protected double posteriorTruncation = 0;
+
+    private ThreadLocal<TruncatedPosterior> truncatedPosteriors;
+
+    // sampled active data of each component, kept across M steps, see updateActiveSubset
+    private ActiveSubset[] activeSubsets;
+    // guards the update of each component's active subset within an M step
+    private Object[] activeSubsetLocks;
+
+    // how much larger than the current active set a kept active dataset may be
+    // 0 keeps it only if the active set is unchanged
+    protected double activeSetSlack = 0.1;
+
+    // false drops a component's active dataset as soon as its last binary fit is done, so that
+    // only the components being fitted hold one, about as many as there are worker threads
+    protected boolean reuseActiveSubsets = true;
+
+    // keep the optimizer state of each binary classifier across EM iterations, see setWarmStart
+    protected boolean warmStart = false;
+
     public AbstractCBMOptimizer(CBM cbm, MultiLabelClfDataSet dataSet) {
         this.cbm = cbm;
         this.dataSet = dataSet;
+        this.activeSubsets = new ActiveSubset[cbm.getNumComponents()];
+        this.activeSubsetLocks = new Object[cbm.getNumComponents()];
+        for (int k=0;k<activeSubsetLocks.length;k++){
+            activeSubsetLocks[k] = new Object();
+        }
 
         this.gammas = new double[dataSet.getNumDataPoints()][cbm.getNumComponents()];
         double average = 1.0/ cbm.getNumComponents();
@@ -102,6 +131,50 @@ public abstract class AbstractCBMOptimizer {
         this.skipDataThreshold = skipDataThreshold;
     }
 
+    /**
+     * in the E step, keep for each data point only the most probable components covering 1-epsilon of its posterior mass
+     * default 0: exact E step
+     * only the binary M step gets cheaper; the gammas are still stored densely
+     * @param posteriorTruncation epsilon
+     */
+    public void setPosteriorTruncation(double posteriorTruncation) {
+        if (posteriorTruncation<0 || posteriorTruncation>=1){
+            throw new IllegalArgumentException("posteriorTruncation should be in [0,1)");
+        }
+        this.posteriorTruncation = posteriorTruncation;
+        int numComponents = cbm.getNumComponents();
+        this.truncatedPosteriors = ThreadLocal.withInitial(() -> new TruncatedPosterior(numComponents));
+    }
+
+    /**
+     * keep a component's active dataset while it holds all active data and at most (1+activeSetSlack) times as many
+     * default 0.1
+     */
+    public void setActiveSetSlack(double activeSetSlack) {
+        if (activeSetSlack<0){
+            throw new IllegalArgumentException("activeSetSlack should be non-negative");
+        }
+        this.activeSetSlack = activeSetSlack;
+    }
+
+    /**
+     * default true; the active datasets of all components stay in memory between M steps
+     * false builds each one when the first fit of its component starts and drops it after the last one
+     */
+    public void setReuseActiveSubsets(boolean reuseActiveSubsets) {
+        this.reuseActiveSubsets = reuseActiveSubsets;
+    }
+
+    /**
+     * keep the optimizer of each (component, label) binary classifier alive across EM iterations
+     * and continue it with the new gammas, as long as the component's active dataset is reused
+     * never applies with setReuseActiveSubsets(false), since every M step then builds new active datasets
+     * costs memory proportional to #components * #labels * #active data; default false
+     */
+    public void setWarmStart(boolean warmStart) {
+        this.warmStart = warmStart;
+    }
+
     public void initialize(){
         gammas = BMSelector.selectGammas(dataSet.getNumClasses(),dataSet.getMultiLabels(), cbm.getNumComponents());
         if (logger.isDebugEnabled()){
@@ -158,6 +231,12 @@ public abstract class AbstractCBMOptimizer {
         Vector x = dataSet.getRow(n);
         MultiLabel y = dataSet.getMultiLabels()[n];
         double[] posterior = cbm.posteriorMembershipShortCircuit(x, y);
+        if (posteriorTruncation>0){
+            TruncatedPosterior truncatedPosterior = truncatedPosteriors.get();
+            truncatedPosterior.truncate(posterior, posteriorTruncation);
+            truncatedPosterior.toDense(gammas[n]);
+            return;
+        }
         for (int k=0; k<cbm.numComponents; k++) {
             gammas[n][k] = posterior[k];
         }
@@ -175,76 +254,129 @@ public abstract class AbstractCBMOptimizer {
         }
     }
 
+    /**
+     * all (component, label) fits form one task pool, so idle workers steal fits of other components
+     * instead of waiting for the slowest label of each component
+     * the active subset of a component is updated by the first of its fits to start; the pool splits the tasks
+     * into ranges of consecutive fits, so only a few components are in progress at any time
+     */
     protected void updateBinaryClassifiers() {
         if (logger.isDebugEnabled()){
             logger.debug("start updateBinaryClassifiers");
         }
-        IntStream.range(0, cbm.numComponents).forEach(this::updateBinaryClassifiers);
+        int numLabels = cbm.numLabels;
+        // guarded by activeSubsetLocks
+        boolean[] updated = new boolean[cbm.numComponents];
+        AtomicIntegerArray remainingFits = new AtomicIntegerArray(cbm.numComponents);
+        for (int k=0;k<cbm.numComponents;k++){
+            remainingFits.set(k, numLabels);
+        }
+        IntStream tasks = IntStream.range(0, cbm.numComponents*numLabels);
+        if (parallelBinaryUpdates){
+            tasks = tasks.parallel();
+        }
+        tasks.forEach(task -> {
+            int component = task/numLabels;
+            synchronized (activeSubsetLocks[component]){
+                if (!updated[component]){
+                    updateActiveSubset(component);
+                    updated[component] = true;
+                }
+            }
+            skipOrUpdateBinaryClassifier(component, task%numLabels);
+            if (remainingFits.decrementAndGet(component)==0 && !reuseActiveSubsets){
+                activeSubsets[component] = null;
+            }
+        });
         if (logger.isDebugEnabled()){
             logger.debug("finish updateBinaryClassifiers");
         }
     }
 
-    //todo pay attention to parallelism
-    protected void updateBinaryClassifiers(int component){
-
-        if (logger.isDebugEnabled()){
-            logger.debug("computing active dataset for component " +component);
-        }
-
-        // skip small gammas
-        List<Double> activeGammasList = new ArrayList<>();
-        List<Integer> activeIndices = new ArrayList<>();
-        double[] gammasForComponent = IntStream.range(0, dataSet.getNumDataPoints()).mapToDouble(i->gammas[i][component]).toArray();
+    /**
+     * data with gamma >= skipDataThreshold in the component, plus the data point with the largest gamma
+     * the sampled data set of the previous M step is kept if it still contains all of these data
+     * and is at most (1+activeSetSlack) times larger; the extra data then take part with their (small) gammas
+     * a rebuilt data set also keeps the previous members while within the same bound
+     */
+    private void updateActiveSubset(int component){
+        ActiveSubset cached = activeSubsets[component];
+        int numData = dataSet.getNumDataPoints();
+        double[] gammasForComponent = IntStream.range(0, numData).mapToDouble(i->gammas[i][component]).toArray();
         int maxIndex = ArgMax.argMax(gammasForComponent);
 
         double weightedTotal = 0;
-        double thresholdedWeightedTotal = 0;
-        int counter = 0;
-        for (int i=0;i<dataSet.getNumDataPoints();i++){
+        int numActive = 0;
+        boolean reuse = cached!=null;
+        for (int i=0;i<numData;i++){
             double v = gammas[i][component];
             weightedTotal += v;
             if (v>= skipDataThreshold || i==maxIndex){
-                activeGammasList.add(v);
-                activeIndices.add(i);
-                thresholdedWeightedTotal += v;
-                counter += 1;
+                numActive += 1;
+                if (reuse && !cached.isMember[i]){
+                    reuse = false;
+                }
             }
         }
+        if (reuse && cached.indices.length>numActive*(1+activeSetSlack)){
+            reuse = false;
+        }
 
         //todo deal with empty components
-
-
-
-        double[] activeGammas = activeGammasList.stream().mapToDouble(a->a).toArray();
+        ActiveSubset activeSubset = cached;
+        if (!reuse){
+            // keep the previous members too if the slack allows, so that data hovering around the threshold
+            // do not force a rebuild in every M step
+            int numUnion = numActive;
+            if (cached!=null){
+                for (int i: cached.indices){
+                    if (gammas[i][component]< skipDataThreshold && i!=maxIndex){
+                        numUnion += 1;
+                    }
+                }
+            }
+            boolean union = cached!=null && numUnion<=numActive*(1+activeSetSlack);
+            int[] activeIndices = new int[union ? numUnion : numActive];
+            int counter = 0;
+            for (int i=0;i<numData;i++){
+                if (gammas[i][component]>= skipDataThreshold || i==maxIndex || (union && cached.isMember[i])){
+                    activeIndices[counter] = i;
+                    counter += 1;
+                }
+            }
+            activeSubset = new ActiveSubset(activeIndices, numData,
+                    DataSetUtil.sampleData(dataSet, Arrays.stream(activeIndices).boxed().collect(Collectors.toList())));
+            activeSubsets[component] = activeSubset;
+        }
+        double thresholdedWeightedTotal = 0;
+        for (int j=0;j<activeSubset.indices.length;j++){
+            activeSubset.gammas[j] = gammas[activeSubset.indices[j]][component];
+            thresholdedWeightedTotal += activeSubset.gammas[j];
+        }
+        activeSubset.totalWeight = weightedTotal;
 
         if (logger.isDebugEnabled()){
-            logger.debug("number of active data  = "+ counter);
+            MultiLabelClfDataSet activeDataSet = activeSubset.dataSet;
+            int activeFeatures = (int) IntStream.range(0, activeDataSet.getNumFeatures()).filter(j->activeDataSet.getColumn(j).getNumNonZeroElements()>0).count();
+            logger.debug("component "+component+(reuse ? ": reusing active dataset" : ": active dataset created"));
+            logger.debug("number of active data  = "+ activeSubset.indices.length+" (above threshold = "+numActive+")");
             logger.debug("total weight  = "+weightedTotal);
             logger.debug("total weight of active data  = "+thresholdedWeightedTotal);
-            logger.debug("creating active dataset");
-        }
-
-
-        MultiLabelClfDataSet activeDataSet = DataSetUtil.sampleData(dataSet, activeIndices);
-        int activeFeatures = (int) IntStream.range(0, activeDataSet.getNumFeatures()).filter(j->activeDataSet.getColumn(j).getNumNonZeroElements()>0).count();
-        if (logger.isDebugEnabled()){
-            logger.debug("active dataset created");
             logger.debug("number of active features = "+activeFeatures);
         }
+    }
 
-        // to please lambda
-        final double totalWeight = weightedTotal;
-        if (parallelBinaryUpdates){
-            IntStream.range(0, cbm.numLabels).parallel()
-                    .forEach(l-> skipOrUpdateBinaryClassifier(component,l, activeDataSet, activeGammas, totalWeight));
-        } else {
-            IntStream.range(0, cbm.numLabels)
-                    .forEach(l-> skipOrUpdateBinaryClassifier(component,l, activeDataSet, activeGammas, totalWeight));
-        }
-
+    /**
+     * indices into the training set of the active data of a component, in the order of the active dataset
+     */
+    protected int[] getActiveIndices(int component){
+        return activeSubsets[component].indices;
     }
 
+    private void skipOrUpdateBinaryClassifier(int component, int label){
+        ActiveSubset activeSubset = activeSubsets[component];
+        skipOrUpdateBinaryClassifier(component, label, activeSubset.dataSet, activeSubset.gammas, activeSubset.totalWeight);
+    }
 
     protected void skipOrUpdateBinaryClassifier(int component, int label, MultiLabelClfDataSet activeDataSet,
                                                 double[] activeGammas, double totalWeight){
@@ -336,6 +468,25 @@ public abstract class AbstractCBMOptimizer {
         return gammas;
     }
 
+    private static class ActiveSubset{
+        private final int[] indices;
+        private final boolean[] isMember;
+        private final MultiLabelClfDataSet dataSet;
+        // refreshed in every M step
+        private final double[] gammas;
+        private double totalWeight;
+
+        private ActiveSubset(int[] indices, int numData, MultiLabelClfDataSet dataSet) {
+            this.indices = indices;
+            this.isMember = new boolean[numData];
+            for (int i: indices){
+                isMember[i] = true;
+            }
+            this.dataSet = dataSet;
+            this.gammas = new double[indices.length];
+        }
+    }
+
     private void checkGamma(){
         for (int i=0;i<gammas.length;i++){
             for (int k=0;k<gammas[0].length;k++){
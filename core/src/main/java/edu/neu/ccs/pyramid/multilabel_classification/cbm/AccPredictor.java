@@ -10,6 +10,8 @@ import org.apache.mahout.math.Vector;
 public class AccPredictor implements PluginPredictor<CBM> {
     CBM cbm;
     private double componentContributionThreshold = 0;
+    // 0 uses the heuristic dynamic search; positive values use BranchAndBoundPredictor with this budget
+    private int maxExpansions = 0;
 
     public AccPredictor(CBM cbm) {
         this.cbm = cbm;
@@ -19,6 +21,10 @@ public class AccPredictor implements PluginPredictor<CBM> {
         this.componentContributionThreshold = componentContributionThreshold;
     }
 
+    public void setMaxExpansions(int maxExpansions) {
+        this.maxExpansions = maxExpansions;
+    }
+
     @Override
     public CBM getModel() {
         return cbm;
@@ -26,6 +32,12 @@ public class AccPredictor implements PluginPredictor<CBM> {
 
     @Override
     public MultiLabel predict(Vector vector) {
+        if (maxExpansions>0){
+            BranchAndBoundPredictor branchAndBoundPredictor = new BranchAndBoundPredictor(cbm);
+            branchAndBoundPredictor.setPiThreshold(componentContributionThreshold);
+            branchAndBoundPredictor.setMaxExpansions(maxExpansions);
+            return branchAndBoundPredictor.predict(vector);
+        }
         BMDistribution bmDistribution = new BMDistribution(cbm, vector, componentContributionThreshold);
         CBMPredictor cbmPredictor = new CBMPredictor(bmDistribution);
         cbmPredictor.setAllowEmpty(cbm.getAllowEmpty());
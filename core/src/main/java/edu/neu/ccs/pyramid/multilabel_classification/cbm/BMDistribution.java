@@ -1,5 +1,6 @@
 package edu.neu.ccs.pyramid.multilabel_classification.cbm;
 
+import edu.neu.ccs.pyramid.classification.Classifier;
 import edu.neu.ccs.pyramid.classification.logistic_regression.LogisticRegression;
 import edu.neu.ccs.pyramid.dataset.MultiLabel;
 import edu.neu.ccs.pyramid.util.BernoulliDistribution;
@@ -33,6 +34,11 @@ public class BMDistribution {
     double[][] normalizedLogProbs;
     private boolean ifSupport;
 
+    // one reusable distribution per thread, see scratch(cbm)
+    private static final ThreadLocal<BMDistribution> SCRATCH = new ThreadLocal<>();
+    // log(z=k) before thresholding, only allocated for scratch distributions
+    private double[] allLogProportions;
+
     BMDistribution(CBM cbm, Vector x) {
         this.numLabels = cbm.numLabels;
         this.numComponents = cbm.numComponents;
@@ -45,6 +51,94 @@ public class BMDistribution {
         }
     }
 
+    /**
+     * empty distribution with room for all components; filled by fill()
+     */
+    private BMDistribution(int numComponents, int numLabels) {
+        this.numLabels = numLabels;
+        this.numComponents = numComponents;
+        this.allLogProportions = new double[numComponents];
+        this.logProportions = new double[numComponents];
+        this.logClassProbs = new double[numComponents][numLabels][2];
+    }
+
+    /**
+     * the scratch distribution of the calling thread, sized for cbm
+     * it is overwritten by the next fill() on this thread, so it must not escape the caller
+     */
+    static BMDistribution scratch(CBM cbm){
+        BMDistribution scratch = SCRATCH.get();
+        if (scratch==null || scratch.allLogProportions.length!=cbm.numComponents || scratch.numLabels!=cbm.numLabels){
+            scratch = new BMDistribution(cbm.numComponents, cbm.numLabels);
+            SCRATCH.set(scratch);
+        }
+        return scratch;
+    }
+
+    /**
+     * overwrite a scratch distribution with the one of x, without allocation for lr base learners
+     * same as BMDistribution(cbm, x, threshold); active components are moved to the front
+     */
+    BMDistribution fill(CBM cbm, Vector x, double threshold){
+        logClassProbs(cbm.multiClassClassifier, x, allLogProportions);
+        double logThreshold = Math.log(threshold);
+        this.numComponents = 0;
+        for (int k=0;k<allLogProportions.length;k++){
+            if (allLogProportions[k]>=logThreshold){
+                logProportions[numComponents] = allLogProportions[k];
+                for (int l=0;l<numLabels;l++){
+                    logClassProbs(cbm.binaryClassifiers[k][l], x, logClassProbs[numComponents][l]);
+                }
+                numComponents += 1;
+            }
+        }
+        return this;
+    }
+
+    /**
+     * p(y_l=1|x) over all components, only evaluating the binary classifiers of this label
+     * uses a scratch distribution; its content is lost
+     */
+    double marginal(CBM cbm, Vector x, int labelIndex){
+        logClassProbs(cbm.multiClassClassifier, x, allLogProportions);
+        double[] labelLogProbs = logClassProbs[0][labelIndex];
+        double max = Double.NEGATIVE_INFINITY;
+        for (int k=0;k<allLogProportions.length;k++){
+            logClassProbs(cbm.binaryClassifiers[k][labelIndex], x, labelLogProbs);
+            allLogProportions[k] += labelLogProbs[1];
+            max = Math.max(max, allLogProportions[k]);
+        }
+        return expSum(allLogProportions, allLogProportions.length, max);
+    }
+
+    // log class probabilities written into logProbs; lr scores are normalized in place
+    private static void logClassProbs(Classifier.ProbabilityEstimator estimator, Vector x, double[] logProbs){
+        if (estimator instanceof LogisticRegression){
+            LogisticRegression logisticRegression = (LogisticRegression) estimator;
+            for (int k=0;k<logProbs.length;k++){
+                logProbs[k] = logisticRegression.predictClassScore(x, k);
+            }
+            double logDenominator = MathUtil.logSumExp(logProbs);
+            for (int k=0;k<logProbs.length;k++){
+                logProbs[k] -= logDenominator;
+            }
+        } else {
+            System.arraycopy(estimator.predictLogClassProbs(x), 0, logProbs, 0, logProbs.length);
+        }
+    }
+
+    // sum of exp(logs[k]) over the first length entries, given their max
+    private static double expSum(double[] logs, int length, double max){
+        if (max==Double.NEGATIVE_INFINITY){
+            return 0;
+        }
+        double sum = 0;
+        for (int k=0;k<length;k++){
+            sum += Math.exp(logs[k]-max);
+        }
+        return Math.exp(max)*sum;
+    }
+
     public double[] getLogProportions() {
         return logProportions;
     }
@@ -232,20 +326,26 @@ public class BMDistribution {
         return Math.exp(logProbability(y));
     }
 
-    private double marginal(int labelIndex){
-        double sum = 0;
-        for (int k=0;k<numComponents;k++){
-            sum += Math.exp(logProportions[k])*Math.exp(logClassProbs[k][labelIndex][1]);
-        }
-        return sum;
-    }
-
     public double[] marginals(){
         double[] m = new double[numLabels];
+        marginals(m);
+        return m;
+    }
+
+    /**
+     * p(y_l=1) for all labels written into marginals, with one log-sum-exp over the components per label
+     */
+    void marginals(double[] marginals){
+        // a scratch distribution keeps its full-size arrays, so sizes come from numComponents
+        double[] logTerms = allLogProportions==null ? new double[numComponents] : allLogProportions;
         for (int l=0;l<numLabels;l++){
-            m[l] = marginal(l);
+            double max = Double.NEGATIVE_INFINITY;
+            for (int k=0;k<numComponents;k++){
+                logTerms[k] = logProportions[k] + logClassProbs[k][l][1];
+                max = Math.max(max, logTerms[k]);
+            }
+            marginals[l] = expSum(logTerms, numComponents, max);
         }
-        return m;
     }
 
     /**
@@ -0,0 +1,452 @@
+package edu.neu.ccs.pyramid.multilabel_classification.cbm;
+
+import edu.neu.ccs.pyramid.dataset.MultiLabel;
+import edu.neu.ccs.pyramid.multilabel_classification.PluginPredictor;
+import edu.neu.ccs.pyramid.multilabel_classification.plugin_rule.SparseGeneralF1Predictor;
+import edu.neu.ccs.pyramid.util.MathUtil;
+import edu.neu.ccs.pyramid.util.Pair;
+import org.apache.mahout.math.Vector;
+
+import java.util.*;
+
+/**
+ * decodes a CBM by best-first branch and bound over label assignments
+ * a search node fixes the first labels of a search order; its bound
+ * sum_k pi_k prod_{fixed l} p_k(y_l) prod_{free l} max_y p_k(y)
+ * is never below the probability of any completion, so a complete assignment at the top of the queue
+ * beats every assignment not seen yet; this is the certificate
+ * for map decoding, labels on which all components prefer the same value are fixed upfront:
+ * switching such a label to the preferred value raises every component term
+ * targets: map (predict), top k and expected F1 (GFM over the certified top assignments)
+ * node expansions per document are capped by maxExpansions; when the cap is hit,
+ * the best assignment found so far is returned without certificate
+ */
+public class BranchAndBoundPredictor implements PluginPredictor<CBM> {
+    private CBM cbm;
+    private double piThreshold = 0.001;
+    private int maxExpansions = 10000;
+    private boolean allowEmpty;
+    // map or f1
+    private String target = "map";
+    // f1 target: top assignments are collected until they cover this probability mass or reach maxAssignments
+    private double massTarget = 0.95;
+    private int maxAssignments = 100;
+    // max label set size for GFM
+    private int maxSize = 20;
+
+    public BranchAndBoundPredictor(CBM cbm) {
+        this.cbm = cbm;
+        this.allowEmpty = cbm.getAllowEmpty();
+    }
+
+    public void setPiThreshold(double piThreshold) {
+        this.piThreshold = piThreshold;
+    }
+
+    public void setMaxExpansions(int maxExpansions) {
+        if (maxExpansions<1){
+            throw new IllegalArgumentException("maxExpansions should be positive");
+        }
+        this.maxExpansions = maxExpansions;
+    }
+
+    public void setAllowEmpty(boolean allowEmpty) {
+        this.allowEmpty = allowEmpty;
+    }
+
+    public void setTarget(String target) {
+        if (!target.equals("map") && !target.equals("f1")){
+            throw new IllegalArgumentException("target should be map or f1");
+        }
+        this.target = target;
+    }
+
+    public void setMassTarget(double massTarget) {
+        this.massTarget = massTarget;
+    }
+
+    public void setMaxAssignments(int maxAssignments) {
+        this.maxAssignments = maxAssignments;
+    }
+
+    public void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    @Override
+    public CBM getModel() {
+        return cbm;
+    }
+
+    @Override
+    public MultiLabel predict(Vector vector) {
+        if (target.equals("f1")){
+            return predictF1(vector);
+        }
+        return decode(vector).getPrediction();
+    }
+
+    /**
+     * most probable assignment, with its certificate
+     */
+    public Result decode(Vector vector){
+        Search search = new Search(cbm.computeBM(vector, piThreshold), true);
+        Node best = search.nextComplete();
+        if (best!=null){
+            return search.result(best, true);
+        }
+        return search.result(search.fallback(), false);
+    }
+
+    /**
+     * the k most probable assignments in decreasing order, with probabilities
+     * fewer are returned if the expansion budget runs out; all returned ones are certified
+     */
+    public List<Pair<MultiLabel,Double>> topK(Vector vector, int k){
+        Search search = new Search(cbm.computeBM(vector, piThreshold), false);
+        List<Pair<MultiLabel,Double>> list = new ArrayList<>();
+        while (list.size()<k){
+            Node node = search.nextComplete();
+            if (node==null){
+                break;
+            }
+            list.add(new Pair<>(search.multiLabel(node), Math.exp(node.logBound)));
+        }
+        return list;
+    }
+
+    /**
+     * GFM over the top assignments; see massTarget and maxAssignments
+     */
+    public MultiLabel predictF1(Vector vector){
+        Search search = new Search(cbm.computeBM(vector, piThreshold), false);
+        List<MultiLabel> assignments = new ArrayList<>();
+        double[] probs = new double[maxAssignments];
+        double mass = 0;
+        while (mass<massTarget && assignments.size()<maxAssignments){
+            Node node = search.nextComplete();
+            if (node==null){
+                break;
+            }
+            double prob = Math.exp(node.logBound);
+            probs[assignments.size()] = prob;
+            assignments.add(search.multiLabel(node));
+            mass += prob;
+        }
+        if (assignments.isEmpty()){
+            return search.multiLabel(search.fallback());
+        }
+        SparseGeneralF1Predictor generalF1Predictor = new SparseGeneralF1Predictor();
+        generalF1Predictor.setMaxSize(maxSize);
+        return generalF1Predictor.predict(cbm.getNumClasses(), assignments, Arrays.copyOf(probs, assignments.size()));
+    }
+
+    public static class Result{
+        private MultiLabel prediction;
+        private double probability;
+        private double upperBound;
+        private boolean certified;
+        private int numExpansions;
+
+        public MultiLabel getPrediction() {
+            return prediction;
+        }
+
+        public double getProbability() {
+            return probability;
+        }
+
+        /**
+         * no assignment left in the search has a higher probability
+         */
+        public double getUpperBound() {
+            return upperBound;
+        }
+
+        /**
+         * whether the prediction is known to be the most probable assignment
+         */
+        public boolean isCertified() {
+            return certified;
+        }
+
+        public int getNumExpansions() {
+            return numExpansions;
+        }
+
+        @Override
+        public String toString() {
+            return "Result{" +
+                    "prediction=" + prediction +
+                    ", probability=" + probability +
+                    ", upperBound=" + upperBound +
+                    ", certified=" + certified +
+                    ", numExpansions=" + numExpansions +
+                    '}';
+        }
+    }
+
+    private static class Node{
+        private Node parent;
+        // the label fixed by this node
+        private int label;
+        private boolean value;
+        private int depth;
+        private int numPositives;
+        // log pi_k + sum of fixed log p_k(y_l)
+        private double[] logPrefix;
+        private double logBound;
+    }
+
+    private static final Comparator<Node> ORDER = (a, b) -> {
+        int c = Double.compare(b.logBound, a.logBound);
+        if (c!=0){
+            return c;
+        }
+        // deeper first among ties, to complete assignments sooner
+        return Integer.compare(b.depth, a.depth);
+    };
+
+    /**
+     * search state for one document
+     */
+    private class Search{
+        private int numComponents;
+        private double[][][] logClassProbs;
+        // labels to branch on, in branching order
+        private int[] order;
+        // labels fixed upfront to 1
+        private List<Integer> fixedPositives;
+        // sum of max_y log p_k(y) over order[d..]
+        // format [#components][#order+1]
+        private double[][] logSuffixMax;
+        private Node root;
+        private PriorityQueue<Node> queue;
+        private int numExpansions;
+        private double[] scores;
+
+        private Search(BMDistribution bmDistribution, boolean map) {
+            this.numComponents = bmDistribution.numComponents;
+            this.logClassProbs = bmDistribution.logClassProbs;
+            int numLabels = bmDistribution.numLabels;
+            this.scores = new double[numComponents];
+            this.fixedPositives = new ArrayList<>();
+
+            boolean[] unanimous = new boolean[numLabels];
+            boolean[] preferred = new boolean[numLabels];
+            // spread of p_k(y_l=1) over components; contested labels with the largest spread are branched on first
+            double[] spread = new double[numLabels];
+            for (int l=0;l<numLabels;l++){
+                int numPreferPositive = 0;
+                double min = Double.POSITIVE_INFINITY;
+                double max = Double.NEGATIVE_INFINITY;
+                for (int k=0;k<numComponents;k++){
+                    double logProb = logClassProbs[k][l][1];
+                    if (logProb>logClassProbs[k][l][0]){
+                        numPreferPositive += 1;
+                    }
+                    min = Math.min(min, logProb);
+                    max = Math.max(max, logProb);
+                }
+                unanimous[l] = numPreferPositive==0 || numPreferPositive==numComponents;
+                preferred[l] = numPreferPositive==numComponents;
+                spread[l] = unanimous[l] ? Math.abs(logClassProbs[0][l][1]-logClassProbs[0][l][0]) : max-min;
+            }
+
+            boolean anyPositive = false;
+            for (int l=0;l<numLabels;l++){
+                if (unanimous[l] && preferred[l]){
+                    anyPositive = true;
+                }
+            }
+            // fixing is only safe when the fixed labels already make the assignment non-empty
+            boolean fix = map && (allowEmpty || anyPositive);
+
+            List<Integer> contested = new ArrayList<>();
+            List<Integer> agreed = new ArrayList<>();
+            for (int l=0;l<numLabels;l++){
+                if (!unanimous[l]){
+                    contested.add(l);
+                } else if (!fix){
+                    agreed.add(l);
+                } else if (preferred[l]){
+                    fixedPositives.add(l);
+                }
+            }
+            contested.sort((a, b) -> Double.compare(spread[b], spread[a]));
+            // most uncertain agreed labels first
+            agreed.sort(Comparator.comparingDouble(a -> spread[a]));
+            this.order = new int[contested.size()+agreed.size()];
+            for (int i=0;i<contested.size();i++){
+                order[i] = contested.get(i);
+            }
+            for (int i=0;i<agreed.size();i++){
+                order[contested.size()+i] = agreed.get(i);
+            }
+
+            this.root = new Node();
+            root.label = -1;
+            root.numPositives = fixedPositives.size();
+            root.logPrefix = bmDistribution.logProportions.clone();
+            if (fix){
+                for (int l=0;l<numLabels;l++){
+                    if (unanimous[l]){
+                        int v = preferred[l] ? 1 : 0;
+                        for (int k=0;k<numComponents;k++){
+                            root.logPrefix[k] += logClassProbs[k][l][v];
+                        }
+                    }
+                }
+            }
+            this.logSuffixMax = new double[numComponents][order.length+1];
+            for (int k=0;k<numComponents;k++){
+                for (int d=order.length-1;d>=0;d--){
+                    double[] logProbs = logClassProbs[k][order[d]];
+                    logSuffixMax[k][d] = logSuffixMax[k][d+1] + Math.max(logProbs[0], logProbs[1]);
+                }
+            }
+            root.logBound = bound(root);
+            this.queue = new PriorityQueue<>(ORDER);
+            queue.add(root);
+        }
+
+        private double bound(Node node){
+            for (int k=0;k<numComponents;k++){
+                scores[k] = node.logPrefix[k] + logSuffixMax[k][node.depth];
+            }
+            return MathUtil.logSumExp(scores);
+        }
+
+        private Node child(Node parent, boolean value){
+            int label = order[parent.depth];
+            int v = value ? 1 : 0;
+            Node child = new Node();
+            child.parent = parent;
+            child.label = label;
+            child.value = value;
+            child.depth = parent.depth+1;
+            child.numPositives = parent.numPositives + v;
+            child.logPrefix = new double[numComponents];
+            for (int k=0;k<numComponents;k++){
+                child.logPrefix[k] = parent.logPrefix[k] + logClassProbs[k][label][v];
+            }
+            child.logBound = bound(child);
+            return child;
+        }
+
+        /**
+         * the next most probable assignment, or null if there are no more or the budget is used up
+         */
+        private Node nextComplete(){
+            while (!queue.isEmpty()){
+                Node node = queue.peek();
+                if (node.depth==order.length){
+                    queue.poll();
+                    if (!allowEmpty && node.numPositives==0){
+                        continue;
+                    }
+                    return node;
+                }
+                if (numExpansions>=maxExpansions){
+                    return null;
+                }
+                queue.poll();
+                numExpansions += 1;
+                for (boolean value: new boolean[]{false, true}){
+                    Node child = child(node, value);
+                    if (child.logBound>Double.NEGATIVE_INFINITY){
+                        queue.add(child);
+                    }
+                }
+            }
+            return null;
+        }
+
+        /**
+         * best complete assignment reachable by following the larger child bound from the top of the queue,
+         * compared with the mode of each component; used when the budget runs out
+         */
+        private Node fallback(){
+            Node best = null;
+            if (!queue.isEmpty()){
+                best = dive(queue.peek());
+            }
+            for (int k=0;k<numComponents;k++){
+                Node node = mode(k);
+                if (best==null || exactLogProb(node)>exactLogProb(best)){
+                    best = node;
+                }
+            }
+            return best;
+        }
+
+        private Node dive(Node node){
+            Node current = node;
+            while (current.depth<order.length){
+                Node negative = child(current, false);
+                Node positive = child(current, true);
+                boolean lastChance = !allowEmpty && current.numPositives==0 && current.depth==order.length-1;
+                current = (positive.logBound>negative.logBound || lastChance) ? positive : negative;
+            }
+            return current;
+        }
+
+        // mode of component k over the branched labels; its most likely label is switched on if the mode is empty
+        private Node mode(int k){
+            boolean[] values = new boolean[order.length];
+            int numPositives = root.numPositives;
+            int mostLikely = -1;
+            for (int d=0;d<order.length;d++){
+                double[] logProbs = logClassProbs[k][order[d]];
+                values[d] = logProbs[1]>logProbs[0];
+                if (values[d]){
+                    numPositives += 1;
+                }
+                if (mostLikely==-1 || logProbs[1]-logProbs[0]>logClassProbs[k][order[mostLikely]][1]-logClassProbs[k][order[mostLikely]][0]){
+                    mostLikely = d;
+                }
+            }
+            if (!allowEmpty && numPositives==0 && mostLikely!=-1){
+                values[mostLikely] = true;
+            }
+            Node current = root;
+            for (int d=0;d<order.length;d++){
+                current = child(current, values[d]);
+            }
+            return current;
+        }
+
+        private double exactLogProb(Node node){
+            if (node==null){
+                return Double.NEGATIVE_INFINITY;
+            }
+            if (!allowEmpty && node.numPositives==0){
+                return Double.NEGATIVE_INFINITY;
+            }
+            return MathUtil.logSumExp(node.logPrefix);
+        }
+
+        private MultiLabel multiLabel(Node node){
+            MultiLabel multiLabel = new MultiLabel();
+            for (int l: fixedPositives){
+                multiLabel.addLabel(l);
+            }
+            for (Node current = node; current.parent!=null; current = current.parent){
+                if (current.value){
+                    multiLabel.addLabel(current.label);
+                }
+            }
+            return multiLabel;
+        }
+
+        private Result result(Node node, boolean certified){
+            Result result = new Result();
+            result.prediction = node==null ? new MultiLabel() : multiLabel(node);
+            result.probability = Math.exp(exactLogProb(node));
+            result.upperBound = queue.isEmpty() ? 0 : Math.exp(queue.peek().logBound);
+            result.certified = certified;
+            result.numExpansions = numExpansions;
+            return result;
+        }
+    }
+}
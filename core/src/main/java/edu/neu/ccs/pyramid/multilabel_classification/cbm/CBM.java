@@ -2,6 +2,7 @@ package edu.neu.ccs.pyramid.multilabel_classification.cbm;
 
 import edu.neu.ccs.pyramid.classification.lkboost.LKBoost;
 import edu.neu.ccs.pyramid.classification.logistic_regression.LogisticRegression;
+import edu.neu.ccs.pyramid.dataset.DataSet;
 import edu.neu.ccs.pyramid.dataset.LabelTranslator;
 import edu.neu.ccs.pyramid.dataset.MultiLabel;
 import edu.neu.ccs.pyramid.feature.FeatureList;
@@ -9,6 +10,9 @@ import edu.neu.ccs.pyramid.multilabel_classification.MultiLabelClassifier;
 import edu.neu.ccs.pyramid.classification.Classifier.ProbabilityEstimator;
 import edu.neu.ccs.pyramid.util.ArgSort;
 import edu.neu.ccs.pyramid.util.BernoulliDistribution;
+import edu.neu.ccs.pyramid.util.BinaryModelInput;
+import edu.neu.ccs.pyramid.util.BinaryModelOutput;
+import edu.neu.ccs.pyramid.util.BinaryModels;
 import edu.neu.ccs.pyramid.util.MathUtil;
 import edu.neu.ccs.pyramid.util.Pair;
 import org.apache.commons.math3.distribution.EnumeratedIntegerDistribution;
@@ -30,6 +34,7 @@ import java.util.stream.IntStream;
  */
 public class CBM implements MultiLabelClassifier.ClassProbEstimator, MultiLabelClassifier.AssignmentProbEstimator, Serializable {
     private static final long serialVersionUID = 2L;
+    private static final int BINARY_VERSION = 1;
     int numLabels;
     int numComponents;
     private int numFeatures;
@@ -201,6 +206,8 @@ public class CBM implements MultiLabelClassifier.ClassProbEstimator, MultiLabelC
                 return predictBySupport(vector);
             case "marginal":
                 return predictByMarginals(vector);
+            case "branchAndBound":
+                return new BranchAndBoundPredictor(this).predict(vector);
         }
 
 
@@ -226,18 +233,17 @@ public class CBM implements MultiLabelClassifier.ClassProbEstimator, MultiLabelC
     }
 
     private MultiLabel predictBySupport(Vector vector) {
-//        List<Double> supportLogProbs = predictLogAssignmentProbs(vector, support);
-//        MultiLabel pred = new MultiLabel();
-//        double maxLogProb = Double.NEGATIVE_INFINITY;
-//        for (int i=0; i<supportLogProbs.size(); i++) {
-//            double logProb = supportLogProbs.get(i);
-//            if (logProb > maxLogProb) {
-//                maxLogProb = logProb;
-//                pred = support.get(i);
-//            }
-//        }
-//        return pred;
-        return null;
+        double[] supportLogProbs = predictLogAssignmentProbs(vector, support);
+        MultiLabel pred = new MultiLabel();
+        double maxLogProb = Double.NEGATIVE_INFINITY;
+        for (int i=0; i<supportLogProbs.length; i++) {
+            double logProb = supportLogProbs[i];
+            if (logProb > maxLogProb) {
+                maxLogProb = logProb;
+                pred = support.get(i);
+            }
+        }
+        return pred;
     }
 
     /**
@@ -247,20 +253,28 @@ public class CBM implements MultiLabelClassifier.ClassProbEstimator, MultiLabelC
      */
     public double[] predictClassProbs(Vector vector){
         //todo threshold
-        BMDistribution bmDistribution = new BMDistribution(this, vector, 0.001);
-        return bmDistribution.marginals();
+        double[] marginals = new double[numLabels];
+        BMDistribution.scratch(this).fill(this, vector, 0.001).marginals(marginals);
+        return marginals;
+    }
+
+    /**
+     * marginal probabilities of all data points, same as predictClassProbs(vector) row by row
+     * rows are computed in parallel; each thread reuses one scratch distribution
+     * @param dataSet
+     * @return format [#data][#labels]
+     */
+    public double[][] predictClassProbs(DataSet dataSet){
+        double[][] marginals = new double[dataSet.getNumDataPoints()][numLabels];
+        IntStream.range(0, dataSet.getNumDataPoints()).parallel().forEach(i ->
+                BMDistribution.scratch(this).fill(this, dataSet.getRow(i), 0.001).marginals(marginals[i]));
+        return marginals;
     }
 
 
     @Override
     public double predictClassProb(Vector vector, int classIndex) {
-        double[] pi = multiClassClassifier.predictClassProbs(vector);
-        double prob = 0;
-        for (int k=0;k<numComponents;k++){
-            prob += binaryClassifiers[k][classIndex].predictClassProb(vector,1) * pi[k];
-        }
-
-        return prob;
+        return BMDistribution.scratch(this).marginal(this, vector, classIndex);
     }
 
     /**
@@ -371,12 +385,63 @@ public class CBM implements MultiLabelClassifier.ClassProbEstimator, MultiLabelC
         return multiClassClassifier;
     }
 
+    public int getNumFeatures() {
+        return numFeatures;
+    }
+
     public int getNumComponents() {
         return numComponents;
     }
 
 
 
+    /**
+     * see BinaryModels
+     * each component classifier is written with its own type, so mixtures of lr, boosting and prior classifiers are kept
+     */
+    public void writeBinary(BinaryModelOutput out) throws IOException{
+        out.writeInt(BINARY_VERSION);
+        out.writeInt(numLabels);
+        out.writeInt(numComponents);
+        out.writeInt(numFeatures);
+        out.writeInt(numSample);
+        out.writeBoolean(allowEmpty);
+        out.writeString(predictMode);
+        out.writeString(binaryClassifierType);
+        out.writeString(multiClassClassifierType);
+        out.writeObject(labelTranslator);
+        BinaryModels.writeMultiLabels(out, support);
+        for (int k=0;k<numComponents;k++){
+            for (int l=0;l<numLabels;l++){
+                BinaryModels.writeModel(out, binaryClassifiers[k][l]);
+            }
+        }
+        BinaryModels.writeModel(out, multiClassClassifier);
+    }
+
+    public static CBM readBinary(BinaryModelInput in) throws IOException{
+        in.readVersion("CBM", BINARY_VERSION);
+        CBM cbm = new CBM();
+        cbm.numLabels = in.readInt();
+        cbm.numComponents = in.readInt();
+        cbm.numFeatures = in.readInt();
+        cbm.numSample = in.readInt();
+        cbm.allowEmpty = in.readBoolean();
+        cbm.predictMode = in.readString();
+        cbm.binaryClassifierType = in.readString();
+        cbm.multiClassClassifierType = in.readString();
+        cbm.labelTranslator = (LabelTranslator) in.readObject();
+        cbm.support = BinaryModels.readMultiLabels(in);
+        cbm.binaryClassifiers = new ProbabilityEstimator[cbm.numComponents][cbm.numLabels];
+        for (int k=0;k<cbm.numComponents;k++){
+            for (int l=0;l<cbm.numLabels;l++){
+                cbm.binaryClassifiers[k][l] = (ProbabilityEstimator) BinaryModels.readModel(in);
+            }
+        }
+        cbm.multiClassClassifier = (ProbabilityEstimator) BinaryModels.readModel(in);
+        return cbm;
+    }
+
     public static Builder getBuilder(){
         return new Builder();
     }
@@ -16,7 +16,6 @@ public class CBMInitializer {
         for (int i=0;i<dataSet.getNumDataPoints();i++){
             for (int k = 0; k< cbm.getNumComponents(); k++){
                 optimizer.gammas[i][k] = gamms[i][k];
-                optimizer.gammasT[k][i] = gamms[i][k];
             }
         }
         System.out.println("performing M step");
@@ -35,7 +34,6 @@ public class CBMInitializer {
             for (int k=0; k<K; k++) {
                 double value = dist[k]/sum;
                 optimizer.gammas[i][k] = value;
-                optimizer.gammasT[k][i] = value;
             }
         }
         optimizer.mStep();
@@ -77,7 +75,6 @@ public class CBMInitializer {
         for (int i=0; i<dataSet.getNumDataPoints(); i++) {
             for (int k=0; k<K; k++) {
                 optimizer.gammas[i][k] = avgValue;
-                optimizer.gammasT[k][i] = avgValue;
             }
         }
         optimizer.mStep();
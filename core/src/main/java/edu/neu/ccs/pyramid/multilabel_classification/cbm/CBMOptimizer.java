@@ -5,6 +5,7 @@ import edu.neu.ccs.pyramid.classification.lkboost.LKBOutputCalculator;
 import edu.neu.ccs.pyramid.classification.lkboost.LKBoost;
 import edu.neu.ccs.pyramid.classification.lkboost.LKBoostOptimizer;
 import edu.neu.ccs.pyramid.classification.logistic_regression.*;
+import edu.neu.ccs.pyramid.dataset.DataSetUtil;
 import edu.neu.ccs.pyramid.dataset.MultiLabel;
 import edu.neu.ccs.pyramid.dataset.MultiLabelClfDataSet;
 import edu.neu.ccs.pyramid.eval.Entropy;
@@ -41,11 +42,11 @@ public class CBMOptimizer {
 
     // format [#data][#components]
     double[][] gammas;
+    // caches for the binary M step and the objective, built on first use and dropped whenever the gammas change,
+    // so that they are held only from an M step until the next E step
     // format [#components][#data]
-    double[][] gammasT;
-
+    private double[][] gammasT;
     // format [#labels][#data][2]
-    // to be fit by binary classifiers
     private double[][][] targetsDistributions;
     private boolean isParallel = true;
 
@@ -96,26 +97,10 @@ public class CBMOptimizer {
         this.terminator.setGoal(Terminator.Goal.MINIMIZE);
 
         this.gammas = new double[dataSet.getNumDataPoints()][cbm.getNumComponents()];
-        this.gammasT = new double[cbm.getNumComponents()][dataSet.getNumDataPoints()];
         double average = 1.0/ cbm.getNumComponents();
         for (int n=0;n<dataSet.getNumDataPoints();n++){
             for (int k = 0; k< cbm.getNumComponents(); k++){
                 gammas[n][k] = average;
-                gammasT[k][n] = average;
-            }
-        }
-
-
-        this.targetsDistributions = new double[cbm.getNumClasses()][dataSet.getNumDataPoints()][2];
-        for (int n=0; n<dataSet.getNumDataPoints(); n++) {
-            // first mark all labels as negative
-            for (int l=0;l<cbm.getNumClasses(); l++){
-                this.targetsDistributions[l][n][0] = 1;
-            }
-            MultiLabel multiLabel = dataSet.getMultiLabels()[n];
-            for (int l: multiLabel.getMatchedLabels()){
-                this.targetsDistributions[l][n][0] = 0;
-                this.targetsDistributions[l][n][1] = 1;
             }
         }
         this.jointProbs = new double[dataSet.getNumDataPoints()];
@@ -270,6 +255,7 @@ public class CBMOptimizer {
 
 
     private void updateGamma() {
+        dropCaches();
         IntStream.range(0, dataSet.getNumDataPoints()).parallel()
                 .forEach(this::updateGamma);
     }
@@ -280,7 +266,6 @@ public class CBMOptimizer {
         double[] posterior = cbm.posteriorMembership(x, y, noiseLabelWeights[n]);
         for (int k=0; k<cbm.numComponents; k++) {
             gammas[n][k] = posterior[k];
-            gammasT[k][n] = posterior[k];
         }
     }
 
@@ -288,6 +273,8 @@ public class CBMOptimizer {
         if (logger.isDebugEnabled()){
             logger.debug("start M step");
         }
+        // the gammas may have been set directly, e.g. by CBMInitializer
+        dropCaches();
         updateBinaryClassifiers();
         updateMultiClassClassifier();
         if (logger.isDebugEnabled()){
@@ -309,23 +296,58 @@ public class CBMOptimizer {
     //todo pay attention to parallelism
     private void updateBinaryClassifiers(int component){
         String type = cbm.getBinaryClassifierType();
+        double[] componentGammas = componentGammas(component);
         switch (type){
             case "lr":
-                IntStream.range(0, cbm.numLabels).parallel().forEach(l-> updateBinaryLogisticRegression(component,l));
+                IntStream.range(0, cbm.numLabels).parallel().forEach(l-> updateBinaryLogisticRegression(component,l,componentGammas));
                 break;
             case "boost":
                 // no parallel for boosting
-                IntStream.range(0, cbm.numLabels).forEach(l -> updateBinaryBoosting(component, l));
+                IntStream.range(0, cbm.numLabels).forEach(l -> updateBinaryBoosting(component, l, componentGammas));
                 break;
             case "elasticnet":
-                IntStream.range(0, cbm.numLabels).parallel().forEach(l-> updateBinaryLogisticRegressionEL(component,l));
+                IntStream.range(0, cbm.numLabels).parallel().forEach(l-> updateBinaryLogisticRegressionEL(component,l,componentGammas));
                 break;
             default:
                 throw new IllegalArgumentException("unknown type: " + cbm.getBinaryClassifierType());
         }
     }
 
-    private void updateBinaryBoosting(int componentIndex, int labelIndex){
+    /**
+     * gammas of one component, format [#data]; shared, do not modify
+     */
+    private synchronized double[] componentGammas(int component){
+        if (gammasT==null){
+            gammasT = new double[cbm.getNumComponents()][dataSet.getNumDataPoints()];
+            for (int n=0;n<dataSet.getNumDataPoints();n++){
+                for (int k=0;k<cbm.getNumComponents();k++){
+                    gammasT[k][n] = gammas[n][k];
+                }
+            }
+        }
+        return gammasT[component];
+    }
+
+    /**
+     * format [#data][2]; shared, do not modify
+     */
+    private synchronized double[][] targetsDistribution(int label){
+        if (targetsDistributions==null){
+            targetsDistributions = new double[cbm.getNumClasses()][][];
+        }
+        if (targetsDistributions[label]==null){
+            int[] binaryLabels = DataSetUtil.toBinaryLabels(dataSet.getMultiLabels(), label);
+            targetsDistributions[label] = DataSetUtil.labelsToDistributions(binaryLabels, 2);
+        }
+        return targetsDistributions[label];
+    }
+
+    private synchronized void dropCaches(){
+        gammasT = null;
+        targetsDistributions = null;
+    }
+
+    private void updateBinaryBoosting(int componentIndex, int labelIndex, double[] componentGammas){
         int numIterations = numIterationsBinary;
         double shrinkage = shrinkageBinary;
         LKBoost boost = (LKBoost)this.cbm.binaryClassifiers[componentIndex][labelIndex];
@@ -334,22 +356,22 @@ public class CBMOptimizer {
         RegTreeFactory regTreeFactory = new RegTreeFactory(regTreeConfig);
         regTreeFactory.setLeafOutputCalculator(new LKBOutputCalculator(2));
         LKBoostOptimizer optimizer = new LKBoostOptimizer(boost,dataSet, regTreeFactory,
-                gammasT[componentIndex],targetsDistributions[labelIndex]);
+                componentGammas,targetsDistribution(labelIndex));
         optimizer.setShrinkage(shrinkage);
         optimizer.initialize();
         optimizer.iterate(numIterations);
     }
 
-    private void updateBinaryLogisticRegression(int componentIndex, int labelIndex){
+    private void updateBinaryLogisticRegression(int componentIndex, int labelIndex, double[] componentGammas){
         RidgeLogisticOptimizer ridgeLogisticOptimizer;
         double[] instanceWeights = new double[dataSet.getNumDataPoints()];
         for (int i=0;i<dataSet.getNumDataPoints();i++){
             //todo do not multiply by noiseSetWeight ?
-            instanceWeights[i] = gammasT[componentIndex][i] *noiseSetWeights[i] * noiseLabelWeights[i][labelIndex];
+            instanceWeights[i] = componentGammas[i] *noiseSetWeights[i] * noiseLabelWeights[i][labelIndex];
         }
         // no parallelism
         ridgeLogisticOptimizer = new RidgeLogisticOptimizer((LogisticRegression)cbm.binaryClassifiers[componentIndex][labelIndex],
-                dataSet, instanceWeights, targetsDistributions[labelIndex], priorVarianceBinary, false);
+                dataSet, instanceWeights, targetsDistribution(labelIndex), priorVarianceBinary, false);
         //TODO maximum iterations
         ridgeLogisticOptimizer.getOptimizer().getTerminator().setMaxIteration(parameterUpdatesPerIter);
         ridgeLogisticOptimizer.optimize();
@@ -358,9 +380,9 @@ public class CBMOptimizer {
 //        }
     }
 
-    private void updateBinaryLogisticRegressionEL(int componentIndex, int labelIndex) {
+    private void updateBinaryLogisticRegressionEL(int componentIndex, int labelIndex, double[] componentGammas) {
         ElasticNetLogisticTrainer elasticNetLogisticTrainer = new ElasticNetLogisticTrainer.Builder((LogisticRegression)
-                cbm.binaryClassifiers[componentIndex][labelIndex], dataSet, 2, targetsDistributions[labelIndex], gammasT[componentIndex])
+                cbm.binaryClassifiers[componentIndex][labelIndex], dataSet, 2, targetsDistribution(labelIndex), componentGammas)
                 .setRegularization(regularizationBinary)
                 .setL1Ratio(l1RatioBinary)
                 .setLineSearch(lineSearch).build();
@@ -487,21 +509,21 @@ public class CBMOptimizer {
 
     private double binaryLRELObj(int clusterIndex, int classIndex) {
         LogisticLoss logisticLoss = new LogisticLoss((LogisticRegression) cbm.binaryClassifiers[clusterIndex][classIndex],
-                dataSet, gammasT[clusterIndex], targetsDistributions[classIndex], regularizationBinary, l1RatioBinary, false);
+                dataSet, componentGammas(clusterIndex), targetsDistribution(classIndex), regularizationBinary, l1RatioBinary, false);
         return logisticLoss.getValueEL();
     }
 
     // consider regularization penalty
     private double binaryLRObj(int clusterIndex, int classIndex) {
             LogisticLoss logisticLoss = new LogisticLoss((LogisticRegression) cbm.binaryClassifiers[clusterIndex][classIndex],
-                    dataSet, gammasT[clusterIndex], targetsDistributions[classIndex], priorVarianceBinary, false);
+                    dataSet, componentGammas(clusterIndex), targetsDistribution(classIndex), priorVarianceBinary, false);
             return logisticLoss.getValue();
     }
 
     private double binaryBoostObj(int clusterIndex, int classIndex){
         Classifier.ProbabilityEstimator estimator = cbm.binaryClassifiers[clusterIndex][classIndex];
-        double[][] targets = targetsDistributions[classIndex];
-        double[] weights = gammasT[clusterIndex];
+        double[][] targets = targetsDistribution(classIndex);
+        double[] weights = componentGammas(clusterIndex);
         return KLDivergence.kl(estimator, dataSet, targets, weights);
     }
 
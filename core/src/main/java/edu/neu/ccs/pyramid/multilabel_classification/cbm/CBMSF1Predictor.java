@@ -2,7 +2,7 @@ package edu.neu.ccs.pyramid.multilabel_classification.cbm;
 
 import edu.neu.ccs.pyramid.dataset.MultiLabel;
 import edu.neu.ccs.pyramid.multilabel_classification.PluginPredictor;
-import edu.neu.ccs.pyramid.multilabel_classification.plugin_rule.GeneralF1Predictor;
+import edu.neu.ccs.pyramid.multilabel_classification.plugin_rule.SparseGeneralF1Predictor;
 import org.apache.mahout.math.Matrix;
 import org.apache.mahout.math.Vector;
 
@@ -40,7 +40,7 @@ public class CBMSF1Predictor implements PluginPredictor<CBMS> {
 
     private MultiLabel predictBySupport(Vector vector){
         double[] probs = cbm.predictAssignmentProbs(vector,support);
-        GeneralF1Predictor generalF1Predictor = new GeneralF1Predictor();
+        SparseGeneralF1Predictor generalF1Predictor = new SparseGeneralF1Predictor();
         return generalF1Predictor.predict(cbm.getNumClasses(),support,probs);
     }
 
@@ -51,9 +51,10 @@ public class ENCBMOptimizer  extends AbstractCBMOptimizer {
         int[] binaryLabels = DataSetUtil.toBinaryLabels(activeDataset.getMultiLabels(), label);
         double[][] targetsDistribution = DataSetUtil.labelsToDistributions(binaryLabels, 2);
 
+        int[] activeIndices = getActiveIndices(component);
         double[] overallWeights = new double[activeGammas.length];
         for (int i=0;i<overallWeights.length;i++){
-            overallWeights[i] = activeGammas[i]*instanceWeights[i];
+            overallWeights[i] = activeGammas[i]*instanceWeights[activeIndices[i]];
         }
 
         ElasticNetLogisticTrainer elasticNetLogisticTrainer = new ElasticNetLogisticTrainer.Builder((LogisticRegression)
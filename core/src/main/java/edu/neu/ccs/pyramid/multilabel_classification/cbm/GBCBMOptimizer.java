@@ -20,9 +20,13 @@ public class GBCBMOptimizer extends AbstractCBMOptimizer{
     private int numLeaves=2;
     private double shrinkage=1;
 
+    // format [#components][#labels], used with warm start
+    private LKBoostOptimizer[][] binaryOptimizers;
+
     public GBCBMOptimizer(CBM cbm, MultiLabelClfDataSet dataSet) {
         super(cbm, dataSet);
         this.parallelBinaryUpdates =false;
+        this.binaryOptimizers = new LKBoostOptimizer[cbm.getNumComponents()][cbm.getNumClasses()];
     }
 
     public void setNumLeaves(int numLeaves) {
@@ -42,18 +46,25 @@ public class GBCBMOptimizer extends AbstractCBMOptimizer{
             cbm.binaryClassifiers[component][label] = new LKBoost(2);
         }
 
-        int[] binaryLabels = DataSetUtil.toBinaryLabels(activeDataset.getMultiLabels(), label);
-        double[][] targetsDistributions = DataSetUtil.labelsToDistributions(binaryLabels, 2);
-
         LKBoost boost = (LKBoost)this.cbm.binaryClassifiers[component][label];
-        RegTreeConfig regTreeConfig = new RegTreeConfig()
-                .setMaxNumLeaves(numLeaves);
-        RegTreeFactory regTreeFactory = new RegTreeFactory(regTreeConfig);
-        regTreeFactory.setLeafOutputCalculator(new LKBOutputCalculator(2));
-        LKBoostOptimizer optimizer = new LKBoostOptimizer(boost,activeDataset, regTreeFactory,
-                activeGammas,targetsDistributions);
-        optimizer.setShrinkage(shrinkage);
-        optimizer.initialize();
+        LKBoostOptimizer optimizer = binaryOptimizers[component][label];
+        if (warmStart && optimizer!=null && optimizer.getDataSet()==activeDataset && optimizer.getBoosting()==boost){
+            // the scores of the existing trees on the active data are still valid; only the weights change
+            optimizer.setWeights(activeGammas);
+        } else {
+            int[] binaryLabels = DataSetUtil.toBinaryLabels(activeDataset.getMultiLabels(), label);
+            double[][] targetsDistributions = DataSetUtil.labelsToDistributions(binaryLabels, 2);
+
+            RegTreeConfig regTreeConfig = new RegTreeConfig()
+                    .setMaxNumLeaves(numLeaves);
+            RegTreeFactory regTreeFactory = new RegTreeFactory(regTreeConfig);
+            regTreeFactory.setLeafOutputCalculator(new LKBOutputCalculator(2));
+            optimizer = new LKBoostOptimizer(boost,activeDataset, regTreeFactory,
+                    activeGammas,targetsDistributions);
+            optimizer.setShrinkage(shrinkage);
+            optimizer.initialize();
+            binaryOptimizers[component][label] = warmStart ? optimizer : null;
+        }
         optimizer.iterate(binaryUpdatesPerIter);
 
         if (logger.isDebugEnabled()){
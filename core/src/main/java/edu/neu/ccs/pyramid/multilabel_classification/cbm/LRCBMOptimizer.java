@@ -11,6 +11,8 @@ import org.apache.commons.lang3.time.StopWatch;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.util.Arrays;
+
 /**
  * CBM optimizer for LR base learners
  * Created by chengli on 3/21/17.
@@ -24,8 +26,15 @@ public class LRCBMOptimizer extends AbstractCBMOptimizer {
 
     private double initialStepSize=1;
 
+    // with warm start, skip the refit if the gradient norm divided by the total active gamma is below this
+    private double gradientTolerance = 1E-4;
+
+    // format [#components][#labels], used with warm start
+    private RidgeLogisticOptimizer[][] binaryOptimizers;
+
     public LRCBMOptimizer(CBM cbm, MultiLabelClfDataSet dataSet) {
         super(cbm, dataSet);
+        this.binaryOptimizers = new RidgeLogisticOptimizer[cbm.getNumComponents()][cbm.getNumClasses()];
     }
 
 
@@ -41,6 +50,16 @@ public class LRCBMOptimizer extends AbstractCBMOptimizer {
         this.initialStepSize = initialStepSize;
     }
 
+    /**
+     * only used with warm start; 0 always refits
+     */
+    public void setGradientTolerance(double gradientTolerance) {
+        if (gradientTolerance<0){
+            throw new IllegalArgumentException("gradientTolerance should be non-negative");
+        }
+        this.gradientTolerance = gradientTolerance;
+    }
+
     @Override
     protected void updateBinaryClassifier(int component, int label, MultiLabelClfDataSet activeDataset, double[] activeGammas) {
         StopWatch stopWatch = new StopWatch();
@@ -50,12 +69,29 @@ public class LRCBMOptimizer extends AbstractCBMOptimizer {
             cbm.binaryClassifiers[component][label] = new LogisticRegression(2, activeDataset.getNumFeatures());
         }
 
-        RidgeLogisticOptimizer ridgeLogisticOptimizer;
-
-        int[] binaryLabels = DataSetUtil.toBinaryLabels(activeDataset.getMultiLabels(), label);
-        // no parallelism
-        ridgeLogisticOptimizer = new RidgeLogisticOptimizer((LogisticRegression)cbm.binaryClassifiers[component][label],
-                activeDataset, binaryLabels, activeGammas, priorVarianceBinary, false);
+        LogisticRegression logisticRegression = (LogisticRegression)cbm.binaryClassifiers[component][label];
+        RidgeLogisticOptimizer ridgeLogisticOptimizer = binaryOptimizers[component][label];
+        LogisticLoss logisticLoss = ridgeLogisticOptimizer==null ? null : (LogisticLoss) ridgeLogisticOptimizer.getFunction();
+        if (warmStart && logisticLoss!=null && logisticLoss.getDataSet()==activeDataset
+                && logisticLoss.getLogisticRegression()==logisticRegression){
+            // same data and model as in the last EM iteration: keep the probabilities and the L-BFGS history
+            logisticLoss.setInstanceWeights(activeGammas);
+            ridgeLogisticOptimizer.getOptimizer().getTerminator().reset();
+            double totalWeight = Arrays.stream(activeGammas).sum();
+            double gradientNorm = logisticLoss.getGradient().norm(2);
+            if (gradientNorm<=gradientTolerance*totalWeight){
+                if (logger.isDebugEnabled()){
+                    logger.debug("component "+component+" label "+label+" already converged, gradient norm = "+gradientNorm);
+                }
+                return;
+            }
+        } else {
+            int[] binaryLabels = DataSetUtil.toBinaryLabels(activeDataset.getMultiLabels(), label);
+            // no parallelism
+            ridgeLogisticOptimizer = new RidgeLogisticOptimizer(logisticRegression,
+                    activeDataset, binaryLabels, activeGammas, priorVarianceBinary, false);
+            binaryOptimizers[component][label] = warmStart ? ridgeLogisticOptimizer : null;
+        }
 
         ((LBFGS)ridgeLogisticOptimizer.getOptimizer()).getLineSearcher().setInitialStepLength(initialStepSize);
 
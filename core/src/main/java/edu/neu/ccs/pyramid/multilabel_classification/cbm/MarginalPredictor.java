@@ -26,8 +26,8 @@ public class MarginalPredictor implements PluginPredictor<CBM> {
 
     @Override
     public MultiLabel predict(Vector vector) {
-        BMDistribution bmDistribution = new BMDistribution(cbm, vector, piThreshold);
-        double[] probs = bmDistribution.marginals();
+        double[] probs = new double[cbm.getNumClasses()];
+        BMDistribution.scratch(cbm).fill(cbm, vector, piThreshold).marginals(probs);
         MultiLabel prediction = new MultiLabel();
         for (int l=0;l<cbm.getNumClasses();l++){
             if (probs[l]>=0.5){
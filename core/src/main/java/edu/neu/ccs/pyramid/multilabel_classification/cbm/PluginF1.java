@@ -6,6 +6,7 @@ import edu.neu.ccs.pyramid.dataset.DataSetUtil;
 import edu.neu.ccs.pyramid.dataset.MultiLabel;
 import edu.neu.ccs.pyramid.multilabel_classification.PluginPredictor;
 import edu.neu.ccs.pyramid.multilabel_classification.plugin_rule.GeneralF1Predictor;
+import edu.neu.ccs.pyramid.multilabel_classification.plugin_rule.SparseGeneralF1Predictor;
 import edu.neu.ccs.pyramid.util.Pair;
 import org.apache.mahout.math.Matrix;
 import org.apache.mahout.math.Vector;
@@ -82,7 +83,7 @@ public class PluginF1 implements PluginPredictor<CBM>{
 
     private MultiLabel predictBySampling(Vector vector){
         List<MultiLabel> samples = cbm.samples(vector, numSamples);
-        GeneralF1Predictor generalF1Predictor = new GeneralF1Predictor();
+        SparseGeneralF1Predictor generalF1Predictor = new SparseGeneralF1Predictor();
         generalF1Predictor.setMaxSize(maxSize);
         return generalF1Predictor.predict(cbm.getNumClasses(), samples);
 //      unique the sample set and apply GFM
@@ -95,14 +96,14 @@ public class PluginF1 implements PluginPredictor<CBM>{
     private MultiLabel predictBySamplingNonEmpty(Vector vector){
         List<MultiLabel> samples = cbm.samples(vector, numSamples);
         List<MultiLabel> nonZeros = samples.stream().filter(a->a.getNumMatchedLabels()>0).collect(Collectors.toList());
-        GeneralF1Predictor generalF1Predictor = new GeneralF1Predictor();
+        SparseGeneralF1Predictor generalF1Predictor = new SparseGeneralF1Predictor();
         generalF1Predictor.setMaxSize(maxSize);
         return generalF1Predictor.predict(cbm.getNumClasses(), nonZeros);
     }
 
     private MultiLabel predictBySupport(Vector vector){
         double[] probs = cbm.predictAssignmentProbs(vector,support, piThreshold);
-        GeneralF1Predictor generalF1Predictor = new GeneralF1Predictor();
+        SparseGeneralF1Predictor generalF1Predictor = new SparseGeneralF1Predictor();
         generalF1Predictor.setMaxSize(maxSize);
         return generalF1Predictor.predict(cbm.getNumClasses(),support,probs);
     }
@@ -154,7 +155,7 @@ public class PluginF1 implements PluginPredictor<CBM>{
     public GeneralF1Predictor.Analysis showPredictBySupport(Vector vector, MultiLabel truth){
 //        System.out.println("support procedure");
         double[] probArray = cbm.predictAssignmentProbs(vector,support);
-        GeneralF1Predictor generalF1Predictor = new GeneralF1Predictor();
+        SparseGeneralF1Predictor generalF1Predictor = new SparseGeneralF1Predictor();
         MultiLabel prediction =  generalF1Predictor.predict(cbm.getNumClasses(),support,probArray);
         GeneralF1Predictor.Analysis analysis = GeneralF1Predictor.showSupportPrediction(support,probArray, truth, prediction, cbm.getNumClasses());
         return analysis;
@@ -0,0 +1,270 @@
+package edu.neu.ccs.pyramid.multilabel_classification.cbm;
+
+import org.apache.mahout.math.Vector;
+
+import java.io.*;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+
+/**
+ * master side of a ShardWorker
+ * each calling thread gets its own connection, so a fit running on one thread keeps hitting the same worker cache
+ * requests return a pending reply: send to all shards first, then collect, and the shards work concurrently
+ * every pending reply must be read before the connection is used again, see all()
+ */
+public class ShardClient implements Closeable{
+    private final String host;
+    private final int port;
+    private final ThreadLocal<Connection> connections;
+    private final List<Connection> allConnections;
+
+    public ShardClient(String host, int port) {
+        this.host = host;
+        this.port = port;
+        this.allConnections = new CopyOnWriteArrayList<>();
+        this.connections = ThreadLocal.withInitial(() -> {
+            Connection connection = new Connection();
+            allConnections.add(connection);
+            return connection;
+        });
+    }
+
+    /**
+     * @param address host:port
+     */
+    public static ShardClient parse(String address){
+        int colon = address.lastIndexOf(':');
+        if (colon<=0){
+            throw new IllegalArgumentException("address should be host:port, found "+address);
+        }
+        return new ShardClient(address.substring(0, colon), Integer.parseInt(address.substring(colon+1)));
+    }
+
+    /**
+     * sends the request to every shard, then reads every reply even after a failure, so no connection is left
+     * with a stale reply that the next request would read as its own; the first failure is rethrown at the end
+     * @return replies in shard order
+     */
+    static <T> List<T> all(List<ShardClient> shards, Function<ShardClient, Pending<T>> request){
+        List<Pending<T>> pending = new ArrayList<>(shards.size());
+        RuntimeException failure = null;
+        for (ShardClient shard: shards){
+            try {
+                pending.add(request.apply(shard));
+            } catch (RuntimeException e){
+                // the connection is closed; the shards already asked are still read
+                failure = e;
+                break;
+            }
+        }
+        List<T> replies = new ArrayList<>(pending.size());
+        for (Pending<T> reply: pending){
+            try {
+                replies.add(reply.get());
+            } catch (RuntimeException e){
+                if (failure==null){
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        if (failure!=null){
+            throw failure;
+        }
+        return replies;
+    }
+
+    static class Info{
+        int numData;
+        int numFeatures;
+        int numClasses;
+        int[] positiveCounts;
+    }
+
+    /**
+     * sums over the data of a shard, see ShardWorker
+     */
+    static class Statistics{
+        // format [#components]
+        double[] totalGammas;
+        // format [#components]
+        double[] maxGammas;
+        // first data point of the shard with the largest gamma, format [#components]
+        int[] maxIndices;
+        // format [#components][#labels]
+        double[][] positiveGammas;
+    }
+
+    static class ValueAndGradient{
+        double value;
+        Vector gradient;
+    }
+
+    Pending<Info> info(){
+        return connections.get().send(ShardWorker.INFO, out -> {}, in -> {
+            Info info = new Info();
+            info.numData = in.readInt();
+            info.numFeatures = in.readInt();
+            info.numClasses = in.readInt();
+            info.positiveCounts = new int[info.numClasses];
+            for (int l=0;l<info.numClasses;l++){
+                info.positiveCounts[l] = in.readInt();
+            }
+            return info;
+        });
+    }
+
+    Pending<Void> setModel(byte[] serializedCBM){
+        return connections.get().send(ShardWorker.SET_MODEL, out -> {
+            out.writeInt(serializedCBM.length);
+            out.write(serializedCBM);
+        }, in -> null);
+    }
+
+    Pending<Statistics> initGammas(int numComponents, long seed){
+        return connections.get().send(ShardWorker.INIT_GAMMAS, out -> {
+            out.writeInt(numComponents);
+            out.writeLong(seed);
+        }, ShardClient::readStatistics);
+    }
+
+    Pending<Statistics> eStep(double posteriorTruncation){
+        return connections.get().send(ShardWorker.E_STEP, out -> out.writeDouble(posteriorTruncation),
+                ShardClient::readStatistics);
+    }
+
+    /**
+     * @param keptIndex data point of the shard kept whatever its gamma, -1 for none
+     */
+    Pending<ValueAndGradient> binaryLoss(int component, int label, double skipDataThreshold, int keptIndex, Vector parameters){
+        return connections.get().send(ShardWorker.BINARY_LOSS, out -> {
+            out.writeInt(component);
+            out.writeInt(label);
+            out.writeDouble(skipDataThreshold);
+            out.writeInt(keptIndex);
+            ShardWorker.writeVector(parameters, out);
+        }, ShardClient::readValueAndGradient);
+    }
+
+    Pending<ValueAndGradient> multiClassLoss(Vector parameters){
+        return connections.get().send(ShardWorker.MULTICLASS_LOSS, out -> ShardWorker.writeVector(parameters, out),
+                ShardClient::readValueAndGradient);
+    }
+
+    Pending<Double> logLikelihood(){
+        return connections.get().send(ShardWorker.LOG_LIKELIHOOD, out -> {}, DataInputStream::readDouble);
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (Connection connection: allConnections){
+            connection.close();
+        }
+        allConnections.clear();
+    }
+
+    private static Statistics readStatistics(DataInputStream in) throws IOException{
+        Statistics statistics = new Statistics();
+        int numComponents = in.readInt();
+        int numClasses = in.readInt();
+        statistics.totalGammas = new double[numComponents];
+        statistics.maxGammas = new double[numComponents];
+        statistics.maxIndices = new int[numComponents];
+        statistics.positiveGammas = new double[numComponents][numClasses];
+        for (int k=0;k<numComponents;k++){
+            statistics.totalGammas[k] = in.readDouble();
+            statistics.maxGammas[k] = in.readDouble();
+            statistics.maxIndices[k] = in.readInt();
+            for (int l=0;l<numClasses;l++){
+                statistics.positiveGammas[k][l] = in.readDouble();
+            }
+        }
+        return statistics;
+    }
+
+    private static ValueAndGradient readValueAndGradient(DataInputStream in) throws IOException{
+        ValueAndGradient valueAndGradient = new ValueAndGradient();
+        valueAndGradient.value = in.readDouble();
+        valueAndGradient.gradient = ShardWorker.readVector(in);
+        return valueAndGradient;
+    }
+
+    private interface Writer{
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private interface Reader<T>{
+        T read(DataInputStream in) throws IOException;
+    }
+
+    /**
+     * a request that has been sent; get() must be called, in sending order, by the thread that sent it,
+     * also when another shard failed
+     */
+    class Pending<T>{
+        private final Connection connection;
+        private final Reader<T> reader;
+
+        private Pending(Connection connection, Reader<T> reader) {
+            this.connection = connection;
+            this.reader = reader;
+        }
+
+        T get(){
+            return connection.receive(reader);
+        }
+    }
+
+    private class Connection implements Closeable{
+        private Socket socket;
+        private DataInputStream in;
+        private DataOutputStream out;
+
+        private <T> Pending<T> send(byte request, Writer writer, Reader<T> reader){
+            try {
+                if (socket==null){
+                    socket = new Socket(host, port);
+                    socket.setTcpNoDelay(true);
+                    in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                    out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                }
+                out.writeByte(request);
+                writer.write(out);
+                out.flush();
+                return new Pending<>(this, reader);
+            } catch (IOException e) {
+                close();
+                throw new UncheckedIOException("lost shard worker "+host+":"+port, e);
+            }
+        }
+
+        private <T> T receive(Reader<T> reader){
+            try {
+                if (in.readByte()!=ShardWorker.OK){
+                    // the error reply has been read in full, the connection stays usable
+                    throw new RuntimeException("shard worker "+host+":"+port+" failed: "+in.readUTF());
+                }
+                return reader.read(in);
+            } catch (IOException e) {
+                close();
+                throw new UncheckedIOException("lost shard worker "+host+":"+port, e);
+            }
+        }
+
+        @Override
+        public void close() {
+            if (socket!=null){
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    // already broken
+                }
+                socket = null;
+            }
+        }
+    }
+}
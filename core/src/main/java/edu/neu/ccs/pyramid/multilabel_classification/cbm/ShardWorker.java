@@ -0,0 +1,419 @@
+package edu.neu.ccs.pyramid.multilabel_classification.cbm;
+
+import edu.neu.ccs.pyramid.classification.logistic_regression.LogisticLoss;
+import edu.neu.ccs.pyramid.classification.logistic_regression.LogisticRegression;
+import edu.neu.ccs.pyramid.dataset.DataSetUtil;
+import edu.neu.ccs.pyramid.dataset.MultiLabel;
+import edu.neu.ccs.pyramid.dataset.MultiLabelClfDataSet;
+import edu.neu.ccs.pyramid.multilabel_classification.TruncatedPosterior;
+import edu.neu.ccs.pyramid.util.MathUtil;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.mahout.math.DenseVector;
+import org.apache.mahout.math.Vector;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ProtocolException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * holds one row shard of the training set and the memberships (gammas) of its data points,
+ * and answers the requests of ShardedCBMOptimizer over a socket, see ShardClient
+ * only the model, sufficient statistics and loss gradients travel; the data never leave the worker
+ * every connection is served by its own thread; a connection keeps the loss of the last (component, label)
+ * it was asked about, so the master should keep one fit on one connection
+ * a failed request gets an error reply; a malformed one, e.g. an unknown request, closes the connection
+ * requests are not authenticated: bind the worker only to an interface reachable by the master alone
+ * (e.g. localhost or a private network); the model is deserialized with a class allowlist, see ModelInputStream
+ */
+public class ShardWorker implements Closeable{
+    private static final Logger logger = LogManager.getLogger();
+
+    static final byte INFO = 1;
+    static final byte SET_MODEL = 2;
+    static final byte INIT_GAMMAS = 3;
+    static final byte E_STEP = 4;
+    static final byte BINARY_LOSS = 5;
+    static final byte MULTICLASS_LOSS = 6;
+    static final byte LOG_LIKELIHOOD = 7;
+
+    static final byte OK = 0;
+    static final byte ERROR = 1;
+
+    private final MultiLabelClfDataSet shard;
+    private final ServerSocket serverSocket;
+    private final ExecutorService connectionThreads;
+    private volatile CBM cbm;
+    // format [#data][#components]
+    private volatile double[][] gammas;
+    // incremented whenever gammas change; connection caches built for an older epoch are rebuilt
+    private volatile int epoch = 0;
+    private volatile boolean closed = false;
+
+    /**
+     * @param port 0 picks a free port, see getPort
+     */
+    public ShardWorker(MultiLabelClfDataSet shard, String host, int port) throws IOException {
+        this.shard = shard;
+        this.serverSocket = new ServerSocket(port, 50, InetAddress.getByName(host));
+        this.connectionThreads = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "shard-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * splits the data set into contiguous row shards and serves each one on localhost from this JVM
+     * the single-host mode, e.g. for testing; clients connect to localhost:getPort()
+     */
+    public static List<ShardWorker> startLocal(MultiLabelClfDataSet dataSet, int numShards) throws IOException{
+        if (numShards<=0 || numShards>dataSet.getNumDataPoints()){
+            throw new IllegalArgumentException("numShards should be in [1, number of data points]");
+        }
+        List<ShardWorker> workers = new ArrayList<>();
+        for (int s=0;s<numShards;s++){
+            int start = (int)((long)dataSet.getNumDataPoints()*s/numShards);
+            int end = (int)((long)dataSet.getNumDataPoints()*(s+1)/numShards);
+            List<Integer> rows = IntStream.range(start, end).boxed().collect(Collectors.toList());
+            ShardWorker worker = new ShardWorker(DataSetUtil.sampleData(dataSet, rows), "localhost", 0);
+            worker.start();
+            workers.add(worker);
+        }
+        return workers;
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * accepts connections in a background thread
+     */
+    public void start(){
+        connectionThreads.execute(this::acceptConnections);
+    }
+
+    private void acceptConnections(){
+        while (!closed){
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                connectionThreads.execute(() -> serve(socket));
+            } catch (IOException e) {
+                if (!closed){
+                    logger.error("failed to accept connection", e);
+                }
+            }
+        }
+    }
+
+    private void serve(Socket socket){
+        Connection connection = new Connection();
+        try (Socket s = socket;
+             DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()))){
+            while (true){
+                byte request;
+                try {
+                    request = in.readByte();
+                } catch (EOFException e){
+                    return;
+                }
+                try {
+                    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+                    connection.handle(request, in, new DataOutputStream(buffer));
+                    out.writeByte(OK);
+                    buffer.writeTo(out);
+                } catch (IOException e){
+                    // includes malformed requests, whose payload cannot be skipped; the connection is closed
+                    throw e;
+                } catch (Exception e){
+                    logger.error("request "+request+" failed", e);
+                    out.writeByte(ERROR);
+                    out.writeUTF(String.valueOf(e));
+                }
+                out.flush();
+            }
+        } catch (SocketException e){
+            // master went away
+        } catch (IOException e) {
+            if (!closed){
+                logger.error("connection failed", e);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        serverSocket.close();
+        connectionThreads.shutdownNow();
+    }
+
+    /**
+     * per connection state
+     */
+    private class Connection{
+        private int cachedComponent = -2;
+        private int cachedLabel = -1;
+        private double cachedThreshold;
+        private int cachedKeptIndex;
+        private int cachedEpoch = -1;
+        private LogisticLoss loss;
+
+        private void handle(byte request, DataInputStream in, DataOutputStream out) throws Exception{
+            switch (request){
+                case INFO:
+                    info(out);
+                    break;
+                case SET_MODEL:
+                    setModel(in);
+                    break;
+                case INIT_GAMMAS:
+                    initGammas(in.readInt(), in.readLong());
+                    writeStatistics(out);
+                    break;
+                case E_STEP:
+                    eStep(in.readDouble());
+                    writeStatistics(out);
+                    break;
+                case BINARY_LOSS:
+                    binaryLoss(in, out);
+                    break;
+                case MULTICLASS_LOSS:
+                    multiClassLoss(in, out);
+                    break;
+                case LOG_LIKELIHOOD:
+                    out.writeDouble(logLikelihood());
+                    break;
+                default:
+                    throw new ProtocolException("unknown request "+request);
+            }
+        }
+
+        private void info(DataOutputStream out) throws IOException{
+            out.writeInt(shard.getNumDataPoints());
+            out.writeInt(shard.getNumFeatures());
+            out.writeInt(shard.getNumClasses());
+            int[] positiveCounts = new int[shard.getNumClasses()];
+            for (MultiLabel multiLabel: shard.getMultiLabels()){
+                for (int l: multiLabel.getMatchedLabels()){
+                    positiveCounts[l] += 1;
+                }
+            }
+            for (int count: positiveCounts){
+                out.writeInt(count);
+            }
+        }
+
+        private void setModel(DataInputStream in) throws IOException, ClassNotFoundException{
+            int length = in.readInt();
+            if (length<0){
+                throw new ProtocolException("negative model size "+length);
+            }
+            byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            // the request has been read in full; a bad model is an error reply, not a broken connection
+            try (ObjectInputStream objectInputStream = new ModelInputStream(new ByteArrayInputStream(bytes))){
+                cbm = (CBM) objectInputStream.readObject();
+            } catch (IOException e){
+                throw new IllegalArgumentException("invalid model", e);
+            }
+        }
+
+        private void binaryLoss(DataInputStream in, DataOutputStream out) throws IOException{
+            int component = in.readInt();
+            int label = in.readInt();
+            double skipDataThreshold = in.readDouble();
+            int keptIndex = in.readInt();
+            Vector parameters = readVector(in);
+            if (loss==null || cachedEpoch!=epoch || cachedComponent!=component || cachedLabel!=label
+                    || cachedThreshold!=skipDataThreshold || cachedKeptIndex!=keptIndex){
+                double[][] gammas = ShardWorker.this.gammas;
+                double[] weights = new double[shard.getNumDataPoints()];
+                for (int i=0;i<weights.length;i++){
+                    double gamma = gammas[i][component];
+                    weights[i] = gamma>=skipDataThreshold || i==keptIndex ? gamma : 0;
+                }
+                int[] binaryLabels = DataSetUtil.toBinaryLabels(shard.getMultiLabels(), label);
+                // no penalty on the worker; the master adds it once
+                loss = new LogisticLoss(new LogisticRegression(2, shard.getNumFeatures()), shard, weights,
+                        DataSetUtil.labelsToDistributions(binaryLabels, 2), Double.POSITIVE_INFINITY, false);
+                cachedEpoch = epoch;
+                cachedComponent = component;
+                cachedLabel = label;
+                cachedThreshold = skipDataThreshold;
+                cachedKeptIndex = keptIndex;
+            }
+            writeValueAndGradient(loss, parameters, out);
+        }
+
+        private void multiClassLoss(DataInputStream in, DataOutputStream out) throws IOException{
+            Vector parameters = readVector(in);
+            if (loss==null || cachedEpoch!=epoch || cachedComponent!=-1){
+                double[][] gammas = ShardWorker.this.gammas;
+                loss = new LogisticLoss(new LogisticRegression(gammas[0].length, shard.getNumFeatures()), shard,
+                        gammas, Double.POSITIVE_INFINITY, true);
+                cachedEpoch = epoch;
+                cachedComponent = -1;
+            }
+            writeValueAndGradient(loss, parameters, out);
+        }
+    }
+
+    private void initGammas(int numComponents, long seed){
+        Random random = new Random(seed);
+        double[][] newGammas = new double[shard.getNumDataPoints()][numComponents];
+        for (int i=0;i<newGammas.length;i++){
+            for (int k=0;k<numComponents;k++){
+                newGammas[i][k] = random.nextDouble();
+            }
+            double sum = MathUtil.arraySum(newGammas[i]);
+            for (int k=0;k<numComponents;k++){
+                newGammas[i][k] /= sum;
+            }
+        }
+        gammas = newGammas;
+        epoch += 1;
+    }
+
+    private void eStep(double posteriorTruncation){
+        CBM cbm = this.cbm;
+        double[][] newGammas = new double[shard.getNumDataPoints()][cbm.getNumComponents()];
+        IntStream.range(0, shard.getNumDataPoints()).parallel().forEach(i -> {
+            double[] posterior = cbm.posteriorMembershipShortCircuit(shard.getRow(i), shard.getMultiLabels()[i]);
+            System.arraycopy(posterior, 0, newGammas[i], 0, posterior.length);
+        });
+        if (posteriorTruncation>0){
+            IntStream.range(0, shard.getNumDataPoints()).parallel().forEach(i -> {
+                TruncatedPosterior truncatedPosterior = new TruncatedPosterior(newGammas[i].length);
+                truncatedPosterior.truncate(newGammas[i], posteriorTruncation);
+                truncatedPosterior.toDense(newGammas[i]);
+            });
+        }
+        gammas = newGammas;
+        epoch += 1;
+    }
+
+    /**
+     * per component: total gamma, the largest gamma and its first data point;
+     * per (component, label): total gamma of the positives
+     */
+    private void writeStatistics(DataOutputStream out) throws IOException{
+        double[][] gammas = this.gammas;
+        int numComponents = gammas.length==0 ? 0 : gammas[0].length;
+        double[] totalGammas = new double[numComponents];
+        double[] maxGammas = new double[numComponents];
+        Arrays.fill(maxGammas, Double.NEGATIVE_INFINITY);
+        int[] maxIndices = new int[numComponents];
+        double[][] positiveGammas = new double[numComponents][shard.getNumClasses()];
+        for (int i=0;i<shard.getNumDataPoints();i++){
+            for (int k=0;k<numComponents;k++){
+                totalGammas[k] += gammas[i][k];
+                if (gammas[i][k]>maxGammas[k]){
+                    maxGammas[k] = gammas[i][k];
+                    maxIndices[k] = i;
+                }
+                for (int l: shard.getMultiLabels()[i].getMatchedLabels()){
+                    positiveGammas[k][l] += gammas[i][k];
+                }
+            }
+        }
+        out.writeInt(numComponents);
+        out.writeInt(shard.getNumClasses());
+        for (int k=0;k<numComponents;k++){
+            out.writeDouble(totalGammas[k]);
+            out.writeDouble(maxGammas[k]);
+            out.writeInt(maxIndices[k]);
+            for (int l=0;l<shard.getNumClasses();l++){
+                out.writeDouble(positiveGammas[k][l]);
+            }
+        }
+    }
+
+    private double logLikelihood(){
+        CBM cbm = this.cbm;
+        return IntStream.range(0, shard.getNumDataPoints()).parallel()
+                .mapToDouble(i -> cbm.predictLogAssignmentProb(shard.getRow(i), shard.getMultiLabels()[i])).sum();
+    }
+
+    private static void writeValueAndGradient(LogisticLoss loss, Vector parameters, DataOutputStream out) throws IOException{
+        loss.setParameters(parameters);
+        out.writeDouble(loss.getValue());
+        writeVector(loss.getGradient(), out);
+    }
+
+    static Vector readVector(DataInputStream in) throws IOException{
+        int size = in.readInt();
+        if (size<0){
+            throw new ProtocolException("negative vector size "+size);
+        }
+        Vector vector = new DenseVector(size);
+        for (int j=0;j<size;j++){
+            vector.set(j, in.readDouble());
+        }
+        return vector;
+    }
+
+    static void writeVector(Vector vector, DataOutputStream out) throws IOException{
+        out.writeInt(vector.size());
+        for (int j=0;j<vector.size();j++){
+            out.writeDouble(vector.get(j));
+        }
+    }
+
+    /**
+     * resolves only the classes a CBM with its classifiers, features and label translator is made of,
+     * so a request cannot instantiate arbitrary serializable classes of the classpath
+     */
+    private static class ModelInputStream extends ObjectInputStream{
+        private static final Set<String> ALLOWED = new HashSet<>(Arrays.asList(
+                "java.lang.String", "java.lang.Number", "java.lang.Integer", "java.lang.Long", "java.lang.Double",
+                "java.lang.Float", "java.lang.Boolean", "java.lang.Enum",
+                "java.util.ArrayList", "java.util.LinkedList", "java.util.HashMap", "java.util.LinkedHashMap",
+                "java.util.HashSet", "java.util.LinkedHashSet", "java.util.TreeMap", "java.util.TreeSet",
+                "java.util.Arrays$ArrayList", "java.util.BitSet"));
+
+        private ModelInputStream(InputStream in) throws IOException {
+            super(in);
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+            String name = desc.getName();
+            int dimensions = 0;
+            while (dimensions<name.length() && name.charAt(dimensions)=='['){
+                dimensions += 1;
+            }
+            String element = name.substring(dimensions);
+            if (dimensions>0){
+                // primitive arrays are "[D" etc, object arrays "[Lpackage.Class;"
+                element = element.startsWith("L") ? element.substring(1, element.length()-1) : "";
+            }
+            if (!element.isEmpty() && !ALLOWED.contains(element) && !element.startsWith("edu.neu.ccs.pyramid.")
+                    && !element.startsWith("org.apache.mahout.math.")){
+                throw new InvalidClassException(name, "not allowed in a model");
+            }
+            return super.resolveClass(desc);
+        }
+
+        @Override
+        protected Class<?> resolveProxyClass(String[] interfaces) throws IOException, ClassNotFoundException {
+            throw new InvalidClassException("proxy classes are not allowed in a model");
+        }
+    }
+}
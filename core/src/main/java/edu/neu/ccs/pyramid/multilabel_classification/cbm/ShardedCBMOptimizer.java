@@ -0,0 +1,260 @@
+package edu.neu.ccs.pyramid.multilabel_classification.cbm;
+
+import edu.neu.ccs.pyramid.classification.PriorProbClassifier;
+import edu.neu.ccs.pyramid.classification.logistic_regression.LogisticRegression;
+import edu.neu.ccs.pyramid.optimization.LBFGS;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * EM training of a CBM with LR base learners when the training set is split into row shards held by ShardWorkers,
+ * in other JVMs on this or other hosts; the master never sees the data
+ * E step: the model is sent to the workers, which update the gammas of their data and return
+ * per component / per (component, label) gamma sums
+ * M step: every LR is fitted by L-BFGS on the master; each loss evaluation collects the value and gradient
+ * of every shard and adds the penalty, see ShardedLogisticLoss
+ * with 1 component this is binary relevance training: gammas are all 1 and there is no E step
+ * same objective as LRCBMOptimizer: data with gamma below skipDataThreshold are dropped, except the data point
+ * with the largest gamma of the component (the first one in shard order)
+ */
+public class ShardedCBMOptimizer {
+    private static final Logger logger = LogManager.getLogger();
+    private CBM cbm;
+    private List<ShardClient> shards;
+    private int numData;
+    // number of positives for all labels
+    private int[] positiveCounts;
+
+    // sums over all shards, refreshed in every E step
+    // format [#components]
+    private double[] totalGammas;
+    // format [#components][#labels]
+    private double[][] positiveGammas;
+    // shard and shard row of the data point with the largest gamma, format [#components]
+    private ShardClient[] maxShards;
+    private int[] maxIndices;
+
+    private double priorVarianceMultiClass =1;
+    private double priorVarianceBinary =1;
+    private double initialStepSize=1;
+    private int multiclassUpdatesPerIter = 10;
+    private int binaryUpdatesPerIter = 10;
+    private double skipLabelThreshold = 1E-5;
+    private double skipDataThreshold = 1E-5;
+    private double smoothingStrength =0.0001;
+    private double posteriorTruncation = 0;
+
+    public ShardedCBMOptimizer(CBM cbm, List<ShardClient> shards) {
+        if (!cbm.getBinaryClassifierType().equals("lr") || !cbm.getMultiClassClassifierType().equals("lr")){
+            throw new IllegalArgumentException("only lr base learners are supported");
+        }
+        if (shards.isEmpty()){
+            throw new IllegalArgumentException("no shards");
+        }
+        this.cbm = cbm;
+        this.shards = shards;
+        this.positiveCounts = new int[cbm.getNumClasses()];
+        for (ShardClient.Info info: ShardClient.all(shards, ShardClient::info)){
+            if (info.numFeatures!=cbm.getNumFeatures() || info.numClasses!=cbm.getNumClasses()){
+                throw new IllegalArgumentException("shard has "+info.numFeatures+" features and "+info.numClasses
+                        +" labels; the model has "+cbm.getNumFeatures()+" features and "+cbm.getNumClasses()+" labels");
+            }
+            numData += info.numData;
+            for (int l=0;l<info.numClasses;l++){
+                positiveCounts[l] += info.positiveCounts[l];
+            }
+        }
+    }
+
+    /**
+     * number of data points over all shards
+     */
+    public int getNumData() {
+        return numData;
+    }
+
+    public void setPriorVarianceMultiClass(double priorVarianceMultiClass) {
+        this.priorVarianceMultiClass = priorVarianceMultiClass;
+    }
+
+    public void setPriorVarianceBinary(double priorVarianceBinary) {
+        this.priorVarianceBinary = priorVarianceBinary;
+    }
+
+    public void setInitialStepSize(double initialStepSize) {
+        this.initialStepSize = initialStepSize;
+    }
+
+    public void setMulticlassUpdatesPerIter(int multiclassUpdatesPerIter) {
+        this.multiclassUpdatesPerIter = multiclassUpdatesPerIter;
+    }
+
+    public void setBinaryUpdatesPerIter(int binaryUpdatesPerIter) {
+        this.binaryUpdatesPerIter = binaryUpdatesPerIter;
+    }
+
+    public void setSkipLabelThreshold(double skipLabelThreshold) {
+        this.skipLabelThreshold = skipLabelThreshold;
+    }
+
+    public void setSkipDataThreshold(double skipDataThreshold) {
+        this.skipDataThreshold = skipDataThreshold;
+    }
+
+    public void setSmoothingStrength(double smoothingStrength) {
+        this.smoothingStrength = smoothingStrength;
+    }
+
+    /**
+     * see AbstractCBMOptimizer.setPosteriorTruncation
+     */
+    public void setPosteriorTruncation(double posteriorTruncation) {
+        if (posteriorTruncation<0 || posteriorTruncation>=1){
+            throw new IllegalArgumentException("posteriorTruncation should be in [0,1)");
+        }
+        this.posteriorTruncation = posteriorTruncation;
+    }
+
+    /**
+     * random gammas on the workers, then an M step
+     * @param seed shard s uses seed+s
+     */
+    public void initialize(long seed){
+        collectStatistics(ShardClient.all(shards,
+                shard -> shard.initGammas(cbm.getNumComponents(), seed+shards.indexOf(shard))));
+        mStep();
+    }
+
+    public void iterate(){
+        if (cbm.getNumComponents()>1){
+            eStep();
+        }
+        mStep();
+    }
+
+    /**
+     * negative log likelihood of the training set, summed over the shards
+     */
+    public double getNegativeLogLikelihood(){
+        broadcastModel();
+        double sum = 0;
+        for (double logLikelihood: ShardClient.all(shards, ShardClient::logLikelihood)){
+            sum += logLikelihood;
+        }
+        return -sum;
+    }
+
+    private void eStep(){
+        if (logger.isDebugEnabled()){
+            logger.debug("start E step");
+        }
+        broadcastModel();
+        collectStatistics(ShardClient.all(shards, shard -> shard.eStep(posteriorTruncation)));
+        if (logger.isDebugEnabled()){
+            logger.debug("finish E step");
+        }
+    }
+
+    private void mStep(){
+        if (logger.isDebugEnabled()){
+            logger.debug("start M step");
+        }
+        int numLabels = cbm.getNumClasses();
+        // one task pool over all binary fits; every fit stays on one thread and so on one connection per shard
+        IntStream.range(0, cbm.getNumComponents()*numLabels).parallel()
+                .forEach(task -> skipOrUpdateBinaryClassifier(task/numLabels, task%numLabels));
+        if (cbm.getNumComponents()>1){
+            updateMultiClassClassifier();
+        }
+        if (logger.isDebugEnabled()){
+            logger.debug("finish M step");
+        }
+    }
+
+    /**
+     * @param replies in shard order
+     */
+    private void collectStatistics(List<ShardClient.Statistics> replies){
+        totalGammas = new double[cbm.getNumComponents()];
+        positiveGammas = new double[cbm.getNumComponents()][cbm.getNumClasses()];
+        maxShards = new ShardClient[cbm.getNumComponents()];
+        maxIndices = new int[cbm.getNumComponents()];
+        double[] maxGammas = new double[cbm.getNumComponents()];
+        Arrays.fill(maxGammas, Double.NEGATIVE_INFINITY);
+        for (int s=0;s<replies.size();s++){
+            ShardClient.Statistics statistics = replies.get(s);
+            for (int k=0;k<totalGammas.length;k++){
+                totalGammas[k] += statistics.totalGammas[k];
+                if (statistics.maxGammas[k]>maxGammas[k]){
+                    maxGammas[k] = statistics.maxGammas[k];
+                    maxShards[k] = shards.get(s);
+                    maxIndices[k] = statistics.maxIndices[k];
+                }
+                for (int l=0;l<cbm.getNumClasses();l++){
+                    positiveGammas[k][l] += statistics.positiveGammas[k][l];
+                }
+            }
+        }
+    }
+
+    private void broadcastModel(){
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream objectOutputStream = new ObjectOutputStream(bytes)){
+            objectOutputStream.writeObject(cbm);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        byte[] serialized = bytes.toByteArray();
+        ShardClient.all(shards, shard -> shard.setModel(serialized));
+    }
+
+    // same rules as AbstractCBMOptimizer.skipOrUpdateBinaryClassifier
+    private void skipOrUpdateBinaryClassifier(int component, int label){
+        double effectivePositives = positiveGammas[component][label];
+        double totalWeight = totalGammas[component];
+        double nonSmoothedPositiveProb = effectivePositives/totalWeight;
+        double smoothedPositiveProb = (effectivePositives+smoothingStrength*positiveCounts[label])/(totalWeight+smoothingStrength*numData);
+        if (smoothedPositiveProb>=1){
+            smoothedPositiveProb=1;
+        }
+        if (smoothedPositiveProb<1E-30){
+            smoothedPositiveProb = 1E-30;
+        }
+        if (nonSmoothedPositiveProb<skipLabelThreshold || nonSmoothedPositiveProb>1-skipLabelThreshold){
+            double[] probs = {1-smoothedPositiveProb, smoothedPositiveProb};
+            cbm.binaryClassifiers[component][label] = new PriorProbClassifier(probs);
+            return;
+        }
+        if (cbm.binaryClassifiers[component][label] == null || cbm.binaryClassifiers[component][label] instanceof PriorProbClassifier){
+            cbm.binaryClassifiers[component][label] = new LogisticRegression(2, cbm.getNumFeatures());
+        }
+        ShardedLogisticLoss loss = new ShardedLogisticLoss((LogisticRegression) cbm.binaryClassifiers[component][label],
+                shards, (shard, parameters) -> shard.binaryLoss(component, label, skipDataThreshold,
+                        shard==maxShards[component] ? maxIndices[component] : -1, parameters),
+                priorVarianceBinary);
+        optimize(loss, binaryUpdatesPerIter);
+    }
+
+    private void updateMultiClassClassifier(){
+        ShardedLogisticLoss loss = new ShardedLogisticLoss((LogisticRegression) cbm.multiClassClassifier,
+                shards, ShardClient::multiClassLoss, priorVarianceMultiClass);
+        optimize(loss, multiclassUpdatesPerIter);
+    }
+
+    // same settings as RidgeLogisticOptimizer
+    private void optimize(ShardedLogisticLoss loss, int maxIterations){
+        LBFGS lbfgs = new LBFGS(loss);
+        lbfgs.getLineSearcher().setInitialStepLength(initialStepSize);
+        lbfgs.getTerminator().setAbsoluteEpsilon(0.1);
+        lbfgs.getTerminator().setMaxIteration(maxIterations);
+        lbfgs.optimize();
+    }
+}
@@ -0,0 +1,86 @@
+package edu.neu.ccs.pyramid.multilabel_classification.cbm;
+
+import edu.neu.ccs.pyramid.classification.logistic_regression.LogisticRegression;
+import edu.neu.ccs.pyramid.classification.logistic_regression.Weights;
+import edu.neu.ccs.pyramid.optimization.Optimizable;
+import org.apache.mahout.math.DenseVector;
+import org.apache.mahout.math.Vector;
+
+import java.util.List;
+import java.util.function.BiFunction;
+
+/**
+ * logistic loss whose data term is summed over row shards; same objective as LogisticLoss with a gaussian prior
+ * each shard returns the value and gradient of its weighted KL term in one reply; the penalty is added here
+ */
+class ShardedLogisticLoss implements Optimizable.ByGradientValue {
+    private final LogisticRegression logisticRegression;
+    private final List<ShardClient> shards;
+    private final BiFunction<ShardClient, Vector, ShardClient.Pending<ShardClient.ValueAndGradient>> request;
+    private final double priorGaussianVariance;
+    private double value;
+    private Vector gradient;
+    private boolean isCacheValid = false;
+
+    ShardedLogisticLoss(LogisticRegression logisticRegression, List<ShardClient> shards,
+                        BiFunction<ShardClient, Vector, ShardClient.Pending<ShardClient.ValueAndGradient>> request,
+                        double priorGaussianVariance) {
+        this.logisticRegression = logisticRegression;
+        this.shards = shards;
+        this.request = request;
+        this.priorGaussianVariance = priorGaussianVariance;
+    }
+
+    @Override
+    public Vector getParameters() {
+        return logisticRegression.getWeights().getAllWeights();
+    }
+
+    @Override
+    public void setParameters(Vector parameters) {
+        logisticRegression.getWeights().setWeightVector(parameters);
+        this.isCacheValid = false;
+    }
+
+    @Override
+    public double getValue() {
+        update();
+        return value;
+    }
+
+    @Override
+    public Vector getGradient() {
+        update();
+        return gradient;
+    }
+
+    private void update(){
+        if (isCacheValid){
+            return;
+        }
+        Vector parameters = getParameters();
+        List<ShardClient.ValueAndGradient> replies = ShardClient.all(shards, shard -> request.apply(shard, parameters));
+        double sum = 0;
+        Vector sumGradient = new DenseVector(parameters.size());
+        for (ShardClient.ValueAndGradient valueAndGradient: replies){
+            sum += valueAndGradient.value;
+            for (int j=0;j<sumGradient.size();j++){
+                sumGradient.setQuick(j, sumGradient.getQuick(j)+valueAndGradient.gradient.getQuick(j));
+            }
+        }
+
+        Weights weights = logisticRegression.getWeights();
+        double square = 0;
+        for (int k=0;k<logisticRegression.getNumClasses();k++){
+            Vector weightVector = weights.getWeightsWithoutBiasForClass(k);
+            square += weightVector.dot(weightVector);
+        }
+        Vector penaltyGradient = parameters.divide(priorGaussianVariance);
+        for (int j: weights.getAllBiasPositions()){
+            penaltyGradient.set(j, 0);
+        }
+        this.value = sum + square/(2*priorGaussianVariance);
+        this.gradient = sumGradient.plus(penaltyGradient);
+        this.isCacheValid = true;
+    }
+}
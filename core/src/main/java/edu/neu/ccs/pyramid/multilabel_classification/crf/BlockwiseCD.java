@@ -75,8 +75,6 @@ public class BlockwiseCD {
     private Terminator terminator;
     // features for dataset
     private int numFeatures;
-    // labels to parameterIndex
-    private int[][] labelPairToParams;
     private double weight;
 
     public BlockwiseCD (CMLCRF cmlcrf, MultiLabelClfDataSet dataSet) {
@@ -230,10 +228,22 @@ public class BlockwiseCD {
         updateCombProbSums();
         updateClassProbMatrix();
         //update the gradients and hessians for class l;
+        // the same as calGradientForFeature and calHessiansForFeature, for all features of class l in one pass
+        double[][] probs = new double[numData][1];
+        double[][] curvatures = new double[numData][1];
+        for (int i=0; i<numData; i++) {
+            double prob = this.classProbMatrix[i][l];
+            probs[i][0] = prob;
+            curvatures[i][0] = prob*prob - prob;
+        }
+        double[] predictedCounts = new double[numFeatures+1];
+        double[] hessians = new double[numFeatures+1];
+        ClassFeatureSums.sum(dataSet, probs, 1, false, predictedCounts);
+        ClassFeatureSums.sum(dataSet, curvatures, 1, true, hessians);
         for (int m=-1; m<numFeatures; m++){
             int parameterIndex = l*(numFeatures+1) + m + 1;
-            double gradientForFeature = calGradientForFeature(l, m, parameterIndex);
-            double hessianForFeature = calHessiansForFeature(l, m);
+            double gradientForFeature = this.empiricalCounts[parameterIndex] - predictedCounts[m+1];
+            double hessianForFeature = hessians[m+1];
             double fit = hessianForFeature * cmlcrf.getWeights().getWeightForIndex(parameterIndex) - gradientForFeature;
             double numerator = softThreshold(fit);
             double denominator = hessianForFeature + regularization * (1-l1Ratio);
@@ -243,10 +253,11 @@ public class BlockwiseCD {
             }
             cmlcrf.getWeights().getAllWeights().set(parameterIndex, newCoeff);
         }
-        int numLabelPair = numClasses - l - 1;
-        if (numLabelPair > 0) {
-            for (int l2 = l+1; l2 < numClasses; l2++) {
-                for (int pos=labelPairToParams[l][l2]; pos<labelPairToParams[l][l2]+4; pos++) {
+        Weights weights = cmlcrf.getWeights();
+        for (int pair: weights.getPairsForLabel(l)) {
+            // pairs (l, l2) with l2 > l
+            if (weights.getFirstLabelOfPair(pair) == l) {
+                for (int pos=4*pair; pos<4*pair+4; pos++) {
                     double gradientForLabelPair = calGradientForLabelPair(pos);
                     double hessiansForLabelPair = calHessiansForLabelPair(pos);
                     int parameterIndex = pos + numWeightsForFeatures;
@@ -349,21 +360,16 @@ public class BlockwiseCD {
 
 
     private void updateEmpiricalCounts(){
+        double[] featureCounts = new double[numWeightsForFeatures];
+        ClassFeatureSums.sum(dataSet, ClassFeatureSums.labelIndicators(dataSet), numClasses, false, featureCounts);
+        System.arraycopy(featureCounts, 0, empiricalCounts, 0, numWeightsForFeatures);
         IntStream intStream;
         if (isParallel){
-            intStream = IntStream.range(0, numParameters).parallel();
+            intStream = IntStream.range(numWeightsForFeatures, numParameters).parallel();
         } else {
-            intStream = IntStream.range(0, numParameters);
-        }
-        intStream.forEach(this::calEmpiricalCount);
-    }
-
-    private void calEmpiricalCount(int parameterIndex) {
-        if (parameterIndex < numWeightsForFeatures) {
-            this.empiricalCounts[parameterIndex] = calEmpiricalCountForFeature(parameterIndex);
-        } else if(parameterIndex <numWeightsForFeatures+ numWeightsForLabelPairs) {
-            this.empiricalCounts[parameterIndex] = calEmpiricalCountForLabelPair(parameterIndex);
+            intStream = IntStream.range(numWeightsForFeatures, numParameters);
         }
+        intStream.forEach(i -> this.empiricalCounts[i] = calEmpiricalCountForLabelPair(i));
     }
 
 
@@ -396,48 +402,22 @@ public class BlockwiseCD {
     }
 
 
-    private double calEmpiricalCountForFeature(int parameterIndex) {
-        double empiricalCount = 0.0;
-        int classIndex = parameterToClass[parameterIndex];
-        int featureIndex = parameterToFeature[parameterIndex];
-        if (featureIndex==-1){
-            for (int i=0; i<dataSet.getNumDataPoints(); i++) {
-                if (dataSet.getMultiLabels()[i].matchClass(classIndex)) {
-                    empiricalCount += 1;
-                }
-            }
-        } else{
-            Vector column = dataSet.getColumn(featureIndex);
-            MultiLabel[] multiLabels = dataSet.getMultiLabels();
-            for (Vector.Element element: column.nonZeroes()){
-                int dataIndex = element.index();
-                double featureValue = element.get();
-                if (multiLabels[dataIndex].matchClass(classIndex)){
-                    empiricalCount += featureValue;
-                }
-            }
-        }
-        return empiricalCount;
-    }
-
     private void initCache() {
         parameterToL1 = new int[numWeightsForLabelPairs];
         parameterToL2 = new int[numWeightsForLabelPairs];
-        labelPairToParams = new int[numClasses][numClasses];
-        int start = 0;
-        for (int l1=0; l1<numClasses; l1++) {
-            for (int l2=l1+1; l2<numClasses; l2++) {
-                parameterToL1[start] = l1;
-                parameterToL1[start+1] = l1;
-                parameterToL1[start+2] = l1;
-                parameterToL1[start+3] = l1;
-                parameterToL2[start] = l2;
-                parameterToL2[start+1] = l2;
-                parameterToL2[start+2] = l2;
-                parameterToL2[start+3] = l2;
-                labelPairToParams[l1][l2] = start;
-                start += 4;
-            }
+        Weights pairWeights = cmlcrf.getWeights();
+        for (int pair=0; pair<pairWeights.getNumLabelPairs(); pair++) {
+            int start = 4*pair;
+            int l1 = pairWeights.getFirstLabelOfPair(pair);
+            int l2 = pairWeights.getSecondLabelOfPair(pair);
+            parameterToL1[start] = l1;
+            parameterToL1[start+1] = l1;
+            parameterToL1[start+2] = l1;
+            parameterToL1[start+3] = l1;
+            parameterToL2[start] = l2;
+            parameterToL2[start+1] = l2;
+            parameterToL2[start+2] = l2;
+            parameterToL2[start+3] = l2;
         }
         parameterToClass = new int[numWeightsForFeatures];
         parameterToFeature = new int[numWeightsForFeatures];
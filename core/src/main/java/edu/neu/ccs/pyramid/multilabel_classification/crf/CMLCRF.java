@@ -7,10 +7,15 @@ import edu.neu.ccs.pyramid.feature.FeatureList;
 import edu.neu.ccs.pyramid.multilabel_classification.Enumerator;
 import edu.neu.ccs.pyramid.multilabel_classification.MultiLabelClassifier;
 import edu.neu.ccs.pyramid.util.ArgMax;
+import edu.neu.ccs.pyramid.util.BinaryModelInput;
+import edu.neu.ccs.pyramid.util.BinaryModelOutput;
+import edu.neu.ccs.pyramid.util.BinaryModels;
 import edu.neu.ccs.pyramid.util.MathUtil;
+import edu.neu.ccs.pyramid.util.Pair;
 import org.apache.mahout.math.Vector;
 
 import java.io.*;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
@@ -29,6 +34,10 @@ import static edu.neu.ccs.pyramid.dataset.DataSetUtil.gatherMultiLabels;
  */
 public class CMLCRF implements MultiLabelClassifier, MultiLabelClassifier.AssignmentProbEstimator, Serializable {
     private static final long serialVersionUID = 3L;
+    /**
+     * version 2 stores the label pairs
+     */
+    private static final int BINARY_VERSION = 2;
     /**
      * Y_1, Y_2,...,Y_L
      */
@@ -58,9 +67,16 @@ public class CMLCRF implements MultiLabelClassifier, MultiLabelClassifier.Assign
 
 
     public CMLCRF(MultiLabelClfDataSet dataSet) {
+        this(dataSet, LabelPairs.all(dataSet.getNumClasses()));
+    }
+
+    /**
+     * only the given label pairs get pair-wise weights; see LabelPairs
+     */
+    public CMLCRF(MultiLabelClfDataSet dataSet, List<Pair<Integer,Integer>> labelPairs) {
         this.numClasses = dataSet.getNumClasses();
         this.numFeatures = dataSet.getNumFeatures();
-        this.weights = new Weights(numClasses, numFeatures);
+        this.weights = new Weights(numClasses, numFeatures, labelPairs);
 
         //todo
         this.supportCombinations = gatherMultiLabels(dataSet);
@@ -80,9 +96,13 @@ public class CMLCRF implements MultiLabelClassifier, MultiLabelClassifier.Assign
 
 
     public CMLCRF(int numClasses, int numFeatures, List<MultiLabel> supportCombinations) {
+        this(numClasses, numFeatures, supportCombinations, LabelPairs.all(numClasses));
+    }
+
+    public CMLCRF(int numClasses, int numFeatures, List<MultiLabel> supportCombinations, List<Pair<Integer,Integer>> labelPairs) {
         this.numClasses = numClasses;
         this.numFeatures = numFeatures;
-        this.weights = new Weights(numClasses, numFeatures);
+        this.weights = new Weights(numClasses, numFeatures, labelPairs);
 
         //todo
         this.supportCombinations = supportCombinations;
@@ -202,34 +222,46 @@ public class CMLCRF implements MultiLabelClassifier, MultiLabelClassifier.Assign
      * @return
      */
     double computeLabelPartScore(int labelComIndex){
+        return computeLabelPartScore(labelComIndex, computeAllNegativeScore());
+    }
+
+    /**
+     * starts from the score of the empty combination and only visits the pairs containing a matched label
+     * @param allNegativeScore sum of the (0,0) weights of all pairs
+     */
+    private double computeLabelPartScore(int labelComIndex, double allNegativeScore){
         MultiLabel label = supportCombinations.get(labelComIndex);
-        double score = 0;
-        int pos = this.weights.getNumWeightsForFeatures();
-        boolean[] matches = new boolean[numClasses];
+        double score = allNegativeScore;
+        int start = this.weights.getNumWeightsForFeatures();
         for (int match: label.getMatchedLabels()){
-            matches[match] = true;
-        }
-        for (int l1=0; l1<numClasses; l1++) {
-            for (int l2=l1+1; l2<numClasses; l2++) {
-                if (!matches[l1] && !matches[l2]) {
-                    score += this.weights.getWeightForIndex(pos);
-                } else if (matches[l1] && !matches[l2]) {
-                    score += this.weights.getWeightForIndex(pos + 1);
-                } else if (!matches[l1] && matches[l2]) {
-                    score += this.weights.getWeightForIndex(pos + 2);
-                } else {
-                    score += this.weights.getWeightForIndex(pos + 3);
+            for (int pair: weights.getPairsForLabel(match)){
+                int pos = start + 4*pair;
+                boolean first = weights.getFirstLabelOfPair(pair)==match;
+                int other = first ? weights.getSecondLabelOfPair(pair) : weights.getFirstLabelOfPair(pair);
+                if (!label.matchClass(other)) {
+                    score += this.weights.getWeightForIndex(first ? pos + 1 : pos + 2) - this.weights.getWeightForIndex(pos);
+                } else if (first) {
+                    // both matched, counted once
+                    score += this.weights.getWeightForIndex(pos + 3) - this.weights.getWeightForIndex(pos);
                 }
-                pos += 4;
             }
         }
+        return score;
+    }
 
+    private double computeAllNegativeScore(){
+        double score = 0;
+        int start = this.weights.getNumWeightsForFeatures();
+        for (int pair=0; pair<weights.getNumLabelPairs(); pair++){
+            score += this.weights.getWeightForIndex(start + 4*pair);
+        }
         return score;
     }
 
     void updateCombLabelPartScores(){
+        double allNegativeScore = computeAllNegativeScore();
         IntStream.range(0, supportCombinations.size()).parallel()
-                .forEach(c -> combinationLabelPartScores[c]=computeLabelPartScore(c));
+                .forEach(c -> combinationLabelPartScores[c]=computeLabelPartScore(c, allNegativeScore));
     }
 
 
@@ -346,6 +378,54 @@ public class CMLCRF implements MultiLabelClassifier, MultiLabelClassifier.Assign
         }
     }
 
+    /**
+     * see BinaryModels
+     */
+    public void writeBinary(BinaryModelOutput out) throws IOException{
+        out.writeInt(BINARY_VERSION);
+        out.writeInt(numClasses);
+        out.writeInt(numFeatures);
+        out.writeBoolean(considerPair);
+        out.writeDouble(lossStrength);
+        out.writeObject(featureList);
+        out.writeObject(labelTranslator);
+        BinaryModels.writeMultiLabels(out, supportCombinations);
+        List<Pair<Integer,Integer>> labelPairs = weights.getLabelPairs();
+        out.writeInts(labelPairs.stream().mapToInt(Pair::getFirst).toArray());
+        out.writeInts(labelPairs.stream().mapToInt(Pair::getSecond).toArray());
+        out.writeVector(weights.getAllWeights());
+    }
+
+    public static CMLCRF readBinary(BinaryModelInput in) throws IOException{
+        int version = in.readVersion("CMLCRF", BINARY_VERSION);
+        int numClasses = in.readInt();
+        int numFeatures = in.readInt();
+        boolean considerPair = in.readBoolean();
+        double lossStrength = in.readDouble();
+        FeatureList featureList = (FeatureList) in.readObject();
+        LabelTranslator labelTranslator = (LabelTranslator) in.readObject();
+        List<MultiLabel> supportCombinations = BinaryModels.readMultiLabels(in);
+        List<Pair<Integer,Integer>> labelPairs;
+        if (version==1){
+            labelPairs = LabelPairs.all(numClasses);
+        } else {
+            int[] firstLabels = in.readInts();
+            int[] secondLabels = in.readInts();
+            labelPairs = new ArrayList<>(firstLabels.length);
+            for (int p=0;p<firstLabels.length;p++){
+                labelPairs.add(new Pair<>(firstLabels[p], secondLabels[p]));
+            }
+        }
+        CMLCRF cmlcrf = new CMLCRF(numClasses, numFeatures, supportCombinations, labelPairs);
+        cmlcrf.weights.setWeightVector(in.readDenseVector());
+        cmlcrf.considerPair = considerPair;
+        cmlcrf.lossStrength = lossStrength;
+        cmlcrf.featureList = featureList;
+        cmlcrf.labelTranslator = labelTranslator;
+        cmlcrf.updateCombLabelPartScores();
+        return cmlcrf;
+    }
+
     public static CMLCRF deserialize(String file) throws Exception {
         File file1 = new File(file);
         return deserialize(file1);
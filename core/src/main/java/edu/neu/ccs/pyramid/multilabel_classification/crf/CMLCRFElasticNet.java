@@ -45,8 +45,8 @@ public class CMLCRFElasticNet {
     // numDataPoints by numClasses;
     private double[][] classScoreMatrix;
 
-    // numDataPoints by numClasses;
-    private double[][] classProbMatrix;
+    // numDataPoints by numClasses; see ClassFeatureSums
+    private double[][] classProbs;
 
 
     // numDataPoints by numCombinations
@@ -91,7 +91,7 @@ public class CMLCRFElasticNet {
         this.numWeightsForFeatures = cmlcrf.getWeights().getNumWeightsForFeatures();
         this.numWeightsForLabelPairs = cmlcrf.getWeights().getNumWeightsForLabels();
         this.classScoreMatrix = new double[numData][numClasses];
-        this.classProbMatrix = new double[numData][numClasses];
+        this.classProbs = new double[numData][numClasses];
         this.combScoreMatrix = new double[numData][numSupport];
         this.combProbMatrix = new double[numData][numSupport];
         this.isValueCacheValid = false;
@@ -241,19 +241,19 @@ public class CMLCRFElasticNet {
     private void initCache() {
         parameterToL1 = new int[numWeightsForLabelPairs];
         parameterToL2 = new int[numWeightsForLabelPairs];
-        int start = 0;
-        for (int l1=0; l1<numClasses; l1++) {
-            for (int l2=l1+1; l2<numClasses; l2++) {
-                parameterToL1[start] = l1;
-                parameterToL1[start+1] = l1;
-                parameterToL1[start+2] = l1;
-                parameterToL1[start+3] = l1;
-                parameterToL2[start] = l2;
-                parameterToL2[start+1] = l2;
-                parameterToL2[start+2] = l2;
-                parameterToL2[start+3] = l2;
-                start += 4;
-            }
+        Weights pairWeights = cmlcrf.getWeights();
+        for (int pair=0; pair<pairWeights.getNumLabelPairs(); pair++) {
+            int start = 4*pair;
+            int l1 = pairWeights.getFirstLabelOfPair(pair);
+            int l2 = pairWeights.getSecondLabelOfPair(pair);
+            parameterToL1[start] = l1;
+            parameterToL1[start+1] = l1;
+            parameterToL1[start+2] = l1;
+            parameterToL1[start+3] = l1;
+            parameterToL2[start] = l2;
+            parameterToL2[start+1] = l2;
+            parameterToL2[start+2] = l2;
+            parameterToL2[start+3] = l2;
         }
         parameterToClass = new int[numWeightsForFeatures];
         parameterToFeature = new int[numWeightsForFeatures];
@@ -377,21 +377,18 @@ public class CMLCRFElasticNet {
     }//check
 
     private void updateEmpiricalCounts(){
+        double[] featureCounts = new double[numWeightsForFeatures];
+        ClassFeatureSums.sum(dataSet, ClassFeatureSums.labelIndicators(dataSet), numClasses, false, featureCounts);
+        for (int i=0; i<numWeightsForFeatures; i++) {
+            this.empiricalCounts.set(i, featureCounts[i]);
+        }
         IntStream intStream;
         if (isParallel){
-            intStream = IntStream.range(0, numParameters).parallel();
+            intStream = IntStream.range(numWeightsForFeatures, numParameters).parallel();
         } else {
-            intStream = IntStream.range(0, numParameters);
-        }
-        intStream.forEach(this::calEmpiricalCount);
-    }
-
-    private void calEmpiricalCount(int parameterIndex) {
-        if (parameterIndex < numWeightsForFeatures) {
-            this.empiricalCounts.set(parameterIndex, calEmpiricalCountForFeature(parameterIndex));
-        } else if(parameterIndex <numWeightsForFeatures+ numWeightsForLabelPairs) {
-            this.empiricalCounts.set(parameterIndex, calEmpiricalCountForLabelPair(parameterIndex));
+            intStream = IntStream.range(numWeightsForFeatures, numParameters);
         }
+        intStream.forEach(i -> this.empiricalCounts.set(i, calEmpiricalCountForLabelPair(i)));
     }
 
     private double calEmpiricalCountForLabelPair(int parameterIndex) {
@@ -422,38 +419,17 @@ public class CMLCRFElasticNet {
     }
 
 
-    private double calEmpiricalCountForFeature(int parameterIndex) {
-        double empiricalCount = 0.0;
-        int classIndex = parameterToClass[parameterIndex];
-        int featureIndex = parameterToFeature[parameterIndex];
-        if (featureIndex==-1){
-            for (int i=0; i<dataSet.getNumDataPoints(); i++) {
-                if (dataSet.getMultiLabels()[i].matchClass(classIndex)) {
-                    empiricalCount += 1;
-                }
-            }
-        } else{
-            Vector column = dataSet.getColumn(featureIndex);
-            MultiLabel[] multiLabels = dataSet.getMultiLabels();
-            for (Vector.Element element: column.nonZeroes()){
-                int dataIndex = element.index();
-                double featureValue = element.get();
-                if (multiLabels[dataIndex].matchClass(classIndex)){
-                    empiricalCount += featureValue;
-                }
-            }
-        }
-        return empiricalCount;
-    }
-
     private void updateClassProbMatrix(){
         IntStream.range(0,dataSet.getNumDataPoints()).parallel()
-                .forEach(i -> classProbMatrix[i] = cmlcrf.calClassProbs(combProbMatrix[i]));
+                .forEach(i -> System.arraycopy(cmlcrf.calClassProbs(combProbMatrix[i]), 0, classProbs[i], 0, numClasses));
     }
 
     private void updatePredictedCounts() {
-        IntStream.range(0, numWeightsForFeatures).parallel()
-                .forEach(i -> predictedCounts.set(i, calPredictedFeatureCounts(i)));
+        double[] featureCounts = new double[numWeightsForFeatures];
+        ClassFeatureSums.sum(dataSet, classProbs, numClasses, false, featureCounts);
+        for (int i=0; i<numWeightsForFeatures; i++) {
+            predictedCounts.set(i, featureCounts[i]);
+        }
 
         IntStream.range(numWeightsForFeatures, numParameters).parallel()
                 .forEach(i -> predictedCounts.set(i, calPredictedLabelPairCounts(i)));
@@ -469,27 +445,6 @@ public class CMLCRFElasticNet {
         return count;
     }
 
-    private double calPredictedFeatureCounts(int parameterIndex) {
-        double count = 0.0;
-        int classIndex = parameterToClass[parameterIndex];
-        int featureIndex = parameterToFeature[parameterIndex];
-
-        if (featureIndex == -1) {
-            for (int i=0; i<numData; i++) {
-                count += this.classProbMatrix[i][classIndex];
-            }
-        } else {
-            Vector featureColumn = dataSet.getColumn(featureIndex);
-            for (Vector.Element element : featureColumn.nonZeroes()) {
-                int dataPointIndex = element.index();
-                double featureValue = element.get();
-                count += this.classProbMatrix[dataPointIndex][classIndex] * featureValue;
-            }
-        }
-        return count;
-    }
-
-
     private void updateCombProbSums(int combinationIndex){
         double sum =0;
         for (int i=0;i<dataSet.getNumDataPoints();i++){
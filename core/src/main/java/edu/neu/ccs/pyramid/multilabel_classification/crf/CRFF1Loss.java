@@ -347,19 +347,19 @@ public class CRFF1Loss implements Optimizable.ByGradientValue {
     public void initCache() {
         parameterToL1 = new int[numWeightsForLabelPairs];
         parameterToL2 = new int[numWeightsForLabelPairs];
-        int start = 0;
-        for (int l1=0; l1<numClasses; l1++) {
-            for (int l2=l1+1; l2<numClasses; l2++) {
-                parameterToL1[start] = l1;
-                parameterToL1[start+1] = l1;
-                parameterToL1[start+2] = l1;
-                parameterToL1[start+3] = l1;
-                parameterToL2[start] = l2;
-                parameterToL2[start+1] = l2;
-                parameterToL2[start+2] = l2;
-                parameterToL2[start+3] = l2;
-                start += 4;
-            }
+        Weights pairWeights = cmlcrf.getWeights();
+        for (int pair=0; pair<pairWeights.getNumLabelPairs(); pair++) {
+            int start = 4*pair;
+            int l1 = pairWeights.getFirstLabelOfPair(pair);
+            int l2 = pairWeights.getSecondLabelOfPair(pair);
+            parameterToL1[start] = l1;
+            parameterToL1[start+1] = l1;
+            parameterToL1[start+2] = l1;
+            parameterToL1[start+3] = l1;
+            parameterToL2[start] = l2;
+            parameterToL2[start+1] = l2;
+            parameterToL2[start+2] = l2;
+            parameterToL2[start+3] = l2;
         }
         parameterToClass = new int[numWeightsForFeatures];
         parameterToFeature = new int[numWeightsForFeatures];
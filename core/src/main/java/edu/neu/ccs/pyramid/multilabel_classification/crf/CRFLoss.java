@@ -2,6 +2,7 @@ package edu.neu.ccs.pyramid.multilabel_classification.crf;
 
 import edu.neu.ccs.pyramid.dataset.MultiLabel;
 import edu.neu.ccs.pyramid.dataset.MultiLabelClfDataSet;
+import edu.neu.ccs.pyramid.multilabel_classification.TruncatedPosterior;
 import edu.neu.ccs.pyramid.optimization.Optimizable;
 import edu.neu.ccs.pyramid.util.MathUtil;
 import org.apache.logging.log4j.LogManager;
@@ -34,9 +35,8 @@ public class CRFLoss implements Optimizable.ByGradientValue {
     private int[] parameterToL2;
     private int[] parameterToClass;
     private int[] parameterToFeature;
-    // whether the support combination contains the label;
-    // size num combination* num classes
-    private boolean[][] comContainsLabel;
+    // for each label, the support combinations containing it, in increasing order
+    private int[][] labelToCombinations;
     private boolean isParallel = true;
     private boolean isGradientCacheValid = false;
     private boolean isValueCacheValid = false;
@@ -44,20 +44,21 @@ public class CRFLoss implements Optimizable.ByGradientValue {
     // numDataPoints by numClasses;
     private double[][] classScoreMatrix;
 
-    // numDataPoints by numClasses;
-    private double[][] classProbMatrix;
+    // numDataPoints by numClasses; see ClassFeatureSums
+    private double[][] classProbs;
+
+    // combination posteriors are computed one data point at a time and only folded into
+    // classProbs and combProbSums; no numDataPoints by numCombinations matrix is kept
+    // fraction of each data point's posterior mass that may be dropped, see TruncatedPosterior
+    private double posteriorTruncation = 0;
 
-    // numDataPoints by numCombinations
-    private double[][] combProbMatrix;
+    private ThreadLocal<TruncatedPosterior> truncatedPosteriors;
 
-    // numDataPoints by numCombinations
-    private double[][] combScoreMatrix;
+    // labels of each support combination
+    private int[][] combinationLabels;
 
     private int numData;
 
-    //for each label pair (index), map to the list of matched combinations (index)
-    // number of pairs * variable length
-    private List<List<Integer>> labelPairToCombination;
 
     // if true, regularize all weights
     private boolean regularizeAll = false;
@@ -84,21 +85,14 @@ public class CRFLoss implements Optimizable.ByGradientValue {
         this.numWeightsForFeatures = cmlcrf.getWeights().getNumWeightsForFeatures();
         this.numWeightsForLabelPairs = cmlcrf.getWeights().getNumWeightsForLabels();
         this.classScoreMatrix = new double[numData][numClasses];
-        this.classProbMatrix = new double[numData][numClasses];
-        this.combScoreMatrix = new double[numData][numSupport];
-        this.combProbMatrix = new double[numData][numSupport];
+        this.classProbs = new double[numData][numClasses];
+        this.truncatedPosteriors = ThreadLocal.withInitial(() -> new TruncatedPosterior(numSupport));
+        this.combinationLabels = new int[numSupport][];
+        for (int s=0;s<numSupport;s++){
+            combinationLabels[s] = supportedCombinations.get(s).getMatchedLabelsOrdered().stream().mapToInt(Integer::intValue).toArray();
+        }
         this.isGradientCacheValid = false;
         this.isValueCacheValid = false;
-        this.empiricalCounts = new double[numParameters];
-        this.initCache();
-        this.updateEmpiricalCounts();
-        this.gradient = new DenseVector(numParameters);
-        this.labelPairToCombination = new ArrayList<>();
-        for (int i=0;i< numWeightsForLabelPairs;i++){
-            labelPairToCombination.add(new ArrayList<>());
-        }
-        this.mapPairToCombination();
-        this.combProbSums = new double[numSupport];
 
         Map<MultiLabel,Integer> map = new HashMap<>();
         for (int s=0;s< numSupport;s++){
@@ -108,12 +102,32 @@ public class CRFLoss implements Optimizable.ByGradientValue {
         for (int i=0;i<dataSet.getNumDataPoints();i++){
             labelComIndices[i] = map.get(dataSet.getMultiLabels()[i]);
         }
+
+        this.empiricalCounts = new double[numParameters];
+        this.initCache();
+        this.updateEmpiricalCounts();
+        this.gradient = new DenseVector(numParameters);
+        this.combProbSums = new double[numSupport];
     }
 
     public void setRegularizeAll(boolean regularizeAll) {
         this.regularizeAll = regularizeAll;
     }
 
+    /**
+     * when computing the gradient, keep for each data point only the most probable combinations
+     * covering 1-epsilon of its posterior mass
+     * default 0: exact gradient
+     * @param posteriorTruncation epsilon
+     */
+    public void setPosteriorTruncation(double posteriorTruncation) {
+        if (posteriorTruncation<0 || posteriorTruncation>=1){
+            throw new IllegalArgumentException("posteriorTruncation should be in [0,1)");
+        }
+        this.posteriorTruncation = posteriorTruncation;
+        this.isGradientCacheValid = false;
+    }
+
 
 
     /**
@@ -130,10 +144,7 @@ public class CRFLoss implements Optimizable.ByGradientValue {
         }
         // O(NdL)
         updateClassScoreMatrix();
-        updateAssignmentScoreMatrix();
-        updateAssignmentProbMatrix();
-        updateCombProbSums();
-        updateClassProbMatrix();
+        updatePosteriors();
         updateGradient();
         this.isGradientCacheValid = true;
         if (logger.isDebugEnabled()){
@@ -166,8 +177,10 @@ public class CRFLoss implements Optimizable.ByGradientValue {
         if (logger.isDebugEnabled()){
             logger.debug("start method updatedFeatureLabelGradient()");
         }
+        double[] predictedCounts = new double[numWeightsForFeatures];
+        ClassFeatureSums.sum(dataSet, classProbs, numClasses, false, predictedCounts);
         IntStream.range(0,numWeightsForFeatures).parallel()
-                .forEach(i -> gradient.set(i,calGradientForFeature(i)));
+                .forEach(i -> gradient.set(i,calGradientForFeature(i, predictedCounts[i])));
         if (logger.isDebugEnabled()){
             logger.debug("finish method updatedFeatureLabelGradient()");
         }
@@ -178,27 +191,18 @@ public class CRFLoss implements Optimizable.ByGradientValue {
         if (logger.isDebugEnabled()){
             logger.debug("start method updateLabelLabelGradient()");
         }
+        double[] pairProbSums = sumOverLabelPairs(combProbSums);
         IntStream.range(numWeightsForFeatures,numWeightsForFeatures+numWeightsForLabelPairs).parallel()
-                .forEach(i -> gradient.set(i,calGradientForLabelPair(i)));
+                .forEach(i -> gradient.set(i,calGradientForLabelPair(i, pairProbSums)));
         if (logger.isDebugEnabled()){
             logger.debug("finish method updateLabelLabelGradient()");
         }
     }
 
 
-    private double calGradientForLabelPair(int parameterIndex) {
-        double count = 0.0;
-        int pos = parameterIndex - numWeightsForFeatures;
-        for (int matched: labelPairToCombination.get(pos)){
-            count += combProbSums[matched];
-        }
+    private double calGradientForLabelPair(int parameterIndex, double[] pairProbSums) {
+        double count = pairProbSums[parameterIndex - numWeightsForFeatures];
 
-//        for (int i=0; i<dataSet.getNumDataPoints(); i++) {
-//            double[] probs = this.combProbMatrix[i];
-//            for (int matched: labelPairToCombination.get(pos)){
-//                count += probs[matched];
-//            }
-//        }
         count -= this.empiricalCounts[parameterIndex];
         if (regularizeAll){
             count += cmlcrf.getWeights().getWeightForIndex(parameterIndex)/gaussianPriorVariance;
@@ -210,24 +214,11 @@ public class CRFLoss implements Optimizable.ByGradientValue {
     // this calculation uses a short cut for equation (4) of
     // the paper "Collective Multi-Label Classification"
     // the sum of y can be pushed in and gives the marginal
-    private double calGradientForFeature(int parameterIndex) {
-        double count = 0.0;
-        int classIndex = parameterToClass[parameterIndex];
+    // predictedCount: sum of marginals times feature values, from ClassFeatureSums
+    private double calGradientForFeature(int parameterIndex, double predictedCount) {
+        double count = predictedCount;
         int featureIndex = parameterToFeature[parameterIndex];
 
-        if (featureIndex == -1) {
-            for (int i=0; i<dataSet.getNumDataPoints(); i++) {
-                count += this.classProbMatrix[i][classIndex];
-            }
-        } else {
-            Vector featureColumn = dataSet.getColumn(featureIndex);
-            for (Vector.Element element: featureColumn.nonZeroes()) {
-                int dataPointIndex = element.index();
-                double featureValue = element.get();
-                count += this.classProbMatrix[dataPointIndex][classIndex] * featureValue;
-            }
-        }
-
         count -= this.empiricalCounts[parameterIndex];
 
         // regularize
@@ -244,93 +235,74 @@ public class CRFLoss implements Optimizable.ByGradientValue {
 
 
     private void updateEmpiricalCounts(){
-        IntStream intStream;
-        if (isParallel){
-            intStream = IntStream.range(0, numParameters).parallel();
-        } else {
-            intStream = IntStream.range(0, numParameters);
-        }
-        intStream.forEach(this::calEmpiricalCount);
-    }
+        double[] featureCounts = new double[numWeightsForFeatures];
+        ClassFeatureSums.sum(dataSet, ClassFeatureSums.labelIndicators(dataSet), numClasses, false, featureCounts);
+        System.arraycopy(featureCounts, 0, empiricalCounts, 0, numWeightsForFeatures);
 
-    private void calEmpiricalCount(int parameterIndex) {
-        if (parameterIndex < numWeightsForFeatures) {
-            this.empiricalCounts[parameterIndex] = calEmpiricalCountForFeature(parameterIndex);
-        } else if(parameterIndex <numWeightsForFeatures+ numWeightsForLabelPairs) {
-            this.empiricalCounts[parameterIndex] = calEmpiricalCountForLabelPair(parameterIndex);
+        double[] combCounts = new double[numSupport];
+        for (int labelComIndex: labelComIndices){
+            combCounts[labelComIndex] += 1;
         }
+        double[] pairCounts = sumOverLabelPairs(combCounts);
+        System.arraycopy(pairCounts, 0, empiricalCounts, numWeightsForFeatures, numWeightsForLabelPairs);
     }
 
-
-
-    private double calEmpiricalCountForLabelPair(int parameterIndex) {
-        double empiricalCount = 0.0;
-        int start = parameterIndex - numWeightsForFeatures;
-        int l1 = parameterToL1[start];
-        int l2 = parameterToL2[start];
-        int featureCase = start % 4;
-        for (int i=0; i<dataSet.getNumDataPoints(); i++) {
-            MultiLabel label = dataSet.getMultiLabels()[i];
-            switch (featureCase) {
-                // both l1, l2 equal 0;
-                case 0: if (!label.matchClass(l1) && !label.matchClass(l2)) empiricalCount += 1.0;
-                    break;
-                // l1 = 1; l2 = 0;
-                case 1: if (label.matchClass(l1) && !label.matchClass(l2)) empiricalCount += 1.0;
-                    break;
-                // l1 = 0; l2 = 1;
-                case 2: if (!label.matchClass(l1) && label.matchClass(l2)) empiricalCount += 1.0;
-                    break;
-                // l1 = 1; l2 = 1;
-                case 3: if (label.matchClass(l1) && label.matchClass(l2)) empiricalCount += 1.0;
-                    break;
-                default: throw new RuntimeException("feature case :" + featureCase + " failed.");
+    /**
+     * for each label pair parameter, the total mass of the combinations where its feature function returns 1
+     * derived from label marginals and the (1,1) mass, which only needs the combinations containing both labels:
+     * (1,0) = m(l1)-m(l1,l2), (0,1) = m(l2)-m(l1,l2), (0,0) = total-m(l1)-m(l2)+m(l1,l2)
+     * @param combMasses mass of each support combination
+     * @return size = number of label pair parameters
+     */
+    private double[] sumOverLabelPairs(double[] combMasses){
+        double total = 0;
+        for (double mass: combMasses){
+            total += mass;
+        }
+        double[] labelMasses = new double[numClasses];
+        for (int l=0;l<numClasses;l++){
+            for (int c: labelToCombinations[l]){
+                labelMasses[l] += combMasses[c];
             }
         }
-        return empiricalCount;
-    }
-
-
-    private double calEmpiricalCountForFeature(int parameterIndex) {
-        double empiricalCount = 0.0;
-        int classIndex = parameterToClass[parameterIndex];
-        int featureIndex = parameterToFeature[parameterIndex];
-        if (featureIndex==-1){
-            for (int i=0; i<dataSet.getNumDataPoints(); i++) {
-                if (dataSet.getMultiLabels()[i].matchClass(classIndex)) {
-                    empiricalCount += 1;
-                }
-            }
-        } else{
-            Vector column = dataSet.getColumn(featureIndex);
-            MultiLabel[] multiLabels = dataSet.getMultiLabels();
-            for (Vector.Element element: column.nonZeroes()){
-                int dataIndex = element.index();
-                double featureValue = element.get();
-                if (multiLabels[dataIndex].matchClass(classIndex)){
-                    empiricalCount += featureValue;
+        double[] pairMasses = new double[numWeightsForLabelPairs];
+        double finalTotal = total;
+        IntStream.range(0, numWeightsForLabelPairs/4).parallel().forEach(pair -> {
+            int start = 4*pair;
+            int l1 = parameterToL1[start];
+            int l2 = parameterToL2[start];
+            double both = 0;
+            int[] combinations1 = labelToCombinations[l1];
+            int[] combinations2 = labelToCombinations[l2];
+            int i1 = 0;
+            int i2 = 0;
+            while (i1<combinations1.length && i2<combinations2.length){
+                if (combinations1[i1]<combinations2[i2]){
+                    i1 += 1;
+                } else if (combinations1[i1]>combinations2[i2]){
+                    i2 += 1;
+                } else {
+                    both += combMasses[combinations1[i1]];
+                    i1 += 1;
+                    i2 += 1;
                 }
             }
-        }
-        return empiricalCount;
+            pairMasses[start] = finalTotal - labelMasses[l1] - labelMasses[l2] + both;
+            pairMasses[start+1] = labelMasses[l1] - both;
+            pairMasses[start+2] = labelMasses[l2] - both;
+            pairMasses[start+3] = both;
+        });
+        return pairMasses;
     }
 
+
     private void initCache() {
         parameterToL1 = new int[numWeightsForLabelPairs];
         parameterToL2 = new int[numWeightsForLabelPairs];
-        int start = 0;
-        for (int l1=0; l1<numClasses; l1++) {
-            for (int l2=l1+1; l2<numClasses; l2++) {
-                parameterToL1[start] = l1;
-                parameterToL1[start+1] = l1;
-                parameterToL1[start+2] = l1;
-                parameterToL1[start+3] = l1;
-                parameterToL2[start] = l2;
-                parameterToL2[start+1] = l2;
-                parameterToL2[start+2] = l2;
-                parameterToL2[start+3] = l2;
-                start += 4;
-            }
+        Weights weights = cmlcrf.getWeights();
+        for (int pair=0; pair<weights.getNumLabelPairs(); pair++) {
+            Arrays.fill(parameterToL1, 4*pair, 4*pair+4, weights.getFirstLabelOfPair(pair));
+            Arrays.fill(parameterToL2, 4*pair, 4*pair+4, weights.getSecondLabelOfPair(pair));
         }
         parameterToClass = new int[numWeightsForFeatures];
         parameterToFeature = new int[numWeightsForFeatures];
@@ -339,12 +311,20 @@ public class CRFLoss implements Optimizable.ByGradientValue {
             parameterToFeature[i] = cmlcrf.getWeights().getFeatureIndex(i);
         }
 
-        comContainsLabel = new boolean[numSupport][numClasses];
+        int[] numCombinations = new int[numClasses];
         for (int num=0; num< numSupport; num++) {
-            for (int l=0; l<numClasses; l++) {
-                if (supportedCombinations.get(num).matchClass(l)) {
-                    comContainsLabel[num][l] = true;
-                }
+            for (int l: combinationLabels[num]) {
+                numCombinations[l] += 1;
+            }
+        }
+        labelToCombinations = new int[numClasses][];
+        for (int l=0; l<numClasses; l++) {
+            labelToCombinations[l] = new int[numCombinations[l]];
+        }
+        Arrays.fill(numCombinations, 0);
+        for (int num=0; num< numSupport; num++) {
+            for (int l: combinationLabels[num]) {
+                labelToCombinations[l][numCombinations[l]++] = num;
             }
         }
     }
@@ -383,7 +363,6 @@ public class CRFLoss implements Optimizable.ByGradientValue {
 
     private double getValueForAllData() {
         updateClassScoreMatrix();
-        updateAssignmentScoreMatrix();
         IntStream intStream;
         if (isParallel) {
             intStream = IntStream.range(0,dataSet.getNumDataPoints()).parallel();
@@ -396,11 +375,12 @@ public class CRFLoss implements Optimizable.ByGradientValue {
 
     // NLL
     private double getValueForOneData(int i) {
+        double[] combScores = cmlcrf.predictCombinationScores(classScoreMatrix[i]);
         double sum = 0.0;
         // sum logZ(x_n)
-        sum += MathUtil.logSumExp(combScoreMatrix[i]);
+        sum += MathUtil.logSumExp(combScores);
         // score for the true combination
-        sum -= combScoreMatrix[i][labelComIndices[i]];
+        sum -= combScores[labelComIndices[i]];
         return sum;
     }
 
@@ -431,37 +411,52 @@ public class CRFLoss implements Optimizable.ByGradientValue {
         }
     }
 
-    private void updateAssignmentScoreMatrix(){
+    /**
+     * class marginals of each data point and combination probabilities summed over data points
+     */
+    private void updatePosteriors(){
         if (logger.isDebugEnabled()){
-            logger.debug("start updateAssignmentScoreMatrix()");
+            logger.debug("start updatePosteriors()");
         }
-        //todo
-        IntStream.range(0,dataSet.getNumDataPoints()).parallel()
-                .forEach(i -> combScoreMatrix[i] = cmlcrf.predictCombinationScores(classScoreMatrix[i]));
+        double[] sums = IntStream.range(0,dataSet.getNumDataPoints()).parallel()
+                .collect(() -> new double[numSupport], this::updatePosterior, CRFLoss::add);
+        System.arraycopy(sums, 0, combProbSums, 0, numSupport);
         if (logger.isDebugEnabled()){
-            logger.debug("finish updateAssignmentScoreMatrix()");
+            logger.debug("finish updatePosteriors()");
         }
     }
 
-    private void updateAssignmentProbMatrix(){
-        if (logger.isDebugEnabled()){
-            logger.debug("start updateAssignmentProbMatrix()");
-        }
-        IntStream.range(0,dataSet.getNumDataPoints()).parallel()
-                .forEach(i -> combProbMatrix[i] = cmlcrf.predictCombinationProbs(combScoreMatrix[i]));
-        if (logger.isDebugEnabled()){
-            logger.debug("finish updateAssignmentProbMatrix()");
+    private void updatePosterior(double[] combProbSums, int i){
+        double[] combProbs = cmlcrf.predictCombinationScores(classScoreMatrix[i]);
+        double logDenominator = MathUtil.logSumExp(combProbs);
+        for (int c=0;c<numSupport;c++){
+            combProbs[c] = Math.exp(combProbs[c]-logDenominator);
+        }
+        double[] probs = classProbs[i];
+        Arrays.fill(probs, 0);
+        if (posteriorTruncation>0){
+            TruncatedPosterior posterior = truncatedPosteriors.get();
+            posterior.truncate(combProbs, posteriorTruncation);
+            for (int j=0;j<posterior.size();j++){
+                addCombination(combProbSums, probs, posterior.getIndex(j), posterior.getValue(j));
+            }
+        } else {
+            for (int c=0;c<numSupport;c++){
+                addCombination(combProbSums, probs, c, combProbs[c]);
+            }
         }
     }
 
-    private void updateClassProbMatrix(){
-        if (logger.isDebugEnabled()){
-            logger.debug("start updateClassProbMatrix()");
+    private void addCombination(double[] combProbSums, double[] probs, int combination, double prob){
+        combProbSums[combination] += prob;
+        for (int label: combinationLabels[combination]){
+            probs[label] += prob;
         }
-        IntStream.range(0,dataSet.getNumDataPoints()).parallel()
-                .forEach(i -> classProbMatrix[i] = cmlcrf.calClassProbs(combProbMatrix[i]));
-        if (logger.isDebugEnabled()){
-            logger.debug("finish updateClassProbMatrix()");
+    }
+
+    private static void add(double[] sums, double[] other){
+        for (int c=0;c<sums.length;c++){
+            sums[c] += other[c];
         }
     }
 
@@ -483,46 +478,4 @@ public class CRFLoss implements Optimizable.ByGradientValue {
 //                .sum();
 //    }
 
-    private void mapPairToCombination(){
-        IntStream.range(0, numWeightsForLabelPairs).parallel().forEach(this::mapPairToCombination);
-    }
-
-    private void mapPairToCombination(int position) {
-        List<Integer> list = labelPairToCombination.get(position);
-        int l1 = parameterToL1[position];
-        int l2 = parameterToL2[position];
-        int featureCase = position % 4;
-        for (int c=0; c< numSupport; c++) {
-            switch (featureCase) {
-                // both l1, l2 equal 0;
-                case 0:
-                    if (!comContainsLabel[c][l1] && !comContainsLabel[c][l2]) list.add(c);
-                    break;
-                // l1 = 1; l2 = 0;
-                case 1: if (comContainsLabel[c][l1] && !comContainsLabel[c][l2]) list.add(c);
-                    break;
-                // l1 = 0; l2 = 1;
-                case 2: if (!comContainsLabel[c][l1] && comContainsLabel[c][l2]) list.add(c);
-                    break;
-                // l1 = 1; l2 = 1;mapPairToCombination
-                case 3: if (comContainsLabel[c][l1] && comContainsLabel[c][l2]) list.add(c);
-                    break;
-                default: throw new RuntimeException("feature case :" + featureCase + " failed.");
-            }
-        }
-    }
-
-    private void updateCombProbSums(int combinationIndex){
-        double sum =0;
-        for (int i=0;i<dataSet.getNumDataPoints();i++){
-            sum += combProbMatrix[i][combinationIndex];
-        }
-        combProbSums[combinationIndex] = sum;
-    }
-
-    private void updateCombProbSums(){
-        IntStream.range(0,numSupport).parallel()
-                .forEach(this::updateCombProbSums);
-    }
-
 }
@@ -0,0 +1,91 @@
+package edu.neu.ccs.pyramid.multilabel_classification.crf;
+
+import edu.neu.ccs.pyramid.dataset.DataSet;
+import edu.neu.ccs.pyramid.dataset.MultiLabelClfDataSet;
+import org.apache.mahout.math.Vector;
+
+import java.util.stream.IntStream;
+
+/**
+ * gradient kernel for class-feature parameters, laid out as in Weights: class k, bias first, then features
+ * sums per-data-point class values (e.g. marginal probabilities) times feature values
+ * each feature column is walked once and updates all classes; the values of one data point are kept in
+ * their own row, so a non-zero feature value reads one contiguous array and no index grows with #data * numClasses
+ * parallel over blocks of features; no locking, each block writes its own parameters
+ */
+public class ClassFeatureSums {
+    private static final int FEATURE_BLOCK_SIZE = 64;
+
+    /**
+     * sums[k*(numFeatures+1)] = sum_i values[i][k]
+     * sums[k*(numFeatures+1)+1+j] = sum_i values[i][k] * x_ij
+     * @param values format [#data][numClasses]
+     * @param squareFeatures use x_ij^2 instead of x_ij, for diagonal hessians
+     * @param sums output, size = numClasses*(numFeatures+1)
+     */
+    public static void sum(DataSet dataSet, double[][] values, int numClasses, boolean squareFeatures, double[] sums){
+        int numData = dataSet.getNumDataPoints();
+        int numFeatures = dataSet.getNumFeatures();
+        if (values.length!=numData){
+            throw new IllegalArgumentException("values should have "+numData+" rows, found "+values.length);
+        }
+        for (int i=0;i<numData;i++){
+            if (values[i].length!=numClasses){
+                throw new IllegalArgumentException("row "+i+" of values should have "+numClasses+" entries, found "+values[i].length);
+            }
+        }
+        if (sums.length!=numClasses*(numFeatures+1)){
+            throw new IllegalArgumentException("sums should have "+numClasses*(numFeatures+1)+" entries, found "+sums.length);
+        }
+        int numBlocks = (numFeatures+FEATURE_BLOCK_SIZE-1)/FEATURE_BLOCK_SIZE;
+        // block -1 is the bias
+        IntStream.range(-1, numBlocks).parallel().forEach(block -> {
+            double[] classSums = new double[numClasses];
+            if (block==-1){
+                for (int i=0;i<numData;i++){
+                    double[] row = values[i];
+                    for (int k=0;k<numClasses;k++){
+                        classSums[k] += row[k];
+                    }
+                }
+                for (int k=0;k<numClasses;k++){
+                    sums[k*(numFeatures+1)] = classSums[k];
+                }
+                return;
+            }
+            int end = Math.min(numFeatures, (block+1)*FEATURE_BLOCK_SIZE);
+            for (int j=block*FEATURE_BLOCK_SIZE;j<end;j++){
+                for (int k=0;k<numClasses;k++){
+                    classSums[k] = 0;
+                }
+                for (Vector.Element element: dataSet.getColumn(j).nonZeroes()){
+                    double[] row = values[element.index()];
+                    double featureValue = element.get();
+                    if (squareFeatures){
+                        featureValue *= featureValue;
+                    }
+                    for (int k=0;k<numClasses;k++){
+                        classSums[k] += row[k]*featureValue;
+                    }
+                }
+                for (int k=0;k<numClasses;k++){
+                    sums[k*(numFeatures+1)+1+j] = classSums[k];
+                }
+            }
+        });
+    }
+
+    /**
+     * 0/1 label indicators in the layout expected by sum; summing them gives the empirical counts
+     */
+    public static double[][] labelIndicators(MultiLabelClfDataSet dataSet){
+        int numClasses = dataSet.getNumClasses();
+        double[][] indicators = new double[dataSet.getNumDataPoints()][numClasses];
+        for (int i=0;i<dataSet.getNumDataPoints();i++){
+            for (int label: dataSet.getMultiLabels()[i].getMatchedLabels()){
+                indicators[i][label] = 1;
+            }
+        }
+        return indicators;
+    }
+}
@@ -3,6 +3,7 @@ package edu.neu.ccs.pyramid.multilabel_classification.crf;
 import edu.neu.ccs.pyramid.dataset.MultiLabel;
 import edu.neu.ccs.pyramid.multilabel_classification.PluginPredictor;
 import edu.neu.ccs.pyramid.multilabel_classification.plugin_rule.GeneralF1Predictor;
+import edu.neu.ccs.pyramid.multilabel_classification.plugin_rule.SparseGeneralF1Predictor;
 import org.apache.mahout.math.Vector;
 
 import java.util.List;
@@ -23,7 +24,7 @@ public class InstanceF1Predictor implements PluginPredictor<CMLCRF> {
     public MultiLabel predict(Vector vector) {
         List<MultiLabel> supports = cmlcrf.getSupportCombinations();
         double[] probs = cmlcrf.predictCombinationProbs(vector);
-        GeneralF1Predictor generalF1Predictor = new GeneralF1Predictor();
+        SparseGeneralF1Predictor generalF1Predictor = new SparseGeneralF1Predictor();
         return generalF1Predictor.predict(numClasses, supports, probs);
     }
 
@@ -31,7 +32,7 @@ public class InstanceF1Predictor implements PluginPredictor<CMLCRF> {
 //        System.out.println("support procedure");
         List<MultiLabel> support = cmlcrf.getSupportCombinations();
         double[] probs = cmlcrf.predictCombinationProbs(vector);
-        GeneralF1Predictor generalF1Predictor = new GeneralF1Predictor();
+        SparseGeneralF1Predictor generalF1Predictor = new SparseGeneralF1Predictor();
         MultiLabel prediction =  generalF1Predictor.predict(cmlcrf.getNumClasses(),support,probs);
         GeneralF1Predictor.Analysis analysis = GeneralF1Predictor.showSupportPrediction(support,probs, truth, prediction, cmlcrf.getNumClasses());
         return analysis;
@@ -0,0 +1,90 @@
+package edu.neu.ccs.pyramid.multilabel_classification.crf;
+
+import edu.neu.ccs.pyramid.dataset.LabelGraph;
+import edu.neu.ccs.pyramid.dataset.MultiLabel;
+import edu.neu.ccs.pyramid.dataset.MultiLabelClfDataSet;
+import edu.neu.ccs.pyramid.util.Pair;
+
+import java.util.*;
+import java.util.stream.IntStream;
+
+/**
+ * label pairs that get pair-wise weights in CMLCRF
+ * with all (L choose 2) pairs, pair parameters and the work on them grow quadratically in labels;
+ * restricting to pairs with evidence in the training data or a label graph keeps CRF feasible for many labels
+ */
+public class LabelPairs {
+
+    public static List<Pair<Integer,Integer>> all(int numClasses){
+        List<Pair<Integer,Integer>> labelPairs = new ArrayList<>();
+        for (int l1=0; l1<numClasses; l1++) {
+            for (int l2=l1+1; l2<numClasses; l2++) {
+                labelPairs.add(new Pair<>(l1, l2));
+            }
+        }
+        return labelPairs;
+    }
+
+    /**
+     * pairs that co-occur in at least minCount training instances,
+     * and pairs that never co-occur although at least minCount co-occurrences are expected if they were independent
+     * @param minCount positive
+     */
+    public static List<Pair<Integer,Integer>> coOccurring(MultiLabelClfDataSet dataSet, int minCount){
+        if (minCount<=0){
+            throw new IllegalArgumentException("minCount should be positive");
+        }
+        int numClasses = dataSet.getNumClasses();
+        int numData = dataSet.getNumDataPoints();
+        int[] labelCounts = new int[numClasses];
+        Map<Long, Integer> pairCounts = new HashMap<>();
+        for (MultiLabel multiLabel: dataSet.getMultiLabels()){
+            List<Integer> labels = multiLabel.getMatchedLabelsOrdered();
+            for (int i=0;i<labels.size();i++){
+                labelCounts[labels.get(i)] += 1;
+                for (int j=i+1;j<labels.size();j++){
+                    pairCounts.merge((long)labels.get(i)*numClasses+labels.get(j), 1, Integer::sum);
+                }
+            }
+        }
+        List<Pair<Integer,Integer>> labelPairs = new ArrayList<>();
+        for (Map.Entry<Long, Integer> entry: pairCounts.entrySet()){
+            if (entry.getValue()>=minCount){
+                labelPairs.add(new Pair<>((int)(entry.getKey()/numClasses), (int)(entry.getKey()%numClasses)));
+            }
+        }
+        // conflicts; a label needs count >= minCount*numData/maxCount to expect minCount co-occurrences with any label
+        int maxCount = Arrays.stream(labelCounts).max().orElse(0);
+        double countThreshold = maxCount==0 ? Double.POSITIVE_INFINITY : (double) minCount*numData/maxCount;
+        int[] frequentLabels = IntStream.range(0, numClasses).filter(l -> labelCounts[l]>=countThreshold).toArray();
+        for (int i=0;i<frequentLabels.length;i++){
+            for (int j=i+1;j<frequentLabels.length;j++){
+                int l1 = Math.min(frequentLabels[i], frequentLabels[j]);
+                int l2 = Math.max(frequentLabels[i], frequentLabels[j]);
+                double expected = (double)labelCounts[l1]*labelCounts[l2]/numData;
+                if (expected>=minCount && !pairCounts.containsKey((long)l1*numClasses+l2)){
+                    labelPairs.add(new Pair<>(l1, l2));
+                }
+            }
+        }
+        return labelPairs;
+    }
+
+    /**
+     * pairs connected in the label graph: each label with its descendants and its exclusive labels
+     */
+    public static List<Pair<Integer,Integer>> fromLabelGraph(LabelGraph labelGraph, int numClasses){
+        List<Pair<Integer,Integer>> labelPairs = new ArrayList<>();
+        for (int l=0;l<numClasses;l++){
+            Set<Integer> neighbors = new HashSet<>();
+            neighbors.addAll(labelGraph.getDescendantLabels(l));
+            neighbors.addAll(labelGraph.getExclusiveLabels(l));
+            for (int neighbor: neighbors){
+                if (neighbor!=l && neighbor<numClasses){
+                    labelPairs.add(new Pair<>(Math.min(l, neighbor), Math.max(l, neighbor)));
+                }
+            }
+        }
+        return labelPairs;
+    }
+}
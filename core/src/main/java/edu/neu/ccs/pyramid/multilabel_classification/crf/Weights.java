@@ -1,11 +1,13 @@
 package edu.neu.ccs.pyramid.multilabel_classification.crf;
 
+import edu.neu.ccs.pyramid.util.Pair;
 import org.apache.mahout.math.DenseVector;
 import org.apache.mahout.math.Vector;
 import org.apache.mahout.math.VectorView;
 
 import java.io.*;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -18,9 +20,20 @@ public class Weights  implements Serializable {
 
     private int numWeightsForFeatures;
     private int numWeightsForLabels;
+    /**
+     * label pairs with pair-wise weights, ordered by first label, then second label
+     * first label < second label
+     * by default all (numClasses choose 2) pairs
+     */
+    private int[] pairFirstLabels;
+    private int[] pairSecondLabels;
+    /**
+     * for each label, the pairs containing it
+     */
+    private transient int[][] labelToPairs;
     /**
      * size = (numFeatures + 1) * numClasses +
-     * (numClasses choose 2) * 4
+     * (number of label pairs) * 4
      * where equals number of weights features and plus
      * the pair-wise labels, which has 4 possible combinations
      * vector is not serializable
@@ -32,10 +45,19 @@ public class Weights  implements Serializable {
     private double[] serializableWeights;
 
     public Weights(int numClasses, int numFeatures) {
+        this(numClasses, numFeatures, LabelPairs.all(numClasses));
+    }
+
+    /**
+     * only the given label pairs get pair-wise weights
+     * @param labelPairs see LabelPairs
+     */
+    public Weights(int numClasses, int numFeatures, List<Pair<Integer,Integer>> labelPairs) {
         this.numClasses = numClasses;
         this.numFeatures = numFeatures;
+        setLabelPairs(labelPairs);
         this.numWeightsForFeatures = (numFeatures + 1) * numClasses;
-        this.numWeightsForLabels = (numClasses * (numClasses-1)/2) * 4;
+        this.numWeightsForLabels = pairFirstLabels.length * 4;
         this.weightVector = new DenseVector(numWeightsForFeatures + numWeightsForLabels);
         this.serializableWeights = new double[numWeightsForFeatures + numWeightsForLabels];
 //        System.out.println("numWeightsForFeature: " + numWeightsForFeatures);
@@ -44,11 +66,88 @@ public class Weights  implements Serializable {
 
     //todo buggy
     public Weights deepCopy(){
-        Weights copy = new Weights(this.numClasses,numFeatures);
+        Weights copy = new Weights(this.numClasses,numFeatures,getLabelPairs());
         copy.weightVector = new DenseVector(this.weightVector);
         return copy;
     }
 
+    private void setLabelPairs(List<Pair<Integer,Integer>> labelPairs){
+        long[] sorted = new long[labelPairs.size()];
+        for (int p=0;p<labelPairs.size();p++){
+            int l1 = labelPairs.get(p).getFirst();
+            int l2 = labelPairs.get(p).getSecond();
+            if (l1<0 || l2<0 || l1>=numClasses || l2>=numClasses || l1==l2){
+                throw new IllegalArgumentException("invalid label pair ("+l1+", "+l2+") for "+numClasses+" labels");
+            }
+            sorted[p] = (long)Math.min(l1,l2)*numClasses + Math.max(l1,l2);
+        }
+        sorted = Arrays.stream(sorted).sorted().distinct().toArray();
+        this.pairFirstLabels = new int[sorted.length];
+        this.pairSecondLabels = new int[sorted.length];
+        for (int p=0;p<sorted.length;p++){
+            pairFirstLabels[p] = (int)(sorted[p]/numClasses);
+            pairSecondLabels[p] = (int)(sorted[p]%numClasses);
+        }
+        updateLabelToPairs();
+    }
+
+    private void updateLabelToPairs(){
+        int[] degrees = new int[numClasses];
+        for (int p=0;p<pairFirstLabels.length;p++){
+            degrees[pairFirstLabels[p]] += 1;
+            degrees[pairSecondLabels[p]] += 1;
+        }
+        this.labelToPairs = new int[numClasses][];
+        for (int l=0;l<numClasses;l++){
+            labelToPairs[l] = new int[degrees[l]];
+        }
+        Arrays.fill(degrees, 0);
+        for (int p=0;p<pairFirstLabels.length;p++){
+            int l1 = pairFirstLabels[p];
+            int l2 = pairSecondLabels[p];
+            labelToPairs[l1][degrees[l1]++] = p;
+            labelToPairs[l2][degrees[l2]++] = p;
+        }
+    }
+
+    public int getNumLabelPairs(){
+        return pairFirstLabels.length;
+    }
+
+    /**
+     * the weights of pair p start at getNumWeightsForFeatures() + 4*p,
+     * for (first, second) = (0,0), (1,0), (0,1), (1,1)
+     */
+    public int getFirstLabelOfPair(int pair){
+        return pairFirstLabels[pair];
+    }
+
+    public int getSecondLabelOfPair(int pair){
+        return pairSecondLabels[pair];
+    }
+
+    /**
+     * @return pairs containing the label, in increasing pair order
+     */
+    public int[] getPairsForLabel(int label){
+        return labelToPairs[label];
+    }
+
+    public List<Pair<Integer,Integer>> getLabelPairs(){
+        List<Pair<Integer,Integer>> labelPairs = new ArrayList<>(pairFirstLabels.length);
+        for (int p=0;p<pairFirstLabels.length;p++){
+            labelPairs.add(new Pair<>(pairFirstLabels[p], pairSecondLabels[p]));
+        }
+        return labelPairs;
+    }
+
+    /**
+     * @return true if every label pair has pair-wise weights
+     */
+    public boolean hasAllLabelPairs(){
+        return pairFirstLabels.length == numClasses*(numClasses-1)/2;
+    }
+
     /**
      * @param parameterIndex
      * @return the class index
@@ -147,14 +246,12 @@ public class Weights  implements Serializable {
             sb.append("weights = "+getWeightsWithoutBiasForClass(k)).append("\n");
         }
         int start = numWeightsForFeatures;
-        for (int l1=0; l1<numClasses; l1++) {
-            for (int l2=l1+1; l2<numClasses; l2++) {
-                sb.append("label pair weights: (" +l1 +", " + l2  +")\t");
-                sb.append("W(0,0): " + weightVector.get(start) + "\tW(1,0): " + weightVector.get(start+1)+
-                "\tW(0,1): " + weightVector.get(start+2) + "\tW(1,1): "+weightVector.get(start+3));
-                sb.append("\n");
-                start += 4;
-            }
+        for (int p=0; p<pairFirstLabels.length; p++) {
+            sb.append("label pair weights: (" +pairFirstLabels[p] +", " + pairSecondLabels[p]  +")\t");
+            sb.append("W(0,0): " + weightVector.get(start) + "\tW(1,0): " + weightVector.get(start+1)+
+            "\tW(0,1): " + weightVector.get(start+2) + "\tW(1,1): "+weightVector.get(start+3));
+            sb.append("\n");
+            start += 4;
         }
         sb.append('}');
         return sb.toString();
@@ -164,14 +261,14 @@ public class Weights  implements Serializable {
     public List<CRFInspector.PairWeight> printPairWeights(){
         List<CRFInspector.PairWeight> list = new ArrayList<>();
         int start = numWeightsForFeatures;
-        for (int l1=0; l1<numClasses; l1++) {
-            for (int l2=l1+1; l2<numClasses; l2++) {
-                list.add(new CRFInspector.PairWeight(l1, l2, false, false, weightVector.get(start)));
-                list.add(new CRFInspector.PairWeight(l1, l2, true, false, weightVector.get(start+1)));
-                list.add(new CRFInspector.PairWeight(l1, l2, false, true, weightVector.get(start+2)));
-                list.add(new CRFInspector.PairWeight(l1, l2, true, true, weightVector.get(start+3)));
-                start += 4;
-            }
+        for (int p=0; p<pairFirstLabels.length; p++) {
+            int l1 = pairFirstLabels[p];
+            int l2 = pairSecondLabels[p];
+            list.add(new CRFInspector.PairWeight(l1, l2, false, false, weightVector.get(start)));
+            list.add(new CRFInspector.PairWeight(l1, l2, true, false, weightVector.get(start+1)));
+            list.add(new CRFInspector.PairWeight(l1, l2, false, true, weightVector.get(start+2)));
+            list.add(new CRFInspector.PairWeight(l1, l2, true, true, weightVector.get(start+3)));
+            start += 4;
         }
         return list;
     }
@@ -186,7 +283,11 @@ public class Weights  implements Serializable {
         out.writeInt(numWeightsForFeatures);
         out.writeInt(numWeightsForLabels);
         out.writeObject(serializableWeights);
-
+        // models with all label pairs keep the old format
+        if (!hasAllLabelPairs()){
+            out.writeObject(pairFirstLabels);
+            out.writeObject(pairSecondLabels);
+        }
     }
     private void readObject(java.io.ObjectInputStream in)
             throws IOException, ClassNotFoundException{
@@ -195,6 +296,13 @@ public class Weights  implements Serializable {
         numWeightsForFeatures = in.readInt();
         numWeightsForLabels = in.readInt();
         serializableWeights = (double[])in.readObject();
+        if (numWeightsForLabels == numClasses*(numClasses-1)/2*4){
+            setLabelPairs(LabelPairs.all(numClasses));
+        } else {
+            pairFirstLabels = (int[])in.readObject();
+            pairSecondLabels = (int[])in.readObject();
+            updateLabelToPairs();
+        }
         weightVector = new DenseVector(numWeightsForFeatures + numWeightsForLabels);
         for (int i=0;i<serializableWeights.length;i++){
             weightVector.set(i,serializableWeights[i]);
@@ -6,6 +6,9 @@ import edu.neu.ccs.pyramid.dataset.MultiLabel;
 import edu.neu.ccs.pyramid.feature.FeatureList;
 import edu.neu.ccs.pyramid.multilabel_classification.MultiLabelClassifier;
 import edu.neu.ccs.pyramid.regression.Regressor;
+import edu.neu.ccs.pyramid.util.BinaryModelInput;
+import edu.neu.ccs.pyramid.util.BinaryModelOutput;
+import edu.neu.ccs.pyramid.util.BinaryModels;
 import edu.neu.ccs.pyramid.util.MathUtil;
 import org.apache.mahout.math.DenseVector;
 import org.apache.mahout.math.RandomAccessSparseVector;
@@ -24,6 +27,7 @@ import java.util.stream.IntStream;
  */
 public class IMLGradientBoosting implements MultiLabelClassifier.ClassScoreEstimator, MultiLabelClassifier.ClassProbEstimator {
     private static final long serialVersionUID = 4L;
+    private static final int BINARY_VERSION = 1;
     private List<List<Regressor>> regressors;
     private int numClasses;
 
@@ -234,6 +238,37 @@ public class IMLGradientBoosting implements MultiLabelClassifier.ClassScoreEstim
         }
     }
 
+    /**
+     * see BinaryModels
+     */
+    public void writeBinary(BinaryModelOutput out) throws IOException{
+        out.writeInt(BINARY_VERSION);
+        out.writeInt(numClasses);
+        out.writeObject(featureList);
+        out.writeObject(labelTranslator);
+        for (int k=0;k<numClasses;k++){
+            List<Regressor> regressorsClassK = regressors.get(k);
+            out.writeInt(regressorsClassK.size());
+            for (Regressor regressor: regressorsClassK){
+                BinaryModels.writeModel(out, regressor);
+            }
+        }
+    }
+
+    public static IMLGradientBoosting readBinary(BinaryModelInput in) throws IOException{
+        in.readVersion("IMLGradientBoosting", BINARY_VERSION);
+        IMLGradientBoosting boosting = new IMLGradientBoosting(in.readInt());
+        boosting.featureList = (FeatureList) in.readObject();
+        boosting.labelTranslator = (LabelTranslator) in.readObject();
+        for (int k=0;k<boosting.numClasses;k++){
+            int numRegressors = in.readInt();
+            for (int i=0;i<numRegressors;i++){
+                boosting.addRegressor(BinaryModels.readRegressor(in, boosting.featureList), k);
+            }
+        }
+        return boosting;
+    }
+
     @Override
     public FeatureList getFeatureList() {
         return featureList;
@@ -0,0 +1,133 @@
+package edu.neu.ccs.pyramid.multilabel_classification.plugin_rule;
+
+import edu.neu.ccs.pyramid.dataset.MultiLabel;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * GeneralF1Predictor for large label spaces, same predictions
+ * only labels appearing in the candidates get a row in the p matrix; other labels have delta 0 for every size
+ * and never enter the best set, since deltas only shrink as the size grows
+ * delta for size k costs O(#active labels * maxSize); the best k labels are selected without sorting all labels
+ */
+public class SparseGeneralF1Predictor {
+    // max label set size
+    private int maxSize = 20;
+
+    public void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     *
+     * @param numClasses
+     * @param multiLabels combinations with non-zero probabilities
+     * @param probabilities associated probabilities
+     * @return
+     */
+    public MultiLabel predict(int numClasses, List<MultiLabel> multiLabels, double[] probabilities){
+        return predict(numClasses, multiLabels, probabilities, 0);
+    }
+
+    /**
+     *
+     * @param numClasses
+     * @param samples sampled multi-labels; can have duplicates; each one has probability 1/#samples
+     * @return
+     */
+    public MultiLabel predict(int numClasses, List<MultiLabel> samples){
+        return predict(numClasses, samples, null, 1.0/samples.size());
+    }
+
+    // probabilities==null means every candidate has weight sampleWeight
+    private MultiLabel predict(int numClasses, List<MultiLabel> multiLabels, double[] probabilities, double sampleWeight){
+        int min = Math.min(maxSize, numClasses);
+
+        int total = 0;
+        for (MultiLabel multiLabel: multiLabels){
+            int s = multiLabel.getNumMatchedLabels();
+            if (s<=min){
+                total += s;
+            }
+        }
+        int[] activeLabels = new int[total];
+        int pos = 0;
+        for (MultiLabel multiLabel: multiLabels){
+            if (multiLabel.getNumMatchedLabels()<=min){
+                for (int l: multiLabel.getMatchedLabels()){
+                    activeLabels[pos] = l;
+                    pos += 1;
+                }
+            }
+        }
+        Arrays.sort(activeLabels);
+        int numActive = 0;
+        for (int i=0;i<total;i++){
+            if (i==0 || activeLabels[i]!=activeLabels[i-1]){
+                activeLabels[numActive] = activeLabels[i];
+                numActive += 1;
+            }
+        }
+
+        // format [#active labels][min], row major
+        double[] pMatrix = new double[numActive*min];
+        double zeroProbability = 0;
+        for (int j=0;j<multiLabels.size();j++){
+            MultiLabel multiLabel = multiLabels.get(j);
+            double prob = probabilities==null ? sampleWeight : probabilities[j];
+            int s = multiLabel.getNumMatchedLabels();
+            if (s==0){
+                zeroProbability += prob;
+            } else if (s<=min){
+                for (int l: multiLabel.getMatchedLabels()){
+                    int row = Arrays.binarySearch(activeLabels, 0, numActive, l);
+                    pMatrix[row*min+s-1] += prob;
+                }
+            }
+        }
+
+        MultiLabel best = new MultiLabel();
+        double bestScore = zeroProbability;
+        double[] delta = new double[numActive];
+        // the best k rows so far, by decreasing delta; ties keep the smaller label first
+        int[] top = new int[Math.min(min, numActive)];
+        for (int k=1;k<=top.length;k++){
+            for (int i=0;i<numActive;i++){
+                double sum = 0;
+                int offset = i*min;
+                for (int s=1;s<=min;s++){
+                    sum += 2*pMatrix[offset+s-1]/(s+k);
+                }
+                delta[i] = sum;
+            }
+            int size = 0;
+            for (int i=0;i<numActive;i++){
+                if (size==k && delta[i]<=delta[top[k-1]]){
+                    continue;
+                }
+                int insert = size==k ? k-1 : size;
+                while (insert>0 && delta[top[insert-1]]<delta[i]){
+                    top[insert] = top[insert-1];
+                    insert -= 1;
+                }
+                top[insert] = i;
+                if (size<k){
+                    size += 1;
+                }
+            }
+            double score = 0;
+            for (int r=0;r<k;r++){
+                score += delta[top[r]];
+            }
+            if (score>bestScore){
+                bestScore = score;
+                best = new MultiLabel();
+                for (int r=0;r<k;r++){
+                    best.addLabel(activeLabels[top[r]]);
+                }
+            }
+        }
+        return best;
+    }
+}
@@ -32,9 +32,15 @@ public class IndependentPredictor implements PluginPredictor<MultiLabelClassifie
 
     @Override
     public MultiLabel predict(Vector vector) {
-        MultiLabel prediction = new MultiLabel();
         double[] uncalibrated = classifier.predictClassProbs(vector);
-        double[] calibrated = labelCalibrator.calibratedClassProbs(uncalibrated);
+        return predictByCalibratedProbs(labelCalibrator.calibratedClassProbs(uncalibrated));
+    }
+
+    /**
+     * @param calibrated class probabilities already calibrated by the label calibrator
+     */
+    public MultiLabel predictByCalibratedProbs(double[] calibrated) {
+        MultiLabel prediction = new MultiLabel();
         for (int k=0;k<getNumClasses();k++){
             if (calibrated[k] >= 0.5){
                 prediction.addLabel(k);
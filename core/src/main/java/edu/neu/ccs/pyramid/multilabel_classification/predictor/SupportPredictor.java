@@ -68,7 +68,13 @@ public class SupportPredictor implements PluginPredictor<MultiLabelClassifier.Cl
     @Override
     public MultiLabel predict(Vector vector) {
         double[] uncali = classifier.predictClassProbs(vector);
-        double[] marginals = labelCalibrator.calibratedClassProbs(uncali);
+        return predictByCalibratedProbs(vector, labelCalibrator.calibratedClassProbs(uncali));
+    }
+
+    /**
+     * @param marginals class probabilities already calibrated by the label calibrator
+     */
+    public MultiLabel predictByCalibratedProbs(Vector vector, double[] marginals) {
         List<Pair<MultiLabel,Double>> candidates = new ArrayList<>();
         DynamicProgramming dynamicProgramming = new DynamicProgramming(marginals);
         List<Pair<MultiLabel,Double>> sparseJoint = dynamicProgramming.topK(50);
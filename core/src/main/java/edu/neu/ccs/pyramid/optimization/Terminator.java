@@ -213,6 +213,18 @@ public class Terminator implements Serializable{
         return this;
     }
 
+    /**
+     * forget the recorded values, keep the settings
+     * for running the same optimizer again, e.g. on a slightly changed objective
+     */
+    public void reset(){
+        this.history = new ArrayList<>();
+        this.min = Double.POSITIVE_INFINITY;
+        this.max = Double.NEGATIVE_INFINITY;
+        this.stableCounter = 0;
+        this.forceTerminated = false;
+    }
+
     /**
      * user decide to terminate
      */
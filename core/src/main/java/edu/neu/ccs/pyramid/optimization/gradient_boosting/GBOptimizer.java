@@ -39,6 +39,21 @@ public abstract class GBOptimizer {
         this(boosting, dataSet, factory, defaultWeights(dataSet.getNumDataPoints()));
     }
 
+    /**
+     * replace the instance weights; scores do not depend on them, so an initialized optimizer can continue
+     * the weights are copied, callers may keep updating their array
+     */
+    public void setWeights(double[] weights) {
+        if (weights.length!=dataSet.getNumDataPoints()){
+            throw new IllegalArgumentException("weights.length = "+weights.length+", number of data points = "+dataSet.getNumDataPoints());
+        }
+        this.weights = Arrays.copyOf(weights, weights.length);
+    }
+
+    public DataSet getDataSet() {
+        return dataSet;
+    }
+
     public void setMonotonicity(int[][] monotonicity) {
         this.monotonicity = monotonicity;
     }
@@ -0,0 +1,42 @@
+package edu.neu.ccs.pyramid.regression.regression_tree;
+
+import edu.neu.ccs.pyramid.dataset.DataSet;
+import edu.neu.ccs.pyramid.dataset.NonZeroAccess;
+import edu.neu.ccs.pyramid.dataset.NonZeroConsumer;
+import org.apache.mahout.math.Vector;
+
+/**
+ * column access for the tree trainers
+ * compressed data sets are read through NonZeroAccess, since their getColumn builds a new vector on every call
+ */
+class Columns {
+
+    static int getNumNonZeros(DataSet dataSet, int featureIndex){
+        if (dataSet instanceof NonZeroAccess){
+            return ((NonZeroAccess) dataSet).getNumNonZerosInColumn(featureIndex);
+        }
+        return dataSet.getColumn(featureIndex).getNumNonZeroElements();
+    }
+
+    /**
+     * visits non-zero and NaN values
+     */
+    static void forEachNonZero(DataSet dataSet, int featureIndex, NonZeroConsumer consumer){
+        if (dataSet instanceof NonZeroAccess){
+            ((NonZeroAccess) dataSet).forEachNonZeroInColumn(featureIndex, consumer);
+            return;
+        }
+        for (Vector.Element element: dataSet.getColumn(featureIndex).nonZeroes()){
+            consumer.accept(element.index(), element.get());
+        }
+    }
+
+    /**
+     * @return format [#data]
+     */
+    static double[] toArray(DataSet dataSet, int featureIndex){
+        double[] values = new double[dataSet.getNumDataPoints()];
+        forEachNonZero(dataSet, featureIndex, (i, value) -> values[i] = value);
+        return values;
+    }
+}
@@ -3,7 +3,6 @@ package edu.neu.ccs.pyramid.regression.regression_tree;
 import edu.neu.ccs.pyramid.dataset.DataSet;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.apache.mahout.math.Vector;
 
 import java.util.ArrayList;
 import java.util.Comparator;
@@ -21,11 +20,10 @@ class IntervalSplitter {
                                        double[] probs,
                                        int featureIndex,
                                        Splitter.GlobalStats globalStats){
-        Vector featureValues = dataSet.getColumn(featureIndex);
-        if (featureValues.getNumNonZeroElements()==0){
+        if (Columns.getNumNonZeros(dataSet, featureIndex)==0){
             return Optional.empty();
         }
-        List<Interval> possibleIntervals = generateIntervals(regTreeConfig, featureValues, probs, labels, globalStats);
+        List<Interval> possibleIntervals = generateIntervals(regTreeConfig, dataSet, featureIndex, probs, labels, globalStats);
         List<Interval> compressedIntervals = compress(possibleIntervals);
         return findBest(regTreeConfig,compressedIntervals,featureIndex);
     }
@@ -38,21 +36,21 @@ class IntervalSplitter {
                                        int featureIndex,
                                        Splitter.GlobalStats globalStats,
                                        int[] monotonicity){
-        Vector featureValues = dataSet.getColumn(featureIndex);
-        if (featureValues.getNumNonZeroElements()==0){
+        if (Columns.getNumNonZeros(dataSet, featureIndex)==0){
             return Optional.empty();
         }
-        List<Interval> possibleIntervals = generateIntervals(regTreeConfig, featureValues, probs, labels, globalStats);
+        List<Interval> possibleIntervals = generateIntervals(regTreeConfig, dataSet, featureIndex, probs, labels, globalStats);
         List<Interval> compressedIntervals = compress(possibleIntervals);
         return findBest(regTreeConfig,compressedIntervals,featureIndex, monotonicity);
     }
 
     static List<Interval> generateIntervals(RegTreeConfig regTreeConfig,
-                                            Vector featureValues,
+                                            DataSet dataSet,
+                                            int featureIndex,
                                             double[] probs,
                                             double[] labels,
                                             Splitter.GlobalStats globalStats){
-        FeatureStats featureStats = new FeatureStats(featureValues,probs,labels, globalStats);
+        FeatureStats featureStats = new FeatureStats(dataSet, featureIndex, probs, labels, globalStats);
         if (logger.isDebugEnabled()){
             logger.debug("feature statistics = "+featureStats);
         }
@@ -103,9 +101,7 @@ class IntervalSplitter {
 
         // for non-zero values
         if (featureStats.getNonZeroBinaryCount()>0){
-            for (Vector.Element element: featureValues.nonZeroes()){
-                int i = element.index();
-                double featureValue = element.get();
+            Columns.forEachNonZero(dataSet, featureIndex, (i, featureValue) -> {
                 double label = labels[i];
                 // if probs[i]==0, its feature value may be bigger than max or smaller than min,
                 // so we should skip it
@@ -119,7 +115,7 @@ class IntervalSplitter {
                     double oldWeightedLabelSum = interval.getWeightedSum();
                     interval.setWeightedSum(oldWeightedLabelSum + label*probability);
                 }
-            }
+            });
         }
 
         // for zero values, do all of them together, as they all go to the same interval
@@ -358,19 +354,18 @@ class IntervalSplitter {
 
         /**
          * gather statistics for one feature column by scanning only non-zero elements
-         * @param featureValues
+         * @param dataSet
+         * @param featureIndex
          * @param probs
          * @param globalStats
          */
-        FeatureStats(Vector featureValues, double[] probs, double[] labels, Splitter.GlobalStats globalStats) {
+        FeatureStats(DataSet dataSet, int featureIndex, double[] probs, double[] labels, Splitter.GlobalStats globalStats) {
             min = Double.POSITIVE_INFINITY;
             max = Double.NEGATIVE_INFINITY;
-            // the iterator considers non zero and NaN
-            for (Vector.Element element: featureValues.nonZeroes()){
-                int index = element.index();
+            // the iteration considers non zero and NaN
+            Columns.forEachNonZero(dataSet, featureIndex, (index, value) -> {
                 double prob = probs[index];
                 if (prob>0){
-                    double value = element.get();
                     double label = labels[index];
                     if (Double.isNaN(value)){
                         nanBinaryCount += 1;
@@ -388,7 +383,7 @@ class IntervalSplitter {
                         }
                     }
                 }
-            }
+            });
 
             zeroBinaryCount = globalStats.getBinaryCount() - nonZeroBinaryCount - nanBinaryCount;
             zeroProbCount = globalStats.getProbabilisticCount() - nonZeroProbCount - nanProbCount;
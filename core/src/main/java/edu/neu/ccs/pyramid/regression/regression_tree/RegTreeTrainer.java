@@ -2,8 +2,6 @@ package edu.neu.ccs.pyramid.regression.regression_tree;
 
 import edu.neu.ccs.pyramid.dataset.DataSet;
 import edu.neu.ccs.pyramid.dataset.RegDataSet;
-import org.apache.mahout.math.DenseVector;
-import org.apache.mahout.math.Vector;
 
 import java.util.*;
 
@@ -186,13 +184,7 @@ public class RegTreeTrainer {
          */
         int featureIndex = leafToSplit.getFeatureIndex();
         double threshold = leafToSplit.getThreshold();
-        Vector inputVector = dataSet.getColumn(featureIndex);
-        Vector columnVector;
-        if (inputVector.isDense()){
-            columnVector = inputVector;
-        } else {
-            columnVector = new DenseVector(inputVector);
-        }
+        double[] columnValues = Columns.toArray(dataSet, featureIndex);
         /**
          * create children
          */
@@ -211,7 +203,7 @@ public class RegTreeTrainer {
             intStream = intStream.parallel();
         }
         intStream.forEach(i->{
-            double featureValue = columnVector.get(i);
+            double featureValue = columnValues[i];
             if (Double.isNaN(featureValue)){
                 // go to both branches probabilistically
                 leftProbs[i] = parentProbs[i]*leafToSplit.getLeftProb();
@@ -277,13 +269,7 @@ public class RegTreeTrainer {
          */
         int featureIndex = leafToSplit.getFeatureIndex();
         double threshold = leafToSplit.getThreshold();
-        Vector inputVector = dataSet.getColumn(featureIndex);
-        Vector columnVector;
-        if (inputVector.isDense()){
-            columnVector = inputVector;
-        } else {
-            columnVector = new DenseVector(inputVector);
-        }
+        double[] columnValues = Columns.toArray(dataSet, featureIndex);
         /**
          * create children
          */
@@ -302,7 +288,7 @@ public class RegTreeTrainer {
             intStream = intStream.parallel();
         }
         intStream.forEach(i->{
-            double featureValue = columnVector.get(i);
+            double featureValue = columnValues[i];
             if (Double.isNaN(featureValue)){
                 // go to both branches probabilistically
                 leftProbs[i] = parentProbs[i]*leafToSplit.getLeftProb();
@@ -3,8 +3,11 @@ package edu.neu.ccs.pyramid.regression.regression_tree;
 import edu.neu.ccs.pyramid.feature.FeatureList;
 import edu.neu.ccs.pyramid.regression.GeneralTreeRule;
 import edu.neu.ccs.pyramid.regression.Regressor;
+import edu.neu.ccs.pyramid.util.BinaryModelInput;
+import edu.neu.ccs.pyramid.util.BinaryModelOutput;
 import org.apache.mahout.math.Vector;
 
+import java.io.IOException;
 import java.io.Serializable;
 
 import java.util.*;
@@ -32,6 +35,7 @@ import org.jpmml.converter.ValueUtil;
 public class RegressionTree implements Regressor, Serializable {
 
     private static final long serialVersionUID = 4L;
+    private static final int BINARY_VERSION = 1;
 
     /**
      * including intermediate nodes
@@ -418,6 +422,99 @@ public class RegressionTree implements Regressor, Serializable {
         this.featureList = featureList;
     }
 
+    /**
+     * see BinaryModels
+     * nodes are flattened in pre-order; children, leaves and allNodes refer to positions in that order
+     * the feature list is not written; the model containing the tree restores it
+     */
+    public void writeBinary(BinaryModelOutput out) throws IOException{
+        List<Node> nodes = root==null ? new ArrayList<>() : traverse();
+        int size = nodes.size();
+        Map<Node, Integer> positions = new IdentityHashMap<>();
+        for (int i=0;i<size;i++){
+            positions.put(nodes.get(i), i);
+        }
+        int[] ids = new int[size];
+        int[] featureIndices = new int[size];
+        int[] leftChildren = new int[size];
+        int[] rightChildren = new int[size];
+        double[] thresholds = new double[size];
+        double[] values = new double[size];
+        double[] reductions = new double[size];
+        double[] leftProbs = new double[size];
+        double[] rightProbs = new double[size];
+        for (int i=0;i<size;i++){
+            Node node = nodes.get(i);
+            ids[i] = node.getId();
+            featureIndices[i] = node.getFeatureIndex();
+            thresholds[i] = node.getThreshold();
+            values[i] = node.getValue();
+            reductions[i] = node.getReduction();
+            leftProbs[i] = node.getLeftProb();
+            rightProbs[i] = node.getRightProb();
+            leftChildren[i] = node.isLeaf() ? -1 : positions.get(node.getLeftChild());
+            rightChildren[i] = node.isLeaf() ? -1 : positions.get(node.getRightChild());
+        }
+        out.writeInt(BINARY_VERSION);
+        out.writeInt(numNodes);
+        out.writeInts(ids);
+        out.writeInts(featureIndices);
+        out.writeInts(leftChildren);
+        out.writeInts(rightChildren);
+        out.writeDoubles(thresholds);
+        out.writeDoubles(values);
+        out.writeDoubles(reductions);
+        out.writeDoubles(leftProbs);
+        out.writeDoubles(rightProbs);
+        out.writeInts(leaves.stream().mapToInt(positions::get).toArray());
+        out.writeInts(allNodes.stream().mapToInt(positions::get).toArray());
+    }
+
+    public static RegressionTree readBinary(BinaryModelInput in) throws IOException{
+        in.readVersion("RegressionTree", BINARY_VERSION);
+        RegressionTree tree = new RegressionTree();
+        tree.numNodes = in.readInt();
+        int[] ids = in.readInts();
+        int[] featureIndices = in.readInts();
+        int[] leftChildren = in.readInts();
+        int[] rightChildren = in.readInts();
+        double[] thresholds = in.readDoubles();
+        double[] values = in.readDoubles();
+        double[] reductions = in.readDoubles();
+        double[] leftProbs = in.readDoubles();
+        double[] rightProbs = in.readDoubles();
+        int size = ids.length;
+        Node[] nodes = new Node[size];
+        for (int i=0;i<size;i++){
+            Node node = new Node();
+            node.setId(ids[i]);
+            node.setFeatureIndex(featureIndices[i]);
+            node.setThreshold(thresholds[i]);
+            node.setValue(values[i]);
+            node.setReduction(reductions[i]);
+            node.setLeftProb(leftProbs[i]);
+            node.setRightProb(rightProbs[i]);
+            node.setLeaf(leftChildren[i]<0);
+            nodes[i] = node;
+        }
+        for (int i=0;i<size;i++){
+            if (leftChildren[i]>=0){
+                nodes[i].setLeftChild(nodes[leftChildren[i]]);
+                nodes[i].setRightChild(nodes[rightChildren[i]]);
+            }
+        }
+        if (size>0){
+            tree.root = nodes[0];
+        }
+        for (int position: in.readInts()){
+            tree.leaves.add(nodes[position]);
+        }
+        for (int position: in.readInts()){
+            tree.allNodes.add(nodes[position]);
+        }
+        return tree;
+    }
+
     public List<GeneralTreeRule> getRules(){
         List<GeneralTreeRule> list = new ArrayList<>();
         for (Node leaf: leaves){
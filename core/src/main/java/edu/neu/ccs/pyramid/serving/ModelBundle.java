@@ -0,0 +1,207 @@
+package edu.neu.ccs.pyramid.serving;
+
+import edu.neu.ccs.pyramid.calibration.LabelCalibrator;
+import edu.neu.ccs.pyramid.calibration.PredictionCandidate;
+import edu.neu.ccs.pyramid.calibration.PredictionFeatureExtractor;
+import edu.neu.ccs.pyramid.calibration.Reranker;
+import edu.neu.ccs.pyramid.calibration.VectorCalibrator;
+import edu.neu.ccs.pyramid.dataset.*;
+import edu.neu.ccs.pyramid.feature.FeatureList;
+import edu.neu.ccs.pyramid.multilabel_classification.DynamicProgramming;
+import edu.neu.ccs.pyramid.multilabel_classification.MultiLabelClassifier;
+import edu.neu.ccs.pyramid.multilabel_classification.predictor.IndependentPredictor;
+import edu.neu.ccs.pyramid.multilabel_classification.predictor.SupportPredictor;
+import edu.neu.ccs.pyramid.util.Pair;
+import edu.neu.ccs.pyramid.util.Serialization;
+import org.apache.mahout.math.Vector;
+
+import java.io.File;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.stream.IntStream;
+
+/**
+ * everything needed to score documents with one trained model, loaded once and kept in memory
+ * the model directory has the layout written by the BR apps (model_predictions/[modelFolder]/models):
+ * classifier, support, and calibrators/[calibratorFolder]/{label_calibrator, set_calibrator, prediction_feature_extractor}
+ * predictions and confidences are the same as in BRPrediction
+ * immutable and safe to use from multiple threads
+ */
+public class ModelBundle {
+    private final String version;
+    private final long loadTime;
+    private final MultiLabelClassifier.ClassProbEstimator classProbEstimator;
+    private final LabelCalibrator labelCalibrator;
+    private final VectorCalibrator setCalibrator;
+    private final PredictionFeatureExtractor predictionFeatureExtractor;
+    private final MultiLabelClassifier classifier;
+    private final String predictMode;
+    private final int numFeatures;
+    private final Map<String, Integer> featureIndices;
+
+    private ModelBundle(String version, MultiLabelClassifier.ClassProbEstimator classProbEstimator,
+                        LabelCalibrator labelCalibrator, VectorCalibrator setCalibrator,
+                        PredictionFeatureExtractor predictionFeatureExtractor, MultiLabelClassifier classifier,
+                        String predictMode) {
+        this.version = version;
+        this.loadTime = System.currentTimeMillis();
+        this.classProbEstimator = classProbEstimator;
+        this.labelCalibrator = labelCalibrator;
+        this.setCalibrator = setCalibrator;
+        this.predictionFeatureExtractor = predictionFeatureExtractor;
+        this.classifier = classifier;
+        this.predictMode = predictMode;
+        FeatureList featureList = classProbEstimator.getFeatureList();
+        if (featureList==null){
+            throw new IllegalArgumentException("the classifier has no feature list, features cannot be looked up by name");
+        }
+        this.numFeatures = featureList.size();
+        this.featureIndices = new HashMap<>();
+        for (int j=0;j<featureList.size();j++){
+            featureIndices.put(featureList.get(j).getName(), j);
+        }
+    }
+
+    /**
+     *
+     * @param modelDirectory
+     * @param calibratorFolder
+     * @param predictMode independent, support or reranker, see BRPrediction
+     * @param minSize only used by reranker
+     * @param maxSize only used by reranker
+     * @return a bundle that has already scored one document
+     * @throws Exception
+     */
+    public static ModelBundle load(File modelDirectory, String calibratorFolder, String predictMode,
+                                   int minSize, int maxSize) throws Exception{
+        File calibrators = Paths.get(modelDirectory.getAbsolutePath(), "calibrators", calibratorFolder).toFile();
+        MultiLabelClassifier.ClassProbEstimator classProbEstimator = (MultiLabelClassifier.ClassProbEstimator)
+                Serialization.deserialize(new File(modelDirectory, "classifier"));
+        LabelCalibrator labelCalibrator = (LabelCalibrator) Serialization.deserialize(new File(calibrators, "label_calibrator"));
+        VectorCalibrator setCalibrator = (VectorCalibrator) Serialization.deserialize(new File(calibrators, "set_calibrator"));
+        PredictionFeatureExtractor predictionFeatureExtractor = (PredictionFeatureExtractor)
+                Serialization.deserialize(new File(calibrators, "prediction_feature_extractor"));
+
+        MultiLabelClassifier classifier;
+        switch (predictMode){
+            case "independent":
+                classifier = new IndependentPredictor(classProbEstimator, labelCalibrator);
+                break;
+            case "support":
+                List<MultiLabel> support = (List<MultiLabel>) Serialization.deserialize(new File(modelDirectory, "support"));
+                classifier = new SupportPredictor(classProbEstimator, labelCalibrator, setCalibrator, predictionFeatureExtractor, support);
+                break;
+            case "reranker":
+                Reranker reranker = (Reranker) setCalibrator;
+                reranker.setMinPredictionSize(minSize);
+                reranker.setMaxPredictionSize(maxSize);
+                classifier = reranker;
+                break;
+            default:
+                throw new IllegalArgumentException("illegal predict.mode");
+        }
+        ModelBundle bundle = new ModelBundle(modelDirectory.getName(), classProbEstimator, labelCalibrator,
+                setCalibrator, predictionFeatureExtractor, classifier, predictMode);
+        // warm up before the bundle takes traffic
+        bundle.predict(Collections.singletonList(Collections.emptyMap()));
+        return bundle;
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+    public long getLoadTime() {
+        return loadTime;
+    }
+
+    public int getNumFeatures() {
+        return numFeatures;
+    }
+
+    /**
+     * scores a batch; the class probabilities of each document are computed and calibrated once,
+     * and both the predicted set and its confidence are derived from them
+     * @param documents feature name to value for each document; unknown feature names are ignored
+     * @return predictions in document order
+     */
+    public List<Prediction> predict(List<Map<String, Double>> documents){
+        MultiLabelClfDataSet dataSet = MLClfDataSetBuilder.getBuilder()
+                .numDataPoints(documents.size())
+                .numFeatures(Math.max(numFeatures, 1))
+                .numClasses(classifier.getNumClasses())
+                .density(Density.SPARSE_RANDOM)
+                .build();
+        for (int i=0;i<documents.size();i++){
+            for (Map.Entry<String, Double> entry: documents.get(i).entrySet()){
+                Integer featureIndex = featureIndices.get(entry.getKey());
+                if (featureIndex!=null){
+                    dataSet.setFeatureValue(i, featureIndex, entry.getValue());
+                }
+            }
+        }
+        Prediction[] results = new Prediction[documents.size()];
+        IntStream.range(0, documents.size()).parallel()
+                .forEach(i -> results[i] = prediction(dataSet.getRow(i)));
+        return Arrays.asList(results);
+    }
+
+    private Prediction prediction(Vector vector){
+        double[] classProbs = classProbEstimator.predictClassProbs(vector);
+        double[] calibratedClassProbs = labelCalibrator.calibratedClassProbs(classProbs);
+        MultiLabel predicted;
+        switch (predictMode){
+            case "independent":
+                predicted = ((IndependentPredictor) classifier).predictByCalibratedProbs(calibratedClassProbs);
+                break;
+            case "support":
+                predicted = ((SupportPredictor) classifier).predictByCalibratedProbs(vector, calibratedClassProbs);
+                break;
+            default:
+                // the reranker calibrates with its own label calibrator
+                predicted = ((Reranker) classifier).predict(vector, classProbs);
+        }
+        PredictionCandidate predictedCandidate = new PredictionCandidate();
+        predictedCandidate.multiLabel = predicted;
+        predictedCandidate.labelProbs = calibratedClassProbs;
+        predictedCandidate.x = vector;
+        DynamicProgramming dynamicProgramming = new DynamicProgramming(calibratedClassProbs);
+        List<Pair<MultiLabel,Double>> sparseJoint = dynamicProgramming.topK(50);
+        predictedCandidate.sparseJoint = sparseJoint;
+        double confidence = setCalibrator.calibrate(predictionFeatureExtractor.extractFeatures(predictedCandidate));
+
+        LabelTranslator labelTranslator = classProbEstimator.getLabelTranslator();
+        Prediction prediction = new Prediction();
+        prediction.confidence = confidence;
+        for (int label: predicted.getMatchedLabelsOrdered()){
+            String extLabel = labelTranslator.toExtLabel(label);
+            prediction.labels.add(extLabel);
+            prediction.labelProbs.put(extLabel, calibratedClassProbs[label]);
+        }
+        return prediction;
+    }
+
+    public static class Prediction {
+        private List<String> labels = new ArrayList<>();
+        /**
+         * calibrated probabilities of the predicted labels
+         */
+        private Map<String, Double> labelProbs = new LinkedHashMap<>();
+        /**
+         * calibrated probability of the whole predicted set
+         */
+        private double confidence;
+
+        public List<String> getLabels() {
+            return labels;
+        }
+
+        public Map<String, Double> getLabelProbs() {
+            return labelProbs;
+        }
+
+        public double getConfidence() {
+            return confidence;
+        }
+    }
+}
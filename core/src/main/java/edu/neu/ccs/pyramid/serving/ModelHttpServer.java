@@ -0,0 +1,167 @@
+package edu.neu.ccs.pyramid.serving;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * small local HTTP endpoint in front of a ModelServer
+ * POST /predict: a document {"id": "...", "features": {"name": value, ...}} or an array of documents;
+ * responds with {"id": "...", "labels": [...], "labelProbs": {...}, "confidence": ...} for each document
+ * GET /metrics: latency and throughput, plus the model version being served
+ * POST /reload: checks the model root for a new version
+ */
+public class ModelHttpServer implements AutoCloseable{
+    private static final Logger logger = LogManager.getLogger();
+    private final ModelServer modelServer;
+    private final HttpServer httpServer;
+    private final ExecutorService executor;
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    /**
+     *
+     * @param modelServer
+     * @param host use localhost to accept local connections only
+     * @param port
+     * @param numThreads number of requests handled concurrently
+     * @throws IOException
+     */
+    public ModelHttpServer(ModelServer modelServer, String host, int port, int numThreads) throws IOException {
+        this.modelServer = modelServer;
+        this.httpServer = HttpServer.create(new InetSocketAddress(host, port), 0);
+        this.executor = Executors.newFixedThreadPool(numThreads);
+        httpServer.setExecutor(executor);
+        httpServer.createContext("/predict", exchange -> handle(exchange, "POST", this::predict));
+        httpServer.createContext("/metrics", exchange -> handle(exchange, "GET", this::metrics));
+        httpServer.createContext("/reload", exchange -> handle(exchange, "POST", this::reload));
+    }
+
+    public void start(){
+        httpServer.start();
+        logger.info("listening on "+httpServer.getAddress());
+    }
+
+    public InetSocketAddress getAddress(){
+        return httpServer.getAddress();
+    }
+
+    private Object predict(HttpExchange exchange) throws Exception{
+        JsonNode body;
+        try (InputStream inputStream = exchange.getRequestBody()){
+            body = mapper.readTree(inputStream);
+        }
+        if (body==null){
+            throw new IllegalArgumentException("empty request");
+        }
+        boolean single = !body.isArray();
+        List<JsonNode> documents = new ArrayList<>();
+        if (single){
+            documents.add(body);
+        } else {
+            body.forEach(documents::add);
+        }
+        List<CompletableFuture<ModelBundle.Prediction>> futures = new ArrayList<>(documents.size());
+        for (JsonNode document: documents){
+            futures.add(modelServer.predict(features(document)));
+        }
+        List<Map<String, Object>> results = new ArrayList<>(documents.size());
+        for (int i=0;i<documents.size();i++){
+            ModelBundle.Prediction prediction = futures.get(i).get();
+            Map<String, Object> result = new LinkedHashMap<>();
+            JsonNode id = documents.get(i).get("id");
+            if (id!=null){
+                result.put("id", id.asText());
+            }
+            result.put("labels", prediction.getLabels());
+            result.put("labelProbs", prediction.getLabelProbs());
+            result.put("confidence", prediction.getConfidence());
+            results.add(result);
+        }
+        if (single){
+            return results.get(0);
+        }
+        return results;
+    }
+
+    private Map<String, Double> features(JsonNode document){
+        JsonNode features = document.get("features");
+        if (features==null || !features.isObject()){
+            throw new IllegalArgumentException("each document needs a features object");
+        }
+        Map<String, Double> map = new HashMap<>();
+        Iterator<Map.Entry<String, JsonNode>> fields = features.fields();
+        while (fields.hasNext()){
+            Map.Entry<String, JsonNode> field = fields.next();
+            if (!field.getValue().isNumber()){
+                throw new IllegalArgumentException("feature "+field.getKey()+" is not a number");
+            }
+            map.put(field.getKey(), field.getValue().asDouble());
+        }
+        return map;
+    }
+
+    private Object metrics(HttpExchange exchange){
+        Map<String, Object> map = new LinkedHashMap<>();
+        ModelBundle bundle = modelServer.getBundle();
+        map.put("version", bundle.getVersion());
+        map.put("loadTime", bundle.getLoadTime());
+        map.putAll(modelServer.getMetrics().toMap());
+        return map;
+    }
+
+    private Object reload(HttpExchange exchange) throws Exception{
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("reloaded", modelServer.reload());
+        map.put("version", modelServer.getBundle().getVersion());
+        return map;
+    }
+
+    private void handle(HttpExchange exchange, String method, Handler handler) throws IOException{
+        int status;
+        Object response;
+        try {
+            if (!exchange.getRequestMethod().equalsIgnoreCase(method)){
+                status = 405;
+                response = Collections.singletonMap("error", method+" expected");
+            } else {
+                response = handler.handle(exchange);
+                status = 200;
+            }
+        } catch (IllegalArgumentException | IOException e){
+            status = 400;
+            response = Collections.singletonMap("error", String.valueOf(e.getMessage()));
+        } catch (Exception e){
+            logger.error("failed to handle "+exchange.getRequestURI(), e);
+            status = 500;
+            response = Collections.singletonMap("error", String.valueOf(e.getMessage()));
+        }
+        byte[] bytes = mapper.writeValueAsBytes(response);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream outputStream = exchange.getResponseBody()){
+            outputStream.write(bytes);
+        }
+    }
+
+    @Override
+    public void close(){
+        httpServer.stop(0);
+        executor.shutdown();
+    }
+
+    private interface Handler{
+        Object handle(HttpExchange exchange) throws Exception;
+    }
+}
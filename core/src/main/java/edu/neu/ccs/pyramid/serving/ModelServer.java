@@ -0,0 +1,309 @@
+package edu.neu.ccs.pyramid.serving;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * long-running, embeddable scoring service that keeps a ModelBundle in memory
+ * concurrent requests are queued and scored together in micro-batches of at most maxBatchSize documents,
+ * waiting at most maxBatchDelayMillis for a batch to fill
+ * the model root is either a model directory itself, or contains one model directory per version;
+ * the version with the largest name is served
+ * new versions should be written elsewhere and moved into the model root, so they appear complete
+ * reloading loads and warms up the new bundle before swapping it in atomically; a batch is always scored by a single bundle
+ */
+public class ModelServer implements AutoCloseable{
+    private static final Logger logger = LogManager.getLogger();
+    private final File modelRoot;
+    private final String calibratorFolder;
+    private final String predictMode;
+    private final int minSize;
+    private final int maxSize;
+    private final int maxBatchSize;
+    private final long maxBatchDelayNanos;
+    private final AtomicReference<ModelBundle> bundle = new AtomicReference<>();
+    private final BlockingQueue<Request> queue = new LinkedBlockingQueue<>();
+    private final ServingMetrics metrics = new ServingMetrics();
+    private final Thread batcher;
+    private final ScheduledExecutorService reloader;
+    private volatile boolean running = true;
+
+    private ModelServer(Builder builder) throws Exception{
+        this.modelRoot = builder.modelRoot;
+        this.calibratorFolder = builder.calibratorFolder;
+        this.predictMode = builder.predictMode;
+        this.minSize = builder.minSize;
+        this.maxSize = builder.maxSize;
+        this.maxBatchSize = builder.maxBatchSize;
+        this.maxBatchDelayNanos = TimeUnit.MILLISECONDS.toNanos(builder.maxBatchDelayMillis);
+        if (!reload()){
+            throw new IllegalArgumentException("no model found in "+modelRoot);
+        }
+        this.batcher = new Thread(this::runBatches, "model-server-batcher");
+        this.batcher.setDaemon(true);
+        this.batcher.start();
+        if (builder.reloadIntervalSeconds>0){
+            this.reloader = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "model-server-reloader");
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.reloader.scheduleWithFixedDelay(() -> {
+                try {
+                    reload();
+                } catch (Exception e) {
+                    logger.error("failed to reload model from "+modelRoot, e);
+                }
+            }, builder.reloadIntervalSeconds, builder.reloadIntervalSeconds, TimeUnit.SECONDS);
+        } else {
+            this.reloader = null;
+        }
+    }
+
+    public static Builder getBuilder(){
+        return new Builder();
+    }
+
+    /**
+     * queue one document for scoring
+     * @param document feature name to value
+     * @return completed when the batch containing the document is scored
+     */
+    public CompletableFuture<ModelBundle.Prediction> predict(Map<String, Double> document){
+        if (!running){
+            throw new IllegalStateException("the server is closed");
+        }
+        Request request = new Request(document);
+        queue.add(request);
+        return request.future;
+    }
+
+    /**
+     * scores documents through the queue, so they can share batches with other callers
+     */
+    public List<ModelBundle.Prediction> predict(List<Map<String, Double>> documents) throws InterruptedException, ExecutionException{
+        List<CompletableFuture<ModelBundle.Prediction>> futures = new ArrayList<>(documents.size());
+        for (Map<String, Double> document: documents){
+            futures.add(predict(document));
+        }
+        List<ModelBundle.Prediction> predictions = new ArrayList<>(documents.size());
+        for (CompletableFuture<ModelBundle.Prediction> future: futures){
+            predictions.add(future.get());
+        }
+        return predictions;
+    }
+
+    /**
+     * loads the latest version in the model root if it is not the one being served
+     * @return whether a new bundle was swapped in
+     */
+    public synchronized boolean reload() throws Exception{
+        File latest = latestVersion();
+        if (latest==null){
+            return false;
+        }
+        ModelBundle current = bundle.get();
+        if (current!=null && current.getVersion().equals(latest.getName())){
+            return false;
+        }
+        reload(latest);
+        return true;
+    }
+
+    /**
+     * loads the given model directory and swaps it in
+     */
+    public synchronized void reload(File modelDirectory) throws Exception{
+        ModelBundle loaded = ModelBundle.load(modelDirectory, calibratorFolder, predictMode, minSize, maxSize);
+        ModelBundle old = bundle.getAndSet(loaded);
+        metrics.recordReload();
+        logger.info("serving model version "+loaded.getVersion()+(old==null ? "" : ", replacing "+old.getVersion()));
+    }
+
+    public ModelBundle getBundle(){
+        return bundle.get();
+    }
+
+    public ServingMetrics getMetrics() {
+        return metrics;
+    }
+
+    private File latestVersion(){
+        if (new File(modelRoot, "classifier").exists()){
+            return modelRoot;
+        }
+        File[] versions = modelRoot.listFiles(file -> file.isDirectory() && new File(file, "classifier").exists());
+        if (versions==null || versions.length==0){
+            return null;
+        }
+        return Arrays.stream(versions).max(Comparator.comparing(File::getName)).get();
+    }
+
+    private void runBatches(){
+        List<Request> batch = new ArrayList<>(maxBatchSize);
+        while (running || !queue.isEmpty()){
+            try {
+                Request first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first==null){
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime()+maxBatchDelayNanos;
+                while (batch.size()<maxBatchSize){
+                    queue.drainTo(batch, maxBatchSize-batch.size());
+                    long remaining = deadline-System.nanoTime();
+                    if (batch.size()>=maxBatchSize || remaining<=0){
+                        break;
+                    }
+                    Request next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next==null){
+                        break;
+                    }
+                    batch.add(next);
+                }
+                score(batch);
+            } catch (InterruptedException e) {
+                for (Request request: batch){
+                    request.future.completeExceptionally(e);
+                }
+                Thread.currentThread().interrupt();
+                break;
+            } catch (Throwable e){
+                // keep serving; the requests of this batch fail, later ones are still scored
+                logger.error("failed to process a batch of "+batch.size()+" documents", e);
+                for (Request request: batch){
+                    request.future.completeExceptionally(e);
+                }
+            } finally {
+                batch.clear();
+            }
+        }
+        rejectQueued();
+    }
+
+    private void rejectQueued(){
+        Request request;
+        while ((request = queue.poll())!=null){
+            request.future.completeExceptionally(new IllegalStateException("the server is closed"));
+        }
+    }
+
+    private void score(List<Request> batch){
+        List<Map<String, Double>> documents = new ArrayList<>(batch.size());
+        for (Request request: batch){
+            documents.add(request.document);
+        }
+        metrics.recordBatch();
+        try {
+            List<ModelBundle.Prediction> predictions = bundle.get().predict(documents);
+            for (int i=0;i<batch.size();i++){
+                Request request = batch.get(i);
+                metrics.recordRequest(System.nanoTime()-request.arrivalTime, true);
+                request.future.complete(predictions.get(i));
+            }
+        } catch (Throwable e){
+            // errors thrown by a model, e.g. StackOverflowError, fail the batch but not the batcher
+            logger.error("failed to score a batch of "+batch.size()+" documents", e);
+            for (Request request: batch){
+                metrics.recordRequest(System.nanoTime()-request.arrivalTime, false);
+                request.future.completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * stops taking requests, scores the queued ones and stops reloading
+     */
+    @Override
+    public void close() throws InterruptedException{
+        running = false;
+        if (reloader!=null){
+            reloader.shutdownNow();
+        }
+        batcher.join();
+        // requests that raced with closing
+        rejectQueued();
+    }
+
+    private static class Request{
+        private final Map<String, Double> document;
+        private final long arrivalTime = System.nanoTime();
+        private final CompletableFuture<ModelBundle.Prediction> future = new CompletableFuture<>();
+
+        Request(Map<String, Double> document) {
+            this.document = document;
+        }
+    }
+
+    public static class Builder{
+        private File modelRoot;
+        private String calibratorFolder = "";
+        private String predictMode = "independent";
+        private int minSize = 1;
+        private int maxSize = Integer.MAX_VALUE;
+        private int maxBatchSize = 64;
+        private long maxBatchDelayMillis = 2;
+        private long reloadIntervalSeconds = 0;
+
+        public Builder setModelRoot(File modelRoot) {
+            this.modelRoot = modelRoot;
+            return this;
+        }
+
+        public Builder setCalibratorFolder(String calibratorFolder) {
+            this.calibratorFolder = calibratorFolder;
+            return this;
+        }
+
+        /**
+         * independent, support or reranker
+         */
+        public Builder setPredictMode(String predictMode) {
+            this.predictMode = predictMode;
+            return this;
+        }
+
+        public Builder setMinSize(int minSize) {
+            this.minSize = minSize;
+            return this;
+        }
+
+        public Builder setMaxSize(int maxSize) {
+            this.maxSize = maxSize;
+            return this;
+        }
+
+        public Builder setMaxBatchSize(int maxBatchSize) {
+            if (maxBatchSize<1){
+                throw new IllegalArgumentException("maxBatchSize should be positive");
+            }
+            this.maxBatchSize = maxBatchSize;
+            return this;
+        }
+
+        public Builder setMaxBatchDelayMillis(long maxBatchDelayMillis) {
+            this.maxBatchDelayMillis = maxBatchDelayMillis;
+            return this;
+        }
+
+        /**
+         * how often the model root is checked for a new version; 0 disables hot reloading
+         */
+        public Builder setReloadIntervalSeconds(long reloadIntervalSeconds) {
+            this.reloadIntervalSeconds = reloadIntervalSeconds;
+            return this;
+        }
+
+        public ModelServer build() throws Exception{
+            if (modelRoot==null){
+                throw new IllegalArgumentException("model root is not set");
+            }
+            return new ModelServer(this);
+        }
+    }
+}
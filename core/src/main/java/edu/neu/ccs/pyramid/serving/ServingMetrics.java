@@ -0,0 +1,132 @@
+package edu.neu.ccs.pyramid.serving;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * request latency and throughput of a ModelServer
+ * latencies are kept in a histogram with power-of-2 microsecond buckets, so percentiles are upper bounds within a factor of 2
+ * all methods can be called from multiple threads
+ */
+public class ServingMetrics {
+    private static final int NUM_BUCKETS = 40;
+    private final long startTime = System.nanoTime();
+    private final LongAdder numRequests = new LongAdder();
+    private final LongAdder numFailures = new LongAdder();
+    private final LongAdder numBatches = new LongAdder();
+    private final LongAdder numReloads = new LongAdder();
+    private final LongAdder totalLatencyMicros = new LongAdder();
+    /**
+     * format: [bucket], bucket b counts latencies in [2^(b-1), 2^b) microseconds
+     */
+    private final AtomicLongArray latencyHistogram = new AtomicLongArray(NUM_BUCKETS);
+
+    void recordRequest(long latencyNanos, boolean success){
+        long micros = Math.max(latencyNanos/1000, 0);
+        numRequests.increment();
+        if (!success){
+            numFailures.increment();
+        }
+        totalLatencyMicros.add(micros);
+        int bucket = Math.min(64-Long.numberOfLeadingZeros(micros), NUM_BUCKETS-1);
+        latencyHistogram.incrementAndGet(bucket);
+    }
+
+    void recordBatch(){
+        numBatches.increment();
+    }
+
+    void recordReload(){
+        numReloads.increment();
+    }
+
+    public long getNumRequests() {
+        return numRequests.sum();
+    }
+
+    public long getNumFailures() {
+        return numFailures.sum();
+    }
+
+    public long getNumBatches() {
+        return numBatches.sum();
+    }
+
+    public long getNumReloads() {
+        return numReloads.sum();
+    }
+
+    public double getAverageLatencyMillis(){
+        long requests = numRequests.sum();
+        if (requests==0){
+            return 0;
+        }
+        return totalLatencyMicros.sum()/1000.0/requests;
+    }
+
+    /**
+     *
+     * @param quantile in [0,1]
+     * @return upper bound of the bucket containing the quantile, in milliseconds
+     */
+    public double getLatencyPercentileMillis(double quantile){
+        if (quantile<0 || quantile>1){
+            throw new IllegalArgumentException("quantile should be in [0,1]");
+        }
+        long[] counts = new long[NUM_BUCKETS];
+        long total = 0;
+        for (int b=0;b<NUM_BUCKETS;b++){
+            counts[b] = latencyHistogram.get(b);
+            total += counts[b];
+        }
+        if (total==0){
+            return 0;
+        }
+        long rank = (long)Math.ceil(quantile*total);
+        long seen = 0;
+        for (int b=0;b<NUM_BUCKETS;b++){
+            seen += counts[b];
+            if (seen>=rank && counts[b]>0){
+                return (1L<<b)/1000.0;
+            }
+        }
+        return (1L<<(NUM_BUCKETS-1))/1000.0;
+    }
+
+    /**
+     * requests per second since the server started
+     */
+    public double getThroughput(){
+        double seconds = (System.nanoTime()-startTime)/1e9;
+        return numRequests.sum()/seconds;
+    }
+
+    public double getAverageBatchSize(){
+        long batches = numBatches.sum();
+        if (batches==0){
+            return 0;
+        }
+        return (double) numRequests.sum()/batches;
+    }
+
+    public Map<String, Object> toMap(){
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("requests", getNumRequests());
+        map.put("failures", getNumFailures());
+        map.put("batches", getNumBatches());
+        map.put("averageBatchSize", getAverageBatchSize());
+        map.put("reloads", getNumReloads());
+        map.put("throughputPerSecond", getThroughput());
+        map.put("averageLatencyMillis", getAverageLatencyMillis());
+        map.put("p50LatencyMillis", getLatencyPercentileMillis(0.5));
+        map.put("p99LatencyMillis", getLatencyPercentileMillis(0.99));
+        return map;
+    }
+
+    @Override
+    public String toString() {
+        return toMap().toString();
+    }
+}
@@ -0,0 +1,226 @@
+package edu.neu.ccs.pyramid.util;
+
+import org.apache.mahout.math.DenseVector;
+import org.apache.mahout.math.Vector;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * reads the format written by BinaryModelOutput from a memory-mapped file
+ * the file is mapped read-only in chunks, so it is not copied through java streams and
+ * its pages are shared through the page cache by all processes loading the same model
+ * arrays are decoded in bulk; no buffering or per-value stream calls
+ */
+public class BinaryModelInput {
+    private static final long DEFAULT_CHUNK_SIZE = 1L<<30;
+    private final long chunkSize;
+    /**
+     * chunk i covers [i*chunkSize, (i+1)*chunkSize+8), so a scalar starting in it never crosses into the next one
+     */
+    private final MappedByteBuffer[] chunks;
+    private final long size;
+    private final List<Object> readObjects = new ArrayList<>();
+    private long position;
+
+    public BinaryModelInput(File file) throws IOException {
+        this(file, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     *
+     * @param file
+     * @param chunkSize a multiple of 8
+     */
+    BinaryModelInput(File file, long chunkSize) throws IOException {
+        if (chunkSize<=0 || chunkSize%8!=0 || chunkSize>Integer.MAX_VALUE-8){
+            throw new IllegalArgumentException("chunkSize should be a positive multiple of 8 below 2^31-8");
+        }
+        this.chunkSize = chunkSize;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)){
+            this.size = channel.size();
+            int numChunks = (int)Math.max(1, (size+chunkSize-1)/chunkSize);
+            this.chunks = new MappedByteBuffer[numChunks];
+            for (int c=0;c<numChunks;c++){
+                long start = c*chunkSize;
+                long length = Math.min(size-start, chunkSize+8);
+                chunks[c] = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+                chunks[c].order(ByteOrder.LITTLE_ENDIAN);
+            }
+        }
+    }
+
+    public int readInt() throws IOException{
+        ByteBuffer chunk = chunkFor(4);
+        int value = chunk.getInt(offset());
+        position += 4;
+        return value;
+    }
+
+    public long readLong() throws IOException{
+        ByteBuffer chunk = chunkFor(8);
+        long value = chunk.getLong(offset());
+        position += 8;
+        return value;
+    }
+
+    public double readDouble() throws IOException{
+        ByteBuffer chunk = chunkFor(8);
+        double value = chunk.getDouble(offset());
+        position += 8;
+        return value;
+    }
+
+    public boolean readBoolean() throws IOException{
+        ByteBuffer chunk = chunkFor(1);
+        byte value = chunk.get(offset());
+        position += 1;
+        return value!=0;
+    }
+
+    public String readString() throws IOException{
+        int length = readInt();
+        if (length==BinaryModelOutput.NULL){
+            return null;
+        }
+        return new String(readBytes(length), StandardCharsets.UTF_8);
+    }
+
+    public int[] readInts() throws IOException{
+        int length = readInt();
+        align();
+        checkAvailable(length*4L);
+        int[] values = new int[length];
+        int start = 0;
+        while (start<length){
+            int count = (int)Math.min(length-start, (chunkSize-offset())/4);
+            ByteBuffer chunk = chunkView();
+            chunk.asIntBuffer().get(values, start, count);
+            position += count*4L;
+            start += count;
+        }
+        return values;
+    }
+
+    public double[] readDoubles() throws IOException{
+        int length = readInt();
+        align();
+        checkAvailable(length*8L);
+        double[] values = new double[length];
+        int start = 0;
+        while (start<length){
+            int count = (int)Math.min(length-start, (chunkSize-offset())/8);
+            ByteBuffer chunk = chunkView();
+            chunk.asDoubleBuffer().get(values, start, count);
+            position += count*8L;
+            start += count;
+        }
+        return values;
+    }
+
+    /**
+     * reads a vector written by BinaryModelOutput.writeVector as a dense vector
+     */
+    public Vector readDenseVector() throws IOException{
+        int size = readInt();
+        boolean sparse = readBoolean();
+        if (sparse){
+            int[] indices = readInts();
+            double[] values = readDoubles();
+            double[] dense = new double[size];
+            for (int i=0;i<indices.length;i++){
+                dense[indices[i]] = values[i];
+            }
+            return new DenseVector(dense, true);
+        }
+        double[] values = readDoubles();
+        if (values.length!=size){
+            throw new IOException("corrupted vector: expected "+size+" values, found "+values.length);
+        }
+        return new DenseVector(values, true);
+    }
+
+    public Object readObject() throws IOException{
+        int length = readInt();
+        if (length==BinaryModelOutput.NULL){
+            return null;
+        }
+        if (length==BinaryModelOutput.REFERENCE){
+            int index = readInt();
+            if (index<0 || index>=readObjects.size()){
+                throw new IOException("corrupted object reference "+index);
+            }
+            return readObjects.get(index);
+        }
+        try (ObjectInputStream objectInputStream = new ObjectInputStream(new ByteArrayInputStream(readBytes(length)))){
+            Object object = objectInputStream.readObject();
+            readObjects.add(object);
+            return object;
+        } catch (ClassNotFoundException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * reads a codec version written by a model and rejects versions newer than the reader
+     * @param what the model, for the error message
+     * @param supported the newest version this reader understands
+     * @return the version found
+     */
+    public int readVersion(String what, int supported) throws IOException{
+        int version = readInt();
+        if (version<1 || version>supported){
+            throw new IOException(what+" binary version "+version+" is not supported; this reader supports up to "+supported);
+        }
+        return version;
+    }
+
+    private byte[] readBytes(int length) throws IOException{
+        checkAvailable(length);
+        byte[] bytes = new byte[length];
+        int start = 0;
+        while (start<length){
+            int count = (int)Math.min(length-start, chunkSize-offset());
+            ByteBuffer chunk = chunkView();
+            chunk.get(bytes, start, count);
+            position += count;
+            start += count;
+        }
+        return bytes;
+    }
+
+    private void align(){
+        position = (position+7)/8*8;
+    }
+
+    private ByteBuffer chunkFor(int numBytes) throws IOException{
+        checkAvailable(numBytes);
+        return chunks[(int)(position/chunkSize)];
+    }
+
+    /**
+     * the current chunk, positioned at the current offset
+     */
+    private ByteBuffer chunkView(){
+        ByteBuffer chunk = chunks[(int)(position/chunkSize)].duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        chunk.position(offset());
+        return chunk;
+    }
+
+    private int offset(){
+        return (int)(position%chunkSize);
+    }
+
+    private void checkAvailable(long numBytes) throws IOException{
+        if (numBytes<0 || position+numBytes>size){
+            throw new EOFException("unexpected end of model file at byte "+position);
+        }
+    }
+}
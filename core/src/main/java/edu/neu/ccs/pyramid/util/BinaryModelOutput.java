@@ -0,0 +1,188 @@
+package edu.neu.ccs.pyramid.util;
+
+import org.apache.mahout.math.Vector;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * writes the binary model format read by BinaryModelInput, see BinaryModels
+ * little-endian; primitive arrays are prefixed by their length and start at a multiple of 8 bytes,
+ * so they can be decoded in bulk from a memory-mapped file
+ * small metadata objects (feature lists, label translators) are embedded as java serialized blobs;
+ * an object written more than once is stored once and referenced afterwards
+ */
+public class BinaryModelOutput implements AutoCloseable{
+    static final int NULL = -1;
+    static final int REFERENCE = -2;
+
+    private final OutputStream outputStream;
+    private final ByteBuffer buffer = ByteBuffer.allocate(1<<16).order(ByteOrder.LITTLE_ENDIAN);
+    private final Map<Object, Integer> writtenObjects = new IdentityHashMap<>();
+    private long position;
+
+    public BinaryModelOutput(File file) throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (!parent.exists()){
+            parent.mkdirs();
+        }
+        this.outputStream = new FileOutputStream(file);
+    }
+
+    public void writeInt(int value) throws IOException{
+        ensure(4);
+        buffer.putInt(value);
+        position += 4;
+    }
+
+    public void writeLong(long value) throws IOException{
+        ensure(8);
+        buffer.putLong(value);
+        position += 8;
+    }
+
+    public void writeDouble(double value) throws IOException{
+        ensure(8);
+        buffer.putDouble(value);
+        position += 8;
+    }
+
+    public void writeBoolean(boolean value) throws IOException{
+        ensure(1);
+        buffer.put((byte)(value ? 1 : 0));
+        position += 1;
+    }
+
+    /**
+     * null is allowed
+     */
+    public void writeString(String value) throws IOException{
+        if (value==null){
+            writeInt(NULL);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeInt(bytes.length);
+        writeBytes(bytes);
+    }
+
+    public void writeInts(int[] values) throws IOException{
+        writeInt(values.length);
+        align();
+        int start = 0;
+        while (start<values.length){
+            ensure(4);
+            int length = Math.min(values.length-start, buffer.remaining()/4);
+            buffer.asIntBuffer().put(values, start, length);
+            buffer.position(buffer.position()+length*4);
+            position += length*4L;
+            start += length;
+        }
+    }
+
+    public void writeDoubles(double[] values) throws IOException{
+        writeInt(values.length);
+        align();
+        int start = 0;
+        while (start<values.length){
+            ensure(8);
+            int length = Math.min(values.length-start, buffer.remaining()/8);
+            buffer.asDoubleBuffer().put(values, start, length);
+            buffer.position(buffer.position()+length*8);
+            position += length*8L;
+            start += length;
+        }
+    }
+
+    /**
+     * stored as indices and values when that is smaller than the dense array
+     */
+    public void writeVector(Vector vector) throws IOException{
+        int size = vector.size();
+        int numNonZeros = vector.getNumNonZeroElements();
+        writeInt(size);
+        boolean sparse = numNonZeros*12L < size*8L;
+        writeBoolean(sparse);
+        if (sparse){
+            int[] indices = new int[numNonZeros];
+            double[] values = new double[numNonZeros];
+            int i = 0;
+            for (Vector.Element element: vector.nonZeroes()){
+                indices[i] = element.index();
+                values[i] = element.get();
+                i += 1;
+            }
+            writeInts(indices);
+            writeDoubles(values);
+        } else {
+            double[] values = new double[size];
+            for (int j=0;j<size;j++){
+                values[j] = vector.getQuick(j);
+            }
+            writeDoubles(values);
+        }
+    }
+
+    /**
+     * java serialized blob; null is allowed
+     */
+    public void writeObject(Object object) throws IOException{
+        if (object==null){
+            writeInt(NULL);
+            return;
+        }
+        Integer index = writtenObjects.get(object);
+        if (index!=null){
+            writeInt(REFERENCE);
+            writeInt(index);
+            return;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream objectOutputStream = new ObjectOutputStream(bytes)){
+            objectOutputStream.writeObject(object);
+        }
+        writeInt(bytes.size());
+        writeBytes(bytes.toByteArray());
+        writtenObjects.put(object, writtenObjects.size());
+    }
+
+    private void writeBytes(byte[] bytes) throws IOException{
+        int start = 0;
+        while (start<bytes.length){
+            ensure(1);
+            int length = Math.min(bytes.length-start, buffer.remaining());
+            buffer.put(bytes, start, length);
+            position += length;
+            start += length;
+        }
+    }
+
+    private void align() throws IOException{
+        while (position%8!=0){
+            ensure(1);
+            buffer.put((byte)0);
+            position += 1;
+        }
+    }
+
+    private void ensure(int numBytes) throws IOException{
+        if (buffer.remaining()<numBytes){
+            flushBuffer();
+        }
+    }
+
+    private void flushBuffer() throws IOException{
+        outputStream.write(buffer.array(), 0, buffer.position());
+        buffer.clear();
+    }
+
+    @Override
+    public void close() throws IOException{
+        flushBuffer();
+        outputStream.close();
+    }
+}
@@ -0,0 +1,180 @@
+package edu.neu.ccs.pyramid.util;
+
+import edu.neu.ccs.pyramid.classification.lkboost.LKBoost;
+import edu.neu.ccs.pyramid.classification.logistic_regression.LogisticRegression;
+import edu.neu.ccs.pyramid.dataset.MultiLabel;
+import edu.neu.ccs.pyramid.feature.FeatureList;
+import edu.neu.ccs.pyramid.multilabel_classification.cbm.CBM;
+import edu.neu.ccs.pyramid.multilabel_classification.crf.CMLCRF;
+import edu.neu.ccs.pyramid.multilabel_classification.imlgb.IMLGradientBoosting;
+import edu.neu.ccs.pyramid.regression.ConstantRegressor;
+import edu.neu.ccs.pyramid.regression.Regressor;
+import edu.neu.ccs.pyramid.regression.regression_tree.RegressionTree;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * versioned binary model format, an alternative to java serialization for large models
+ * weights are stored as primitive arrays and trees as flattened node arrays; the file is memory-mapped when loading
+ * the file starts with a magic number and the format version; every model then writes its type and its own codec version,
+ * so a model class can change its fields without breaking older files
+ * supported: LogisticRegression, LKBoost, IMLGradientBoosting, CBM, CMLCRF, RegressionTree and ConstantRegressor;
+ * other components (e.g. PriorProbClassifier inside a CBM) are embedded with java serialization
+ * Serialization.deserialize recognizes this format, so existing loading code works with both
+ */
+public class BinaryModels {
+    /**
+     * "PYRM"
+     */
+    private static final int MAGIC = 0x4D525950;
+    public static final int FORMAT_VERSION = 1;
+
+    public static void save(Object model, File file) throws IOException{
+        try (BinaryModelOutput out = new BinaryModelOutput(file)){
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            writeModel(out, model);
+        }
+    }
+
+    public static void save(Object model, String file) throws IOException{
+        save(model, new File(file));
+    }
+
+    public static Object load(File file) throws IOException{
+        BinaryModelInput in = new BinaryModelInput(file);
+        if (in.readInt()!=MAGIC){
+            throw new IOException(file+" is not a binary model");
+        }
+        in.readVersion("model file", FORMAT_VERSION);
+        return readModel(in);
+    }
+
+    public static Object load(String file) throws IOException{
+        return load(new File(file));
+    }
+
+    /**
+     * checks the magic number
+     */
+    public static boolean isBinaryModel(File file) throws IOException{
+        try (DataInputStream inputStream = new DataInputStream(new FileInputStream(file))){
+            return Integer.reverseBytes(inputStream.readInt())==MAGIC;
+        } catch (EOFException e){
+            return false;
+        }
+    }
+
+    /**
+     * writes the model type followed by the model
+     * @param model null or any serializable object
+     */
+    public static void writeModel(BinaryModelOutput out, Object model) throws IOException{
+        if (model==null){
+            out.writeString("null");
+        } else if (model.getClass()==LogisticRegression.class){
+            out.writeString("lr");
+            ((LogisticRegression) model).writeBinary(out);
+        } else if (model.getClass()==LKBoost.class){
+            out.writeString("lkboost");
+            ((LKBoost) model).writeBinary(out);
+        } else if (model.getClass()==IMLGradientBoosting.class){
+            out.writeString("imlgb");
+            ((IMLGradientBoosting) model).writeBinary(out);
+        } else if (model.getClass()==CBM.class){
+            out.writeString("cbm");
+            ((CBM) model).writeBinary(out);
+        } else if (model.getClass()==CMLCRF.class){
+            out.writeString("cmlcrf");
+            ((CMLCRF) model).writeBinary(out);
+        } else if (model.getClass()==RegressionTree.class){
+            out.writeString("tree");
+            ((RegressionTree) model).writeBinary(out);
+        } else if (model.getClass()==ConstantRegressor.class){
+            out.writeString("constant");
+            out.writeInt(1);
+            out.writeDouble(((ConstantRegressor) model).getScore());
+        } else if (model instanceof Serializable){
+            out.writeString("java");
+            out.writeObject(model);
+        } else {
+            throw new IllegalArgumentException(model.getClass().getName()+" is not serializable");
+        }
+    }
+
+    public static Object readModel(BinaryModelInput in) throws IOException{
+        String type = in.readString();
+        if (type==null){
+            throw new IOException("corrupted model file: missing model type");
+        }
+        switch (type){
+            case "null":
+                return null;
+            case "lr":
+                return LogisticRegression.readBinary(in);
+            case "lkboost":
+                return LKBoost.readBinary(in);
+            case "imlgb":
+                return IMLGradientBoosting.readBinary(in);
+            case "cbm":
+                return CBM.readBinary(in);
+            case "cmlcrf":
+                return CMLCRF.readBinary(in);
+            case "tree":
+                return RegressionTree.readBinary(in);
+            case "constant":
+                in.readVersion("ConstantRegressor", 1);
+                return new ConstantRegressor(in.readDouble());
+            case "java":
+                return in.readObject();
+            default:
+                throw new IOException("unknown model type "+type);
+        }
+    }
+
+    /**
+     * the feature list of a regressor is not stored with it; it is restored from the model containing it
+     */
+    public static Regressor readRegressor(BinaryModelInput in, FeatureList featureList) throws IOException{
+        Regressor regressor = (Regressor) readModel(in);
+        if (regressor instanceof RegressionTree){
+            ((RegressionTree) regressor).setFeatureList(featureList);
+        }
+        if (regressor instanceof ConstantRegressor){
+            ((ConstantRegressor) regressor).setFeatureList(featureList);
+        }
+        return regressor;
+    }
+
+    /**
+     * null is allowed
+     */
+    public static void writeMultiLabels(BinaryModelOutput out, List<MultiLabel> multiLabels) throws IOException{
+        if (multiLabels==null){
+            out.writeInt(BinaryModelOutput.NULL);
+            return;
+        }
+        out.writeInt(multiLabels.size());
+        for (MultiLabel multiLabel: multiLabels){
+            out.writeInts(multiLabel.getMatchedLabelsOrdered().stream().mapToInt(Integer::intValue).toArray());
+        }
+    }
+
+    public static List<MultiLabel> readMultiLabels(BinaryModelInput in) throws IOException{
+        int size = in.readInt();
+        if (size==BinaryModelOutput.NULL){
+            return null;
+        }
+        List<MultiLabel> multiLabels = new ArrayList<>(size);
+        for (int i=0;i<size;i++){
+            MultiLabel multiLabel = new MultiLabel();
+            for (int label: in.readInts()){
+                multiLabel.addLabel(label);
+            }
+            multiLabels.add(multiLabel);
+        }
+        return multiLabels;
+    }
+}
@@ -0,0 +1,83 @@
+package edu.neu.ccs.pyramid.util;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Count-Min sketch over 64-bit keys
+ * estimates never underestimate the true count; memory is fixed at 4*depth*width bytes
+ * counters are updated atomically, so several threads can add concurrently
+ * conservative update is deliberately not used, as it can underestimate under concurrent updates
+ */
+public class CountMinSketch {
+    private final int depth;
+    private final int width;
+    private final int mask;
+    /**
+     * format: [row*width+column]
+     */
+    private final AtomicIntegerArray counters;
+
+    /**
+     * @param depth number of hash rows
+     * @param width counters per row, rounded up to a power of 2
+     */
+    public CountMinSketch(int depth, int width) {
+        if (depth<=0||width<=0){
+            throw new IllegalArgumentException("depth and width must be positive");
+        }
+        int roundedWidth = Integer.highestOneBit(width);
+        if (roundedWidth<width){
+            roundedWidth <<= 1;
+        }
+        if ((long)depth*roundedWidth>Integer.MAX_VALUE){
+            throw new IllegalArgumentException("sketch too large: depth="+depth+", width="+roundedWidth);
+        }
+        this.depth = depth;
+        this.width = roundedWidth;
+        this.mask = roundedWidth-1;
+        this.counters = new AtomicIntegerArray(depth*roundedWidth);
+    }
+
+    /**
+     * largest power-of-2 width that fits the memory budget
+     */
+    public static CountMinSketch withMemory(long bytes, int depth){
+        long width = Long.highestOneBit(Math.max(bytes/(4L*depth), 1));
+        long maxWidth = Long.highestOneBit(Integer.MAX_VALUE/depth);
+        return new CountMinSketch(depth, (int)Math.min(width, maxWidth));
+    }
+
+    public void add(long key){
+        add(key, 1);
+    }
+
+    public void add(long key, int count){
+        int h1 = (int)key;
+        int h2 = (int)(key>>>32)|1;
+        for (int row=0;row<depth;row++){
+            counters.getAndAdd(row*width+((h1+row*h2)&mask), count);
+        }
+    }
+
+    public int estimate(long key){
+        int h1 = (int)key;
+        int h2 = (int)(key>>>32)|1;
+        int min = Integer.MAX_VALUE;
+        for (int row=0;row<depth;row++){
+            min = Math.min(min, counters.get(row*width+((h1+row*h2)&mask)));
+        }
+        return min;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public long getMemoryBytes(){
+        return 4L*depth*width;
+    }
+}
@@ -46,7 +46,13 @@ public class Serialization {
     }
 
 
+    /**
+     * also reads models saved by BinaryModels
+     */
     public static Object deserialize(File file) throws Exception{
+        if (BinaryModels.isBinaryModel(file)){
+            return BinaryModels.load(file);
+        }
         try(
                 FileInputStream fileInputStream = new FileInputStream(file);
                 BufferedInputStream bufferedInputStream = new BufferedInputStream(fileInputStream);
@@ -0,0 +1,123 @@
+package edu.neu.ccs.pyramid.calibration;
+
+import edu.neu.ccs.pyramid.dataset.DataSetUtil;
+import edu.neu.ccs.pyramid.dataset.LabelTranslator;
+import edu.neu.ccs.pyramid.dataset.MLClfDataSetBuilder;
+import edu.neu.ccs.pyramid.dataset.MultiLabel;
+import edu.neu.ccs.pyramid.dataset.MultiLabelClfDataSet;
+import edu.neu.ccs.pyramid.dataset.RegDataSet;
+import edu.neu.ccs.pyramid.multilabel_classification.DynamicProgramming;
+import edu.neu.ccs.pyramid.util.Pair;
+import edu.neu.ccs.pyramid.util.Vectors;
+import org.apache.mahout.math.DenseVector;
+import org.apache.mahout.math.Vector;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+public class CalibrationDataGeneratorTest {
+    public static void main(String[] args) {
+        test1("accuracy", 10, 5);
+        test1("f1", 20, 0);
+    }
+
+    // the streaming generator against one CalibrationInstance per candidate, as it was generated before
+    private static void test1(String calibrateTarget, int numCandidates, int numSupportCandidates){
+        Random random = new Random(0);
+        MultiLabelClfDataSet dataSet = MLClfDataSetBuilder.getBuilder().numDataPoints(2000).numFeatures(20)
+                .numClasses(10).build();
+        List<Vector> scores = new ArrayList<>();
+        for (int i=0;i<dataSet.getNumDataPoints();i++){
+            for (int j=0;j<dataSet.getNumFeatures();j++){
+                if (random.nextDouble()<0.5){
+                    dataSet.setFeatureValue(i, j, random.nextGaussian());
+                }
+            }
+            Vector score = new DenseVector(dataSet.getNumClasses());
+            for (int l=0;l<dataSet.getNumClasses();l++){
+                double p = random.nextDouble();
+                score.set(l, p);
+                if (random.nextDouble()<p){
+                    dataSet.addLabel(i, l);
+                }
+            }
+            scores.add(score);
+        }
+        List<MultiLabel> support = DataSetUtil.gatherMultiLabels(dataSet);
+
+        List<PredictionFeatureExtractor> extractors = new ArrayList<>();
+        extractors.add(new BRProbFeatureExtractor());
+        extractors.add(new CardFeatureExtractor());
+        extractors.add(new ExpectedF1FeatureExtractor());
+        extractors.add(new ExpectedPrecisionFeatureExtractor());
+        extractors.add(new PriorFeatureExtractor(dataSet));
+        extractors.add(new LabelBinaryFeatureExtractor(8, LabelTranslator.newDefaultLabelTranslator(10)));
+        extractors.add(new InstanceFeatureExtractor("0-4,10,15-19", dataSet.getFeatureList()));
+        CombinedPredictionFeatureExtractor extractor = new CombinedPredictionFeatureExtractor(extractors);
+        LabelCalibrator labelCalibrator = new IdentityLabelCalibrator();
+        CalibrationDataGenerator generator = new CalibrationDataGenerator(labelCalibrator, extractor);
+
+        long start = System.currentTimeMillis();
+        List<CalibrationDataGenerator.CalibrationInstance> instances = IntStream.range(0, dataSet.getNumDataPoints()).parallel()
+                .boxed().flatMap(i -> {
+                    double[] marginals = labelCalibrator.calibratedClassProbs(Vectors.toArray(scores.get(i)));
+                    List<Pair<MultiLabel,Double>> topK = new DynamicProgramming(marginals).topK(numCandidates);
+                    List<MultiLabel> supportList = new ArrayList<>(support);
+                    Collections.shuffle(supportList, new Random(i));
+                    List<MultiLabel> candidates = new ArrayList<>(supportList.subList(0, numSupportCandidates));
+                    for (Pair<MultiLabel,Double> pair: topK){
+                        candidates.add(pair.getFirst());
+                    }
+                    List<CalibrationDataGenerator.CalibrationInstance> list = new ArrayList<>();
+                    for (MultiLabel multiLabel: candidates){
+                        PredictionCandidate predictionCandidate = new PredictionCandidate();
+                        predictionCandidate.x = dataSet.getRow(i);
+                        predictionCandidate.multiLabel = multiLabel;
+                        predictionCandidate.labelProbs = marginals;
+                        predictionCandidate.sparseJoint = topK;
+                        CalibrationDataGenerator.CalibrationInstance instance = generator.createInstance(dataSet.getMultiLabels()[i], predictionCandidate, calibrateTarget);
+                        instance.queryIndex = i;
+                        list.add(instance);
+                    }
+                    return list.stream();
+                }).collect(Collectors.toList());
+        long perCandidate = System.currentTimeMillis()-start;
+
+        start = System.currentTimeMillis();
+        CalibrationDataGenerator.TrainData trainData = generator.createCaliTrainingData(dataSet, scores, numCandidates,
+                calibrateTarget, support, numSupportCandidates);
+        long streaming = System.currentTimeMillis()-start;
+
+        RegDataSet regDataSet = trainData.regDataSet;
+        List<List<Integer>> instancesForEachQuery = trainData.getInstancesForEachQuery();
+        int numMismatches = 0;
+        if (regDataSet.getNumDataPoints()!=instances.size() || regDataSet.getNumFeatures()!=extractor.getNames().size()){
+            numMismatches += 1;
+        }
+        for (int i=0;i<instances.size();i++){
+            CalibrationDataGenerator.CalibrationInstance instance = instances.get(i);
+            Vector row = regDataSet.getRow(i);
+            for (int j=0;j<regDataSet.getNumFeatures();j++){
+                if (row.get(j)!=instance.vector.get(j)){
+                    numMismatches += 1;
+                }
+            }
+            if (regDataSet.getLabels()[i]!=instance.correctness || trainData.instanceWeights[i]!=instance.weight){
+                numMismatches += 1;
+            }
+            if (!instancesForEachQuery.get(instance.queryIndex).contains(i)){
+                numMismatches += 1;
+            }
+        }
+        System.out.println("target = "+calibrateTarget+", number of instances = "+instances.size()
+                +", number of queries = "+trainData.getNumQueries());
+        System.out.println("first query offsets = "+Arrays.toString(Arrays.copyOf(trainData.queryOffsets, 4)));
+        System.out.println("number of mismatches = "+numMismatches);
+        System.out.println("time per candidate = "+perCandidate+" ms, streaming = "+streaming+" ms");
+    }
+}
@@ -0,0 +1,55 @@
+package edu.neu.ccs.pyramid.classification.logistic_regression;
+
+import edu.neu.ccs.pyramid.dataset.ClfDataSet;
+import edu.neu.ccs.pyramid.dataset.ClfDataSetBuilder;
+import org.apache.mahout.math.DenseVector;
+import org.apache.mahout.math.Vector;
+
+import java.util.Random;
+
+public class LogisticLossTest {
+    public static void main(String[] args) {
+        test1();
+    }
+
+    // setInstanceWeights with the array the loss already holds, changed in place so that a zero weight becomes non-zero
+    private static void test1(){
+        Random random = new Random(0);
+        ClfDataSet dataSet = ClfDataSetBuilder.getBuilder().numDataPoints(200).numFeatures(5).numClasses(2).build();
+        double[][] targets = new double[dataSet.getNumDataPoints()][2];
+        double[] weights = new double[dataSet.getNumDataPoints()];
+        for (int i=0;i<dataSet.getNumDataPoints();i++){
+            for (int j=0;j<dataSet.getNumFeatures();j++){
+                dataSet.setFeatureValue(i, j, random.nextGaussian());
+            }
+            int label = random.nextInt(2);
+            dataSet.setLabel(i, label);
+            targets[i][label] = 1;
+            weights[i] = random.nextDouble()<0.3 ? 0 : random.nextDouble();
+        }
+        LogisticRegression logisticRegression = new LogisticRegression(2, dataSet.getNumFeatures());
+        Vector parameters = new DenseVector(logisticRegression.getWeights().totalSize());
+        for (int d=0;d<parameters.size();d++){
+            parameters.set(d, random.nextGaussian());
+        }
+        logisticRegression.getWeights().setWeightVector(parameters);
+
+        LogisticLoss loss = new LogisticLoss(logisticRegression, dataSet, weights, targets, 1, false);
+        loss.getValue();
+        loss.getGradient();
+
+        int numRounds = 3;
+        double maxDifference = 0;
+        for (int round=0;round<numRounds;round++){
+            // zeros become non-zero and the other way round
+            for (int i=0;i<weights.length;i++){
+                weights[i] = weights[i]==0 ? random.nextDouble() : (random.nextDouble()<0.3 ? 0 : weights[i]);
+            }
+            loss.setInstanceWeights(weights);
+            LogisticLoss fresh = new LogisticLoss(logisticRegression, dataSet, weights.clone(), targets, 1, false);
+            maxDifference = Math.max(maxDifference, Math.abs(loss.getValue()-fresh.getValue()));
+            maxDifference = Math.max(maxDifference, loss.getGradient().minus(fresh.getGradient()).norm(Double.POSITIVE_INFINITY));
+        }
+        System.out.println("max difference in value and gradient from a fresh loss after "+numRounds+" in-place weight changes = "+maxDifference);
+    }
+}
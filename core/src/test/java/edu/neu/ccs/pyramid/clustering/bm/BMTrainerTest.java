@@ -2,6 +2,8 @@ package edu.neu.ccs.pyramid.clustering.bm;
 
 import edu.neu.ccs.pyramid.dataset.DataSet;
 import edu.neu.ccs.pyramid.dataset.DataSetBuilder;
+import edu.neu.ccs.pyramid.dataset.Density;
+import edu.neu.ccs.pyramid.util.MathUtil;
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.core.LoggerContext;
@@ -10,9 +12,13 @@ import org.apache.logging.log4j.core.config.LoggerConfig;
 import org.apache.mahout.math.DenseVector;
 import org.apache.mahout.math.Vector;
 
+import java.util.Arrays;
+import java.util.Random;
+
 public class BMTrainerTest {
 
     public static void main(String[] args) {
+        test7();
         LoggerContext ctx = (LoggerContext) LogManager.getContext(false);
         Configuration config = ctx.getConfiguration();
         LoggerConfig loggerConfig = config.getLoggerConfig(LogManager.ROOT_LOGGER_NAME);
@@ -185,4 +191,87 @@ public class BMTrainerTest {
 
     }
 
-}
\ No newline at end of file
+    // the sparse kernel against a dense EM that evaluates every dimension of every data point, from the same start
+    private static void test7(){
+        int numDataPoints = 500;
+        int numFeatures = 40;
+        int numClusters = 4;
+        Random random = new Random(1);
+        DataSet dataSet = DataSetBuilder.getBuilder()
+                .numDataPoints(numDataPoints).numFeatures(numFeatures)
+                .density(Density.SPARSE_RANDOM).build();
+        double[][] x = new double[numDataPoints][numFeatures];
+        for (int i=0;i<numDataPoints;i++){
+            // a few dense columns per row group, the rest rarely on
+            int group = random.nextInt(numClusters);
+            for (int d=0;d<numFeatures;d++){
+                double p = d%numClusters==group ? 0.6 : 0.05;
+                if (random.nextDouble()<p){
+                    dataSet.setFeatureValue(i, d, 1);
+                    x[i][d] = 1;
+                }
+            }
+        }
+
+        BMTrainer trainer = new BMTrainer(dataSet, numClusters, 0);
+        double[][] mu = new double[numClusters][];
+        for (int k=0;k<numClusters;k++){
+            mu[k] = trainer.getBm().getProbabilities()[k].clone();
+        }
+        double[] pi = new double[numClusters];
+        Arrays.fill(pi, 1.0/numClusters);
+        double[][] gammas = new double[numDataPoints][numClusters];
+
+        for (int iter=0;iter<20;iter++){
+            trainer.iterate();
+            for (int i=0;i<numDataPoints;i++){
+                double[] logNumerators = new double[numClusters];
+                for (int k=0;k<numClusters;k++){
+                    logNumerators[k] = Math.log(pi[k]);
+                    for (int d=0;d<numFeatures;d++){
+                        logNumerators[k] += x[i][d]==1 ? Math.log(mu[k][d]) : Math.log(1-mu[k][d]);
+                    }
+                }
+                double logDenominator = MathUtil.logSumExp(logNumerators);
+                for (int k=0;k<numClusters;k++){
+                    gammas[i][k] = Math.exp(logNumerators[k]-logDenominator);
+                }
+            }
+            for (int k=0;k<numClusters;k++){
+                double total = 0;
+                for (int i=0;i<numDataPoints;i++){
+                    total += gammas[i][k];
+                }
+                for (int d=0;d<numFeatures;d++){
+                    double sum = 0;
+                    for (int i=0;i<numDataPoints;i++){
+                        sum += gammas[i][k]*x[i][d];
+                    }
+                    double average = sum/total;
+                    mu[k][d] = average>=1 ? 0.9999 : average;
+                }
+                pi[k] = total/numDataPoints;
+            }
+        }
+
+        double maxGammaDifference = 0;
+        for (int i=0;i<numDataPoints;i++){
+            for (int k=0;k<numClusters;k++){
+                maxGammaDifference = Math.max(maxGammaDifference, Math.abs(gammas[i][k]-trainer.getGammas()[i][k]));
+            }
+        }
+        double maxProbabilityDifference = 0;
+        double maxMixtureDifference = 0;
+        for (int k=0;k<numClusters;k++){
+            for (int d=0;d<numFeatures;d++){
+                maxProbabilityDifference = Math.max(maxProbabilityDifference,
+                        Math.abs(mu[k][d]-trainer.getBm().getProbabilities()[k][d]));
+            }
+            maxMixtureDifference = Math.max(maxMixtureDifference,
+                    Math.abs(pi[k]-trainer.getBm().getMixtureCoefficients()[k]));
+        }
+        System.out.println("sparse vs dense after 20 iterations: max gamma difference = "+maxGammaDifference
+                +", max probability difference = "+maxProbabilityDifference
+                +", max mixture coefficient difference = "+maxMixtureDifference);
+    }
+}
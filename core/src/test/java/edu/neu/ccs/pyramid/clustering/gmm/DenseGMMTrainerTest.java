@@ -0,0 +1,34 @@
+package edu.neu.ccs.pyramid.clustering.gmm;
+
+import java.util.Random;
+
+public class DenseGMMTrainerTest {
+    public static void main(String[] args) {
+        test1(CovarianceType.FULL);
+        test1(CovarianceType.DIAGONAL);
+        test1(CovarianceType.SPHERICAL);
+    }
+
+    /**
+     * two well separated gaussians
+     */
+    private static void test1(CovarianceType covarianceType){
+        int numDataPoints = 10000;
+        int dimension = 5;
+        Random random = new Random(0);
+        double[] data = new double[numDataPoints*dimension];
+        for (int i=0;i<numDataPoints;i++){
+            double shift = (i%2==0)? -5: 5;
+            for (int j=0;j<dimension;j++){
+                data[i*dimension+j] = shift+random.nextGaussian();
+            }
+        }
+        DenseGMM gmm = new DenseGMM(2, covarianceType, data, numDataPoints, dimension, 1);
+        DenseGMMTrainer trainer = new DenseGMMTrainer(data, numDataPoints, dimension, gmm);
+        for (int iter=0;iter<20;iter++){
+            trainer.iterate();
+            System.out.println("log likelihood = "+trainer.getLogLikelihood());
+        }
+        System.out.println(gmm);
+    }
+}
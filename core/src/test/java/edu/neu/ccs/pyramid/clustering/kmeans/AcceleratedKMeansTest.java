@@ -0,0 +1,67 @@
+package edu.neu.ccs.pyramid.clustering.kmeans;
+
+import edu.neu.ccs.pyramid.dataset.DataSet;
+import edu.neu.ccs.pyramid.dataset.DataSetBuilder;
+import edu.neu.ccs.pyramid.dataset.Density;
+
+import java.util.Random;
+
+public class AcceleratedKMeansTest {
+    public static void main(String[] args) {
+        test1();
+        test2();
+        test3();
+    }
+
+    private static DataSet blobs(){
+        int numDataPoints = 20000;
+        int numFeatures = 50;
+        int numBlobs = 10;
+        Random random = new Random(0);
+        DataSet dataSet = DataSetBuilder.getBuilder()
+                .numDataPoints(numDataPoints)
+                .numFeatures(numFeatures)
+                .density(Density.SPARSE_RANDOM)
+                .build();
+        for (int i=0;i<numDataPoints;i++){
+            int blob = i%numBlobs;
+            // each blob lives on its own 5 features
+            for (int j=blob*5;j<blob*5+5;j++){
+                dataSet.setFeatureValue(i,j,3+random.nextGaussian());
+            }
+        }
+        return dataSet;
+    }
+
+    private static void test1(){
+        DataSet dataSet = blobs();
+        AcceleratedKMeans kMeans = new AcceleratedKMeans(10, dataSet, 0);
+        kMeans.randomInitialize();
+        System.out.println("initial objective = "+kMeans.objective());
+        for (int iter=1;iter<=20;iter++){
+            long numDistances = kMeans.iterate();
+            System.out.println("iteration "+iter+", distance computations = "+numDistances+", objective = "+kMeans.objective());
+        }
+    }
+
+    private static void test2(){
+        DataSet dataSet = blobs();
+        AcceleratedKMeans kMeans = new AcceleratedKMeans(10, dataSet, 0);
+        kMeans.randomInitialize();
+        for (int iter=1;iter<=50;iter++){
+            kMeans.miniBatchIterate(500);
+        }
+        kMeans.assignAll();
+        System.out.println("mini-batch objective = "+kMeans.objective());
+    }
+
+    private static void test3(){
+        AcceleratedKMeans kMeans = new AcceleratedKMeans(10, blobs(), 0);
+        try {
+            kMeans.miniBatchIterate(500);
+            System.out.println("mini-batch before initialization: no error");
+        } catch (IllegalStateException e){
+            System.out.println("mini-batch before initialization: "+e.getMessage());
+        }
+    }
+}
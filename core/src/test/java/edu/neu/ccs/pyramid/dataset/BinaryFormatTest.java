@@ -0,0 +1,39 @@
+package edu.neu.ccs.pyramid.dataset;
+
+import java.io.File;
+
+public class BinaryFormatTest {
+    public static void main(String[] args) throws Exception{
+        test1();
+    }
+
+    static void test1() throws Exception{
+        MultiLabelClfDataSet dataSet = MLClfDataSetBuilder.getBuilder()
+                .numDataPoints(10).numFeatures(5).numClasses(3).missingValue(false).build();
+        dataSet.setFeatureValue(1,3,-0.9);
+        dataSet.setFeatureValue(1,4,-60.9);
+        dataSet.setFeatureValue(1,0,2.5);
+        dataSet.setFeatureValue(7,4,18);
+        dataSet.addLabel(0,1);
+        dataSet.addLabel(0,2);
+        dataSet.addLabel(1,0);
+        File folder = new File("/tmp/binary_format_test");
+        BinaryFormat.save(dataSet, folder);
+        MappedMLClfDataSet loaded = BinaryFormat.loadMultiLabelClfDataSet(folder);
+        System.out.println(loaded.getMetaInfo());
+        for (int i=0;i<dataSet.getNumDataPoints();i++){
+            if (!dataSet.getRow(i).equals(loaded.getRow(i))){
+                System.out.println("row "+i+" differs");
+            }
+            if (!dataSet.getMultiLabels()[i].equals(loaded.getMultiLabels()[i])){
+                System.out.println("labels of "+i+" differ");
+            }
+        }
+        for (int j=0;j<dataSet.getNumFeatures();j++){
+            if (!dataSet.getColumn(j).equals(loaded.getColumn(j))){
+                System.out.println("column "+j+" differs");
+            }
+        }
+        loaded.forEachNonZeroInRow(1, (j, value) -> System.out.println("feature "+j+" = "+value));
+    }
+}
@@ -0,0 +1,86 @@
+package edu.neu.ccs.pyramid.dataset;
+
+import java.io.File;
+import java.util.Random;
+
+public class CompressedSparseDataSetTest {
+    public static void main(String[] args) throws Exception{
+        test1();
+        test2();
+        test3();
+    }
+
+    static void test1(){
+        CompressedSparseDataSetBuilder builder = MLClfDataSetBuilder.getBuilder()
+                .numDataPoints(4).numFeatures(5).numClasses(3).compressed();
+        builder.reserve(0,2);
+        builder.reserve(1,4);
+        builder.reserve(3,1);
+        builder.setFeatureValue(0,3,1.5);
+        builder.setFeatureValue(0,1,-2);
+        builder.setFeatureValue(1,4,7);
+        builder.setFeatureValue(1,0,1);
+        builder.setFeatureValue(1,4,8);
+        builder.setFeatureValue(3,2,0.5);
+        builder.addLabel(0,1);
+        builder.addLabel(3,2);
+        CompressedSparseMLClfDataSet dataSet = builder.buildMultiLabel();
+        System.out.println(dataSet.getMetaInfo());
+        for (int i=0;i<dataSet.getNumDataPoints();i++){
+            System.out.println(i+": "+dataSet.getRow(i).asFormatString()+" "+dataSet.getMultiLabels()[i]);
+        }
+        for (int j=0;j<dataSet.getNumFeatures();j++){
+            System.out.println("column "+j+": "+dataSet.getColumn(j).asFormatString());
+        }
+        dataSet.forEachNonZeroInRow(1, (j, value) -> System.out.println("feature "+j+" = "+value));
+    }
+
+    static void test2() throws Exception{
+        MultiLabelClfDataSet dataSet = new SparseMLClfDataSet(10,5,false,3);
+        dataSet.setFeatureValue(1,3,-0.9);
+        dataSet.setFeatureValue(1,0,2.5);
+        dataSet.setFeatureValue(7,4,18);
+        dataSet.addLabel(0,1);
+        dataSet.addLabel(1,0);
+        File folder = new File("/tmp/compressed_sparse_test");
+        TRECFormat.save(dataSet, folder);
+        MultiLabelClfDataSet compressed = TRECFormat.loadMultiLabelClfDataSet(folder, DataSetType.ML_CLF_COMPRESSED, true);
+        for (int i=0;i<dataSet.getNumDataPoints();i++){
+            if (!dataSet.getRow(i).equals(compressed.getRow(i))){
+                System.out.println("row "+i+" differs");
+            }
+            if (!dataSet.getMultiLabels()[i].equals(compressed.getMultiLabels()[i])){
+                System.out.println("labels of "+i+" differ");
+            }
+        }
+        for (int j=0;j<dataSet.getNumFeatures();j++){
+            if (!dataSet.getColumn(j).equals(compressed.getColumn(j))){
+                System.out.println("column "+j+" differs");
+            }
+        }
+        System.out.println(compressed.getMetaInfo());
+    }
+
+    // more lines than one parse chunk
+    static void test3() throws Exception{
+        Random random = new Random(0);
+        MultiLabelClfDataSet dataSet = new SparseMLClfDataSet(25000,100,false,10);
+        for (int i=0;i<dataSet.getNumDataPoints();i++){
+            for (int e=0;e<5;e++){
+                dataSet.setFeatureValue(i, random.nextInt(100), random.nextGaussian());
+            }
+            dataSet.addLabel(i, random.nextInt(10));
+        }
+        File folder = new File("/tmp/compressed_sparse_test");
+        TRECFormat.save(dataSet, folder);
+        MultiLabelClfDataSet compressed = TRECFormat.loadMultiLabelClfDataSet(folder, DataSetType.ML_CLF_COMPRESSED, true);
+        int numDifferences = 0;
+        for (int i=0;i<dataSet.getNumDataPoints();i++){
+            if (!dataSet.getRow(i).equals(compressed.getRow(i))
+                    || !dataSet.getMultiLabels()[i].equals(compressed.getMultiLabels()[i])){
+                numDifferences += 1;
+            }
+        }
+        System.out.println("rows differing after loading "+dataSet.getNumDataPoints()+" lines = "+numDifferences);
+    }
+}
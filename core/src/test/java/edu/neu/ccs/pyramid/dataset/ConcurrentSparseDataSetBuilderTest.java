@@ -0,0 +1,77 @@
+package edu.neu.ccs.pyramid.dataset;
+
+import java.util.Random;
+import java.util.stream.IntStream;
+
+public class ConcurrentSparseDataSetBuilderTest {
+    public static void main(String[] args) {
+        test1();
+        test2();
+        test3();
+    }
+
+    static void test1(){
+        ConcurrentSparseDataSetBuilder builder = ConcurrentSparseDataSetBuilder.getBuilder()
+                .numDataPoints(3).numFeatures(4).numClasses(2);
+        builder.setFeatureValue(0,3,1.5);
+        builder.setFeatureValue(0,1,-2);
+        builder.setFeatureValue(0,3,2.5);
+        builder.setFeatureValue(2,0,1);
+        builder.setFeatureValue(2,0,0);
+        builder.addLabel(1,1);
+        CompressedSparseMLClfDataSet dataSet = builder.buildMultiLabel();
+        for (int i=0;i<dataSet.getNumDataPoints();i++){
+            System.out.println(i+": "+dataSet.getRow(i).asFormatString()+" "+dataSet.getMultiLabels()[i]);
+        }
+        System.out.println("expected row 0 = {1:-2.0,3:2.5}, rows 1 and 2 empty, label 1 on data point 1");
+    }
+
+    // each row is filled by one task, tasks run in parallel
+    static void test2(){
+        int numDataPoints = 20000;
+        int numFeatures = 1000;
+        SparseDataSet expected = new SparseDataSet(numDataPoints, numFeatures, false);
+        ConcurrentSparseDataSetBuilder builder = ConcurrentSparseDataSetBuilder.getBuilder()
+                .numDataPoints(numDataPoints).numFeatures(numFeatures);
+        IntStream.range(0, numDataPoints).parallel().forEach(i -> {
+            Random random = new Random(i);
+            for (int k=0;k<30;k++){
+                int j = random.nextInt(numFeatures);
+                double value = random.nextInt(5);
+                expected.setFeatureValue(i, j, value);
+                builder.setFeatureValue(i, j, value);
+            }
+        });
+        CompressedSparseDataSet dataSet = builder.build();
+        int mismatches = 0;
+        for (int i=0;i<numDataPoints;i++){
+            if (!expected.getRow(i).equals(dataSet.getRow(i))){
+                mismatches += 1;
+            }
+        }
+        System.out.println("non-zeros = "+dataSet.getNumNonZeros()+", mismatched rows = "+mismatches);
+    }
+
+    // after build, writes from any thread and a second build are rejected
+    static void test3(){
+        ConcurrentSparseDataSetBuilder builder = ConcurrentSparseDataSetBuilder.getBuilder()
+                .numDataPoints(100).numFeatures(10);
+        IntStream.range(0, 100).parallel().forEach(i -> builder.setFeatureValue(i, i%10, 1));
+        System.out.println("non-zeros = "+builder.build().getNumNonZeros()+" (expected 100)");
+        long rejected = IntStream.range(0, 100).parallel().filter(i -> {
+            try {
+                builder.setFeatureValue(i, 0, 2);
+                return false;
+            } catch (IllegalStateException e){
+                return true;
+            }
+        }).count();
+        System.out.println("rejected writes after build = "+rejected+" (expected 100)");
+        try {
+            builder.build();
+            System.out.println("second build succeeded");
+        } catch (IllegalStateException e){
+            System.out.println("second build: "+e.getMessage());
+        }
+    }
+}
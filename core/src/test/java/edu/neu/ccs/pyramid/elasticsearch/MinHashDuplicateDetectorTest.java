@@ -0,0 +1,91 @@
+package edu.neu.ccs.pyramid.elasticsearch;
+
+import java.io.File;
+import java.util.*;
+
+public class MinHashDuplicateDetectorTest {
+    public static void main(String[] args) throws Exception{
+        test1();
+        test2();
+        test3();
+    }
+
+    // every 10th document is a copy of the previous one with one term changed; the rest are random
+    private static void test1() throws Exception{
+        int numDocs = 20000;
+        Random random = new Random(0);
+        List<Map<Integer, String>> termVectors = new ArrayList<>();
+        Set<String> expected = new HashSet<>();
+        for (int d=0;d<numDocs;d++){
+            Map<Integer, String> termVector = new HashMap<>();
+            if (d%10==9){
+                termVector.putAll(termVectors.get(d-1));
+                termVector.put(random.nextInt(termVector.size()), "changed");
+                expected.add("doc"+d);
+            } else {
+                for (int p=0;p<100;p++){
+                    termVector.put(p, "t"+random.nextInt(1000));
+                }
+            }
+            termVectors.add(termVector);
+        }
+        String[] ids = new String[numDocs];
+        for (int d=0;d<numDocs;d++){
+            ids[d] = "doc"+d;
+        }
+
+        MinHashDuplicateDetector detector = MinHashDuplicateDetector.withThreshold(0.8, 128, 3);
+        System.out.println("bands = "+detector.getNumBands()+", rows = "+detector.getRowsPerBand());
+        File file = new File("/tmp/minhash_signatures_test.bin");
+        detector.writeSignatures(ids, termVectors::get, file);
+        Set<String> duplicates = detector.detect(ids, file);
+        Set<String> missed = new HashSet<>(expected);
+        missed.removeAll(duplicates);
+        Set<String> extra = new HashSet<>(duplicates);
+        extra.removeAll(expected);
+        System.out.println("duplicates = "+duplicates.size()+", expected = "+expected.size()
+                +", missed = "+missed.size()+", false positives = "+extra.size());
+    }
+
+    // a signature file written for other ids of the same count is not reused
+    private static void test2() throws Exception{
+        List<Map<Integer, String>> termVectors = new ArrayList<>();
+        for (int d=0;d<3;d++){
+            Map<Integer, String> termVector = new HashMap<>();
+            termVector.put(0, "t"+d);
+            termVectors.add(termVector);
+        }
+        MinHashDuplicateDetector detector = MinHashDuplicateDetector.withThreshold(0.8, 16, 1);
+        File file = new File("/tmp/minhash_signatures_test2.bin");
+        detector.writeSignatures(new String[]{"a","b","c"}, termVectors::get, file);
+        System.out.println("same ids: "+detector.detect(new String[]{"a","b","c"}, file));
+        try {
+            detector.detect(new String[]{"c","b","a"}, file);
+            System.out.println("reordered ids: reused a stale file");
+        } catch (IllegalArgumentException e){
+            System.out.println("reordered ids: rejected");
+        }
+    }
+
+    // empty documents, e.g. failed fetches, are counted and never reported as duplicates of each other
+    private static void test3() throws Exception{
+        List<Map<Integer, String>> termVectors = new ArrayList<>();
+        for (int d=0;d<6;d++){
+            Map<Integer, String> termVector = new HashMap<>();
+            if (d<2){
+                termVector.put(0, "same");
+                termVector.put(1, "text");
+            } else if (d==3){
+                termVector.put(0, "other");
+            }
+            termVectors.add(termVector);
+        }
+        String[] ids = {"a","b","c","d","e","f"};
+        MinHashDuplicateDetector detector = MinHashDuplicateDetector.withThreshold(0.8, 16, 1);
+        File file = new File("/tmp/minhash_signatures_test3.bin");
+        int numUnsignatured = detector.writeSignatures(ids, termVectors::get, file);
+        System.out.println("unsignatured = "+numUnsignatured+" "+new TreeSet<>(detector.getUnsignatured(ids, file))
+                +" (expected 3 [c, e, f])");
+        System.out.println("duplicates = "+detector.detect(ids, file)+" (expected [b])");
+    }
+}
@@ -0,0 +1,69 @@
+package edu.neu.ccs.pyramid.elasticsearch;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+public class TermVectorFetcherTest {
+    public static void main(String[] args) throws Exception{
+        test1();
+    }
+
+    private static Map<Integer, String> termVector(String id){
+        Map<Integer, String> termVector = new HashMap<>();
+        int length = id.length()+3;
+        for (int p=0;p<length;p++){
+            termVector.put(2*p, "term"+(p*id.hashCode()%7));
+        }
+        return termVector;
+    }
+
+    // a mock source records batch sizes and concurrency; the second run is served from the disk cache
+    private static void test1() throws Exception{
+        File directory = new File("/tmp/term_vector_cache_test");
+        FileUtils.deleteDirectory(directory);
+        AtomicInteger numRequests = new AtomicInteger();
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        TermVectorFetcher.BatchSource source = (field, ids) -> {
+            numRequests.incrementAndGet();
+            int current = inFlight.incrementAndGet();
+            maxInFlight.accumulateAndGet(current, Math::max);
+            Map<String, Map<Integer, String>> termVectors = new HashMap<>();
+            for (String id: ids){
+                termVectors.put(id, termVector(id));
+            }
+            try {
+                Thread.sleep(2);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            inFlight.decrementAndGet();
+            return termVectors;
+        };
+        String[] ids = IntStream.range(0, 1000).mapToObj(i -> "doc"+i).toArray(String[]::new);
+
+        TermVectorFetcher fetcher = new TermVectorFetcher(source, new TermVectorCache(directory), 64, 3);
+        Map<String, Map<Integer, String>> first = fetcher.getAll("body", ids);
+        fetcher.close();
+        System.out.println("requests = "+numRequests.get()+" (expected 16), max in flight = "+maxInFlight.get()+" (at most 3)");
+
+        numRequests.set(0);
+        fetcher = new TermVectorFetcher(source, new TermVectorCache(directory), 64, 3);
+        Map<String, Map<Integer, String>> second = fetcher.getAll("body", ids);
+        System.out.println("requests after reopening the cache = "+numRequests.get()+" (expected 0)");
+        int mismatches = 0;
+        for (String id: ids){
+            if (!first.get(id).equals(termVector(id)) || !second.get(id).equals(termVector(id))){
+                mismatches += 1;
+            }
+        }
+        System.out.println("mismatches = "+mismatches);
+        System.out.println("single document = "+fetcher.get("body", "doc7").equals(termVector("doc7"))
+                +", requests = "+numRequests.get());
+        fetcher.close();
+    }
+}
@@ -0,0 +1,85 @@
+package edu.neu.ccs.pyramid.feature_extraction;
+
+import com.google.common.collect.ConcurrentHashMultiset;
+import com.google.common.collect.Multiset;
+import edu.neu.ccs.pyramid.feature.Ngram;
+import edu.neu.ccs.pyramid.util.CountMinSketch;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+public class InternedNgramEnumeratorTest {
+    public static void main(String[] args) {
+        test1();
+        test2();
+        test3();
+    }
+
+    private static List<List<String>> documents(){
+        Random random = new Random(0);
+        List<List<String>> documents = new ArrayList<>();
+        for (int d=0;d<2000;d++){
+            List<String> document = new ArrayList<>();
+            int length = random.nextInt(50);
+            for (int i=0;i<length;i++){
+                document.add("t"+random.nextInt(30));
+            }
+            documents.add(document);
+        }
+        return documents;
+    }
+
+    // with slop 0 there is one position template, so the document frequencies agree with NgramEnumerator
+    private static void test1(){
+        NgramTemplate template = new NgramTemplate("body",2,0);
+        List<List<String>> documents = documents();
+        Multiset<Ngram> expected = ConcurrentHashMultiset.create();
+        documents.forEach(document -> NgramEnumerator.add(document, expected, template));
+
+        InternedNgramEnumerator enumerator = new InternedNgramEnumerator(template);
+        IntStream.range(0, documents.size()).parallel().forEach(d -> enumerator.add(documents.get(d)));
+        Multiset<Ngram> ngrams = enumerator.getNgrams(5);
+
+        int mismatches = 0;
+        int numFrequent = 0;
+        for (Multiset.Entry<Ngram> entry: expected.entrySet()){
+            if (entry.getCount()>=5){
+                numFrequent += 1;
+                if (ngrams.count(entry.getElement())!=entry.getCount()){
+                    mismatches += 1;
+                }
+            }
+        }
+        System.out.println("frequent ngrams = "+numFrequent+", found = "+ngrams.elementSet().size()+", mismatches = "+mismatches);
+    }
+
+    private static void test2(){
+        NgramTemplate template = new NgramTemplate("body",3,1);
+        InternedNgramEnumerator enumerator = new InternedNgramEnumerator(template);
+        List<String> source = new ArrayList<>();
+        for (int i=0;i<10;i++){
+            source.add(""+i);
+        }
+        enumerator.add(source);
+        System.out.println(enumerator.getNgrams(1));
+    }
+
+    // a small sketch only filters candidates; the surviving counts stay exact
+    private static void test3(){
+        NgramTemplate template = new NgramTemplate("body",2,1);
+        List<List<String>> documents = documents();
+        InternedNgramEnumerator exact = new InternedNgramEnumerator(template);
+        documents.forEach(exact::add);
+        Multiset<Ngram> expected = exact.getNgrams(20);
+
+        CountMinSketch sketch = new CountMinSketch(4, 256);
+        InternedNgramEnumerator twoPass = new InternedNgramEnumerator(template, sketch, 20);
+        IntStream.range(0, documents.size()).parallel().forEach(d -> twoPass.addToSketch(documents.get(d)));
+        IntStream.range(0, documents.size()).parallel().forEach(d -> twoPass.add(documents.get(d)));
+        Multiset<Ngram> ngrams = twoPass.getNgrams(20);
+        System.out.println("sketch bytes = "+sketch.getMemoryBytes()+", expected = "+expected.elementSet().size()
+                +", found = "+ngrams.elementSet().size()+", equal = "+expected.equals(ngrams));
+    }
+}
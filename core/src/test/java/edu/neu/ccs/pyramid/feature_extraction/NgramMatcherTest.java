@@ -0,0 +1,166 @@
+package edu.neu.ccs.pyramid.feature_extraction;
+
+import edu.neu.ccs.pyramid.feature.Feature;
+import edu.neu.ccs.pyramid.feature.Ngram;
+
+import java.util.*;
+
+public class NgramMatcherTest {
+    public static void main(String[] args) {
+        test1();
+        test2();
+        test3();
+    }
+
+    private static Ngram ngram(String terms, int slop, boolean inOrder, int index){
+        Ngram ngram = new Ngram();
+        ngram.setNgram(terms);
+        ngram.setField("body");
+        ngram.setSlop(slop);
+        ngram.setInOrder(inOrder);
+        ngram.setIndex(index);
+        return ngram;
+    }
+
+    private static Map<Integer, String> termVector(String text){
+        Map<Integer, String> termVector = new HashMap<>();
+        String[] terms = text.split(" ");
+        for (int p=0;p<terms.length;p++){
+            termVector.put(p, terms[p]);
+        }
+        return termVector;
+    }
+
+    private static Map<Integer, Integer> match(NgramMatcher matcher, Map<Integer, String> termVector){
+        Map<Integer, Integer> counts = new HashMap<>();
+        matcher.match(termVector, counts::put);
+        return counts;
+    }
+
+    private static void test1(){
+        List<Feature> features = new ArrayList<>();
+        features.add(ngram("a", 0, true, 0));
+        features.add(ngram("a b", 0, true, 1));
+        features.add(ngram("a b", 1, true, 2));
+        features.add(ngram("b a", 1, false, 3));
+        features.add(ngram("a a", 0, false, 4));
+        NgramMatcher matcher = new NgramMatcher(features, "body", true);
+        // "a a" never matches: the two sub spans cannot share a position and no two a are adjacent
+        System.out.println(match(matcher, termVector("a b x a b a c b")));
+        System.out.println("expected {0=3, 1=2, 2=3, 3=5}");
+    }
+
+    private static List<List<String>> documents(){
+        Random random = new Random(0);
+        List<List<String>> documents = new ArrayList<>();
+        for (int d=0;d<1000;d++){
+            List<String> document = new ArrayList<>();
+            int length = random.nextInt(60);
+            for (int i=0;i<length;i++){
+                document.add("t"+random.nextInt(8));
+            }
+            documents.add(document);
+        }
+        return documents;
+    }
+
+    // exact phrases against a direct scan
+    private static void test2(){
+        List<Feature> features = new ArrayList<>();
+        Random random = new Random(1);
+        for (int f=0;f<200;f++){
+            int n = 1+random.nextInt(3);
+            List<String> terms = new ArrayList<>();
+            for (int k=0;k<n;k++){
+                terms.add("t"+random.nextInt(8));
+            }
+            features.add(ngram(String.join(" ", terms), 0, true, f));
+        }
+        NgramMatcher matcher = new NgramMatcher(features, "body", true);
+        int mismatches = 0;
+        for (List<String> document: documents()){
+            Map<Integer, Integer> counts = match(matcher, termVector(String.join(" ", document)));
+            for (Feature feature: features){
+                String[] terms = ((Ngram) feature).getTerms();
+                int expected = 0;
+                for (int start=0;start+terms.length<=document.size();start++){
+                    boolean found = true;
+                    for (int k=0;k<terms.length;k++){
+                        found &= document.get(start+k).equals(terms[k]);
+                    }
+                    if (found){
+                        expected += 1;
+                    }
+                }
+                if (counts.getOrDefault(feature.getIndex(), 0)!=expected){
+                    mismatches += 1;
+                }
+            }
+        }
+        System.out.println("exact phrase mismatches = "+mismatches);
+    }
+
+    // sloppy in order phrases: count against a greedy search restarted at every occurrence of the first term,
+    // binary against the counts
+    private static void test3(){
+        List<Feature> features = new ArrayList<>();
+        Random random = new Random(2);
+        for (int f=0;f<200;f++){
+            int n = 2+random.nextInt(2);
+            List<String> terms = new ArrayList<>();
+            for (int k=0;k<n;k++){
+                terms.add("t"+random.nextInt(8));
+            }
+            features.add(ngram(String.join(" ", terms), 1+random.nextInt(3), true, f));
+        }
+        NgramMatcher counter = new NgramMatcher(features, "body", true);
+        NgramMatcher binary = new NgramMatcher(features, "body", false);
+        int mismatches = 0;
+        int binaryMismatches = 0;
+        for (List<String> document: documents()){
+            Map<Integer, String> termVector = termVector(String.join(" ", document));
+            if (document.isEmpty()){
+                termVector.clear();
+            }
+            Map<Integer, Integer> counts = match(counter, termVector);
+            Map<Integer, Integer> matched = match(binary, termVector);
+            for (Feature feature: features){
+                Ngram ngram = (Ngram) feature;
+                int expected = greedyCount(document, ngram.getTerms(), ngram.getSlop());
+                if (counts.getOrDefault(feature.getIndex(), 0)!=expected){
+                    mismatches += 1;
+                }
+                if (matched.getOrDefault(feature.getIndex(), 0)!=Math.min(expected, 1)){
+                    binaryMismatches += 1;
+                }
+            }
+        }
+        System.out.println("sloppy phrase mismatches = "+mismatches+", binary mismatches = "+binaryMismatches);
+    }
+
+    private static int greedyCount(List<String> document, String[] terms, int slop){
+        int count = 0;
+        for (int start=0;start<document.size();start++){
+            if (!document.get(start).equals(terms[0])){
+                continue;
+            }
+            int previous = start;
+            boolean exhausted = false;
+            for (int k=1;k<terms.length && !exhausted;k++){
+                int next = previous+1;
+                while (next<document.size() && !document.get(next).equals(terms[k])){
+                    next += 1;
+                }
+                exhausted = next==document.size();
+                previous = next;
+            }
+            if (exhausted){
+                break;
+            }
+            if (previous-start-(terms.length-1)<=slop){
+                count += 1;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,90 @@
+package edu.neu.ccs.pyramid.feature_selection;
+
+import edu.neu.ccs.pyramid.dataset.LabelTranslator;
+import edu.neu.ccs.pyramid.dataset.MultiLabel;
+import edu.neu.ccs.pyramid.feature.Ngram;
+import org.apache.mahout.math.DenseVector;
+import org.apache.mahout.math.Vector;
+
+import java.util.*;
+import java.util.stream.IntStream;
+
+public class NgramClassCounterTest {
+    public static void main(String[] args) {
+        test1();
+    }
+
+    // counts against a direct scan; kolmogorov scores from counts against scores from occurrence vectors
+    private static void test1(){
+        int numDocs = 500;
+        int numClasses = 3;
+        Random random = new Random(0);
+        List<List<String>> documents = new ArrayList<>();
+        int[] labels = new int[numDocs];
+        long[] classSizes = new long[numClasses];
+        for (int d=0;d<numDocs;d++){
+            List<String> document = new ArrayList<>();
+            labels[d] = random.nextInt(numClasses);
+            classSizes[labels[d]] += 1;
+            int length = 5+random.nextInt(30);
+            for (int i=0;i<length;i++){
+                // class 0 prefers small term ids
+                int bound = labels[d]==0 ? 4 : 8;
+                document.add("t"+random.nextInt(bound));
+            }
+            documents.add(document);
+        }
+        List<Ngram> candidates = new ArrayList<>();
+        for (int a=0;a<8;a++){
+            for (int b=0;b<8;b++){
+                Ngram ngram = new Ngram();
+                ngram.setNgram("t"+a+" t"+b);
+                ngram.setField("body");
+                ngram.setSlop(0);
+                ngram.setInOrder(true);
+                candidates.add(ngram);
+            }
+        }
+
+        NgramClassCounter counter = new NgramClassCounter(candidates, numClasses);
+        IntStream.range(0, numDocs).parallel().forEach(d -> {
+            Map<Integer, String> termVector = new HashMap<>();
+            for (int p=0;p<documents.get(d).size();p++){
+                termVector.put(p, documents.get(d).get(p));
+            }
+            MultiLabel multiLabel = new MultiLabel();
+            multiLabel.addLabel(labels[d]);
+            counter.add("body", termVector, multiLabel);
+        });
+        LabelTranslator labelTranslator = LabelTranslator.newDefaultLabelTranslator(numClasses);
+        List<FeatureDistribution> distributions = counter.getDistributions(labelTranslator, classSizes);
+
+        FusedKolmogorovFilter filter = new FusedKolmogorovFilter();
+        int mismatches = 0;
+        double maxScoreDifference = 0;
+        for (int c=0;c<candidates.size();c++){
+            String[] terms = candidates.get(c).getTerms();
+            long[] expected = new long[numClasses];
+            Vector occurrence = new DenseVector(numDocs);
+            for (int d=0;d<numDocs;d++){
+                List<String> document = documents.get(d);
+                for (int p=0;p+1<document.size();p++){
+                    if (document.get(p).equals(terms[0]) && document.get(p+1).equals(terms[1])){
+                        expected[labels[d]] += 1;
+                        occurrence.set(d, 1);
+                        break;
+                    }
+                }
+            }
+            if (!Arrays.equals(expected, distributions.get(c).getOccurInEach())){
+                mismatches += 1;
+            }
+            if (occurrence.minValue()!=occurrence.maxValue()){
+                double difference = Math.abs(filter.score(occurrence, labels, numClasses)
+                        - filter.score(distributions.get(c), classSizes));
+                maxScoreDifference = Math.max(maxScoreDifference, difference);
+            }
+        }
+        System.out.println("count mismatches = "+mismatches+", max kolmogorov score difference = "+maxScoreDifference);
+    }
+}
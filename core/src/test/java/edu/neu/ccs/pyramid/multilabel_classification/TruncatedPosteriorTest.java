@@ -0,0 +1,84 @@
+package edu.neu.ccs.pyramid.multilabel_classification;
+
+import edu.neu.ccs.pyramid.dataset.MLClfDataSetBuilder;
+import edu.neu.ccs.pyramid.dataset.MultiLabelClfDataSet;
+import edu.neu.ccs.pyramid.multilabel_classification.crf.CMLCRF;
+import edu.neu.ccs.pyramid.multilabel_classification.crf.CRFLoss;
+import org.apache.mahout.math.Vector;
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class TruncatedPosteriorTest {
+    public static void main(String[] args) {
+        test1();
+        test2();
+    }
+
+    private static void test1(){
+        TruncatedPosterior posterior = new TruncatedPosterior(6);
+        double[] probs = {0.02, 0.5, 0, 0.3, 0.13, 0.05};
+        posterior.truncate(probs, 0);
+        System.out.println("epsilon 0 keeps "+posterior.size()+" entries (expected 5)");
+        posterior.truncate(probs, 0.1);
+        double[] dense = new double[6];
+        posterior.toDense(dense);
+        // 0.5+0.3+0.13 = 0.93 >= 0.9
+        System.out.println("epsilon 0.1: "+Arrays.toString(dense)+" (expected 0.5/0.93, 0.3/0.93, 0.13/0.93 at 1, 3, 4)");
+        posterior.truncate(new double[]{0.25, 0.25, 0.25, 0.25}, 0.3);
+        System.out.println("ties are kept together: "+(posterior.size()==4));
+    }
+
+    // labels generated from noisy linear scores, so the posteriors are spread over several combinations
+    private static MultiLabelClfDataSet dataSet(Random random){
+        int numFeatures = 5;
+        int numClasses = 4;
+        MultiLabelClfDataSet dataSet = MLClfDataSetBuilder.getBuilder().numDataPoints(300).numFeatures(numFeatures)
+                .numClasses(numClasses).build();
+        double[][] truth = new double[numClasses][numFeatures];
+        for (int l=0;l<numClasses;l++){
+            for (int j=0;j<numFeatures;j++){
+                truth[l][j] = random.nextGaussian();
+            }
+        }
+        for (int i=0;i<dataSet.getNumDataPoints();i++){
+            for (int j=0;j<numFeatures;j++){
+                dataSet.setFeatureValue(i, j, random.nextGaussian());
+            }
+            for (int l=0;l<numClasses;l++){
+                double score = random.nextGaussian();
+                for (int j=0;j<numFeatures;j++){
+                    score += truth[l][j]*dataSet.getRow(i).get(j);
+                }
+                if (score>0){
+                    dataSet.addLabel(i, l);
+                }
+            }
+        }
+        return dataSet;
+    }
+
+    // the truncated gradient approaches the exact one as epsilon goes to 0
+    private static void test2(){
+        Random random = new Random(0);
+        MultiLabelClfDataSet dataSet = dataSet(random);
+        CMLCRF cmlcrf = new CMLCRF(dataSet);
+        cmlcrf.setConsiderPair(true);
+        CRFLoss loss = new CRFLoss(cmlcrf, dataSet, 1);
+        loss.setRegularizeAll(true);
+        Vector weights = loss.getParameters().like();
+        for (int i=0;i<weights.size();i++){
+            weights.set(i, random.nextGaussian());
+        }
+        loss.setParameters(weights);
+        Vector exact = loss.getGradient().like().assign(loss.getGradient());
+        System.out.println("support size = "+cmlcrf.getNumSupports()+", value = "+loss.getValue());
+        for (double epsilon: new double[]{0.1, 0.01, 0.001, 0.0001}){
+            loss.setPosteriorTruncation(epsilon);
+            Vector truncated = loss.getGradient();
+            System.out.println("epsilon "+epsilon+": relative error = "+truncated.minus(exact).norm(2)/exact.norm(2));
+        }
+        loss.setPosteriorTruncation(0);
+        System.out.println("epsilon 0 is exact: "+loss.getGradient().equals(exact));
+    }
+}
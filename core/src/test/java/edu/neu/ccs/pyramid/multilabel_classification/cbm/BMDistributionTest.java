@@ -0,0 +1,68 @@
+package edu.neu.ccs.pyramid.multilabel_classification.cbm;
+
+import edu.neu.ccs.pyramid.classification.PriorProbClassifier;
+import edu.neu.ccs.pyramid.classification.logistic_regression.LogisticRegression;
+import edu.neu.ccs.pyramid.dataset.MLClfDataSetBuilder;
+import edu.neu.ccs.pyramid.dataset.MultiLabelClfDataSet;
+import org.apache.mahout.math.Vector;
+
+import java.util.Random;
+
+public class BMDistributionTest {
+    public static void main(String[] args) {
+        test1();
+    }
+
+    // scratch and batch marginals against the per vector distribution
+    private static void test1(){
+        Random random = new Random(0);
+        int numComponents = 5;
+        MultiLabelClfDataSet dataSet = MLClfDataSetBuilder.getBuilder().numDataPoints(500).numFeatures(20)
+                .numClasses(8).build();
+        for (int i=0;i<dataSet.getNumDataPoints();i++){
+            for (int j=0;j<dataSet.getNumFeatures();j++){
+                dataSet.setFeatureValue(i, j, random.nextGaussian());
+            }
+        }
+        CBM cbm = CBM.getBuilder()
+                .setNumClasses(dataSet.getNumClasses())
+                .setNumFeatures(dataSet.getNumFeatures())
+                .setNumComponents(numComponents)
+                .setBinaryClassifierType("lr")
+                .setMultiClassClassifierType("lr")
+                .build();
+        cbm.multiClassClassifier = new LogisticRegression(numComponents, dataSet.getNumFeatures(), true);
+        for (int k=0;k<numComponents;k++){
+            for (int l=0;l<dataSet.getNumClasses();l++){
+                cbm.binaryClassifiers[k][l] = new LogisticRegression(2, dataSet.getNumFeatures(), true);
+            }
+        }
+        // skipped labels are prior classifiers
+        cbm.binaryClassifiers[1][3] = new PriorProbClassifier(new double[]{0.9, 0.1});
+
+        double[][] batch = cbm.predictClassProbs(dataSet);
+        double maxBatchDifference = 0;
+        double maxSingleDifference = 0;
+        for (int i=0;i<dataSet.getNumDataPoints();i++){
+            Vector x = dataSet.getRow(i);
+            BMDistribution bmDistribution = new BMDistribution(cbm, x, 0.001);
+            double[] expected = new double[dataSet.getNumClasses()];
+            for (int l=0;l<dataSet.getNumClasses();l++){
+                for (int k=0;k<bmDistribution.numComponents;k++){
+                    expected[l] += Math.exp(bmDistribution.logProportions[k])*Math.exp(bmDistribution.logClassProbs[k][l][1]);
+                }
+                maxBatchDifference = Math.max(maxBatchDifference, Math.abs(batch[i][l]-expected[l]));
+            }
+            double[] pi = cbm.multiClassClassifier.predictClassProbs(x);
+            for (int l=0;l<dataSet.getNumClasses();l++){
+                double prob = 0;
+                for (int k=0;k<numComponents;k++){
+                    prob += cbm.binaryClassifiers[k][l].predictClassProb(x,1) * pi[k];
+                }
+                maxSingleDifference = Math.max(maxSingleDifference, Math.abs(cbm.predictClassProb(x, l)-prob));
+            }
+        }
+        System.out.println("max difference of batch marginals = "+maxBatchDifference);
+        System.out.println("max difference of single marginals = "+maxSingleDifference);
+    }
+}
@@ -0,0 +1,152 @@
+package edu.neu.ccs.pyramid.multilabel_classification.cbm;
+
+import edu.neu.ccs.pyramid.classification.logistic_regression.LogisticRegression;
+import edu.neu.ccs.pyramid.dataset.MLClfDataSetBuilder;
+import edu.neu.ccs.pyramid.dataset.MultiLabel;
+import edu.neu.ccs.pyramid.dataset.MultiLabelClfDataSet;
+import edu.neu.ccs.pyramid.multilabel_classification.Enumerator;
+import edu.neu.ccs.pyramid.multilabel_classification.plugin_rule.GeneralF1Predictor;
+import edu.neu.ccs.pyramid.util.Pair;
+import org.apache.mahout.math.Vector;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+public class BranchAndBoundPredictorTest {
+    public static void main(String[] args) {
+        test1(true);
+        test1(false);
+        test2();
+        test3();
+    }
+
+    private static MultiLabelClfDataSet dataSet(int numClasses){
+        Random random = new Random(0);
+        MultiLabelClfDataSet dataSet = MLClfDataSetBuilder.getBuilder().numDataPoints(200).numFeatures(10)
+                .numClasses(numClasses).build();
+        for (int i=0;i<dataSet.getNumDataPoints();i++){
+            for (int j=0;j<dataSet.getNumFeatures();j++){
+                dataSet.setFeatureValue(i, j, random.nextGaussian());
+            }
+        }
+        return dataSet;
+    }
+
+    private static CBM randomCBM(MultiLabelClfDataSet dataSet, int numComponents){
+        CBM cbm = CBM.getBuilder()
+                .setNumClasses(dataSet.getNumClasses())
+                .setNumFeatures(dataSet.getNumFeatures())
+                .setNumComponents(numComponents)
+                .setBinaryClassifierType("lr")
+                .setMultiClassClassifierType("lr")
+                .build();
+        Random random = new Random(1);
+        cbm.multiClassClassifier = randomLR(numComponents, dataSet.getNumFeatures(), random);
+        for (int k=0;k<numComponents;k++){
+            for (int l=0;l<dataSet.getNumClasses();l++){
+                cbm.binaryClassifiers[k][l] = randomLR(2, dataSet.getNumFeatures(), random);
+            }
+        }
+        return cbm;
+    }
+
+    // LogisticRegression(numClasses, numFeatures, true) uses a fixed seed, so all classifiers would be equal
+    private static LogisticRegression randomLR(int numClasses, int numFeatures, Random random){
+        LogisticRegression logisticRegression = new LogisticRegression(numClasses, numFeatures);
+        Vector weights = logisticRegression.getWeights().getAllWeights();
+        for (int j=0;j<weights.size();j++){
+            weights.set(j, random.nextGaussian()*0.7);
+        }
+        logisticRegression.getWeights().setWeightVector(weights);
+        return logisticRegression;
+    }
+
+    // certified map and top k against exhaustive enumeration
+    private static void test1(boolean allowEmpty){
+        MultiLabelClfDataSet dataSet = dataSet(10);
+        CBM cbm = randomCBM(dataSet, 5);
+        cbm.setAllowEmpty(allowEmpty);
+        List<MultiLabel> all = Enumerator.enumerate(dataSet.getNumClasses());
+        if (!allowEmpty){
+            all.removeIf(multiLabel -> multiLabel.getNumMatchedLabels()==0);
+        }
+        BranchAndBoundPredictor predictor = new BranchAndBoundPredictor(cbm);
+        predictor.setAllowEmpty(allowEmpty);
+        predictor.setPiThreshold(0);
+        int mapErrors = 0;
+        int topKErrors = 0;
+        int dynamicErrors = 0;
+        int totalExpansions = 0;
+        for (int i=0;i<dataSet.getNumDataPoints();i++){
+            Vector x = dataSet.getRow(i);
+            double[] probs = cbm.predictAssignmentProbs(x, all, 0);
+            double[] sorted = Arrays.stream(probs).map(p -> -p).sorted().map(p -> -p).toArray();
+            BranchAndBoundPredictor.Result result = predictor.decode(x);
+            totalExpansions += result.getNumExpansions();
+            if (!result.isCertified() || Math.abs(result.getProbability()-sorted[0])>1E-12
+                    || Math.abs(cbm.predictAssignmentProb(x, result.getPrediction())-sorted[0])>1E-12){
+                mapErrors += 1;
+            }
+            List<Pair<MultiLabel,Double>> top = predictor.topK(x, 5);
+            for (int r=0;r<5;r++){
+                if (Math.abs(top.get(r).getSecond()-sorted[r])>1E-12){
+                    topKErrors += 1;
+                }
+            }
+            CBMPredictor cbmPredictor = new CBMPredictor(cbm.computeBM(x, 0));
+            cbmPredictor.setAllowEmpty(allowEmpty);
+            if (cbm.predictAssignmentProb(x, cbmPredictor.predictByDynamic())<sorted[0]-1E-12){
+                dynamicErrors += 1;
+            }
+        }
+        System.out.println("allowEmpty = "+allowEmpty);
+        System.out.println("map errors = "+mapErrors+", top 5 errors = "+topKErrors
+                +", average expansions = "+(double)totalExpansions/dataSet.getNumDataPoints());
+        System.out.println("dynamic search misses the map assignment on "+dynamicErrors+" of "+dataSet.getNumDataPoints());
+    }
+
+    // budget on a larger label space
+    private static void test2(){
+        MultiLabelClfDataSet dataSet = dataSet(200);
+        CBM cbm = randomCBM(dataSet, 20);
+        BranchAndBoundPredictor predictor = new BranchAndBoundPredictor(cbm);
+        predictor.setMaxExpansions(100);
+        int certified = 0;
+        for (int i=0;i<dataSet.getNumDataPoints();i++){
+            BranchAndBoundPredictor.Result result = predictor.decode(dataSet.getRow(i));
+            if (result.isCertified()){
+                certified += 1;
+            }
+            if (result.getNumExpansions()>100){
+                throw new RuntimeException("budget exceeded");
+            }
+            if (!result.isCertified() && result.getProbability()>result.getUpperBound()*(1+1E-9)){
+                throw new RuntimeException("fallback beats the bound "+result);
+            }
+        }
+        System.out.println("certified within 100 expansions: "+certified+" of "+dataSet.getNumDataPoints());
+    }
+
+    // f1 target against GFM over all assignments
+    private static void test3(){
+        MultiLabelClfDataSet dataSet = dataSet(10);
+        CBM cbm = randomCBM(dataSet, 5);
+        cbm.setAllowEmpty(true);
+        List<MultiLabel> all = Enumerator.enumerate(dataSet.getNumClasses());
+        BranchAndBoundPredictor predictor = new BranchAndBoundPredictor(cbm);
+        predictor.setPiThreshold(0);
+        predictor.setTarget("f1");
+        int agreements = 0;
+        for (int i=0;i<dataSet.getNumDataPoints();i++){
+            Vector x = dataSet.getRow(i);
+            double[] probs = cbm.predictAssignmentProbs(x, all, 0);
+            MultiLabel exact = new GeneralF1Predictor().predict(dataSet.getNumClasses(), all, probs);
+            if (predictor.predict(x).equals(exact)){
+                agreements += 1;
+            }
+        }
+        System.out.println("f1 prediction over 95% of the mass agrees with GFM over all assignments on "
+                +agreements+" of "+dataSet.getNumDataPoints());
+    }
+}
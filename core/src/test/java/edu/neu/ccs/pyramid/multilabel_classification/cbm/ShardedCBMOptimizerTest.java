@@ -0,0 +1,141 @@
+package edu.neu.ccs.pyramid.multilabel_classification.cbm;
+
+import edu.neu.ccs.pyramid.classification.logistic_regression.LogisticRegression;
+import edu.neu.ccs.pyramid.dataset.MLClfDataSetBuilder;
+import edu.neu.ccs.pyramid.dataset.MultiLabelClfDataSet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.ObjectOutputStream;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class ShardedCBMOptimizerTest {
+    public static void main(String[] args) throws Exception{
+        test1();
+        test2();
+        test3();
+    }
+
+    // labels depend on the features and on a hidden group
+    private static MultiLabelClfDataSet dataSet(){
+        Random random = new Random(0);
+        MultiLabelClfDataSet dataSet = MLClfDataSetBuilder.getBuilder().numDataPoints(1000).numFeatures(10)
+                .numClasses(6).build();
+        for (int i=0;i<dataSet.getNumDataPoints();i++){
+            for (int j=0;j<dataSet.getNumFeatures();j++){
+                dataSet.setFeatureValue(i, j, random.nextGaussian());
+            }
+            int group = random.nextInt(3);
+            for (int l=0;l<dataSet.getNumClasses();l++){
+                double score = dataSet.getRow(i).get(l) + (l%3==group ? 2 : -2);
+                if (random.nextDouble()<1/(1+Math.exp(-score))){
+                    dataSet.addLabel(i, l);
+                }
+            }
+        }
+        return dataSet;
+    }
+
+    private static CBM newCBM(MultiLabelClfDataSet dataSet, int numComponents){
+        return CBM.getBuilder()
+                .setNumClasses(dataSet.getNumClasses())
+                .setNumFeatures(dataSet.getNumFeatures())
+                .setNumComponents(numComponents)
+                .setBinaryClassifierType("lr")
+                .setMultiClassClassifierType("lr")
+                .build();
+    }
+
+    private static List<ShardClient> clients(List<ShardWorker> workers){
+        List<ShardClient> clients = new ArrayList<>();
+        for (ShardWorker worker: workers){
+            clients.add(new ShardClient("localhost", worker.getPort()));
+        }
+        return clients;
+    }
+
+    private static void close(List<? extends Closeable> closeables) throws Exception{
+        for (Closeable closeable: closeables){
+            closeable.close();
+        }
+    }
+
+    private static CBM trainBR(MultiLabelClfDataSet dataSet, int numShards) throws Exception{
+        List<ShardWorker> workers = ShardWorker.startLocal(dataSet, numShards);
+        List<ShardClient> clients = clients(workers);
+        CBM cbm = newCBM(dataSet, 1);
+        ShardedCBMOptimizer optimizer = new ShardedCBMOptimizer(cbm, clients);
+        optimizer.initialize(0);
+        optimizer.iterate();
+        close(clients);
+        close(workers);
+        return cbm;
+    }
+
+    // binary relevance: the shards only change the summation order
+    private static void test1() throws Exception{
+        MultiLabelClfDataSet dataSet = dataSet();
+        CBM oneShard = trainBR(dataSet, 1);
+        CBM threeShards = trainBR(dataSet, 3);
+        double maxDifference = 0;
+        for (int l=0;l<dataSet.getNumClasses();l++){
+            LogisticRegression a = (LogisticRegression) oneShard.getBinaryClassifiers()[0][l];
+            LogisticRegression b = (LogisticRegression) threeShards.getBinaryClassifiers()[0][l];
+            maxDifference = Math.max(maxDifference, a.getWeights().getAllWeights().minus(b.getWeights().getAllWeights()).norm(Double.POSITIVE_INFINITY));
+        }
+        System.out.println("max weight difference between 1 and 3 shards = "+maxDifference);
+    }
+
+    private static void test2() throws Exception{
+        MultiLabelClfDataSet dataSet = dataSet();
+        List<ShardWorker> workers = ShardWorker.startLocal(dataSet, 4);
+        List<ShardClient> clients = clients(workers);
+        CBM cbm = newCBM(dataSet, 3);
+        ShardedCBMOptimizer optimizer = new ShardedCBMOptimizer(cbm, clients);
+        optimizer.initialize(0);
+        System.out.println("after initialization, negative log likelihood = "+optimizer.getNegativeLogLikelihood());
+        for (int iteration=1;iteration<=5;iteration++){
+            optimizer.iterate();
+            System.out.println("iteration "+iteration+", negative log likelihood = "+optimizer.getNegativeLogLikelihood());
+        }
+        double local = 0;
+        for (int i=0;i<dataSet.getNumDataPoints();i++){
+            local -= cbm.predictLogAssignmentProb(dataSet.getRow(i), dataSet.getMultiLabels()[i]);
+        }
+        System.out.println("computed locally = "+local);
+        close(clients);
+        close(workers);
+    }
+
+    // a failed shard does not leave stale replies on the others; an unknown request closes the connection
+    private static void test3() throws Exception{
+        MultiLabelClfDataSet dataSet = dataSet();
+        List<ShardWorker> workers = ShardWorker.startLocal(dataSet, 3);
+        List<ShardClient> clients = clients(workers);
+        ByteArrayOutputStream model = new ByteArrayOutputStream();
+        try (ObjectOutputStream objectOutputStream = new ObjectOutputStream(model)){
+            objectOutputStream.writeObject(newCBM(dataSet, 2));
+        }
+        try {
+            ShardClient.all(clients, shard -> shard.setModel(shard==clients.get(0) ? new byte[]{1, 2, 3} : model.toByteArray()));
+            System.out.println("bad model accepted");
+        } catch (RuntimeException e){
+            System.out.println("bad model: "+e.getMessage());
+        }
+        int numData = 0;
+        for (ShardClient.Info info: ShardClient.all(clients, ShardClient::info)){
+            numData += info.numData;
+        }
+        System.out.println("next round, data points = "+numData+" (expected "+dataSet.getNumDataPoints()+")");
+        try (Socket socket = new Socket("localhost", workers.get(0).getPort())){
+            socket.getOutputStream().write(99);
+            socket.getOutputStream().flush();
+            System.out.println("unknown request, reply = "+socket.getInputStream().read()+" (expected -1, closed)");
+        }
+        close(clients);
+        close(workers);
+    }
+}
@@ -0,0 +1,78 @@
+package edu.neu.ccs.pyramid.multilabel_classification.crf;
+
+import edu.neu.ccs.pyramid.dataset.Density;
+import edu.neu.ccs.pyramid.dataset.MLClfDataSetBuilder;
+import edu.neu.ccs.pyramid.dataset.MultiLabelClfDataSet;
+import org.apache.mahout.math.Vector;
+
+import java.util.Random;
+import java.util.stream.IntStream;
+
+public class ClassFeatureSumsTest {
+    public static void main(String[] args) {
+        test1();
+    }
+
+    // one sum per parameter, walking the column once per class
+    private static double naive(MultiLabelClfDataSet dataSet, double[][] probs, int classIndex, int featureIndex){
+        double count = 0;
+        if (featureIndex==-1){
+            for (int i=0;i<dataSet.getNumDataPoints();i++){
+                count += probs[i][classIndex];
+            }
+        } else {
+            for (Vector.Element element: dataSet.getColumn(featureIndex).nonZeroes()){
+                count += probs[element.index()][classIndex]*element.get();
+            }
+        }
+        return count;
+    }
+
+    private static void test1(){
+        Random random = new Random(0);
+        int numData = 5000;
+        int numFeatures = 2000;
+        int numClasses = 50;
+        MultiLabelClfDataSet dataSet = MLClfDataSetBuilder.getBuilder().numDataPoints(numData).numFeatures(numFeatures)
+                .numClasses(numClasses).density(Density.SPARSE_RANDOM).build();
+        for (int i=0;i<numData;i++){
+            for (int n=0;n<40;n++){
+                dataSet.setFeatureValue(i, random.nextInt(numFeatures), random.nextDouble());
+            }
+            dataSet.addLabel(i, random.nextInt(numClasses));
+        }
+        double[][] probs = new double[numData][numClasses];
+        for (int i=0;i<numData;i++){
+            for (int k=0;k<numClasses;k++){
+                probs[i][k] = random.nextDouble();
+            }
+        }
+        int numParameters = numClasses*(numFeatures+1);
+        for (int repeat=0;repeat<3;repeat++){
+            long start = System.nanoTime();
+            double[] expected = new double[numParameters];
+            IntStream.range(0, numParameters).parallel()
+                    .forEach(p -> expected[p] = naive(dataSet, probs, p/(numFeatures+1), p%(numFeatures+1)-1));
+            long naiveTime = System.nanoTime()-start;
+            start = System.nanoTime();
+            double[] sums = new double[numParameters];
+            ClassFeatureSums.sum(dataSet, probs, numClasses, false, sums);
+            long kernelTime = System.nanoTime()-start;
+            double maxDifference = 0;
+            for (int p=0;p<numParameters;p++){
+                maxDifference = Math.max(maxDifference, Math.abs(sums[p]-expected[p]));
+            }
+            System.out.println("max difference = "+maxDifference+", per parameter "+naiveTime/1000000
+                    +" ms, kernel "+kernelTime/1000000+" ms");
+        }
+
+        double[][] indicators = ClassFeatureSums.labelIndicators(dataSet);
+        double[] counts = new double[numParameters];
+        ClassFeatureSums.sum(dataSet, indicators, numClasses, false, counts);
+        double biasCounts = 0;
+        for (int k=0;k<numClasses;k++){
+            biasCounts += counts[k*(numFeatures+1)];
+        }
+        System.out.println("bias empirical counts sum to "+biasCounts+" (expected "+numData+")");
+    }
+}
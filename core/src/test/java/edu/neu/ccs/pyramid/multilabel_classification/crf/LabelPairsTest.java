@@ -0,0 +1,126 @@
+package edu.neu.ccs.pyramid.multilabel_classification.crf;
+
+import edu.neu.ccs.pyramid.dataset.MLClfDataSetBuilder;
+import edu.neu.ccs.pyramid.dataset.MultiLabelClfDataSet;
+import edu.neu.ccs.pyramid.util.BinaryModels;
+import edu.neu.ccs.pyramid.util.Pair;
+import edu.neu.ccs.pyramid.util.Serialization;
+import org.apache.mahout.math.Vector;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+public class LabelPairsTest {
+    private static final File FILE = new File("/tmp/label_pairs_test/model");
+
+    public static void main(String[] args) throws Exception{
+        test1();
+        test2();
+        test3();
+    }
+
+    // label 0 and 1 always together, 2 and 3 never together, 4 rare
+    private static MultiLabelClfDataSet dataSet(){
+        Random random = new Random(0);
+        MultiLabelClfDataSet dataSet = MLClfDataSetBuilder.getBuilder().numDataPoints(400).numFeatures(3)
+                .numClasses(5).build();
+        for (int i=0;i<dataSet.getNumDataPoints();i++){
+            for (int j=0;j<dataSet.getNumFeatures();j++){
+                dataSet.setFeatureValue(i, j, random.nextGaussian());
+            }
+            if (random.nextBoolean()){
+                dataSet.addLabel(i, 0);
+                dataSet.addLabel(i, 1);
+            }
+            dataSet.addLabel(i, random.nextBoolean() ? 2 : 3);
+            if (i==0){
+                dataSet.addLabel(i, 4);
+            }
+        }
+        return dataSet;
+    }
+
+    private static void randomize(CRFLoss loss, Random random){
+        Vector parameters = loss.getParameters().like();
+        for (int i=0;i<parameters.size();i++){
+            parameters.set(i, random.nextGaussian());
+        }
+        loss.setParameters(parameters);
+    }
+
+    private static void test1(){
+        MultiLabelClfDataSet dataSet = dataSet();
+        List<Pair<Integer,Integer>> labelPairs = LabelPairs.coOccurring(dataSet, 5);
+        System.out.println("co-occurring or conflicting pairs = "+new Weights(5, 3, labelPairs).getLabelPairs()
+                +" (expected (0,1),(0,2),(0,3),(1,2),(1,3),(2,3))");
+    }
+
+    // with the other pair weights at 0, the full model and the restricted model are the same model
+    private static void test2(){
+        MultiLabelClfDataSet dataSet = dataSet();
+        List<Pair<Integer,Integer>> labelPairs = Arrays.asList(new Pair<>(0, 1), new Pair<>(3, 2), new Pair<>(1, 4));
+        CMLCRF restricted = new CMLCRF(dataSet, labelPairs);
+        CRFLoss restrictedLoss = new CRFLoss(restricted, dataSet, 1);
+        restrictedLoss.setRegularizeAll(true);
+        randomize(restrictedLoss, new Random(1));
+
+        CMLCRF full = new CMLCRF(dataSet);
+        Weights fullWeights = full.getWeights();
+        Weights restrictedWeights = restricted.getWeights();
+        Vector parameters = fullWeights.getAllWeights().like();
+        int numFeatureWeights = fullWeights.getNumWeightsForFeatures();
+        for (int i=0;i<numFeatureWeights;i++){
+            parameters.set(i, restrictedWeights.getWeightForIndex(i));
+        }
+        int[] fullPositions = new int[restrictedWeights.getNumLabelPairs()];
+        for (int p=0;p<restrictedWeights.getNumLabelPairs();p++){
+            int fullPair = 0;
+            while (fullWeights.getFirstLabelOfPair(fullPair)!=restrictedWeights.getFirstLabelOfPair(p)
+                    || fullWeights.getSecondLabelOfPair(fullPair)!=restrictedWeights.getSecondLabelOfPair(p)){
+                fullPair += 1;
+            }
+            fullPositions[p] = numFeatureWeights+4*fullPair;
+            for (int c=0;c<4;c++){
+                parameters.set(fullPositions[p]+c, restrictedWeights.getWeightForIndex(numFeatureWeights+4*p+c));
+            }
+        }
+        CRFLoss fullLoss = new CRFLoss(full, dataSet, 1);
+        fullLoss.setRegularizeAll(true);
+        fullLoss.setParameters(parameters);
+
+        System.out.println("value: restricted = "+restrictedLoss.getValue()+", full = "+fullLoss.getValue());
+        Vector restrictedGradient = restrictedLoss.getGradient();
+        Vector fullGradient = fullLoss.getGradient();
+        double maxDifference = 0;
+        for (int i=0;i<numFeatureWeights;i++){
+            maxDifference = Math.max(maxDifference, Math.abs(restrictedGradient.get(i)-fullGradient.get(i)));
+        }
+        for (int p=0;p<fullPositions.length;p++){
+            for (int c=0;c<4;c++){
+                maxDifference = Math.max(maxDifference, Math.abs(restrictedGradient.get(numFeatureWeights+4*p+c)
+                        -fullGradient.get(fullPositions[p]+c)));
+            }
+        }
+        System.out.println("max gradient difference = "+maxDifference);
+        System.out.println("same predictions: "+Arrays.equals(restricted.predictCombinationProbs(dataSet.getRow(7)),
+                full.predictCombinationProbs(dataSet.getRow(7))));
+    }
+
+    private static void test3() throws Exception{
+        MultiLabelClfDataSet dataSet = dataSet();
+        CMLCRF cmlcrf = new CMLCRF(dataSet, LabelPairs.coOccurring(dataSet, 5));
+        randomize(new CRFLoss(cmlcrf, dataSet, 1), new Random(2));
+        BinaryModels.save(cmlcrf, FILE);
+        CMLCRF binary = (CMLCRF) BinaryModels.load(FILE);
+        Serialization.serialize(cmlcrf, FILE);
+        CMLCRF java = (CMLCRF) Serialization.deserialize(FILE);
+        java.updateCombLabelPartScores();
+        for (CMLCRF loaded: Arrays.asList(binary, java)){
+            System.out.println("pairs = "+loaded.getWeights().getNumLabelPairs()
+                    +", same predictions: "+Arrays.equals(cmlcrf.predictCombinationProbs(dataSet.getRow(3)),
+                    loaded.predictCombinationProbs(dataSet.getRow(3))));
+        }
+    }
+}
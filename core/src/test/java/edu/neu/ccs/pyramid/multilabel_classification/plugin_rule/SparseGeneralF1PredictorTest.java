@@ -0,0 +1,86 @@
+package edu.neu.ccs.pyramid.multilabel_classification.plugin_rule;
+
+import edu.neu.ccs.pyramid.dataset.MultiLabel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class SparseGeneralF1PredictorTest {
+    public static void main(String[] args) {
+        test1();
+        test2();
+    }
+
+    // same predictions as the dense version, with a few dozen active labels out of 10000
+    // the sparse version adds up the probabilities of all empty candidates, the dense one reads only the first;
+    // the dense version is given that sum on its first empty candidate
+    private static void test1(){
+        Random random = new Random(0);
+        int numClasses = 10000;
+        int disagreements = 0;
+        long denseTime = 0;
+        long sparseTime = 0;
+        for (int trial=0;trial<200;trial++){
+            int[] pool = random.ints(30, 0, numClasses).toArray();
+            List<MultiLabel> candidates = new ArrayList<>();
+            int numCandidates = 1+random.nextInt(50);
+            double[] probs = new double[numCandidates];
+            double sum = 0;
+            for (int c=0;c<numCandidates;c++){
+                MultiLabel multiLabel = new MultiLabel();
+                int size = random.nextInt(6);
+                for (int i=0;i<size;i++){
+                    multiLabel.addLabel(pool[random.nextInt(pool.length)]);
+                }
+                candidates.add(multiLabel);
+                probs[c] = random.nextDouble();
+                sum += probs[c];
+            }
+            for (int c=0;c<numCandidates;c++){
+                probs[c] /= sum;
+            }
+            double[] mergedProbs = probs.clone();
+            int firstEmpty = -1;
+            for (int c=0;c<numCandidates;c++){
+                if (candidates.get(c).getNumMatchedLabels()==0){
+                    if (firstEmpty==-1){
+                        firstEmpty = c;
+                    } else {
+                        mergedProbs[firstEmpty] += mergedProbs[c];
+                        mergedProbs[c] = 0;
+                    }
+                }
+            }
+            long start = System.nanoTime();
+            MultiLabel dense = new GeneralF1Predictor().predict(numClasses, candidates, mergedProbs);
+            long middle = System.nanoTime();
+            MultiLabel sparse = new SparseGeneralF1Predictor().predict(numClasses, candidates, probs);
+            long end = System.nanoTime();
+            denseTime += middle-start;
+            sparseTime += end-middle;
+            if (!dense.equals(sparse)){
+                disagreements += 1;
+            }
+            if (!new SparseGeneralF1Predictor().predict(numClasses, candidates).equals(
+                    new GeneralF1Predictor().predict(numClasses, candidates))){
+                disagreements += 1;
+            }
+        }
+        System.out.println("disagreements = "+disagreements);
+        System.out.println("dense time = "+denseTime/1E6+" ms, sparse time = "+sparseTime/1E6+" ms");
+    }
+
+    // two empty candidates of 0.3 each against {0} with 0.4: the sparse version sees 0.6 on the empty set and predicts it,
+    // the dense version sees only the first 0.3 and predicts {0}
+    private static void test2(){
+        List<MultiLabel> candidates = new ArrayList<>();
+        candidates.add(new MultiLabel());
+        candidates.add(new MultiLabel());
+        candidates.add(new MultiLabel().addLabel(0));
+        double[] probs = {0.3, 0.3, 0.4};
+        MultiLabel sparse = new SparseGeneralF1Predictor().predict(3, candidates, probs);
+        MultiLabel dense = new GeneralF1Predictor().predict(3, candidates, probs);
+        System.out.println("duplicate empty sets: sparse = "+sparse+" (expected {}), dense = "+dense+" (expected {0})");
+    }
+}
@@ -0,0 +1,58 @@
+package edu.neu.ccs.pyramid.regression.regression_tree;
+
+import edu.neu.ccs.pyramid.dataset.SparseDataSet;
+
+import java.util.Random;
+
+public class StumpScorerTest {
+    public static void main(String[] args) {
+        test1();
+    }
+
+    // scorer against root reductions of 2-leaf trees fitted on one-column data sets
+    private static void test1(){
+        int numData = 1000;
+        int numLabels = 5;
+        Random random = new Random(0);
+        double[][] labels = new double[numLabels][numData];
+        for (int l=0;l<numLabels;l++){
+            for (int i=0;i<numData;i++){
+                labels[l][i] = random.nextDouble()<0.2 ? 1 : 0;
+            }
+        }
+        StumpScorer scorer = new StumpScorer(labels);
+        double maxDifference = 0;
+        for (int f=0;f<50;f++){
+            int[] dataIndices = new int[numData];
+            double[] values = new double[numData];
+            int length = 0;
+            SparseDataSet dataSet = new SparseDataSet(numData, 1, false);
+            for (int i=0;i<numData;i++){
+                if (random.nextDouble()<0.1){
+                    // binary, counts and fractional values
+                    double value;
+                    switch (f%3){
+                        case 0:
+                            value = 1;
+                            break;
+                        case 1:
+                            value = 1+random.nextInt(4);
+                            break;
+                        default:
+                            value = random.nextDouble()-0.3;
+                    }
+                    dataIndices[length] = i;
+                    values[length] = value;
+                    length += 1;
+                    dataSet.setFeatureValue(i, 0, value);
+                }
+            }
+            double[] scores = scorer.scores(dataIndices, values, length);
+            for (int l=0;l<numLabels;l++){
+                RegressionTree tree = RegTreeTrainer.fit(new RegTreeConfig().setMaxNumLeaves(2), dataSet, labels[l]);
+                maxDifference = Math.max(maxDifference, Math.abs(tree.getRoot().getReduction()-scores[l]));
+            }
+        }
+        System.out.println("max difference = "+maxDifference);
+    }
+}
@@ -0,0 +1,162 @@
+package edu.neu.ccs.pyramid.serving;
+
+import edu.neu.ccs.pyramid.calibration.CardFeatureExtractor;
+import edu.neu.ccs.pyramid.calibration.IdentityLabelCalibrator;
+import edu.neu.ccs.pyramid.calibration.VectorIdentityCalibrator;
+import edu.neu.ccs.pyramid.dataset.LabelTranslator;
+import edu.neu.ccs.pyramid.dataset.MultiLabel;
+import edu.neu.ccs.pyramid.feature.Feature;
+import edu.neu.ccs.pyramid.feature.FeatureList;
+import edu.neu.ccs.pyramid.multilabel_classification.MultiLabelClassifier;
+import edu.neu.ccs.pyramid.util.Serialization;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.mahout.math.Vector;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+public class ModelServerTest {
+    public static void main(String[] args) throws Exception{
+        test1();
+        test2();
+    }
+
+    // label k is predicted when feature fk is positive; flipped models predict it when fk is negative
+    // a huge f0 throws an Error, as a broken model would
+    private static class SignModel implements MultiLabelClassifier.ClassProbEstimator{
+        private static final long serialVersionUID = 1L;
+        private final double sign;
+        private final FeatureList featureList = new FeatureList();
+        private final LabelTranslator labelTranslator = LabelTranslator.newDefaultLabelTranslator(2);
+
+        SignModel(double sign) {
+            this.sign = sign;
+            for (int k=0;k<2;k++){
+                Feature feature = new Feature();
+                feature.setName("f"+k);
+                featureList.add(feature);
+            }
+        }
+
+        @Override
+        public double[] predictClassProbs(Vector vector) {
+            if (vector.get(0)>1000){
+                throw new StackOverflowError();
+            }
+            double[] probs = new double[2];
+            for (int k=0;k<2;k++){
+                probs[k] = 1/(1+Math.exp(-sign*vector.get(k)));
+            }
+            return probs;
+        }
+
+        @Override
+        public int getNumClasses() {
+            return 2;
+        }
+
+        @Override
+        public MultiLabel predict(Vector vector) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public FeatureList getFeatureList() {
+            return featureList;
+        }
+
+        @Override
+        public LabelTranslator getLabelTranslator() {
+            return labelTranslator;
+        }
+    }
+
+    private static void writeModel(File directory, double sign) throws Exception{
+        Serialization.serialize(new SignModel(sign), new File(directory, "classifier"));
+        File calibrators = new File(new File(directory, "calibrators"), "cali");
+        Serialization.serialize(new IdentityLabelCalibrator(), new File(calibrators, "label_calibrator"));
+        Serialization.serialize(new VectorIdentityCalibrator(0), new File(calibrators, "set_calibrator"));
+        Serialization.serialize(new CardFeatureExtractor(), new File(calibrators, "prediction_feature_extractor"));
+    }
+
+    private static void test1() throws Exception{
+        File root = new File("/tmp/model_server_test");
+        FileUtils.deleteDirectory(root);
+        writeModel(new File(root, "v1"), 1);
+        ModelServer server = ModelServer.getBuilder().setModelRoot(root).setCalibratorFolder("cali")
+                .setMaxBatchSize(32).setMaxBatchDelayMillis(5).build();
+
+        Map<String, Double> document = new HashMap<>();
+        document.put("f0", 2.0);
+        document.put("f1", -3.0);
+        document.put("unknown", 1.0);
+        List<CompletableFuture<ModelBundle.Prediction>> futures = IntStream.range(0, 1000).parallel()
+                .mapToObj(i -> server.predict(document)).collect(Collectors.toList());
+        Set<List<String>> labels = new HashSet<>();
+        for (CompletableFuture<ModelBundle.Prediction> future: futures){
+            labels.add(future.get().getLabels());
+        }
+        System.out.println("version = "+server.getBundle().getVersion()+", predicted label sets = "+labels+" (expected [[0]])");
+        System.out.println("requests = "+server.getMetrics().getNumRequests()+", batches = "+server.getMetrics().getNumBatches());
+
+        // publish a new version by moving a complete directory into the root
+        File staging = new File("/tmp/model_server_test_staging/v2");
+        FileUtils.deleteDirectory(staging.getParentFile());
+        writeModel(staging, -1);
+        FileUtils.moveDirectory(staging, new File(root, "v2"));
+        System.out.println("reloaded = "+server.reload()+", version = "+server.getBundle().getVersion());
+        System.out.println("after reload = "+server.predict(document).get().getLabels()+" (expected [1])");
+
+        ModelHttpServer httpServer = new ModelHttpServer(server, "localhost", 0, 4);
+        httpServer.start();
+        String address = "http://localhost:"+httpServer.getAddress().getPort();
+        System.out.println(post(address+"/predict", "[{\"id\":\"a\",\"features\":{\"f0\":-1,\"f1\":-1}},{\"id\":\"b\",\"features\":{\"f0\":1}}]"));
+        System.out.println(post(address+"/predict", "{\"features\":{\"f0\":\"x\"}}"));
+        System.out.println(IOUtils.toString(new URL(address+"/metrics").openStream(), StandardCharsets.UTF_8));
+        httpServer.close();
+        server.close();
+    }
+
+    // an Error thrown by the model fails its batch, later requests are still scored
+    private static void test2() throws Exception{
+        File root = new File("/tmp/model_server_test");
+        FileUtils.deleteDirectory(root);
+        writeModel(new File(root, "v1"), 1);
+        ModelServer server = ModelServer.getBuilder().setModelRoot(root).setCalibratorFolder("cali").build();
+        Map<String, Double> broken = new HashMap<>();
+        broken.put("f0", 1e6);
+        try {
+            server.predict(broken).get(10, TimeUnit.SECONDS);
+            System.out.println("no error");
+        } catch (ExecutionException e){
+            System.out.println("failed with "+e.getCause().getClass().getSimpleName()+" (expected StackOverflowError)");
+        }
+        Map<String, Double> document = new HashMap<>();
+        document.put("f0", -1.0);
+        document.put("f1", 1.0);
+        System.out.println("after the error = "+server.predict(document).get(10, TimeUnit.SECONDS).getLabels()+" (expected [1])");
+        server.close();
+    }
+
+    private static String post(String url, String body) throws Exception{
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        try (OutputStream outputStream = connection.getOutputStream()){
+            outputStream.write(body.getBytes(StandardCharsets.UTF_8));
+        }
+        int status = connection.getResponseCode();
+        String response = IOUtils.toString(status<400 ? connection.getInputStream() : connection.getErrorStream(), StandardCharsets.UTF_8);
+        return status+" "+response;
+    }
+}
@@ -0,0 +1,179 @@
+package edu.neu.ccs.pyramid.util;
+
+import edu.neu.ccs.pyramid.classification.PriorProbClassifier;
+import edu.neu.ccs.pyramid.classification.lkboost.LKBoost;
+import edu.neu.ccs.pyramid.classification.logistic_regression.LogisticRegression;
+import edu.neu.ccs.pyramid.dataset.DataSet;
+import edu.neu.ccs.pyramid.dataset.DataSetBuilder;
+import edu.neu.ccs.pyramid.dataset.MultiLabel;
+import edu.neu.ccs.pyramid.multilabel_classification.cbm.CBM;
+import edu.neu.ccs.pyramid.multilabel_classification.crf.CMLCRF;
+import edu.neu.ccs.pyramid.multilabel_classification.imlgb.IMLGradientBoosting;
+import edu.neu.ccs.pyramid.regression.ConstantRegressor;
+import edu.neu.ccs.pyramid.regression.regression_tree.RegTreeConfig;
+import edu.neu.ccs.pyramid.regression.regression_tree.RegTreeTrainer;
+import edu.neu.ccs.pyramid.regression.regression_tree.RegressionTree;
+import org.apache.mahout.math.Vector;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Function;
+
+public class BinaryModelsTest {
+    private static final File FILE = new File("/tmp/binary_models_test/model");
+    private static final Random random = new Random(0);
+    private static final DataSet dataSet = dataSet();
+
+    public static void main(String[] args) throws Exception{
+        test1();
+        test2();
+        test3();
+        test4();
+        test5();
+        test6();
+    }
+
+    // dense, with missing values, so trees use their missing value probabilities
+    private static DataSet dataSet(){
+        DataSet dataSet = DataSetBuilder.getBuilder().numDataPoints(200).numFeatures(10)
+                .dense(true).missingValue(true).build();
+        for (int i=0;i<dataSet.getNumDataPoints();i++){
+            for (int j=0;j<dataSet.getNumFeatures();j++){
+                double value = random.nextDouble()<0.05 ? Double.NaN : random.nextGaussian();
+                dataSet.setFeatureValue(i, j, value);
+            }
+        }
+        return dataSet;
+    }
+
+    private static RegressionTree tree(){
+        double[] labels = new double[dataSet.getNumDataPoints()];
+        for (int i=0;i<labels.length;i++){
+            labels[i] = random.nextGaussian();
+        }
+        return RegTreeTrainer.fit(new RegTreeConfig().setMaxNumLeaves(6), dataSet, labels);
+    }
+
+    private static void randomize(Vector vector){
+        for (int i=0;i<vector.size();i++){
+            vector.set(i, random.nextGaussian());
+        }
+    }
+
+    // predictions of the saved and loaded models on every row
+    private static <M> boolean sameOutput(M model, M loaded, Function<M, Function<Vector, double[]>> output){
+        for (int i=0;i<dataSet.getNumDataPoints();i++){
+            Vector row = dataSet.getRow(i);
+            if (!Arrays.equals(output.apply(model).apply(row), output.apply(loaded).apply(row))){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <M> M roundTrip(M model) throws Exception{
+        BinaryModels.save(model, FILE);
+        return (M) BinaryModels.load(FILE);
+    }
+
+    private static void test1() throws Exception{
+        LogisticRegression dense = new LogisticRegression(3, dataSet.getNumFeatures(), true);
+        LogisticRegression sparse = new LogisticRegression(2, dataSet.getNumFeatures());
+        sparse.getWeights().getAllWeights().set(3, 1.5);
+        System.out.println("dense lr: "+sameOutput(dense, roundTrip(dense), m -> m::predictClassProbs));
+        System.out.println("sparse lr: "+sameOutput(sparse, roundTrip(sparse), m -> m::predictClassProbs));
+    }
+
+    private static void test2() throws Exception{
+        LKBoost boost = new LKBoost(3);
+        for (int k=0;k<3;k++){
+            boost.getEnsemble(k).add(new ConstantRegressor(k));
+            for (int t=0;t<5;t++){
+                boost.getEnsemble(k).add(tree());
+            }
+        }
+        LKBoost loaded = roundTrip(boost);
+        System.out.println("lkboost: "+sameOutput(boost, loaded, m -> m::predictClassScores));
+        RegressionTree tree = (RegressionTree) boost.getEnsemble(2).get(3);
+        RegressionTree loadedTree = (RegressionTree) loaded.getEnsemble(2).get(3);
+        System.out.println("leaves = "+loadedTree.getNumLeaves()+" (expected "+tree.getNumLeaves()+"), root reduction = "
+                +loadedTree.getRoot().getReduction()+" (expected "+tree.getRoot().getReduction()+")");
+    }
+
+    private static void test3() throws Exception{
+        IMLGradientBoosting boosting = new IMLGradientBoosting(4);
+        for (int k=0;k<4;k++){
+            for (int t=0;t<5;t++){
+                boosting.getRegressors(k).add(tree());
+            }
+        }
+        System.out.println("imlgb: "+sameOutput(boosting, roundTrip(boosting), m -> m::predictClassScores));
+    }
+
+    private static void test4() throws Exception{
+        List<MultiLabel> support = new ArrayList<>();
+        support.add(new MultiLabel());
+        support.add(new MultiLabel().addLabel(0));
+        support.add(new MultiLabel().addLabel(1).addLabel(2));
+        CMLCRF cmlcrf = new CMLCRF(3, dataSet.getNumFeatures(), support);
+        randomize(cmlcrf.getWeights().getAllWeights());
+        cmlcrf.setConsiderPair(true);
+        CMLCRF loaded = roundTrip(cmlcrf);
+        System.out.println("cmlcrf: "+sameOutput(cmlcrf, loaded, m -> m::predictCombinationProbs)
+                +", support = "+loaded.getSupportCombinations());
+    }
+
+    // mixture of lr, boosting and an embedded java serialized component
+    private static void test5() throws Exception{
+        CBM cbm = CBM.getBuilder().setNumClasses(3).setNumComponents(2).setNumFeatures(dataSet.getNumFeatures())
+                .setBinaryClassifierType("lr").setMultiClassClassifierType("lr").setDense(true).build();
+        for (int k=0;k<2;k++){
+            for (int l=0;l<3;l++){
+                randomize(((LogisticRegression) cbm.getBinaryClassifiers()[k][l]).getWeights().getAllWeights());
+            }
+        }
+        LKBoost boost = new LKBoost(2);
+        boost.getEnsemble(1).add(tree());
+        cbm.getBinaryClassifiers()[0][1] = boost;
+        cbm.getBinaryClassifiers()[1][2] = new PriorProbClassifier(new double[]{0.3, 0.7});
+        CBM loaded = roundTrip(cbm);
+        System.out.println("cbm: "+sameOutput(cbm, loaded, m -> m::predictClassProbs)
+                +", component types = "+loaded.getBinaryClassifiers()[0][1].getClass().getSimpleName()
+                +", "+loaded.getBinaryClassifiers()[1][2].getClass().getSimpleName());
+    }
+
+    // small chunks, so arrays and blobs cross chunk boundaries; loading through Serialization; load time
+    private static void test6() throws Exception{
+        LKBoost boost = new LKBoost(2);
+        for (int t=0;t<20;t++){
+            boost.getEnsemble(t%2).add(tree());
+        }
+        BinaryModels.save(boost, FILE);
+        BinaryModelInput in = new BinaryModelInput(FILE, 64);
+        in.readInt();
+        in.readInt();
+        LKBoost chunked = (LKBoost) BinaryModels.readModel(in);
+        System.out.println("chunked: "+sameOutput(boost, chunked, m -> m::predictClassScores));
+        LKBoost viaSerialization = (LKBoost) Serialization.deserialize(FILE);
+        System.out.println("via Serialization: "+sameOutput(boost, viaSerialization, m -> m::predictClassScores));
+
+        LogisticRegression large = new LogisticRegression(50, 100000, true);
+        File javaFile = new File("/tmp/binary_models_test/java");
+        Serialization.serialize(large, javaFile);
+        BinaryModels.save(large, FILE);
+        for (int repeat=0;repeat<3;repeat++){
+            long start = System.nanoTime();
+            Serialization.deserialize(javaFile);
+            long java = System.nanoTime()-start;
+            start = System.nanoTime();
+            BinaryModels.load(FILE);
+            long binary = System.nanoTime()-start;
+            System.out.println("load 5M weights: java "+java/1000000+" ms, binary "+binary/1000000+" ms");
+        }
+        System.out.println("java "+javaFile.length()+" bytes, binary "+FILE.length()+" bytes");
+    }
+}